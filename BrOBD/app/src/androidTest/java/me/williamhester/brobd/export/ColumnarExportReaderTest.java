@@ -0,0 +1,137 @@
+package me.williamhester.brobd.export;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.storage.SampleMerger;
+import me.williamhester.brobd.storage.SeriesEncoder;
+import me.williamhester.brobd.storage.SeriesSource;
+
+/**
+ * Lays out a file the way {@link ColumnarExportWriter} does, without a Realm, and streams it back.
+ *
+ * @author William Hester
+ */
+public class ColumnarExportReaderTest extends TestCase {
+
+    private static final long START = 1430000000000L;
+
+    private File mFile;
+    private DataOutputStream mOut;
+    private ByteArrayOutputStream mChunkBytes;
+    private DataOutputStream mChunks;
+    private int mChunkCount;
+    private long mOffset;
+
+    @Override
+    protected void setUp() throws IOException {
+        mFile = File.createTempFile("export", ".brc");
+        mOut = new DataOutputStream(new FileOutputStream(mFile));
+        mOut.writeInt(ColumnarExportReader.MAGIC);
+        mOut.writeShort(ColumnarExportReader.VERSION);
+        mOffset = ColumnarExportReader.PREAMBLE_SIZE;
+        mChunkBytes = new ByteArrayOutputStream();
+        mChunks = new DataOutputStream(mChunkBytes);
+    }
+
+    @Override
+    protected void tearDown() {
+        mFile.delete();
+    }
+
+    public void testMergesChunksBackIntoSamples() throws IOException {
+        // RPM every 100 ms across two chunks, speed every 200 ms
+        writeChunk(0, Pid.RPM, 0, 10, 100);
+        writeChunk(0, Pid.RPM, 10, 10, 100);
+        writeChunk(0, Pid.SPEED, 0, 10, 200);
+        writeChunk(1, Pid.RPM, 1000, 5, 100);
+        finish("a", "b");
+
+        ColumnarExportReader reader = new ColumnarExportReader(mFile);
+        assertEquals(2, reader.getSessionCount());
+        assertEquals("a", reader.getSessionId(0));
+        assertEquals("Driver a", reader.getDriverName(0));
+        assertEquals(START, reader.getStartTime(0));
+        assertEquals(30, reader.getSampleCount(0));
+        assertEquals(5, reader.getSampleCount(1));
+
+        SampleMerger merger = reader.openSamples(0);
+        for (int i = 0; i < 20; i++) {
+            assertTrue(merger.next());
+            assertEquals(START + i * 100, merger.getTimestamp());
+            float[] sample = merger.getSample();
+            assertEquals((float) i, sample[Pid.RPM.ordinal()]);
+            if (i % 2 == 0) {
+                assertEquals((float) i / 2, sample[Pid.SPEED.ordinal()]);
+            } else {
+                assertTrue(Float.isNaN(sample[Pid.SPEED.ordinal()]));
+            }
+            assertTrue(Float.isNaN(sample[Pid.THROTTLE.ordinal()]));
+        }
+        assertFalse(merger.next());
+
+        SeriesSource second = reader.openSeries(1, Pid.RPM);
+        int count = 0;
+        while (second.next()) {
+            assertEquals(START + (1000 + count) * 100L, second.getTimestamp());
+            count++;
+        }
+        assertEquals(5, count);
+        assertFalse(reader.openSeries(1, Pid.SPEED).next());
+        reader.close();
+    }
+
+    public void testRejectsATruncatedFile() throws IOException {
+        writeChunk(0, Pid.RPM, 0, 10, 100);
+        mOut.close();
+        try {
+            new ColumnarExportReader(mFile);
+            fail("Read a file without an index");
+        } catch (IOException e) {
+            // Expected, the index was never written
+        }
+    }
+
+    private void writeChunk(int session, Pid pid, int first, int count, long interval)
+            throws IOException {
+        SeriesEncoder encoder = new SeriesEncoder();
+        for (int i = 0; i < count; i++) {
+            encoder.append(START + (first + i) * interval, (float) (first + i));
+        }
+        byte[] data = encoder.seal();
+        mOut.write(data);
+        mChunks.writeInt(session);
+        mChunks.writeShort(pid.getCode());
+        mChunks.writeInt(count);
+        mChunks.writeLong(encoder.getFirstTimestamp());
+        mChunks.writeLong(encoder.getLastTimestamp());
+        mChunks.writeLong(mOffset);
+        mChunks.writeInt(data.length);
+        mChunkCount++;
+        mOffset += data.length;
+    }
+
+    private void finish(String... sessionIds) throws IOException {
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(index);
+        out.writeInt(sessionIds.length);
+        for (String id : sessionIds) {
+            out.writeUTF(id);
+            out.writeUTF("Driver " + id);
+            out.writeLong(START);
+            out.writeLong(START + 60000);
+        }
+        out.writeInt(mChunkCount);
+        mChunkBytes.writeTo(out);
+        index.writeTo(mOut);
+        mOut.writeInt(index.size());
+        mOut.writeInt(ColumnarExportReader.MAGIC);
+        mOut.close();
+    }
+}
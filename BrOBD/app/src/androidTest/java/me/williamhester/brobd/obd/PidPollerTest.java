@@ -0,0 +1,187 @@
+package me.williamhester.brobd.obd;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses mode 01 answers of several ECUs, and makes sure that nothing past a byte that isn't a
+ * PID is taken for data. Also checks when the poller gives up on batching PIDs.
+ *
+ * @author William Hester
+ */
+public class PidPollerTest extends TestCase {
+
+    public void testParsesAnswersOfSeveralEcus() {
+        float[] values = new float[Pid.values().length];
+        boolean[] answered = new boolean[values.length];
+        assertEquals(2, parse("41 0C 1A F8\r41 0D 3C", values, answered));
+        assertEquals(1726f, values[Pid.RPM.ordinal()], 0f);
+        assertEquals(60f, values[Pid.SPEED.ordinal()], 0f);
+    }
+
+    public void testParsesFramedAnswers() {
+        float[] values = new float[Pid.values().length];
+        boolean[] answered = new boolean[values.length];
+        // The last frame is padded out
+        assertEquals(3, parse("008\r0: 41 0C 1A F8 0D 3C\r1: 11 33 55 55 55 55 55", values,
+                answered));
+        assertEquals(20f, values[Pid.THROTTLE.ordinal()], 0f);
+    }
+
+    public void testStopsAtUnknownPid() {
+        float[] values = new float[Pid.values().length];
+        boolean[] answered = new boolean[values.length];
+        // The 41 after the unknown byte is data, not the start of another answer
+        assertEquals(1, parse("41 0C 1A F8 99 41 0D 3C", values, answered));
+        assertFalse(answered[Pid.SPEED.ordinal()]);
+    }
+
+    public void testKeepsBatchingAfterAFewShortAnswers() throws IOException {
+        FakeVehicle vehicle = new FakeVehicle();
+        PidPoller poller = new PidPoller(PIDS);
+        poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+        // A lost frame leaves every PID but the first out of a batch, more than once
+        for (int i = 0; i < PidPoller.MAX_SHORT_BATCHES - 1; i++) {
+            vehicle.mFirstOnly = true;
+            poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+        }
+        vehicle.mFirstOnly = false;
+        poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+        assertTrue(poller.isMultiPidSupported());
+        assertTrue(poller.hasValue(Pid.THROTTLE));
+    }
+
+    public void testStopsBatchingAfterRepeatedShortAnswers() throws IOException {
+        FakeVehicle vehicle = new FakeVehicle();
+        vehicle.mFirstOnly = true;
+        PidPoller poller = new PidPoller(PIDS);
+        // The first poll only finds out which PIDs the vehicle supports at all
+        poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+        assertTrue(poller.isMultiPidSupported());
+        assertTrue(poller.hasValue(Pid.SPEED));
+        for (int i = 0; i < PidPoller.MAX_SHORT_BATCHES; i++) {
+            assertTrue(poller.isMultiPidSupported());
+            poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+        }
+        assertFalse(poller.isMultiPidSupported());
+        assertTrue(poller.hasValue(Pid.THROTTLE));
+    }
+
+    public void testStopsBatchingWhenRejected() throws IOException {
+        FakeVehicle vehicle = new FakeVehicle();
+        vehicle.mRejectBatches = true;
+        PidPoller poller = new PidPoller(PIDS);
+        poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+        assertFalse(poller.isMultiPidSupported());
+        // Each PID was asked for on its own instead
+        assertTrue(poller.hasValue(Pid.RPM));
+        assertTrue(poller.hasValue(Pid.THROTTLE));
+    }
+
+    public void testTellsTimeoutsFromMissingAnswers() throws IOException {
+        FakeVehicle vehicle = new FakeVehicle();
+        PidPoller poller = new PidPoller(PIDS);
+        poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+
+        vehicle.mSilent = true;
+        poller.poll(vehicle.getInputStream(), vehicle.getOutputStream());
+        assertFalse(poller.hasValue(Pid.RPM));
+        assertTrue(poller.isTimedOut(Pid.RPM));
+        assertTrue(poller.isTimedOut(Pid.THROTTLE));
+
+        // Left out of an answer that did arrive, so not timed out
+        vehicle.mSilent = false;
+        vehicle.mFirstOnly = true;
+        poller.poll(Arrays.asList(Pid.RPM, Pid.SPEED), vehicle.getInputStream(),
+                vehicle.getOutputStream());
+        assertTrue(poller.hasValue(Pid.RPM));
+        assertFalse(poller.isTimedOut(Pid.RPM));
+        assertFalse(poller.isTimedOut(Pid.THROTTLE));
+    }
+
+    private static int parse(String response, float[] values, boolean[] answered) {
+        byte[] bytes = response.getBytes();
+        return PidPoller.parseResponse(bytes, bytes.length, new int[64], values, answered);
+    }
+
+    private static final List<Pid> PIDS = Arrays.asList(Pid.RPM, Pid.SPEED, Pid.THROTTLE);
+
+    /**
+     * Answers each mode 01 request as soon as it has been written, either with every PID that was
+     * asked for, with only the first one, with "?" if more than one was asked for, or not at all.
+     */
+    private static class FakeVehicle {
+
+        boolean mFirstOnly;
+        boolean mRejectBatches;
+        boolean mSilent;
+        private final StringBuilder mRequest = new StringBuilder();
+        private byte[] mResponse = new byte[0];
+        private int mPosition;
+
+        InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return mPosition < mResponse.length ? mResponse[mPosition++] : -1;
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    int n = Math.min(length, available());
+                    System.arraycopy(mResponse, mPosition, buffer, offset, n);
+                    mPosition += n;
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return mResponse.length - mPosition;
+                }
+            };
+        }
+
+        OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    if (b == '\r') {
+                        answer(mRequest.toString().split(" "));
+                        mRequest.setLength(0);
+                    } else {
+                        mRequest.append((char) b);
+                    }
+                }
+            };
+        }
+
+        private void answer(String[] request) {
+            StringBuilder response = new StringBuilder();
+            if (mSilent) {
+                mResponse = new byte[0];
+                mPosition = 0;
+                return;
+            }
+            int pidCount = request.length - 1;
+            if (pidCount > 1 && mRejectBatches) {
+                response.append('?');
+            } else {
+                response.append("41");
+                for (int i = 1; i <= (mFirstOnly ? 1 : pidCount); i++) {
+                    Pid pid = Pid.fromCode(Integer.parseInt(request[i], 16));
+                    response.append(' ').append(request[i]);
+                    for (int j = 0; j < pid.getByteCount(); j++) {
+                        response.append(" 20");
+                    }
+                }
+            }
+            mResponse = response.append("\r\r>").toString().getBytes();
+            mPosition = 0;
+        }
+    }
+}
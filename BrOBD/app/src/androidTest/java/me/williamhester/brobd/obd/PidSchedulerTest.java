@@ -0,0 +1,97 @@
+package me.williamhester.brobd.obd;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that deadlines stay on each PID's grid, whatever the round trips take.
+ *
+ * @author William Hester
+ */
+public class PidSchedulerTest extends TestCase {
+
+    public void testSlowRoundTripsDontDrift() {
+        PidScheduler scheduler = new PidScheduler(Arrays.asList(Pid.RPM));
+        scheduler.setTargetPeriod(Pid.RPM, 100);
+
+        poll(scheduler, 1000, 1000);
+        assertEquals(1100, scheduler.getNextDeadline());
+        // Every answer comes back 30 ms after it was asked for
+        for (long slot = 1100; slot < 2000; slot += 100) {
+            assertEquals(slot, scheduler.getNextDeadline());
+            poll(scheduler, slot, slot + 30);
+        }
+        assertEquals(2000, scheduler.getNextDeadline());
+        assertEquals(0, scheduler.getSkippedTicks());
+    }
+
+    public void testLateAnswersSkipSlots() {
+        PidScheduler scheduler = new PidScheduler(Arrays.asList(Pid.RPM));
+        scheduler.setTargetPeriod(Pid.RPM, 100);
+
+        poll(scheduler, 1000, 1000);
+        // The answer to the 1100 slot only comes back at 1350, so 1200 and 1300 are missed
+        poll(scheduler, 1100, 1350);
+        assertEquals(1400, scheduler.getNextDeadline());
+        assertEquals(2, scheduler.getSkippedTicks());
+
+        // Landing exactly on a slot doesn't miss it
+        poll(scheduler, 1400, 1500);
+        assertEquals(1500, scheduler.getNextDeadline());
+        assertEquals(2, scheduler.getSkippedTicks());
+    }
+
+    public void testFreshSchedulerKeepsTargetPeriods() {
+        List<Pid> pids = Arrays.asList(Pid.values());
+        PidScheduler scheduler = new PidScheduler(pids);
+
+        // Long after the clock started, nothing is overdue yet
+        long start = 3600000;
+        List<Pid> batch = scheduler.nextBatch(start, pids.size());
+        assertEquals(pids.size(), batch.size());
+        assertFalse(scheduler.isSaturated());
+        for (Pid pid : pids) {
+            assertEquals(pid.getDefaultPeriod(), scheduler.getPeriod(pid));
+        }
+    }
+
+    public void testGridStartsAtFirstAnswer() {
+        PidScheduler scheduler = new PidScheduler(Arrays.asList(Pid.RPM));
+        scheduler.setTargetPeriod(Pid.RPM, 100);
+
+        scheduler.nextBatch(1000, 1);
+        scheduler.onPolled(Pid.RPM, false, 1000);
+        // Unanswered, so it's retried a backed off period later without anchoring the grid
+        assertEquals(1000 + 100 * PidScheduler.MAX_BACKOFF, scheduler.getNextDeadline());
+
+        scheduler.nextBatch(1800, 1);
+        scheduler.onPolled(Pid.RPM, true, 1830);
+        assertEquals(1830 + 100 * PidScheduler.MAX_BACKOFF, scheduler.getNextDeadline());
+        assertEquals(0, scheduler.getSkippedTicks());
+    }
+
+    public void testTimeoutsDontBackOff() {
+        PidScheduler scheduler = new PidScheduler(Arrays.asList(Pid.RPM));
+        scheduler.setTargetPeriod(Pid.RPM, 100);
+
+        poll(scheduler, 1000, 1000);
+        // The request for the 1100 slot is given up on at 1250; the next slot after that is 1300
+        scheduler.nextBatch(1100, 1);
+        scheduler.onTimedOut(Pid.RPM, 1250);
+        assertEquals(100, scheduler.getPeriod(Pid.RPM));
+        assertEquals(1300, scheduler.getNextDeadline());
+
+        // A real NO DATA still backs off
+        scheduler.nextBatch(1300, 1);
+        scheduler.onPolled(Pid.RPM, false, 1320);
+        assertEquals(100 * PidScheduler.MAX_BACKOFF, scheduler.getPeriod(Pid.RPM));
+    }
+
+    private static void poll(PidScheduler scheduler, long requestedAt, long answeredAt) {
+        List<Pid> batch = scheduler.nextBatch(requestedAt, 1);
+        assertEquals(1, batch.size());
+        scheduler.onPolled(batch.get(0), true, answeredAt);
+    }
+}
@@ -0,0 +1,76 @@
+package me.williamhester.brobd.obd;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import me.williamhester.brobd.transport.Elm327Emulator;
+import me.williamhester.brobd.transport.SimulatedVehicle;
+
+/**
+ * Connects to the emulator cold, then again with what was learned the first time.
+ *
+ * @author William Hester
+ */
+public class ProtocolNegotiatorTest extends TestCase {
+
+    private static final long SEARCH_LATENCY = 500L;
+
+    public void testWarmStartSkipsTheSearch() throws IOException {
+        SimulatedVehicle vehicle = new SimulatedVehicle();
+        vehicle.setSupported(Pid.FUEL_RATE, false);
+
+        ProtocolNegotiator negotiator = new ProtocolNegotiator();
+        VehicleProfile cold = negotiate(negotiator, vehicle, null);
+        assertFalse(negotiator.wasWarmStart());
+        assertTrue(negotiator.getDuration() >= SEARCH_LATENCY);
+        assertEquals(Elm327Emulator.VEHICLE_PROTOCOL, cold.getProtocol());
+        assertTrue(cold.isSupported(Pid.RPM));
+        assertTrue(cold.isSupported(Pid.FUEL_LEVEL));
+        assertFalse(cold.isSupported(Pid.FUEL_RATE));
+        assertEquals(Arrays.asList(Pid.RPM, Pid.SPEED),
+                cold.filter(Arrays.asList(Pid.RPM, Pid.FUEL_RATE, Pid.SPEED)));
+
+        VehicleProfile cached = VehicleProfile.decode(cold.encode());
+        VehicleProfile warm = negotiate(negotiator, vehicle, cached);
+        assertTrue(negotiator.wasWarmStart());
+        assertTrue(negotiator.getDuration() < SEARCH_LATENCY);
+        assertEquals(cold.encode(), warm.encode());
+    }
+
+    public void testFallsBackToSearching() throws IOException {
+        SimulatedVehicle vehicle = new SimulatedVehicle();
+        // The adapter was last used on a car with another protocol
+        VehicleProfile stale = new VehicleProfile('3', new int[] {0x80000000});
+
+        ProtocolNegotiator negotiator = new ProtocolNegotiator();
+        VehicleProfile profile = negotiate(negotiator, vehicle, stale);
+        assertFalse(negotiator.wasWarmStart());
+        assertEquals(Elm327Emulator.VEHICLE_PROTOCOL, profile.getProtocol());
+        assertTrue(profile.isSupported(Pid.FUEL_RATE));
+    }
+
+    public void testProfileRoundTrip() {
+        VehicleProfile profile = new VehicleProfile('6', new int[] {0xBE1FA813, 0x80000001, 0x1});
+        assertEquals("6:BE1FA813,80000001,00000001", profile.encode());
+        VehicleProfile decoded = VehicleProfile.decode(profile.encode());
+        assertEquals(profile.encode(), decoded.encode());
+        assertTrue(decoded.isSupported(0x01));
+        assertTrue(decoded.isSupported(0x21));
+        assertTrue(decoded.isSupported(0x60));
+        assertFalse(decoded.isSupported(0x02));
+        assertNull(VehicleProfile.decode("6:nope"));
+        assertNull(VehicleProfile.decode(null));
+    }
+
+    private static VehicleProfile negotiate(ProtocolNegotiator negotiator,
+                                            SimulatedVehicle vehicle, VehicleProfile cached)
+            throws IOException {
+        Elm327Emulator emulator = new Elm327Emulator(vehicle, 0);
+        emulator.setSearchLatency(SEARCH_LATENCY);
+        emulator.getOutputStream().write("ATE0\r".getBytes());
+        new ResponseReader().read(emulator.getInputStream(), 1000);
+        return negotiator.negotiate(emulator.getInputStream(), emulator.getOutputStream(), cached);
+    }
+}
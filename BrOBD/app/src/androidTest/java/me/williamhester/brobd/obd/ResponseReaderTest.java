@@ -0,0 +1,71 @@
+package me.williamhester.brobd.obd;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import me.williamhester.brobd.transport.Elm327Emulator;
+import me.williamhester.brobd.transport.SimulatedVehicle;
+
+/**
+ * Checks the framing of responses and that a stalled adapter can't hold up polling for longer
+ * than the deadline.
+ *
+ * @author William Hester
+ */
+public class ResponseReaderTest extends TestCase {
+
+    public void testReadsUpToThePrompt() throws IOException {
+        ResponseReader reader = new ResponseReader(8);
+        ByteArrayInputStream in =
+                new ByteArrayInputStream("41 0D 3C\r\r>41 0C 1A F8\r\r>".getBytes());
+
+        // The response is longer than the buffer, so its tail is thrown away
+        assertEquals(8, reader.read(in, 100));
+        assertEquals("41 0D 3C", new String(reader.getBuffer(), 0, 8));
+        // As is everything after the prompt
+        assertEquals(2 + 14, reader.getDiscardedCount());
+        assertEquals(0, in.available());
+        assertEquals(-1, reader.read(in, 10));
+    }
+
+    public void testParsesHex() {
+        byte[] bytes = "41 0C 1A F8".getBytes();
+        assertEquals(0x1AF8, ResponseReader.parseHex(bytes, 6, 11));
+        assertEquals(0x410C, ResponseReader.parseHex(bytes, 0, 5));
+        assertEquals(-1, ResponseReader.parseHex("NO DATA".getBytes(), 0, 7));
+        assertEquals(-1, ResponseReader.parseHex(bytes, 2, 3));
+    }
+
+    public void testStalledAdapterTimesOut() throws IOException {
+        Elm327Emulator emulator = new Elm327Emulator(new SimulatedVehicle(), 0);
+        emulator.getOutputStream().write("ATE0\r".getBytes());
+        new ResponseReader().read(emulator.getInputStream(), 1000);
+
+        PidPoller poller = new PidPoller(Arrays.asList(Pid.RPM, Pid.SPEED));
+        assertTrue(poller.configureTimeouts(emulator.getInputStream(),
+                emulator.getOutputStream()));
+        assertEquals(PidPoller.DEFAULT_ADAPTER_TIMEOUT, emulator.getTimeout());
+        assertEquals(1, emulator.getAdaptiveTiming());
+        poller.poll(emulator.getInputStream(), emulator.getOutputStream());
+        assertTrue(poller.hasValue(Pid.RPM));
+
+        emulator.setErrorRates(0, 0, 1);
+        long start = System.nanoTime();
+        poller.poll(emulator.getInputStream(), emulator.getOutputStream());
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        assertFalse(poller.hasValue(Pid.RPM));
+        assertEquals(1, poller.getTimeoutCount());
+        // The adapter's timeout plus some slack for the link, and nowhere near a stall
+        assertTrue("Waited " + elapsed + " ms", elapsed < 1000);
+        // A timeout isn't a sign that the adapter can't batch
+        assertTrue(poller.isMultiPidSupported());
+
+        emulator.setErrorRates(0, 0, 0);
+        poller.poll(emulator.getInputStream(), emulator.getOutputStream());
+        assertTrue(poller.hasValue(Pid.RPM));
+        assertTrue(poller.getLatencies().size() >= 3);
+    }
+}
@@ -0,0 +1,190 @@
+package me.williamhester.brobd.obd;
+
+import android.os.Debug;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import me.williamhester.brobd.storage.DriveLog;
+import me.williamhester.brobd.storage.SampleHistory;
+import me.williamhester.brobd.storage.SampleRingBuffer;
+
+/**
+ * Makes sure that the steady-state logging loop doesn't allocate, with the drive log, the sample
+ * history and the trouble code scanner all in use. The adapter is faked by a pair of streams that
+ * answer every PID request with the same canned multi-PID response, and each trouble code request
+ * with a canned answer of its own.
+ */
+public class SampleCollectorAllocationTest extends TestCase {
+
+    private static final int WARM_UP_TICKS = 100;
+    private static final int TICKS = 1000;
+    // Leaves a little room for one-off allocations by the runtime, but not one per tick.
+    private static final int ALLOCATION_BUDGET = 10;
+
+    private static final byte[] RESPONSE = "41 0C 1A F8 0D 20 11 33 \r\r>".getBytes();
+    private static final byte[] STATUS_RESPONSE = "41 01 81 07 65 04 \r\r>".getBytes();
+    private static final byte[] STORED_RESPONSE = "43 01 33 00 00 00 00 \r\r>".getBytes();
+    private static final byte[] PENDING_RESPONSE = "47 00 00 00 00 00 00 \r\r>".getBytes();
+    private static final long SCAN_INTERVAL = 60000L;
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private File mLogFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mLogFile = File.createTempFile("drive", ".log");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mLogFile.delete();
+        super.tearDown();
+    }
+
+    public void testTickDoesNotAllocate() throws Exception {
+        SampleRingBuffer buffer = new SampleRingBuffer(16, Pid.values().length,
+                SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        PidScheduler scheduler = new PidScheduler(Arrays.asList(Pid.RPM, Pid.SPEED, Pid.THROTTLE));
+        // Make everything due on every tick, so every tick goes out to the "adapter".
+        scheduler.setTargetPeriod(Pid.RPM, 0);
+        scheduler.setTargetPeriod(Pid.SPEED, 0);
+        scheduler.setTargetPeriod(Pid.THROTTLE, 0);
+        FakeClock clock = new FakeClock();
+        PidPoller poller = new PidPoller(Arrays.asList(Pid.RPM, Pid.SPEED, Pid.THROTTLE));
+        SampleCollector collector = new SampleCollector(poller, scheduler, buffer, clock);
+        int[] pidCodes = new int[buffer.getWidth()];
+        for (Pid pid : Pid.values()) {
+            pidCodes[pid.ordinal()] = pid.getCode();
+        }
+        DriveLog log = new DriveLog(mLogFile, System.currentTimeMillis(), "Driver", pidCodes);
+        collector.setLog(log);
+        final TroubleCodeScanner scanner = new TroubleCodeScanner(SCAN_INTERVAL,
+                poller.getReader());
+        final int[] freezeFrames = new int[1];
+        collector.setTroubleCodeScanner(scanner,
+                new SampleHistory(256, buffer.getWidth(), 1000L),
+                new SampleCollector.TroubleCodeListener() {
+                    @Override
+                    public void onNewTroubleCodes(TroubleCodeScanner s, SampleHistory frame) {
+                        freezeFrames[0]++;
+                    }
+                });
+        FakeAdapter adapter = new FakeAdapter();
+        InputStream in = adapter.getInputStream();
+        OutputStream out = adapter.getOutputStream();
+        float[] sample = new float[buffer.getWidth()];
+
+        // Every tick leaves the PIDs due, so the scan only gets in once it has been starved
+        clock.mMillis = SCAN_INTERVAL;
+        for (int i = 0; i < WARM_UP_TICKS; i++) {
+            collector.tick(in, out);
+            buffer.poll(sample);
+        }
+        assertEquals(Arrays.asList("P0133"), scanner.getStoredCodes());
+        assertEquals(1, freezeFrames[0]);
+        // From here on, the next scan is due but waiting for a gap on every tick
+        clock.mMillis = SCAN_INTERVAL * 2;
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        for (int i = 0; i < TICKS; i++) {
+            assertTrue(collector.tick(in, out));
+            buffer.poll(sample);
+        }
+        Debug.stopAllocCounting();
+        int allocations = Debug.getThreadAllocCount();
+
+        log.close();
+
+        assertTrue(collector.getPoller().isMultiPidSupported());
+        assertEquals(1726f, sample[Pid.RPM.ordinal()], 0f);
+        assertEquals(WARM_UP_TICKS + TICKS, log.getRecordCount());
+        assertTrue(scanner.isDue(clock.mMillis));
+        assertTrue("Allocated " + allocations + " objects in " + TICKS + " ticks",
+                allocations <= ALLOCATION_BUDGET);
+    }
+
+    private static class FakeClock implements MonotonicClock {
+
+        long mMillis;
+
+        @Override
+        public long nanoTime() {
+            return mMillis * NANOS_PER_MILLI;
+        }
+    }
+
+    /**
+     * Answers each request once it has been written, by looking at how the request starts.
+     */
+    private static class FakeAdapter {
+
+        private final byte[] mRequest = new byte[8];
+        private int mRequestLength;
+        private byte[] mResponse;
+        private int mPosition;
+
+        InputStream getInputStream() {
+            return new InputStream() {
+                @Override
+                public int read() {
+                    return mResponse[mPosition++];
+                }
+
+                @Override
+                public int read(byte[] buffer, int offset, int length) {
+                    int n = Math.min(length, available());
+                    System.arraycopy(mResponse, mPosition, buffer, offset, n);
+                    mPosition += n;
+                    return n;
+                }
+
+                @Override
+                public int available() {
+                    return mResponse != null ? mResponse.length - mPosition : 0;
+                }
+            };
+        }
+
+        OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    if (b == '\r') {
+                        answer();
+                        mRequestLength = 0;
+                    } else if (mRequestLength < mRequest.length) {
+                        mRequest[mRequestLength++] = (byte) b;
+                    }
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    for (int i = off; i < off + len; i++) {
+                        write(b[i]);
+                    }
+                }
+            };
+        }
+
+        private void answer() {
+            if (mRequest[1] == '3') {
+                mResponse = STORED_RESPONSE;
+            } else if (mRequest[1] == '7') {
+                mResponse = PENDING_RESPONSE;
+            } else if (mRequestLength == 5 && mRequest[3] == '0' && mRequest[4] == '1') {
+                mResponse = STATUS_RESPONSE;
+            } else {
+                mResponse = RESPONSE;
+            }
+            mPosition = 0;
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package me.williamhester.brobd.obd;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.williamhester.brobd.transport.Elm327Emulator;
+import me.williamhester.brobd.transport.SimulatedVehicle;
+
+/**
+ * Scans the emulator for trouble codes, and parses the answers of vehicles that aren't on CAN.
+ *
+ * @author William Hester
+ */
+public class TroubleCodeScannerTest extends TestCase {
+
+    public void testScansOneRequestAtATime() throws IOException {
+        Elm327Emulator emulator = new Elm327Emulator(new SimulatedVehicle(), 0);
+        emulator.setTroubleCodes("P0133", "C0300");
+        emulator.setPendingTroubleCodes("P0420");
+        InputStream in = emulator.getInputStream();
+        OutputStream out = emulator.getOutputStream();
+        out.write("ATE0\r".getBytes());
+        new ResponseReader().read(in, 1000);
+
+        TroubleCodeScanner scanner = new TroubleCodeScanner(1000);
+        assertTrue(scanner.isDue(0));
+        assertFalse(scanner.step(in, out, 0));
+        assertFalse(scanner.step(in, out, 10));
+        assertTrue(scanner.step(in, out, 20));
+        assertTrue(scanner.isMilOn());
+        assertEquals(2, scanner.getReportedCount());
+        assertEquals(Arrays.asList("P0133", "C0300"), scanner.getStoredCodes());
+        assertEquals(Arrays.asList("P0420"), scanner.getPendingCodes());
+        assertEquals(Arrays.asList("P0133", "C0300", "P0420"), scanner.getNewCodes());
+
+        // The next scan only reports what wasn't there before
+        assertFalse(scanner.isDue(1019));
+        assertTrue(scanner.isDue(1020));
+        emulator.setPendingTroubleCodes("P0420", "P0171");
+        scanner.step(in, out, 1020);
+        scanner.step(in, out, 1030);
+        assertTrue(scanner.step(in, out, 1040));
+        assertEquals(Arrays.asList("P0171"), scanner.getNewCodes());
+    }
+
+    public void testSkipsLateAnswers() throws IOException {
+        // The answer to a PID request that timed out only turns up after the scan's request
+        LateAdapter in = new LateAdapter("41 0C 1A F8", "41 01 81 07 65 04",
+                "43 01 33 00 00 00 00", "47 00 00 00 00 00 00");
+        OutputStream out = in.getOutputStream();
+
+        TroubleCodeScanner scanner = new TroubleCodeScanner(1000);
+        scanner.start(0);
+        assertFalse(scanner.isStarved(999));
+        assertFalse(scanner.step(in, out, 0));
+        assertFalse(scanner.step(in, out, 10));
+        assertTrue(scanner.step(in, out, 20));
+        assertTrue(scanner.isMilOn());
+        assertEquals(Arrays.asList("P0133"), scanner.getStoredCodes());
+        assertEquals(0, scanner.getPendingCodes().size());
+    }
+
+    public void testSharesTimeoutsWithThePoller() throws IOException {
+        Elm327Emulator emulator = new Elm327Emulator(new SimulatedVehicle(), 0);
+        InputStream in = emulator.getInputStream();
+        OutputStream out = emulator.getOutputStream();
+        out.write("ATE0\r".getBytes());
+        new ResponseReader().read(in, 1000);
+        PidPoller poller = new PidPoller(Arrays.asList(Pid.RPM));
+        poller.poll(in, out);
+        TroubleCodeScanner scanner = new TroubleCodeScanner(1000, poller.getReader());
+        scanner.step(in, out, 0);
+        scanner.step(in, out, 10);
+        assertTrue(scanner.step(in, out, 20));
+
+        // Once its own requests have been timed, the scanner only waits about as long as they take
+        emulator.setErrorRates(0, 0, 1);
+        long start = System.nanoTime();
+        assertFalse(scanner.step(in, out, 1020));
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        assertTrue("Waited " + elapsed + " ms", elapsed < PidPoller.MAX_DEADLINE / 2);
+        // and leaves the late answer to whichever request comes next
+        assertTrue(poller.getReader().isStale());
+
+        emulator.setErrorRates(0, 0, 0);
+        poller.poll(in, out);
+        assertTrue(poller.hasValue(Pid.RPM));
+        assertFalse(poller.getReader().isStale());
+    }
+
+    public void testRecognizesAnswers() {
+        int[] scratch = new int[64];
+        assertFalse(isAnswer("41 0C 1A F8", 0x03, scratch));
+        assertFalse(isAnswer("41 0C 1A F8", 0x01, scratch));
+        assertTrue(isAnswer("41 01 81 07 65 04", 0x01, scratch));
+        assertTrue(isAnswer("NO DATA", 0x07, scratch));
+        assertTrue(isAnswer("00A\r0: 43 04 01 33 02 44\r1: 04 20 C1 23 55 55 55", 0x03, scratch));
+        assertFalse(isAnswer("43 01 33 00 00 00 00", 0x07, scratch));
+    }
+
+    public void testParsesAnswersOfSeveralEcus() {
+        byte[] response = "43 01 33 00 00 00 00\r43 02 44 C1 23 00 00".getBytes();
+        List<String> codes = new ArrayList<>();
+        TroubleCodeScanner.parseCodes(response, response.length, 0x03, new int[64], codes);
+        assertEquals(Arrays.asList("P0133", "P0244", "U0123"), codes);
+    }
+
+    public void testParsesPaddedCanFrames() {
+        byte[] response = "00A\r0: 43 04 01 33 02 44\r1: 04 20 C1 23 55 55 55".getBytes();
+        List<String> codes = new ArrayList<>();
+        TroubleCodeScanner.parseCodes(response, response.length, 0x03, new int[64], codes);
+        assertEquals(Arrays.asList("P0133", "P0244", "P0420", "U0123"), codes);
+    }
+
+    public void testParsesStatusOfSeveralEcus() {
+        byte[] response = "41 01 82 07 E5 00\r41 01 01 07 E5 00".getBytes();
+        assertEquals(0x83, TroubleCodeScanner.parseStatus(response, response.length,
+                new int[64]));
+        byte[] noData = "NO DATA".getBytes();
+        assertEquals(-1, TroubleCodeScanner.parseStatus(noData, noData.length, new int[64]));
+    }
+
+    private static boolean isAnswer(String response, int mode, int[] scratch) {
+        byte[] bytes = response.getBytes();
+        return TroubleCodeScanner.isAnswer(bytes, bytes.length, mode, scratch);
+    }
+
+    /**
+     * Answers each request with the next canned answer, except that the first answer is a late
+     * one that only arrives along with the answer to the first request.
+     */
+    private static class LateAdapter extends InputStream {
+
+        private final byte[][] mAnswers;
+        private int mAnswer;
+        private int mPosition;
+        private int mArrived;
+
+        LateAdapter(String... answers) {
+            mAnswers = new byte[answers.length][];
+            for (int i = 0; i < answers.length; i++) {
+                mAnswers[i] = (answers[i] + "\r\r>").getBytes();
+            }
+        }
+
+        OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    if (b == '\r') {
+                        mArrived += mArrived == 0 ? 2 : 1;
+                    }
+                }
+            };
+        }
+
+        @Override
+        public int available() {
+            return mAnswer < mArrived ? mAnswers[mAnswer].length - mPosition : 0;
+        }
+
+        @Override
+        public int read() {
+            byte b = mAnswers[mAnswer][mPosition++];
+            if (mPosition == mAnswers[mAnswer].length) {
+                mAnswer++;
+                mPosition = 0;
+            }
+            return b;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package me.williamhester.brobd.stats;
+
+import junit.framework.TestCase;
+
+/**
+ * @author William Hester
+ */
+public class DownsamplerTest extends TestCase {
+
+    public void testShortSeriesIsCopied() {
+        long[] x = {1, 2, 3};
+        float[] y = {4, 5, 6};
+        long[] outX = new long[10];
+        float[] outY = new float[10];
+        assertEquals(3, Downsampler.lttb(x, y, 3, 10, outX, outY));
+        assertEquals(3, outX[2]);
+        assertEquals(6f, outY[2]);
+    }
+
+    public void testKeepsEndsAndPeaks() {
+        int count = 10000;
+        long[] x = new long[count];
+        float[] y = new float[count];
+        for (int i = 0; i < count; i++) {
+            x[i] = 1430000000000L + i * 100L;
+            y[i] = (float) Math.sin(i / 500.0);
+        }
+        // A single spike, which averaging would flatten
+        y[4321] = 10f;
+
+        long[] outX = new long[100];
+        float[] outY = new float[100];
+        int kept = Downsampler.lttb(x, y, count, 100, outX, outY);
+        assertEquals(100, kept);
+        assertEquals(x[0], outX[0]);
+        assertEquals(x[count - 1], outX[kept - 1]);
+
+        boolean spike = false;
+        for (int i = 0; i < kept; i++) {
+            if (i > 0) {
+                assertTrue(outX[i] > outX[i - 1]);
+            }
+            spike |= outY[i] == 10f;
+        }
+        assertTrue(spike);
+    }
+}
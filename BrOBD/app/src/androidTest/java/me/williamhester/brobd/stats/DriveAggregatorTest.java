@@ -0,0 +1,65 @@
+package me.williamhester.brobd.stats;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks the streaming statistics against values worked out by hand.
+ *
+ * @author William Hester
+ */
+public class DriveAggregatorTest extends TestCase {
+
+    private static final double EPSILON = 1e-9;
+
+    public void testRunningStatMatchesTwoPassVariance() {
+        double[] values = {2, 4, 4, 4, 5, 5, 7, 9};
+        RunningStat stat = new RunningStat();
+        for (double v : values) {
+            stat.add(v);
+        }
+        assertEquals(8, stat.getCount());
+        assertEquals(40.0, stat.getSum(), EPSILON);
+        assertEquals(5.0, stat.getMean(), EPSILON);
+        assertEquals(2.0, stat.getMin(), EPSILON);
+        assertEquals(9.0, stat.getMax(), EPSILON);
+        assertEquals(32.0 / 7, stat.getVariance(), EPSILON);
+    }
+
+    public void testMergeEqualsAddingEverything() {
+        RunningStat all = new RunningStat();
+        RunningStat first = new RunningStat();
+        RunningStat second = new RunningStat();
+        for (int i = 0; i < 100; i++) {
+            all.add(i * i);
+            (i < 30 ? first : second).add(i * i);
+        }
+        first.merge(second);
+        assertEquals(all.getCount(), first.getCount());
+        assertEquals(all.getMean(), first.getMean(), 1e-6);
+        assertEquals(all.getVariance(), first.getVariance(), 1e-3);
+        assertEquals(all.getMax(), first.getMax(), EPSILON);
+    }
+
+    public void testDistanceUsesActualTimestamps() {
+        DriveAggregator aggregator = new DriveAggregator();
+        // Speeding up from 0 to 60 MPH over 9 seconds, sampled unevenly
+        aggregator.add(0, 0, 800, 0);
+        aggregator.add(4000, 40, 2000, 20);
+        aggregator.add(5000, 60, 2500, 20);
+        aggregator.add(9000, 60, 2500, 20);
+        double miles = (20 * 4000 + 50 * 1000 + 60 * 4000) / 3600000.0;
+        assertEquals(miles, aggregator.getDistance(), EPSILON);
+        // Nothing is known about a gap, so it isn't counted
+        aggregator.add(9000 + DriveAggregator.MAX_INTEGRATION_GAP + 1, 60, 2500, 20);
+        assertEquals(miles, aggregator.getDistance(), EPSILON);
+        assertEquals(5, aggregator.getCount());
+    }
+
+    public void testRepeatedPointsAreIgnored() {
+        DriveAggregator aggregator = new DriveAggregator();
+        assertTrue(aggregator.add(1000, 30, 1500, 10));
+        assertFalse(aggregator.add(1000, 30, 1500, 10));
+        assertFalse(aggregator.add(500, 30, 1500, 10));
+        assertEquals(1, aggregator.getCount());
+    }
+}
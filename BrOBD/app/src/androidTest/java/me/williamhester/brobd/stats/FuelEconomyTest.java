@@ -0,0 +1,98 @@
+package me.williamhester.brobd.stats;
+
+import junit.framework.TestCase;
+
+import me.williamhester.brobd.obd.FuelType;
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.storage.SampleRingBuffer;
+
+/**
+ * Feeds steady drives through {@link FuelEconomy} and checks the totals against the arithmetic.
+ *
+ * @author William Hester
+ */
+public class FuelEconomyTest extends TestCase {
+
+    private static final long START = 1430000000000L;
+    private static final double LITERS_PER_GALLON = 3.785411784;
+    private static final double MILES_PER_KM = 0.621371192;
+
+    private final float[] mSample = new float[Pid.values().length];
+
+    public void testIntegratesTheFuelRate() {
+        FuelEconomy fuel = new FuelEconomy();
+        // An hour at 100 km/h burning 8 L/h, sampled every second
+        for (int i = 0; i <= 3600; i++) {
+            SampleRingBuffer.clear(mSample);
+            mSample[Pid.SPEED.ordinal()] = 100;
+            mSample[Pid.FUEL_RATE.ordinal()] = 8;
+            assertTrue(fuel.add(START + i * 1000L, mSample));
+        }
+        assertEquals(8 / LITERS_PER_GALLON, fuel.getFuelUsed(), 1e-6);
+        assertEquals(100 * MILES_PER_KM, fuel.getDistance(), 1e-6);
+        float mpg = (float) (100 * MILES_PER_KM / (8 / LITERS_PER_GALLON));
+        assertEquals(mpg, fuel.getAverageMpg(), 1e-3f);
+        assertEquals(mpg, fuel.getInstantMpg(), 1e-3f);
+    }
+
+    public void testFallsBackToMaf() {
+        FuelEconomy fuel = new FuelEconomy();
+        SampleRingBuffer.clear(mSample);
+        mSample[Pid.FUEL_TYPE.ordinal()] = 0x04;
+        fuel.add(START, mSample);
+        assertEquals(FuelType.DIESEL, fuel.getFuelType());
+
+        // Speed and MAF arrive in separate samples, and are carried over between them
+        for (int i = 1; i <= 600; i++) {
+            SampleRingBuffer.clear(mSample);
+            if (i % 2 == 0) {
+                mSample[Pid.SPEED.ordinal()] = 60;
+            } else {
+                mSample[Pid.MAF.ordinal()] = 20;
+            }
+            fuel.add(START + i * 500L, mSample);
+        }
+        assertEquals(FuelType.DIESEL.getFuelRate(20), fuel.getFuelRate(), 1e-6f);
+        // Integration starts once both have been seen, at the second sample
+        double hours = (600 - 2) * 500 / 3600000.0;
+        assertEquals(FuelType.DIESEL.getFuelRate(20) * hours / LITERS_PER_GALLON,
+                fuel.getFuelUsed(), 1e-6);
+
+        // Once the vehicle reports its fuel rate, the MAF no longer counts
+        SampleRingBuffer.clear(mSample);
+        mSample[Pid.FUEL_RATE.ordinal()] = 3;
+        fuel.add(START + 301000L, mSample);
+        SampleRingBuffer.clear(mSample);
+        mSample[Pid.MAF.ordinal()] = 50;
+        assertFalse(fuel.add(START + 302000L, mSample));
+        assertEquals(3f, fuel.getFuelRate());
+    }
+
+    public void testInstantEconomyLimits() {
+        FuelEconomy fuel = new FuelEconomy();
+        assertTrue(Float.isNaN(fuel.getInstantMpg()));
+        assertTrue(Float.isNaN(fuel.getAverageMpg()));
+
+        SampleRingBuffer.clear(mSample);
+        mSample[Pid.SPEED.ordinal()] = 80;
+        mSample[Pid.FUEL_RATE.ordinal()] = 0;
+        fuel.add(START, mSample);
+        assertEquals(FuelEconomy.MAX_INSTANT_MPG, fuel.getInstantMpg());
+
+        mSample[Pid.SPEED.ordinal()] = 0;
+        mSample[Pid.FUEL_RATE.ordinal()] = 0.8f;
+        fuel.add(START + 1000, mSample);
+        assertEquals(0f, fuel.getInstantMpg());
+    }
+
+    public void testSkipsLongGaps() {
+        FuelEconomy fuel = new FuelEconomy();
+        SampleRingBuffer.clear(mSample);
+        mSample[Pid.SPEED.ordinal()] = 50;
+        mSample[Pid.FUEL_RATE.ordinal()] = 5;
+        fuel.add(START, mSample);
+        fuel.add(START + DriveAggregator.MAX_INTEGRATION_GAP + 1, mSample);
+        assertEquals(0.0, fuel.getFuelUsed());
+        assertFalse(fuel.add(START, mSample));
+    }
+}
@@ -0,0 +1,37 @@
+package me.williamhester.brobd.stats;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+/**
+ * Looks metrics up by name and reads them back out of a dump.
+ *
+ * @author William Hester
+ */
+public class MetricsRegistryTest extends TestCase {
+
+    public void testSameNameIsSameMetric() {
+        MetricsRegistry metrics = new MetricsRegistry();
+        assertSame(metrics.counter("test.count"), metrics.counter("test.count"));
+        assertSame(metrics.gauge("test.rate"), metrics.gauge("test.rate"));
+        assertSame(metrics.histogram("test.time_us"), metrics.histogram("test.time_us"));
+        assertNotSame(metrics.counter("test.count"), metrics.counter("test.other"));
+    }
+
+    public void testDumpsEveryMetric() throws IOException {
+        MetricsRegistry metrics = new MetricsRegistry();
+        metrics.counter("test.count").add(3);
+        metrics.counter("test.count").increment();
+        metrics.gauge("test.rate").set(12.5);
+        metrics.histogram("test.time_us").record(100);
+
+        StringWriter writer = new StringWriter();
+        metrics.dump(writer);
+        String dump = writer.toString();
+        assertTrue(dump, dump.contains("test.count: 4\n"));
+        assertTrue(dump, dump.contains("test.rate: 12.50\n"));
+        assertTrue(dump, dump.contains("test.time_us: "));
+    }
+}
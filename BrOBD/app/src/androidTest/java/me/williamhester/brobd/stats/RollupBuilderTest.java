@@ -0,0 +1,58 @@
+package me.williamhester.brobd.stats;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+/**
+ * @author William Hester
+ */
+public class RollupBuilderTest extends TestCase {
+
+    private static final long START = 1430000000000L;
+
+    public void testBucketsAtEveryResolution() {
+        RollupBuilder builder = new RollupBuilder();
+        DriveAggregator aggregator = new DriveAggregator();
+        // Twenty minutes at 60 MPH, one point a second
+        for (int i = 0; i <= 1200; i++) {
+            builder.add(START + i * 1000L, 60, 2000 + i % 7, 20f);
+            aggregator.add(START + i * 1000L, 60, 2000 + i % 7, 20f);
+        }
+
+        for (Resolution resolution : Resolution.values()) {
+            List<RollupBucket> buckets = builder.getBuckets(resolution);
+            long count = 0;
+            double distance = 0;
+            RollupBucket total = new RollupBucket(resolution, 0);
+            for (int i = 0; i < buckets.size(); i++) {
+                RollupBucket bucket = buckets.get(i);
+                assertEquals(0, bucket.getStart() % resolution.getMillis());
+                if (i > 0) {
+                    assertEquals(resolution.getMillis(),
+                            bucket.getStart() - buckets.get(i - 1).getStart());
+                }
+                count += bucket.getCount();
+                distance += bucket.getDistance();
+                total.merge(bucket);
+            }
+            assertEquals(1201, count);
+            assertEquals(aggregator.getDistance(), distance, 1e-9);
+            assertEquals(20.0, distance, 1e-9);
+            assertEquals(aggregator.getRpm().getMin(), total.getRpm().getMin());
+            assertEquals(aggregator.getRpm().getMax(), total.getRpm().getMax());
+            assertEquals(aggregator.getRpm().getMean(), total.getRpm().getMean(), 1e-9);
+        }
+        assertTrue(builder.getBuckets(Resolution.TEN_MINUTES).size() <= 3);
+    }
+
+    public void testPicksTheCoarsestResolutionThatIsFineEnough() {
+        long hour = 3600000L;
+        assertEquals(Resolution.TEN_MINUTES, Resolution.forSpan(hour, 6));
+        assertEquals(Resolution.ONE_MINUTE, Resolution.forSpan(hour, 50));
+        assertEquals(Resolution.TEN_SECONDS, Resolution.forSpan(hour, 100));
+        assertEquals(Resolution.TEN_MINUTES, Resolution.forSpan(28 * 24 * hour, 500));
+        // A short drive at the finest resolution, even though that gives fewer buckets
+        assertEquals(Resolution.TEN_SECONDS, Resolution.forSpan(60000L, 50));
+    }
+}
@@ -0,0 +1,68 @@
+package me.williamhester.brobd.stats;
+
+import junit.framework.TestCase;
+
+/**
+ * @author William Hester
+ */
+public class StreamingDownsamplerTest extends TestCase {
+
+    public void testShortSeriesIsKeptWhole() {
+        long[] outX = new long[10];
+        float[] outY = new float[10];
+        StreamingDownsampler downsampler = new StreamingDownsampler(0, 100, 10, outX, outY);
+        for (int i = 0; i < 10; i++) {
+            downsampler.add(i * 10, i);
+        }
+        assertEquals(10, downsampler.finish());
+        assertEquals(90, outX[9]);
+        assertEquals(9f, outY[9]);
+    }
+
+    public void testKeepsEndsAndPeaks() {
+        int count = 10000;
+        long start = 1430000000000L;
+        long[] outX = new long[100];
+        float[] outY = new float[100];
+        StreamingDownsampler downsampler = new StreamingDownsampler(start,
+                start + (count - 1) * 100L, 100, outX, outY);
+        for (int i = 0; i < count; i++) {
+            // A single spike, which averaging would flatten
+            downsampler.add(start + i * 100L, i == 4321 ? 10f : (float) Math.sin(i / 500.0));
+        }
+        int kept = downsampler.finish();
+        assertEquals(count, downsampler.getSourceCount());
+        assertEquals(100, kept);
+        assertEquals(start, outX[0]);
+        assertEquals(start + (count - 1) * 100L, outX[kept - 1]);
+
+        boolean spike = false;
+        for (int i = 0; i < kept; i++) {
+            if (i > 0) {
+                assertTrue(outX[i] > outX[i - 1]);
+            }
+            spike |= outY[i] == 10f;
+        }
+        assertTrue(spike);
+    }
+
+    public void testGapsLeaveBucketsEmpty() {
+        long[] outX = new long[12];
+        float[] outY = new float[12];
+        // Ten buckets of 100 ms, with nothing in the middle six
+        StreamingDownsampler downsampler = new StreamingDownsampler(0, 999, 12, outX, outY);
+        for (int t = 0; t < 1000; t++) {
+            if (t < 200 || t >= 800) {
+                downsampler.add(t, t % 7);
+            }
+        }
+        int kept = downsampler.finish();
+        // The first and last points, and one from each of the four buckets with anything in them
+        assertEquals(6, kept);
+        assertEquals(0, outX[0]);
+        assertEquals(999, outX[kept - 1]);
+        for (int i = 1; i < kept - 1; i++) {
+            assertTrue(outX[i] < 200 || outX[i] >= 800);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package me.williamhester.brobd.stats;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks the sliding window's contents and extremes against a brute force scan.
+ *
+ * @author William Hester
+ */
+public class WindowedSeriesTest extends TestCase {
+
+    public void testMatchesBruteForce() {
+        Random random = new Random(3);
+        int capacity = 101;
+        WindowedSeries series = new WindowedSeries(capacity);
+        float[] all = new float[5000];
+        for (int n = 0; n < all.length; n++) {
+            // Few distinct values, so that ties are exercised too
+            all[n] = random.nextInt(20);
+            series.add(all[n]);
+
+            int size = Math.min(n + 1, capacity);
+            assertEquals(size, series.size());
+            float min = Float.MAX_VALUE;
+            float max = -Float.MAX_VALUE;
+            for (int i = 0; i < size; i++) {
+                float expected = all[n + 1 - size + i];
+                assertEquals(expected, series.get(i), 0f);
+                min = Math.min(min, expected);
+                max = Math.max(max, expected);
+            }
+            assertEquals(min, series.getMin(), 0f);
+            assertEquals(max, series.getMax(), 0f);
+        }
+    }
+
+    public void testEmpty() {
+        WindowedSeries series = new WindowedSeries(4);
+        assertTrue(Float.isNaN(series.getMax()));
+        series.add(1);
+        series.clear();
+        assertEquals(0, series.size());
+        assertTrue(Float.isNaN(series.getMin()));
+    }
+}
@@ -0,0 +1,149 @@
+package me.williamhester.brobd.storage;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.test.AndroidTestCase;
+
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.realm.Realm;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.stats.Counter;
+import me.williamhester.brobd.stats.MetricsRegistry;
+
+/**
+ * Checks that buffered points are committed once enough of them have been added, or once the
+ * oldest has waited long enough, and that every commit is counted in "realm.commits".
+ *
+ * @author William Hester
+ */
+public class DataPointWriterTest extends AndroidTestCase {
+
+    private static final String FILE = "writer-test.realm";
+    private static final int MAX_SAMPLES = 5;
+    private static final long MAX_DELAY = 100L;
+    private static final long START = 1430000000000L;
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    // Only touched on mThread
+    private Realm mRealm;
+    private DataPointWriter mWriter;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Realm.deleteRealmFile(getContext(), FILE);
+        mThread = new HandlerThread("DataPointWriterTest");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mRealm = Realm.getInstance(getContext(), FILE);
+                mRealm.beginTransaction();
+                DriveSession session = mRealm.createObject(DriveSession.class);
+                session.setId(UUID.randomUUID().toString());
+                session.setStartTime(new Date(START));
+                session.setEndTime(new Date(START));
+                mRealm.commitTransaction();
+                mWriter = new DataPointWriter(mRealm, mHandler, session,
+                        new SeriesWriter(mRealm, session), MAX_SAMPLES, MAX_DELAY);
+            }
+        });
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacksAndMessages(null);
+                mRealm.close();
+            }
+        });
+        mThread.getLooper().quit();
+        Realm.deleteRealmFile(getContext(), FILE);
+        super.tearDown();
+    }
+
+    public void testCommitsWhenFull() throws InterruptedException {
+        final Counter commits = MetricsRegistry.getInstance().counter("realm.commits");
+        final long before = commits.get();
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                add(MAX_SAMPLES - 1);
+                assertEquals(0, mWriter.getCommitCount());
+                assertEquals(MAX_SAMPLES - 1, mWriter.getPendingCount());
+
+                add(1);
+                assertEquals(1, mWriter.getCommitCount());
+                assertEquals(0, mWriter.getPendingCount());
+                assertEquals(before + 1, commits.get());
+            }
+        });
+    }
+
+    public void testCommitsAfterTheDelay() throws InterruptedException {
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                add(2);
+                assertEquals(0, mWriter.getCommitCount());
+            }
+        });
+        Thread.sleep(MAX_DELAY * 3);
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(1, mWriter.getCommitCount());
+                assertEquals(0, mWriter.getPendingCount());
+            }
+        });
+        // Nothing is committed again until another point starts the delay over
+        Thread.sleep(MAX_DELAY * 3);
+        runOnThread(new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(1, mWriter.getCommitCount());
+            }
+        });
+    }
+
+    private void add(int count) {
+        for (int i = 0; i < count; i++) {
+            long date = START + (mWriter.getAggregator().getCount() + 1) * 1000L;
+            mWriter.add(date, 2000, 40, 20f, Float.NaN);
+        }
+    }
+
+    /**
+     * Runs a task on the thread that owns the Realm and waits for it. Assertions that fail on
+     * that thread fail the test.
+     */
+    private void runOnThread(final Runnable task) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Throwable[] failure = new Throwable[1];
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    failure[0] = t;
+                }
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        if (failure[0] instanceof Error) {
+            throw (Error) failure[0];
+        } else if (failure[0] != null) {
+            throw new RuntimeException(failure[0]);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package me.williamhester.brobd.storage;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Writes logs across several blocks and regions and reads them back, whole and damaged.
+ *
+ * @author William Hester
+ */
+public class DriveLogTest extends TestCase {
+
+    private static final int[] CODES = {0x0C, 0x0D, 0x11};
+    private static final long START = 1430000000000L;
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws IOException {
+        mFile = File.createTempFile("drive", ".log");
+    }
+
+    @Override
+    protected void tearDown() {
+        mFile.delete();
+    }
+
+    public void testReadsBackEverySample() throws IOException {
+        int count = DriveLog.RECORDS_PER_BLOCK * DriveLog.REGION_BLOCKS * 2 + 17;
+        write(count);
+
+        DriveLogReader reader = new DriveLogReader(mFile);
+        assertEquals(START, reader.getStartTime());
+        assertEquals("J\u00f6rg", reader.getDriverName());
+        assertEquals(CODES.length, reader.getColumnCount());
+        assertEquals(0x0D, reader.getPidCode(1));
+        for (int i = 0; i < count; i++) {
+            assertTrue(reader.next());
+            assertEquals(START + i * 100L, reader.getTimestamp());
+            assertEquals((float) i, reader.getValue(0));
+            if (i % 3 == 0) {
+                assertTrue(Float.isNaN(reader.getValue(1)));
+            } else {
+                assertEquals(i / 2f, reader.getValue(1));
+            }
+        }
+        assertFalse(reader.next());
+        assertFalse(reader.isCorrupt());
+    }
+
+    public void testStopsAtADamagedBlock() throws IOException {
+        write(DriveLog.RECORDS_PER_BLOCK * 3);
+
+        // Flip a byte in the second block's records
+        int blockSize = DriveLog.BLOCK_HEADER_SIZE
+                + DriveLog.RECORDS_PER_BLOCK * DriveLog.getRecordSize(CODES.length);
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        long position = DriveLog.HEADER_SIZE + blockSize + DriveLog.BLOCK_HEADER_SIZE + 5;
+        file.seek(position);
+        int b = file.read();
+        file.seek(position);
+        file.write(b ^ 0xFF);
+        file.close();
+
+        DriveLogReader reader = new DriveLogReader(mFile);
+        int read = 0;
+        while (reader.next()) {
+            read++;
+        }
+        assertEquals(DriveLog.RECORDS_PER_BLOCK, read);
+        assertTrue(reader.isCorrupt());
+    }
+
+    public void testEmptyLog() throws IOException {
+        write(0);
+        DriveLogReader reader = new DriveLogReader(mFile);
+        assertFalse(reader.next());
+        assertFalse(reader.isCorrupt());
+    }
+
+    private void write(int count) throws IOException {
+        DriveLog log = new DriveLog(mFile, START, "J\u00f6rg", CODES);
+        float[] values = new float[CODES.length];
+        for (int i = 0; i < count; i++) {
+            values[0] = i;
+            values[1] = i % 3 == 0 ? Float.NaN : i / 2f;
+            values[2] = 12.5f;
+            assertTrue(log.append(START + i * 100L, values));
+        }
+        assertEquals(count, log.getRecordCount());
+        // Not closed, as if the process had been killed
+    }
+}
@@ -0,0 +1,40 @@
+package me.williamhester.brobd.storage;
+
+import junit.framework.TestCase;
+
+/**
+ * Fills a history past its capacity and takes snapshots of it.
+ *
+ * @author William Hester
+ */
+public class SampleHistoryTest extends TestCase {
+
+    public void testSnapshotCoversTheWindow() {
+        SampleHistory history = new SampleHistory(8, 2, 250);
+        float[] values = new float[2];
+        for (int i = 0; i < 20; i++) {
+            values[0] = i;
+            values[1] = -i;
+            history.add(1000 + i * 100L, values);
+        }
+        assertEquals(8, history.size());
+        assertEquals(2200, history.getTimestamp(0));
+
+        // The newest sample is at 2900, so the window goes back to 2650
+        SampleHistory snapshot = history.snapshot();
+        assertEquals(3, snapshot.size());
+        assertEquals(2700, snapshot.getTimestamp(0));
+        assertEquals(2900, snapshot.getTimestamp(2));
+        snapshot.getValues(1, values);
+        assertEquals(18f, values[0], 0f);
+        assertEquals(-18f, values[1], 0f);
+
+        // Later samples don't change the snapshot
+        history.add(3000, values);
+        assertEquals(2900, snapshot.getTimestamp(2));
+    }
+
+    public void testEmptySnapshot() {
+        assertEquals(0, new SampleHistory(4, 1, 1000).snapshot().size());
+    }
+}
@@ -0,0 +1,88 @@
+package me.williamhester.brobd.storage;
+
+import junit.framework.TestCase;
+
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * Replays a recorded series at different speeds and checks when each sample comes out.
+ *
+ * @author William Hester
+ */
+public class SampleReplayerTest extends TestCase {
+
+    private static final long RECORDED_AT = 1430000000000L;
+    private static final long START = 1440000000000L;
+
+    public void testPacesByTheRecordedSpacing() {
+        SampleRingBuffer buffer = createBuffer();
+        // A sample every second, replayed ten times faster
+        SampleReplayer replayer = new SampleReplayer(record(5, 1000), 10f, buffer, START, 0);
+
+        assertEquals(100, replayer.replay(0));
+        assertEquals(1, buffer.size());
+        assertEquals(50, replayer.replay(50));
+        assertEquals(1, buffer.size());
+        assertEquals(100, replayer.replay(100));
+        assertEquals(2, buffer.size());
+        assertEquals(-1, replayer.replay(1000));
+        assertTrue(replayer.isFinished());
+        assertEquals(5, replayer.getReplayedCount());
+
+        // The replayed samples keep the spacing they were recorded with
+        float[] values = new float[Pid.values().length];
+        for (int i = 0; i < 5; i++) {
+            assertEquals(START + i * 1000, buffer.poll(values));
+            assertEquals((float) i, values[Pid.RPM.ordinal()]);
+            assertTrue(Float.isNaN(values[Pid.SPEED.ordinal()]));
+        }
+    }
+
+    public void testMaxSpeedReplaysInBatches() {
+        SampleRingBuffer buffer = new SampleRingBuffer(1024, Pid.values().length,
+                SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        int count = SampleReplayer.MAX_BATCH + 10;
+        SampleReplayer replayer = new SampleReplayer(record(count, 1000),
+                SampleReplayer.MAX_SPEED, buffer, START, 0);
+
+        assertEquals(0, replayer.replay(0));
+        assertEquals(SampleReplayer.MAX_BATCH, buffer.size());
+        assertEquals(-1, replayer.replay(0));
+        assertEquals(count, buffer.size());
+    }
+
+    public void testEmptyRecording() {
+        SampleReplayer replayer = new SampleReplayer(record(0, 1000), 1f, createBuffer(), START,
+                0);
+        assertTrue(replayer.isFinished());
+        assertEquals(-1, replayer.replay(0));
+    }
+
+    private static SampleRingBuffer createBuffer() {
+        return new SampleRingBuffer(16, Pid.values().length,
+                SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+    }
+
+    private static SampleMerger record(final int count, final long interval) {
+        SeriesSource[] sources = new SeriesSource[Pid.values().length];
+        sources[Pid.RPM.ordinal()] = new SeriesSource() {
+            private int mIndex = -1;
+
+            @Override
+            public boolean next() {
+                return ++mIndex < count;
+            }
+
+            @Override
+            public long getTimestamp() {
+                return RECORDED_AT + mIndex * interval;
+            }
+
+            @Override
+            public float getValue() {
+                return mIndex;
+            }
+        };
+        return new SampleMerger(sources);
+    }
+}
@@ -0,0 +1,171 @@
+package me.williamhester.brobd.storage;
+
+import junit.framework.TestCase;
+
+/**
+ * Runs samples through the ring buffer from one thread and from a producer and a consumer
+ * thread, with both overflow policies.
+ *
+ * @author William Hester
+ */
+public class SampleRingBufferTest extends TestCase {
+
+    private static final int WIDTH = 2;
+
+    public void testWrapsAround() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4, WIDTH,
+                SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        float[] sample = new float[WIDTH];
+        long next = 0;
+        // Every round starts at a different slot, so the samples wrap around the end many times
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < 3; i++) {
+                offer(buffer, round * 3 + i);
+            }
+            assertEquals(3, buffer.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(next, buffer.poll(sample));
+                assertSample(next++, sample);
+            }
+            assertEquals(-1, buffer.poll(sample));
+        }
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    public void testCapacityIsAPowerOfTwo() {
+        assertEquals(8, new SampleRingBuffer(5, WIDTH,
+                SampleRingBuffer.OverflowPolicy.BLOCK).getCapacity());
+        assertEquals(8, new SampleRingBuffer(8, WIDTH,
+                SampleRingBuffer.OverflowPolicy.BLOCK).getCapacity());
+    }
+
+    public void testDropOldestCountsDrops() {
+        SampleRingBuffer buffer = new SampleRingBuffer(4, WIDTH,
+                SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 10; i++) {
+            offer(buffer, i);
+        }
+        assertEquals(6, buffer.getDroppedCount());
+        assertEquals(0, buffer.getBlockedCount());
+        assertEquals(4, buffer.size());
+
+        // Only the newest samples are left
+        float[] sample = new float[WIDTH];
+        for (int i = 6; i < 10; i++) {
+            assertEquals(i, buffer.poll(sample));
+            assertSample(i, sample);
+        }
+        assertEquals(-1, buffer.poll(sample));
+    }
+
+    public void testBlockWaitsForRoom() throws InterruptedException {
+        final SampleRingBuffer buffer = new SampleRingBuffer(2, WIDTH,
+                SampleRingBuffer.OverflowPolicy.BLOCK);
+        offer(buffer, 0);
+        offer(buffer, 1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                offer(buffer, 2);
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertEquals(1, buffer.getBlockedCount());
+        assertEquals(2, buffer.size());
+
+        float[] sample = new float[WIDTH];
+        assertEquals(0, buffer.poll(sample));
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(0, buffer.getDroppedCount());
+        for (int i = 1; i <= 2; i++) {
+            assertEquals(i, buffer.poll(sample));
+            assertSample(i, sample);
+        }
+    }
+
+    public void testBlockingProducerAndConsumer() throws InterruptedException {
+        SampleRingBuffer buffer = new SampleRingBuffer(64, WIDTH,
+                SampleRingBuffer.OverflowPolicy.BLOCK);
+        Consumer consumer = run(buffer, 200000);
+        // Nothing is lost, and everything comes out in order
+        assertEquals(200000, consumer.mCount);
+        assertEquals(0, buffer.getDroppedCount());
+    }
+
+    public void testDroppingProducerAndConsumer() throws InterruptedException {
+        SampleRingBuffer buffer = new SampleRingBuffer(64, WIDTH,
+                SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+        Consumer consumer = run(buffer, 200000);
+        // Every sample is either read or counted as dropped, and none is read torn
+        assertEquals(200000, consumer.mCount + buffer.getDroppedCount());
+        assertEquals(0, buffer.getBlockedCount());
+    }
+
+    /**
+     * Offers samples 0 to count - 1 on this thread while another thread polls them, then waits
+     * for the other thread to read whatever is left.
+     */
+    private static Consumer run(SampleRingBuffer buffer, int count) throws InterruptedException {
+        Consumer consumer = new Consumer(buffer);
+        Thread thread = new Thread(consumer);
+        thread.start();
+        for (int i = 0; i < count; i++) {
+            offer(buffer, i);
+        }
+        offer(buffer, Consumer.END);
+        thread.join(10000);
+        assertFalse(thread.isAlive());
+        if (consumer.mFailure != null) {
+            throw consumer.mFailure;
+        }
+        return consumer;
+    }
+
+    private static void offer(SampleRingBuffer buffer, long i) {
+        buffer.offer(i, new float[] {i, -i});
+    }
+
+    private static void assertSample(long i, float[] sample) {
+        assertEquals((float) i, sample[0], 0f);
+        assertEquals((float) -i, sample[1], 0f);
+    }
+
+    private static class Consumer implements Runnable {
+
+        static final long END = Long.MAX_VALUE;
+
+        private final SampleRingBuffer mBuffer;
+        volatile long mCount;
+        volatile AssertionError mFailure;
+
+        Consumer(SampleRingBuffer buffer) {
+            mBuffer = buffer;
+        }
+
+        @Override
+        public void run() {
+            float[] sample = new float[WIDTH];
+            long last = -1;
+            try {
+                while (true) {
+                    long timestamp = mBuffer.poll(sample);
+                    if (timestamp == END) {
+                        return;
+                    } else if (timestamp < 0) {
+                        Thread.yield();
+                        continue;
+                    }
+                    assertTrue(timestamp > last);
+                    assertSample(timestamp, sample);
+                    last = timestamp;
+                    mCount++;
+                }
+            } catch (AssertionError e) {
+                mFailure = e;
+            }
+        }
+    }
+}
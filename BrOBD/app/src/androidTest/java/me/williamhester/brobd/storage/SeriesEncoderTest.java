@@ -0,0 +1,95 @@
+package me.williamhester.brobd.storage;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+
+/**
+ * Checks that chunks decode to exactly what was encoded.
+ *
+ * @author William Hester
+ */
+public class SeriesEncoderTest extends TestCase {
+
+    public void testRoundTrip() {
+        Random random = new Random(42);
+        SeriesEncoder encoder = new SeriesEncoder();
+        long[] timestamps = new long[encoder.getCapacity()];
+        float[] values = new float[encoder.getCapacity()];
+        long timestamp = 1430000000000L;
+        float rpm = 800;
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamp += 100 + random.nextInt(7) - 3;
+            rpm = Math.max(0, rpm + (random.nextInt(201) - 100) / 4f);
+            timestamps[i] = timestamp;
+            values[i] = rpm;
+            encoder.append(timestamp, rpm);
+        }
+        assertTrue(encoder.isFull());
+
+        SeriesDecoder decoder = new SeriesDecoder(encoder.seal());
+        assertEquals(timestamps.length, decoder.getCount());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            assertEquals(Float.floatToRawIntBits(values[i]),
+                    Float.floatToRawIntBits(decoder.getValue()));
+        }
+        assertFalse(decoder.next());
+        assertTrue(encoder.isEmpty());
+    }
+
+    public void testUnusualTimestampsAndValues() {
+        long[] timestamps = {0, 0, 1, 100000, 100001, 5000000000L, 5000000000L};
+        float[] values = {-1, -1, Float.MAX_VALUE, 0, Float.MIN_VALUE, Float.NaN, 3};
+        SeriesEncoder encoder = new SeriesEncoder(timestamps.length);
+        for (int i = 0; i < timestamps.length; i++) {
+            encoder.append(timestamps[i], values[i]);
+        }
+
+        SeriesDecoder decoder = new SeriesDecoder(encoder.seal());
+        for (int i = 0; i < timestamps.length; i++) {
+            assertTrue(decoder.next());
+            assertEquals(timestamps[i], decoder.getTimestamp());
+            assertEquals(Float.floatToRawIntBits(values[i]),
+                    Float.floatToRawIntBits(decoder.getValue()));
+        }
+        assertFalse(decoder.next());
+    }
+
+    public void testSnapshotLeavesTheChunkOpen() {
+        SeriesEncoder encoder = new SeriesEncoder(300);
+        for (int i = 0; i < 200; i++) {
+            encoder.append(1000 + i * 100L, i % 7);
+        }
+        SeriesDecoder decoder = new SeriesDecoder(encoder.snapshot());
+        assertEquals(200, decoder.getCount());
+        for (int i = 0; i < 200; i++) {
+            assertTrue(decoder.next());
+            assertEquals(1000 + i * 100L, decoder.getTimestamp());
+            assertEquals(i % 7, decoder.getValue(), 0f);
+        }
+        assertFalse(decoder.next());
+
+        // The samples after the snapshot carry on from it, into the same chunk
+        for (int i = 200; i < 300; i++) {
+            encoder.append(1000 + i * 100L, i % 7);
+        }
+        assertTrue(encoder.isFull());
+        decoder.reset(encoder.seal());
+        assertEquals(300, decoder.getCount());
+        for (int i = 0; i < 300; i++) {
+            assertTrue(decoder.next());
+            assertEquals(i % 7, decoder.getValue(), 0f);
+        }
+    }
+
+    public void testUnchangedValuesTakeAboutTwoBits() {
+        SeriesEncoder encoder = new SeriesEncoder();
+        for (int i = 0; i < encoder.getCapacity(); i++) {
+            encoder.append(i * 1000L, 42f);
+        }
+        // After the first two samples, 1 bit for the unchanged delta and 1 for the unchanged value
+        assertTrue(encoder.getSizeInBytes() <= 32 + encoder.getCapacity() * 2 / 8);
+    }
+}
@@ -0,0 +1,155 @@
+package me.williamhester.brobd.storage;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import java.io.File;
+import java.util.Date;
+import java.util.Random;
+import java.util.UUID;
+
+import io.realm.Realm;
+import me.williamhester.brobd.models.DataPoint;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * Compares the size on disk of ten hours of 1 Hz RPM, speed and throttle samples stored as one
+ * DataPoint per sample against the same samples stored as compressed chunks. The sizes and the
+ * ratio between them are logged under {@link #TAG}; how much smaller the chunks are depends on the
+ * device's Realm, so the test only fails if they aren't smaller at all, and the ratio has to be
+ * read from the log of a run on a device.
+ *
+ * @author William Hester
+ */
+public class StorageSizeBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "StorageSizeBenchmark";
+
+    private static final String ROWS_FILE = "benchmark-rows.realm";
+    private static final String CHUNKS_FILE = "benchmark-chunks.realm";
+    private static final int SAMPLE_COUNT = 10 * 3600;
+    private static final int COMMIT_SIZE = 1000;
+
+    private long[] mDates;
+    private float[] mRpms;
+    private float[] mSpeeds;
+    private float[] mThrottles;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        Realm.deleteRealmFile(getContext(), ROWS_FILE);
+        Realm.deleteRealmFile(getContext(), CHUNKS_FILE);
+
+        // A random but smooth drive, quantized the way the adapter reports it
+        Random random = new Random(7);
+        mDates = new long[SAMPLE_COUNT];
+        mRpms = new float[SAMPLE_COUNT];
+        mSpeeds = new float[SAMPLE_COUNT];
+        mThrottles = new float[SAMPLE_COUNT];
+        long date = 1430000000000L;
+        float rpm = 800;
+        float speed = 0;
+        float throttle = 15;
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            date += 1000 + random.nextInt(7) - 3;
+            rpm = Math.max(700, Math.min(6000, rpm + (random.nextInt(401) - 200) / 4f));
+            speed = Math.max(0, Math.min(120, speed + random.nextInt(5) - 2));
+            throttle = Math.max(0, Math.min(100,
+                    throttle + (random.nextInt(11) - 5) * 100 / 255f));
+            mDates[i] = date;
+            mRpms[i] = rpm;
+            mSpeeds[i] = speed;
+            mThrottles[i] = throttle;
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Realm.deleteRealmFile(getContext(), ROWS_FILE);
+        Realm.deleteRealmFile(getContext(), CHUNKS_FILE);
+        super.tearDown();
+    }
+
+    public void testChunksAreSmallerThanRows() {
+        long rowNanos = writeRows();
+        long chunkNanos = writeChunks();
+
+        Realm.compactRealmFile(getContext(), ROWS_FILE);
+        Realm.compactRealmFile(getContext(), CHUNKS_FILE);
+        long rowBytes = new File(getContext().getFilesDir(), ROWS_FILE).length();
+        long chunkBytes = new File(getContext().getFilesDir(), CHUNKS_FILE).length();
+
+        double ratio = (double) rowBytes / chunkBytes;
+        Log.i(TAG, String.format("rows: %d bytes, %.1f ms; chunks: %d bytes, %.1f ms; %.1fx "
+                + "smaller", rowBytes, rowNanos / 1e6, chunkBytes, chunkNanos / 1e6, ratio));
+        assertTrue(String.format("Chunks are %d bytes, rows %d", chunkBytes, rowBytes),
+                chunkBytes < rowBytes);
+    }
+
+    private long writeRows() {
+        Realm realm = Realm.getInstance(getContext(), ROWS_FILE);
+        long start = System.nanoTime();
+        realm.beginTransaction();
+        DriveSession session = createSession(realm);
+        Date date = new Date();
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            DataPoint point = realm.createObject(DataPoint.class);
+            point.setSession(session);
+            point.setSessionId(session.getId());
+            date.setTime(mDates[i]);
+            point.setDate(date);
+            point.setRpm(Math.round(mRpms[i]));
+            point.setSpeed(Math.round(mSpeeds[i]));
+            point.setThrottle(mThrottles[i]);
+            if ((i + 1) % COMMIT_SIZE == 0) {
+                realm.commitTransaction();
+                realm.beginTransaction();
+            }
+        }
+        realm.commitTransaction();
+        long elapsed = System.nanoTime() - start;
+        realm.close();
+        return elapsed;
+    }
+
+    private long writeChunks() {
+        Realm realm = Realm.getInstance(getContext(), CHUNKS_FILE);
+        long start = System.nanoTime();
+        realm.beginTransaction();
+        DriveSession session = createSession(realm);
+        realm.commitTransaction();
+        SeriesWriter writer = new SeriesWriter(realm, session);
+        float[] sample = new float[Pid.values().length];
+        SampleRingBuffer.clear(sample);
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            sample[Pid.RPM.ordinal()] = mRpms[i];
+            sample[Pid.SPEED.ordinal()] = mSpeeds[i];
+            sample[Pid.THROTTLE.ordinal()] = mThrottles[i];
+            writer.add(mDates[i], sample);
+        }
+        writer.flush();
+        long elapsed = System.nanoTime() - start;
+
+        // Make sure everything can be read back
+        SeriesCursor cursor = new SeriesCursor(realm, session.getId(), Pid.RPM, 0, Long.MAX_VALUE);
+        int count = 0;
+        while (cursor.next()) {
+            assertEquals(mDates[count], cursor.getTimestamp());
+            assertEquals(mRpms[count], cursor.getValue(), 0f);
+            count++;
+        }
+        assertEquals(SAMPLE_COUNT, count);
+        realm.close();
+        return elapsed;
+    }
+
+    private static DriveSession createSession(Realm realm) {
+        DriveSession session = realm.createObject(DriveSession.class);
+        session.setId(UUID.randomUUID().toString());
+        session.setStartTime(new Date(1430000000000L));
+        session.setEndTime(new Date(1430000000000L));
+        return session;
+    }
+}
@@ -0,0 +1,25 @@
+package me.williamhester.brobd.transport;
+
+import junit.framework.TestCase;
+
+/**
+ * @author William Hester
+ */
+public class BackoffTest extends TestCase {
+
+    public void testDoublesUpToTheMaximum() {
+        Backoff backoff = new Backoff(500, 30000, 42);
+        long expected = 500;
+        for (int i = 0; i < 10; i++) {
+            long delay = backoff.nextDelay();
+            assertTrue(delay >= expected * 3 / 4);
+            assertTrue(delay <= Math.min(30000, expected * 5 / 4));
+            expected = Math.min(30000, expected * 2);
+        }
+        assertEquals(10, backoff.getAttempts());
+
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelay() <= 625);
+    }
+}
@@ -0,0 +1,121 @@
+package me.williamhester.brobd.transport;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.obd.PidPoller;
+import me.williamhester.brobd.obd.ResponseReader;
+
+/**
+ * Drives the emulator through the same code that talks to a real adapter.
+ *
+ * @author William Hester
+ */
+public class Elm327EmulatorTest extends TestCase {
+
+    public void testAnswersSeveralPidsAtOnce() throws IOException {
+        SimulatedVehicle vehicle = new SimulatedVehicle();
+        vehicle.setSupported(Pid.FUEL_RATE, false);
+        Elm327Emulator emulator = new Elm327Emulator(vehicle, 0);
+        InputStream in = emulator.getInputStream();
+        OutputStream out = emulator.getOutputStream();
+        // Like a real adapter, the command that turns echo off is still echoed
+        assertEquals("ATE0\rOK", send(in, out, "ATE0"));
+        assertEquals("OK", send(in, out, "ATL0"));
+
+        PidPoller poller = new PidPoller(Arrays.asList(Pid.COOLANT_TEMP, Pid.INTAKE_TEMP,
+                Pid.FUEL_RATE));
+        poller.poll(in, out);
+        assertTrue(poller.isMultiPidSupported());
+        assertEquals(25f, poller.getValue(Pid.INTAKE_TEMP), 0f);
+        assertTrue(poller.hasValue(Pid.COOLANT_TEMP));
+        assertFalse(poller.hasValue(Pid.FUEL_RATE));
+
+        // PIDs 04, 05, 0C, 0D, 0F, 10, 11, and more past 0x20
+        assertEquals("41 00 18 1B 80 01", send(in, out, "0100"));
+    }
+
+    public void testTroubleCodes() throws IOException {
+        Elm327Emulator emulator = new Elm327Emulator(new SimulatedVehicle(), 0);
+        emulator.setTroubleCodes("P0133");
+        InputStream in = emulator.getInputStream();
+        OutputStream out = emulator.getOutputStream();
+        send(in, out, "ATE0");
+
+        assertEquals("41 01 81 07 E5 00", send(in, out, "0101"));
+        assertEquals("43 01 01 33", send(in, out, "03"));
+        assertEquals("44", send(in, out, "04"));
+        assertEquals("43 00", send(in, out, "03"));
+    }
+
+    public void testClosingFailsReads() throws IOException {
+        Elm327Emulator emulator = new Elm327Emulator(new SimulatedVehicle(), 0);
+        emulator.getOutputStream().write("ATE0\r".getBytes());
+        emulator.close();
+        // Waiting for the answer fails right away, rather than timing out
+        try {
+            new ResponseReader().read(emulator.getInputStream(), 1000);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+    }
+
+    public void testInjectedErrorsAreRepeatable() throws IOException {
+        assertEquals(errorPattern(42), errorPattern(42));
+    }
+
+    public void testReplaysRecordedTrace() throws IOException {
+        Elm327Trace trace = new Elm327Trace();
+        RecordingTransport recorder = new RecordingTransport(
+                new EmulatorTransport(new Elm327Emulator(new SimulatedVehicle(), 0)), trace);
+        recorder.connect();
+        send(recorder.getInputStream(), recorder.getOutputStream(), "ATE0");
+        String recorded = send(recorder.getInputStream(), recorder.getOutputStream(), "010D");
+
+        StringWriter saved = new StringWriter();
+        trace.write(saved);
+        Elm327Emulator replay = new Elm327Emulator(new SimulatedVehicle(), 0);
+        replay.setTrace(Elm327Trace.read(new StringReader(saved.toString())));
+        send(replay.getInputStream(), replay.getOutputStream(), "ATE0");
+        assertEquals(recorded, send(replay.getInputStream(), replay.getOutputStream(), "01 0D"));
+    }
+
+    private static String errorPattern(long seed) throws IOException {
+        Elm327Emulator emulator = new Elm327Emulator(new SimulatedVehicle(), seed);
+        emulator.setErrorRates(0.2, 0.2, 0);
+        InputStream in = emulator.getInputStream();
+        OutputStream out = emulator.getOutputStream();
+        send(in, out, "ATE0");
+        StringBuilder pattern = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            String response = send(in, out, "0105");
+            pattern.append(response.startsWith("41") ? '.' : response.charAt(0));
+        }
+        return pattern.toString();
+    }
+
+    /**
+     * Sends a command and returns the response, without the prompt and the blank lines.
+     */
+    private static String send(InputStream in, OutputStream out, String command)
+            throws IOException {
+        out.write((command + "\r").getBytes());
+        StringBuilder response = new StringBuilder();
+        int b;
+        while ((b = in.read()) != '>') {
+            if (b < 0) {
+                throw new IOException("The stream ended");
+            }
+            response.append((char) b);
+        }
+        return response.toString().replace("\n", "").trim().replace("\r\r", "\r");
+    }
+}
@@ -6,7 +6,9 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
 import android.util.Log;
+import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
 
@@ -15,10 +17,10 @@ import com.squareup.otto.Subscribe;
 
 import me.williamhester.brobd.R;
 import me.williamhester.brobd.fragments.DriveStatisticsFragment;
+import me.williamhester.brobd.fragments.MetricsFragment;
 import me.williamhester.brobd.services.DriveLoggingService;
-import me.williamhester.brobd.services.FakeDriveLoggingService;
 import me.williamhester.brobd.singletons.BusManager;
-import me.williamhester.brobd.singletons.DebugManager;
+import me.williamhester.brobd.singletons.RealmManager;
 
 /**
  * This is the activity that is running when a user wants to see their current data and the
@@ -31,6 +33,7 @@ public class LoggingActivity extends AppCompatActivity {
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        RealmManager.migrate(this);
         Bus bus = BusManager.getInstance();
         bus.register(this);
 
@@ -51,20 +54,19 @@ public class LoggingActivity extends AppCompatActivity {
 
     @Override
     public void onBackPressed() {
+        // Leaving the metrics screen goes back to the drive, without stopping anything
+        if (getSupportFragmentManager().getBackStackEntryCount() > 0) {
+            getSupportFragmentManager().popBackStack();
+            return;
+        }
         new AlertDialog.Builder(this)
                 .setTitle(R.string.stop_data_collection)
                 .setMessage(R.string.are_you_sure)
                 .setPositiveButton(R.string.yes, new DialogInterface.OnClickListener() {
                     @Override
                     public void onClick(DialogInterface dialog, int which) {
-                        Intent serviceKiller;
-                        if (DebugManager.DEBUG) {
-                            serviceKiller = new Intent(LoggingActivity.this,
-                                    FakeDriveLoggingService.class);
-                        } else {
-                            serviceKiller = new Intent(LoggingActivity.this,
-                                    DriveLoggingService.class);
-                        }
+                        Intent serviceKiller = new Intent(LoggingActivity.this,
+                                DriveLoggingService.class);
 
                         Bundle args = new Bundle();
                         args.putBoolean("stop", true);
@@ -82,11 +84,23 @@ public class LoggingActivity extends AppCompatActivity {
                 .show();
     }
 
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.menu_logging, menu);
+        return true;
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
             onBackPressed();
             return true;
+        } else if (item.getItemId() == R.id.action_metrics) {
+            getSupportFragmentManager().beginTransaction()
+                    .replace(R.id.container, MetricsFragment.newInstance(), "Metrics")
+                    .addToBackStack(null)
+                    .commit();
+            return true;
         }
         return super.onOptionsItemSelected(item);
     }
@@ -115,4 +129,28 @@ public class LoggingActivity extends AppCompatActivity {
         Log.d("LoggingActivity", "Could not connect to bluetooth adapter");
         finish();
     }
+
+    @Subscribe
+    public void onConnectionLost(DriveLoggingService.ConnectionLostEvent e) {
+        Toast.makeText(this, "Lost the adapter, reconnecting", Toast.LENGTH_SHORT).show();
+    }
+
+    @Subscribe
+    public void onTroubleCodes(DriveLoggingService.TroubleCodesEvent e) {
+        Toast.makeText(this, getString(e.isMilOn() ? R.string.trouble_codes_mil
+                : R.string.trouble_codes, TextUtils.join(", ", e.getCodes())),
+                Toast.LENGTH_LONG).show();
+    }
+
+    @Subscribe
+    public void onReplayFinished(DriveLoggingService.ReplayFinishedEvent e) {
+        Toast.makeText(this, String.format("Replayed %d samples in %.1f seconds",
+                e.getSampleCount(), e.getDuration() / 1000f), Toast.LENGTH_LONG).show();
+    }
+
+    @Subscribe
+    public void onReconnected(DriveLoggingService.ReconnectedEvent e) {
+        Toast.makeText(this, String.format("Reconnected after %d seconds", e.getDowntime() / 1000),
+                Toast.LENGTH_SHORT).show();
+    }
 }
@@ -7,7 +7,6 @@ import android.app.ProgressDialog;
 import android.app.TaskStackBuilder;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -20,26 +19,28 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.widget.Toast;
 
+import com.squareup.otto.Subscribe;
+
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
 
 import me.williamhester.brobd.R;
+import me.williamhester.brobd.export.SessionExporter;
 import me.williamhester.brobd.fragments.DriverSelectionFragment;
+import me.williamhester.brobd.fragments.HistoryFragment;
 import me.williamhester.brobd.services.DriveLoggingService;
-import me.williamhester.brobd.services.FakeDriveLoggingService;
-import me.williamhester.brobd.singletons.DebugManager;
+import me.williamhester.brobd.singletons.BusManager;
+import me.williamhester.brobd.singletons.ConnectionManager;
+import me.williamhester.brobd.singletons.RealmManager;
+import me.williamhester.brobd.storage.HistoryQueries;
+import me.williamhester.brobd.storage.SampleReplayer;
 import me.williamhester.obd.ObdConfig;
-import me.williamhester.obd.commands.protocol.EchoOffObdCommand;
-import me.williamhester.obd.commands.protocol.LineFeedOffObdCommand;
 import me.williamhester.obd.commands.protocol.ResetMilObdCommand;
-import me.williamhester.obd.commands.protocol.SelectProtocolObdCommand;
-import me.williamhester.obd.commands.protocol.TimeoutObdCommand;
-import me.williamhester.obd.enums.ObdProtocols;
 
 
 /**
@@ -53,10 +54,13 @@ public class MainActivity extends AppCompatActivity {
     public static final int REQUEST_ENABLE_BT = 1;
 
     private String mDriver;
+    private ProgressDialog mExportDialog;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        RealmManager.migrate(this);
+        BusManager.getInstance().register(this);
         setContentView(R.layout.activity_container);
 
         Fragment f = getSupportFragmentManager().findFragmentById(R.id.container);
@@ -92,6 +96,15 @@ public class MainActivity extends AppCompatActivity {
         if (id == R.id.action_bluetooth) {
             showBluetoothPicker();
             return true;
+        } else if (id == R.id.action_export) {
+            showExportPicker();
+            return true;
+        } else if (id == R.id.action_history) {
+            showHistoryPicker();
+            return true;
+        } else if (id == R.id.action_replay) {
+            showReplayPicker();
+            return true;
         } else if (id == R.id.action_reset_mil) {
             resetCheckEngineLight();
             return true;
@@ -100,6 +113,17 @@ public class MainActivity extends AppCompatActivity {
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        BusManager.getInstance().unregister(this);
+        if (mExportDialog != null) {
+            mExportDialog.dismiss();
+            mExportDialog = null;
+        }
+    }
+
     @Override
     public void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -138,14 +162,18 @@ public class MainActivity extends AppCompatActivity {
         }
         mDriver = null;
 
-        Intent service;
-        if (DebugManager.DEBUG) {
-            service = new Intent(this, FakeDriveLoggingService.class);
-        } else {
-            service = new Intent(this, DriveLoggingService.class);
-        }
         Bundle extras = new Bundle();
         extras.putString("driver", driverName);
+        startLogging(extras);
+    }
+
+    /**
+     * Starts the DriveLoggingService and moves to the LoggingActivity to watch it.
+     *
+     * @param extras the extras to start the service with
+     */
+    private void startLogging(Bundle extras) {
+        Intent service = new Intent(this, DriveLoggingService.class);
         service.putExtras(extras);
         startService(service);
 
@@ -155,6 +183,95 @@ public class MainActivity extends AppCompatActivity {
         startActivity(i);
     }
 
+    /**
+     * Asks whose drives to show, and shows them in place of the driver selection until back is
+     * pressed.
+     */
+    private void showHistoryPicker() {
+        HistoryQueries queries = HistoryQueries.getInstance(this);
+        queries.loadDriverNames(new HistoryQueries.Callback<List<String>>() {
+            @Override
+            public void onResult(final List<String> drivers) {
+                if (isFinishing() || drivers.isEmpty()) {
+                    return;
+                }
+                new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(R.string.history_whose)
+                        .setItems(drivers.toArray(new String[drivers.size()]),
+                                new DialogInterface.OnClickListener() {
+                                    @Override
+                                    public void onClick(DialogInterface dialog, int which) {
+                                        showHistory(drivers.get(which));
+                                    }
+                                })
+                        .show();
+            }
+        });
+    }
+
+    /**
+     * @param driverName the driver whose drives to show
+     */
+    private void showHistory(String driverName) {
+        getSupportFragmentManager().beginTransaction()
+                .replace(R.id.container, HistoryFragment.newInstance(driverName), "History")
+                .addToBackStack(null)
+                .commit();
+    }
+
+    /**
+     * Asks which recorded drive to replay, either the last one or a columnar export, and how fast.
+     */
+    private void showReplayPicker() {
+        File[] files = SessionExporter.getInstance(this).getDirectory().listFiles();
+        final ArrayList<File> exports = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                if (file.getName().endsWith(SessionExporter.Format.COLUMNAR.getExtension())) {
+                    exports.add(file);
+                }
+            }
+        }
+        String[] items = new String[exports.size() + 1];
+        items[0] = getString(R.string.export_latest);
+        for (int i = 0; i < exports.size(); i++) {
+            items[i + 1] = exports.get(i).getName();
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.action_replay)
+                .setItems(items, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        showReplaySpeedPicker(which == 0 ? null : exports.get(which - 1));
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * @param file the columnar export to replay, or null for the last drive
+     */
+    private void showReplaySpeedPicker(final File file) {
+        final float[] speeds = {1f, 10f, SampleReplayer.MAX_SPEED};
+        String[] names = {getString(R.string.replay_real_time), getString(R.string.replay_ten_times),
+                getString(R.string.replay_max_speed)};
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.replay_speed)
+                .setItems(names, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        Bundle extras = new Bundle();
+                        extras.putBoolean("replay", true);
+                        extras.putFloat("replay_speed", speeds[which]);
+                        if (file != null) {
+                            extras.putString("replay_file", file.getPath());
+                        }
+                        startLogging(extras);
+                    }
+                })
+                .show();
+    }
+
     /**
      * Shows the dialog to allow the user to select the serial device they wish to use.
      */
@@ -208,6 +325,87 @@ public class MainActivity extends AppCompatActivity {
                 .show();
     }
 
+    /**
+     * Asks what to export, either the last drive or all of one driver's drives, and in which
+     * format. The export itself runs in the background.
+     */
+    private void showExportPicker() {
+        HistoryQueries.getInstance(this).loadDriverNames(new HistoryQueries.Callback<List<String>>() {
+            @Override
+            public void onResult(final List<String> drivers) {
+                if (isFinishing()) {
+                    return;
+                }
+                String[] items = new String[drivers.size() + 1];
+                items[0] = getString(R.string.export_latest);
+                for (int i = 0; i < drivers.size(); i++) {
+                    items[i + 1] = getString(R.string.export_driver, drivers.get(i));
+                }
+                new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(R.string.export_what)
+                        .setItems(items, new DialogInterface.OnClickListener() {
+                            @Override
+                            public void onClick(DialogInterface dialog, int which) {
+                                showExportFormatPicker(which == 0 ? null : drivers.get(which - 1));
+                            }
+                        })
+                        .show();
+            }
+        });
+    }
+
+    /**
+     * @param driverName the driver whose drives to export, or null for the last drive
+     */
+    private void showExportFormatPicker(final String driverName) {
+        String[] formats = {getString(R.string.export_csv), getString(R.string.export_columnar)};
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.export_format)
+                .setItems(formats, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        SessionExporter.Format format = which == 0
+                                ? SessionExporter.Format.CSV : SessionExporter.Format.COLUMNAR;
+                        SessionExporter exporter = SessionExporter.getInstance(MainActivity.this);
+                        if (driverName == null) {
+                            exporter.exportLatestSession(format);
+                        } else {
+                            exporter.exportDriver(driverName, format);
+                        }
+                    }
+                })
+                .show();
+    }
+
+    @Subscribe
+    public void onExportProgress(SessionExporter.ExportProgressEvent e) {
+        if (mExportDialog == null) {
+            mExportDialog = new ProgressDialog(this);
+            mExportDialog.setTitle(R.string.exporting);
+            mExportDialog.setCancelable(false);
+            mExportDialog.show();
+        }
+        mExportDialog.setMessage(getString(R.string.export_progress, e.getWritten(),
+                e.getTotal()));
+    }
+
+    @Subscribe
+    public void onExportFinished(SessionExporter.ExportFinishedEvent e) {
+        if (mExportDialog != null) {
+            mExportDialog.dismiss();
+            mExportDialog = null;
+        }
+        String message;
+        if (e.getFile() == null) {
+            message = getString(R.string.export_nothing);
+        } else if (e.isSucceeded()) {
+            message = getString(R.string.export_finished, e.getFile().getPath());
+        } else {
+            message = getString(R.string.export_failed);
+        }
+        Toast.makeText(this, message, Toast.LENGTH_LONG).show();
+    }
+
     /**
      * Builds the notification that will show that runs when data is being collected by the
      * service. The "Stop" button on it will kill the service, and clicking it will bring
@@ -224,12 +422,7 @@ public class MainActivity extends AppCompatActivity {
                 .setAutoCancel(false)
                 .setOngoing(true);
 
-        Intent serviceKiller;
-        if (DebugManager.DEBUG) {
-            serviceKiller = new Intent(this, FakeDriveLoggingService.class);
-        } else {
-            serviceKiller = new Intent(this, DriveLoggingService.class);
-        }
+        Intent serviceKiller = new Intent(this, DriveLoggingService.class);
         Bundle args = new Bundle();
         args.putBoolean("stop", true);
         serviceKiller.putExtras(args);
@@ -255,68 +448,40 @@ public class MainActivity extends AppCompatActivity {
         notificationManager.notify(0, builder.build());
     }
 
+    /**
+     * Resets the MIL between the logging service's polls if it is logging, or over a connection of
+     * its own otherwise.
+     */
     private void resetCheckEngineLight() {
         final ProgressDialog progressDialog = new ProgressDialog(this);
         progressDialog.setTitle(R.string.reset_mil);
         progressDialog.setCancelable(false);
         progressDialog.setMessage("Resetting Check Engine Light.");
         progressDialog.show();
-        new Thread(new Runnable() {
+        ConnectionManager.getInstance(this).submit(
+                new ConnectionManager.Command(ConnectionManager.PRIORITY_HIGH) {
+            private String mResult;
+
             @Override
-            public void run() {
-                String address = getSharedPreferences("prefs", MODE_PRIVATE)
-                        .getString("bluetooth_address", null);
-                BluetoothAdapter btAdapter = BluetoothAdapter.getDefaultAdapter();
-                BluetoothDevice device = btAdapter.getRemoteDevice(address);
-
-                // Cancel any active device discovery, as it will crash the app if a connection
-                //     is attempted when discovery is active.
-                btAdapter.cancelDiscovery();
-
-                try {
-                    final Method m = device.getClass().getMethod("createRfcommSocket", int.class);
-                    BluetoothSocket socket = (BluetoothSocket) m.invoke(device, 1);
-                    socket.connect();
-
-                    InputStream in = socket.getInputStream();
-                    OutputStream out = socket.getOutputStream();
-
-                    new EchoOffObdCommand().run(in, out);
-                    new LineFeedOffObdCommand().run(in, out);
-                    new TimeoutObdCommand(255).run(in, out);
-                    new SelectProtocolObdCommand(ObdProtocols.AUTO).run(in, out);
-
-                    final ResetMilObdCommand cmd = new ResetMilObdCommand();
-                    cmd.run(in, out);
-
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast.makeText(MainActivity.this, "Reset MIL; result = " +
-                                    cmd.getResult(), Toast.LENGTH_LONG).show();
-                        }
-                    });
-
-                    socket.close();
-                } catch (final IOException | InterruptedException | NoSuchMethodException |
-                        IllegalAccessException | InvocationTargetException e) {
-                    // TODO: Split these into more descriptive fail notifications, but for now
-                    // Gotta catch 'em all
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            Toast.makeText(MainActivity.this, "Could not reset MIL.", Toast.LENGTH_LONG).show();
-                        }
-                    });
+            public void run(InputStream in, OutputStream out)
+                    throws IOException, InterruptedException {
+                ResetMilObdCommand cmd = new ResetMilObdCommand();
+                cmd.run(in, out);
+                mResult = cmd.getResult();
+            }
+
+            @Override
+            public void onFinished(boolean succeeded) {
+                progressDialog.dismiss();
+                if (succeeded) {
+                    Toast.makeText(MainActivity.this, "Reset MIL; result = " + mResult,
+                            Toast.LENGTH_LONG).show();
+                } else {
+                    Toast.makeText(MainActivity.this, "Could not reset MIL.",
+                            Toast.LENGTH_LONG).show();
                 }
-                runOnUiThread(new Runnable() {
-                    @Override
-                    public void run() {
-                        progressDialog.dismiss();
-                    }
-                });
             }
-        }).start();
+        });
     }
 
 }
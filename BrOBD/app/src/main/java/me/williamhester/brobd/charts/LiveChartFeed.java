@@ -0,0 +1,122 @@
+package me.williamhester.brobd.charts;
+
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.components.YAxis;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.williamhester.brobd.stats.WindowedSeries;
+
+/**
+ * Feeds a LineChart that only ever shows the latest {@code capacity} points of each of its
+ * series. The values live in a {@link WindowedSeries} per series, and the chart's Entries and x
+ * values are created once, up front, and then rewritten in place, so the chart's data never grows
+ * and appending a point doesn't allocate. Each axis is bounded by the incrementally tracked maximum
+ * of its series, so nothing has to scan the history to rescale.
+ *
+ * @author William Hester
+ */
+public class LiveChartFeed {
+
+    // Room above the highest value, so the line doesn't touch the top of the chart
+    private static final float HEADROOM = 1.1f;
+
+    private final LineChart mChart;
+    private final int mCapacity;
+    private final LineData mData;
+    private final List<LineDataSet> mSets = new ArrayList<>();
+    private final List<YAxis> mAxes = new ArrayList<>();
+    private final List<WindowedSeries> mSeries = new ArrayList<>();
+    private final List<Entry[]> mEntries = new ArrayList<>();
+
+    /**
+     * @param chart the chart to feed; its data is replaced
+     * @param capacity the number of points shown per series
+     */
+    public LiveChartFeed(LineChart chart, int capacity) {
+        mChart = chart;
+        mCapacity = capacity;
+        mData = new LineData();
+        mChart.setData(mData);
+        mChart.setVisibleXRange(capacity);
+    }
+
+    /**
+     * Adds a series to the chart. Series are numbered in the order they are added.
+     *
+     * @param set the styled, empty data set of the series
+     * @param axis the axis that the data set is plotted against
+     */
+    public void addSeries(LineDataSet set, YAxis axis) {
+        Entry[] entries = new Entry[mCapacity];
+        for (int i = 0; i < mCapacity; i++) {
+            entries[i] = new Entry(0, i);
+        }
+        mData.addDataSet(set);
+        mSets.add(set);
+        mAxes.add(axis);
+        mSeries.add(new WindowedSeries(mCapacity));
+        mEntries.add(entries);
+    }
+
+    /**
+     * Appends a point to every series. The chart isn't redrawn until {@link #notifyChanged()}.
+     *
+     * @param values one value per series, in the order the series were added
+     */
+    public void append(float[] values) {
+        for (int s = 0; s < mSeries.size(); s++) {
+            mSeries.get(s).add(values[s]);
+        }
+    }
+
+    /**
+     * Copies the windows into the chart's Entries, rescales the axes and redraws the chart.
+     */
+    public void notifyChanged() {
+        for (int s = 0; s < mSets.size(); s++) {
+            LineDataSet set = mSets.get(s);
+            WindowedSeries series = mSeries.get(s);
+            Entry[] entries = mEntries.get(s);
+            int size = series.size();
+            // Only happens until the window is full the first time
+            while (set.getEntryCount() < size) {
+                if (mData.getXValCount() < size) {
+                    mData.addXValue("");
+                }
+                set.addEntry(entries[set.getEntryCount()]);
+            }
+            for (int i = 0; i < size; i++) {
+                entries[i].setVal(series.get(i));
+            }
+            set.notifyDataSetChanged();
+        }
+
+        for (int a = 0; a < mAxes.size(); a++) {
+            YAxis axis = mAxes.get(a);
+            if (mAxes.indexOf(axis) != a) {
+                // Already rescaled along with an earlier series on the same axis
+                continue;
+            }
+            float max = 0;
+            for (int s = a; s < mSeries.size(); s++) {
+                if (mAxes.get(s) == axis && mSeries.get(s).size() > 0) {
+                    max = Math.max(max, mSeries.get(s).getMax());
+                }
+            }
+            axis.setAxisMaxValue(max > 0 ? max * HEADROOM : 1);
+        }
+
+        mData.notifyDataChanged();
+        mChart.notifyDataSetChanged();
+        mChart.invalidate();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+}
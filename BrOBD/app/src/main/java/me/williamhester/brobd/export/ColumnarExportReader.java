@@ -0,0 +1,216 @@
+package me.williamhester.brobd.export;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.storage.SampleMerger;
+import me.williamhester.brobd.storage.SeriesDecoder;
+import me.williamhester.brobd.storage.SeriesSource;
+
+/**
+ * Reads a file written by {@link ColumnarExportWriter}. Only the index is read up front; the
+ * chunks are read from the file one at a time as the series are streamed, so a reader takes the
+ * same memory no matter how long the sessions are. A reader, and everything opened from it, must
+ * only be used from one thread.
+ *
+ * @author William Hester
+ */
+public class ColumnarExportReader {
+
+    static final int MAGIC = 0x42524331; // "BRC1"
+    static final int VERSION = 1;
+    static final int PREAMBLE_SIZE = 6;
+
+    private static final int TRAILER_SIZE = 8;
+
+    private final RandomAccessFile mFile;
+    private final String[] mSessionIds;
+    private final String[] mDriverNames;
+    private final long[] mStartTimes;
+    private final long[] mEndTimes;
+    private final int[] mChunkSessions;
+    private final int[] mChunkPids;
+    private final int[] mChunkCounts;
+    private final long[] mChunkOffsets;
+    private final int[] mChunkLengths;
+
+    /**
+     * @param file a file written by {@link ColumnarExportWriter}
+     * @throws IOException if the file can't be read or isn't in this format
+     */
+    public ColumnarExportReader(File file) throws IOException {
+        mFile = new RandomAccessFile(file, "r");
+        try {
+            long length = mFile.length();
+            if (length < PREAMBLE_SIZE + TRAILER_SIZE || mFile.readInt() != MAGIC) {
+                throw new IOException("Not a columnar export: " + file);
+            }
+            int version = mFile.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported columnar export version " + version);
+            }
+            mFile.seek(length - TRAILER_SIZE);
+            int indexLength = mFile.readInt();
+            if (mFile.readInt() != MAGIC || indexLength < 0
+                    || indexLength > length - PREAMBLE_SIZE - TRAILER_SIZE) {
+                throw new IOException("Incomplete columnar export: " + file);
+            }
+            byte[] index = new byte[indexLength];
+            mFile.seek(length - TRAILER_SIZE - indexLength);
+            mFile.readFully(index);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+            int sessionCount = in.readInt();
+            mSessionIds = new String[sessionCount];
+            mDriverNames = new String[sessionCount];
+            mStartTimes = new long[sessionCount];
+            mEndTimes = new long[sessionCount];
+            for (int i = 0; i < sessionCount; i++) {
+                mSessionIds[i] = in.readUTF();
+                mDriverNames[i] = in.readUTF();
+                mStartTimes[i] = in.readLong();
+                mEndTimes[i] = in.readLong();
+            }
+            int chunkCount = in.readInt();
+            mChunkSessions = new int[chunkCount];
+            mChunkPids = new int[chunkCount];
+            mChunkCounts = new int[chunkCount];
+            mChunkOffsets = new long[chunkCount];
+            mChunkLengths = new int[chunkCount];
+            for (int i = 0; i < chunkCount; i++) {
+                mChunkSessions[i] = in.readInt();
+                mChunkPids[i] = in.readShort();
+                mChunkCounts[i] = in.readInt();
+                in.readLong(); // first timestamp
+                in.readLong(); // last timestamp
+                mChunkOffsets[i] = in.readLong();
+                mChunkLengths[i] = in.readInt();
+            }
+        } catch (IOException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    public int getSessionCount() {
+        return mSessionIds.length;
+    }
+
+    public String getSessionId(int session) {
+        return mSessionIds[session];
+    }
+
+    public String getDriverName(int session) {
+        return mDriverNames[session];
+    }
+
+    /**
+     * @return the start time of the session, in milliseconds since the epoch
+     */
+    public long getStartTime(int session) {
+        return mStartTimes[session];
+    }
+
+    /**
+     * @return the end time of the session, in milliseconds since the epoch, or 0 if it hadn't
+     *     ended when it was exported
+     */
+    public long getEndTime(int session) {
+        return mEndTimes[session];
+    }
+
+    /**
+     * @param session the index of the session
+     * @return the number of samples of every PID in the session
+     */
+    public long getSampleCount(int session) {
+        long count = 0;
+        for (int i = 0; i < mChunkSessions.length; i++) {
+            if (mChunkSessions[i] == session) {
+                count += mChunkCounts[i];
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Streams the samples of one PID of a session, oldest first. Errors reading the file are
+     * thrown as {@link IllegalStateException}s.
+     *
+     * @param session the index of the session
+     * @param pid the PID to read
+     * @return the series, which is empty if the PID wasn't logged
+     */
+    public SeriesSource openSeries(final int session, final Pid pid) {
+        return new SeriesSource() {
+            private final SeriesDecoder mDecoder = new SeriesDecoder();
+            private int mChunk = -1;
+
+            @Override
+            public boolean next() {
+                while (mChunk < 0 || !mDecoder.next()) {
+                    mChunk = findChunk(session, pid.getCode(), mChunk + 1);
+                    if (mChunk < 0) {
+                        mChunk = mChunkSessions.length;
+                        return false;
+                    }
+                    mDecoder.reset(readChunk(mChunk));
+                }
+                return true;
+            }
+
+            @Override
+            public long getTimestamp() {
+                return mDecoder.getTimestamp();
+            }
+
+            @Override
+            public float getValue() {
+                return mDecoder.getValue();
+            }
+        };
+    }
+
+    /**
+     * Streams every PID of a session, put back together into samples.
+     *
+     * @param session the index of the session
+     * @return the samples
+     */
+    public SampleMerger openSamples(int session) {
+        Pid[] pids = Pid.values();
+        SeriesSource[] sources = new SeriesSource[pids.length];
+        for (Pid pid : pids) {
+            sources[pid.ordinal()] = openSeries(session, pid);
+        }
+        return new SampleMerger(sources);
+    }
+
+    public void close() throws IOException {
+        mFile.close();
+    }
+
+    private int findChunk(int session, int pidCode, int from) {
+        for (int i = from; i < mChunkSessions.length; i++) {
+            if (mChunkSessions[i] == session && mChunkPids[i] == pidCode) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private byte[] readChunk(int chunk) {
+        byte[] data = new byte[mChunkLengths[chunk]];
+        try {
+            mFile.seek(mChunkOffsets[chunk]);
+            mFile.readFully(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("Couldn't read chunk " + chunk, e);
+        }
+        return data;
+    }
+}
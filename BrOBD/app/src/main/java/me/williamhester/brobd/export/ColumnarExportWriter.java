@@ -0,0 +1,93 @@
+package me.williamhester.brobd.export;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * Writes sessions in the columnar format read by {@link ColumnarExportReader}. The compressed
+ * chunks are copied out of the Realm as they are, one PID at a time, so nothing is decoded and
+ * only one chunk is held in memory at once.
+ *
+ * The file starts with {@link ColumnarExportReader#MAGIC} and the version, followed by the chunks'
+ * bytes. The index goes last, since the offsets aren't known until the chunks are written: every
+ * session's id, driver, start and end time, then every chunk's session, PID code, sample count,
+ * first and last timestamp, offset and length. The file ends with the length of the index and the
+ * magic number again. Everything is big-endian.
+ *
+ * @author William Hester
+ */
+class ColumnarExportWriter implements ExportWriter {
+
+    private static final Pid[] PIDS = Pid.values();
+
+    private final DataOutputStream mOut;
+    private final ByteArrayOutputStream mSessionBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mSessions = new DataOutputStream(mSessionBytes);
+    private final ByteArrayOutputStream mChunkBytes = new ByteArrayOutputStream();
+    private final DataOutputStream mChunks = new DataOutputStream(mChunkBytes);
+    private int mSessionCount;
+    private int mChunkCount;
+    private long mOffset;
+
+    ColumnarExportWriter(OutputStream out) throws IOException {
+        mOut = new DataOutputStream(new BufferedOutputStream(out));
+        mOut.writeInt(ColumnarExportReader.MAGIC);
+        mOut.writeShort(ColumnarExportReader.VERSION);
+        mOffset = ColumnarExportReader.PREAMBLE_SIZE;
+    }
+
+    @Override
+    public void writeSession(Realm realm, DriveSession session, Progress progress)
+            throws IOException {
+        int sessionIndex = mSessionCount++;
+        mSessions.writeUTF(session.getId());
+        mSessions.writeUTF(session.getDriver() != null ? session.getDriver().getName() : "");
+        mSessions.writeLong(session.getStartTime().getTime());
+        mSessions.writeLong(session.getEndTime() != null ? session.getEndTime().getTime() : 0);
+
+        for (Pid pid : PIDS) {
+            RealmResults<SampleChunk> chunks = realm.where(SampleChunk.class)
+                    .equalTo("sessionId", session.getId())
+                    .equalTo("pid", pid.getCode())
+                    .findAllSorted("startTime");
+            for (int i = 0; i < chunks.size(); i++) {
+                SampleChunk chunk = chunks.get(i);
+                byte[] data = chunk.getData();
+                mOut.write(data);
+
+                mChunks.writeInt(sessionIndex);
+                mChunks.writeShort(chunk.getPid());
+                mChunks.writeInt(chunk.getCount());
+                mChunks.writeLong(chunk.getStartTime());
+                mChunks.writeLong(chunk.getEndTime());
+                mChunks.writeLong(mOffset);
+                mChunks.writeInt(data.length);
+                mChunkCount++;
+                mOffset += data.length;
+
+                progress.onSamplesWritten(chunk.getCount());
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        int indexLength = 8 + mSessionBytes.size() + mChunkBytes.size();
+        mOut.writeInt(mSessionCount);
+        mSessionBytes.writeTo(mOut);
+        mOut.writeInt(mChunkCount);
+        mChunkBytes.writeTo(mOut);
+        mOut.writeInt(indexLength);
+        mOut.writeInt(ColumnarExportReader.MAGIC);
+        mOut.close();
+    }
+}
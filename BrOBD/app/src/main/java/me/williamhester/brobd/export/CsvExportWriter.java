@@ -0,0 +1,71 @@
+package me.williamhester.brobd.export;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import io.realm.Realm;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.storage.SampleMerger;
+import me.williamhester.brobd.storage.SeriesCursor;
+
+/**
+ * Writes samples as CSV, one row per sample: the session's id, the timestamp in milliseconds since
+ * the epoch, and a column for every PID, which is empty when the PID wasn't part of the sample.
+ * The PIDs' series are merged back into rows with a {@link SampleMerger}, one chunk at a time.
+ *
+ * @author William Hester
+ */
+class CsvExportWriter implements ExportWriter {
+
+    private static final Pid[] PIDS = Pid.values();
+    private static final int PROGRESS_INTERVAL = 1000;
+
+    private final Writer mWriter;
+
+    CsvExportWriter(OutputStream out) throws IOException {
+        mWriter = new BufferedWriter(new OutputStreamWriter(out, Charset.forName("UTF-8")));
+        mWriter.write("session,timestamp");
+        for (Pid pid : PIDS) {
+            mWriter.write(',');
+            mWriter.write(pid.name());
+        }
+        mWriter.write('\n');
+    }
+
+    @Override
+    public void writeSession(Realm realm, DriveSession session, Progress progress)
+            throws IOException {
+        SampleMerger merger = SeriesCursor.openSamples(realm, session.getId());
+        String sessionId = session.getId();
+        int written = 0;
+        while (merger.next()) {
+            mWriter.write(sessionId);
+            mWriter.write(',');
+            mWriter.write(Long.toString(merger.getTimestamp()));
+            float[] sample = merger.getSample();
+            for (float value : sample) {
+                mWriter.write(',');
+                if (!Float.isNaN(value)) {
+                    mWriter.write(Float.toString(value));
+                    written++;
+                }
+            }
+            mWriter.write('\n');
+            if (written >= PROGRESS_INTERVAL) {
+                progress.onSamplesWritten(written);
+                written = 0;
+            }
+        }
+        progress.onSamplesWritten(written);
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWriter.close();
+    }
+}
@@ -0,0 +1,37 @@
+package me.williamhester.brobd.export;
+
+import java.io.IOException;
+
+import io.realm.Realm;
+import me.williamhester.brobd.models.DriveSession;
+
+/**
+ * Writes one export file, a session at a time. Implementations stream the samples out of the
+ * Realm, so that they use the same memory no matter how long the sessions are.
+ *
+ * @author William Hester
+ */
+interface ExportWriter {
+
+    /**
+     * Told how many samples have been written, every so often.
+     */
+    interface Progress {
+        void onSamplesWritten(int count);
+    }
+
+    /**
+     * @param realm the Realm that the session belongs to
+     * @param session the session to write
+     * @param progress told about the samples as they are written
+     * @throws IOException if the file can't be written
+     */
+    void writeSession(Realm realm, DriveSession session, Progress progress) throws IOException;
+
+    /**
+     * Finishes the file and closes it.
+     *
+     * @throws IOException if the file can't be written
+     */
+    void close() throws IOException;
+}
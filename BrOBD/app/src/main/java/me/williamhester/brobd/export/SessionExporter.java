@@ -0,0 +1,275 @@
+package me.williamhester.brobd.export;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.singletons.BusManager;
+import me.williamhester.brobd.singletons.RealmManager;
+
+/**
+ * Exports sessions to files on a thread of its own. Samples are streamed from the Realm straight
+ * into the file, so an export takes the same memory whether it's one short drive or every drive a
+ * driver has made. While it runs, {@link ExportProgressEvent}s are posted to the Bus, followed by
+ * an {@link ExportFinishedEvent}. Exports run one at a time, in the order they were asked for.
+ *
+ * @author William Hester
+ */
+public class SessionExporter {
+
+    private static final String TAG = "SessionExporter";
+    private static final String DIRECTORY = "exports";
+    private static final long PROGRESS_INTERVAL = 250;
+
+    private static SessionExporter mInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    public enum Format {
+        CSV(".csv"),
+        COLUMNAR(".brc");
+
+        private final String mExtension;
+
+        Format(String extension) {
+            mExtension = extension;
+        }
+
+        public String getExtension() {
+            return mExtension;
+        }
+    }
+
+    public static synchronized SessionExporter getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new SessionExporter(context);
+        }
+        return mInstance;
+    }
+
+    private SessionExporter(Context context) {
+        mContext = context.getApplicationContext();
+        HandlerThread thread = new HandlerThread("Exporter");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Exports the most recent session.
+     *
+     * @param format the format to write
+     */
+    public void exportLatestSession(final Format format) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Realm realm = openRealm();
+                try {
+                    Date date = realm.where(DriveSession.class).maximumDate("startTime");
+                    if (date == null) {
+                        postToUiThread(new ExportFinishedEvent(null, false));
+                        return;
+                    }
+                    RealmResults<DriveSession> sessions = realm.where(DriveSession.class)
+                            .equalTo("startTime", date)
+                            .findAll();
+                    String name = "drive-" + new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US)
+                            .format(date);
+                    export(realm, sessions, name, format);
+                } finally {
+                    realm.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Exports every session of a driver, oldest first, into one file.
+     *
+     * @param driverName the name of the driver
+     * @param format the format to write
+     */
+    public void exportDriver(final String driverName, final Format format) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Realm realm = openRealm();
+                try {
+                    RealmResults<DriveSession> sessions = realm.where(DriveSession.class)
+                            .equalTo("driver.name", driverName)
+                            .findAllSorted("startTime");
+                    String name = "driver-" + driverName.replaceAll("[^A-Za-z0-9_-]", "_");
+                    export(realm, sessions, name, format);
+                } finally {
+                    realm.close();
+                }
+            }
+        });
+    }
+
+    private void export(Realm realm, List<DriveSession> sessions, String name, Format format) {
+        File file = new File(getDirectory(), name + format.getExtension());
+        final long total = countSamples(realm, sessions);
+        long started = SystemClock.elapsedRealtime();
+        boolean succeeded = false;
+        try {
+            OutputStream out = new FileOutputStream(file);
+            ExportWriter writer = format == Format.CSV
+                    ? new CsvExportWriter(out) : new ColumnarExportWriter(out);
+            ProgressPoster progress = new ProgressPoster(file, total);
+            try {
+                for (DriveSession session : sessions) {
+                    writer.writeSession(realm, session, progress);
+                }
+            } finally {
+                writer.close();
+            }
+            succeeded = true;
+            Log.d(TAG, String.format("Exported %d samples to %s in %d ms", total, file,
+                    SystemClock.elapsedRealtime() - started));
+        } catch (IOException e) {
+            Log.e(TAG, "Couldn't export to " + file + ": " + e.getMessage());
+            file.delete();
+        }
+        postToUiThread(new ExportFinishedEvent(file, succeeded));
+    }
+
+    private static long countSamples(Realm realm, List<DriveSession> sessions) {
+        long total = 0;
+        for (DriveSession session : sessions) {
+            RealmResults<SampleChunk> chunks = realm.where(SampleChunk.class)
+                    .equalTo("sessionId", session.getId())
+                    .findAll();
+            for (int i = 0; i < chunks.size(); i++) {
+                total += chunks.get(i).getCount();
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @return the directory that exports are written to
+     */
+    public File getDirectory() {
+        File directory = mContext.getExternalFilesDir(DIRECTORY);
+        if (directory == null) {
+            // External storage isn't mounted
+            directory = new File(mContext.getFilesDir(), DIRECTORY);
+        }
+        directory.mkdirs();
+        return directory;
+    }
+
+    private Realm openRealm() {
+        RealmManager.migrate(mContext);
+        return Realm.getInstance(mContext);
+    }
+
+    private void postToUiThread(final Object event) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                BusManager.getInstance().post(event);
+            }
+        });
+    }
+
+    /**
+     * Posts the progress of an export, but no more often than every {@link #PROGRESS_INTERVAL}
+     * milliseconds.
+     */
+    private class ProgressPoster implements ExportWriter.Progress {
+
+        private final File mFile;
+        private final long mTotal;
+        private long mWritten;
+        private long mLastPosted;
+
+        ProgressPoster(File file, long total) {
+            mFile = file;
+            mTotal = total;
+        }
+
+        @Override
+        public void onSamplesWritten(int count) {
+            mWritten += count;
+            long now = SystemClock.elapsedRealtime();
+            if (now - mLastPosted >= PROGRESS_INTERVAL) {
+                mLastPosted = now;
+                postToUiThread(new ExportProgressEvent(mFile, mWritten, mTotal));
+            }
+        }
+    }
+
+    public static class ExportProgressEvent {
+
+        private final File mFile;
+        private final long mWritten;
+        private final long mTotal;
+
+        public ExportProgressEvent(File file, long written, long total) {
+            mFile = file;
+            mWritten = written;
+            mTotal = total;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return the number of samples written so far
+         */
+        public long getWritten() {
+            return mWritten;
+        }
+
+        /**
+         * @return the number of samples being exported
+         */
+        public long getTotal() {
+            return mTotal;
+        }
+    }
+
+    public static class ExportFinishedEvent {
+
+        private final File mFile;
+        private final boolean mSucceeded;
+
+        /**
+         * @param file the file that was written, or null if there was nothing to export
+         * @param succeeded whether the file was written completely
+         */
+        public ExportFinishedEvent(File file, boolean succeeded) {
+            mFile = file;
+            mSucceeded = succeeded;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public boolean isSucceeded() {
+            return mSucceeded;
+        }
+    }
+}
@@ -3,7 +3,6 @@ package me.williamhester.brobd.fragments;
 import android.graphics.Color;
 import android.graphics.Typeface;
 import android.os.Bundle;
-import android.os.Handler;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -14,19 +13,21 @@ import com.github.mikephil.charting.charts.LineChart;
 import com.github.mikephil.charting.components.Legend;
 import com.github.mikephil.charting.components.YAxis;
 import com.github.mikephil.charting.data.Entry;
-import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.listener.OnChartValueSelectedListener;
 import com.github.mikephil.charting.utils.ColorTemplate;
 import com.github.mikephil.charting.utils.Highlight;
+import com.squareup.otto.Subscribe;
 
-import java.util.Date;
+import java.util.ArrayList;
 import java.util.List;
 
-import io.realm.Realm;
 import me.williamhester.brobd.R;
-import me.williamhester.brobd.models.DataPoint;
-import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.charts.LiveChartFeed;
+import me.williamhester.brobd.singletons.BusManager;
+import me.williamhester.brobd.stats.DriveAggregator;
+import me.williamhester.brobd.storage.HistoryQueries;
+import me.williamhester.brobd.storage.SamplePersister.SamplesEvent;
 
 /**
  * This fragment shows live data about the current Drive Session.
@@ -35,11 +36,13 @@ import me.williamhester.brobd.models.DriveSession;
  */
 public class DriveStatisticsFragment extends Fragment implements OnChartValueSelectedListener {
 
-    // Update the display every second
-    private static final long INTERVAL_MS = 500;
     private static final int MAX_DATA_POINTS = 101;
 
     private LineChart mChart;
+    private LiveChartFeed mChartFeed;
+    // Speed and RPM, reused for every point added to the chart
+    private final float[] mChartValues = new float[2];
+    private long mLastChartDate;
     private TextView mAverageSpeedText;
     private TextView mCurrentSpeedText;
     private TextView mMaxSpeedText;
@@ -49,29 +52,20 @@ public class DriveStatisticsFragment extends Fragment implements OnChartValueSel
     private TextView mAverageThrottleText;
     private TextView mMaxThrottleText;
     private TextView mElapsedTimeText;
-    private Handler mHandler = new Handler();
-    private Realm mRealm;
-
-    private int mMaxSpeed;
-    private int mMaxRpm;
-    private float mMaxThrottle;
-    private int mMaxMph;
-    private double mAverageSpeedSum;
-    private double mAverageRpmSum;
-    private double mAverageThrottleSum;
-    private int mDataPointCount;
+    private TextView mCurrentMpgText;
+    private TextView mAverageMpgText;
+    private TextView mFuelUsedText;
+
+    // Starts from the session's saved summary and is kept current by the logging service. Null
+    //     until the summary has been read.
+    private DriveAggregator mAggregator;
+    // What the logging service posted while the summary was being read
+    private final List<SamplesEvent> mPendingSamples = new ArrayList<>();
 
     public static DriveStatisticsFragment newInstance() {
         return new DriveStatisticsFragment();
     }
 
-    @Override
-    public void onCreate(Bundle savedInstanceState) {
-        super.onCreate(savedInstanceState);
-
-        mRealm = Realm.getInstance(getActivity());
-    }
-
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -90,73 +84,103 @@ public class DriveStatisticsFragment extends Fragment implements OnChartValueSel
         mMaxThrottleText = (TextView) v.findViewById(R.id.max_throttle);
 
         mElapsedTimeText = (TextView) v.findViewById(R.id.live_time);
-        initAveragesAndMaxima();
 
-        onCreateGraph();
+        mCurrentMpgText = (TextView) v.findViewById(R.id.live_mpg);
+        mAverageMpgText = (TextView) v.findViewById(R.id.average_mpg);
+        mFuelUsedText = (TextView) v.findViewById(R.id.fuel_used);
 
-        return v;
-    }
+        onCreateGraph();
 
-    @Override
-    public void onResume() {
-        super.onResume();
+        // From here on, new points are pushed to us by the logging service
+        BusManager.getInstance().register(this);
+        mAggregator = null;
+        mLastChartDate = 0;
+        HistoryQueries.getInstance(getActivity())
+                .loadLatestSession(MAX_DATA_POINTS, mSessionLoaded);
 
-        mHandler.post(mStatsRunnable);
+        return v;
     }
 
     @Override
     public void onDestroyView() {
         super.onDestroyView();
 
+        BusManager.getInstance().unregister(this);
         mChart = null;
-        mHandler.removeCallbacks(mStatsRunnable);
+        mChartFeed = null;
+        mPendingSamples.clear();
     }
 
-    private void initAveragesAndMaxima() {
-        Date date = mRealm.where(DriveSession.class)
-                .maximumDate("startTime");
-        List<DataPoint> points = mRealm.where(DataPoint.class)
-                .greaterThan("date", date)
-                .findAllSorted("date");
+    private final HistoryQueries.Callback<HistoryQueries.SessionSnapshot> mSessionLoaded =
+            new HistoryQueries.Callback<HistoryQueries.SessionSnapshot>() {
+                @Override
+                public void onResult(HistoryQueries.SessionSnapshot snapshot) {
+                    if (mChartFeed == null) {
+                        // The view is gone
+                        return;
+                    }
+                    // Reading the summary takes the same time no matter how long the drive has
+                    //     been
+                    if (snapshot != null) {
+                        mAggregator = snapshot.getAggregator();
+                        HistoryQueries.RecentPoints recent = snapshot.getRecent();
+                        for (int i = 0; i < recent.getCount(); i++) {
+                            appendData(recent.getDate(i), recent.getSpeed(i),
+                                    recent.getRpm(i));
+                        }
+                        mChartFeed.notifyChanged();
+                        updateFuelEconomy(Float.NaN, snapshot.getFuelEconomy().getFuelUsed(),
+                                snapshot.getFuelEconomy().getAverageMpg());
+                    } else {
+                        mAggregator = new DriveAggregator();
+                    }
+                    updateMaxima();
+                    updateAveragesAndCurrents();
 
-        for (DataPoint p : points) {
-            mAverageSpeedSum += p.getSpeed();
-            mAverageRpmSum += p.getRpm();
-            mAverageThrottleSum += p.getThrottle();
+                    for (SamplesEvent event : mPendingSamples) {
+                        onSamples(event);
+                    }
+                    mPendingSamples.clear();
+                }
+            };
 
-            if (p.getSpeed() > mMaxSpeed) {
-                mMaxSpeed = p.getSpeed();
-            }
-            if (p.getRpm() > mMaxRpm) {
-                mMaxRpm = p.getRpm();
-            }
-            if (p.getThrottle() > mMaxThrottle) {
-                mMaxThrottle = p.getThrottle();
-            }
+    private void updateMaxima() {
+        if (mAggregator.getCount() == 0) {
+            return;
         }
-        mMaxSpeedText.setText(Math.round(mMaxSpeed) + " MPH");
-        mMaxRpmText.setText(Math.round(mMaxRpm) + " RPM");
-        mMaxThrottleText.setText(String.format("%.2f%s", mMaxThrottle, "%"));
-
-        mDataPointCount = points.size();
-
-        updateAveragesAndCurrents();
+        mMaxSpeedText.setText(Math.round(mAggregator.getSpeed().getMax()) + " MPH");
+        mMaxRpmText.setText(Math.round(mAggregator.getRpm().getMax()) + " RPM");
+        mMaxThrottleText.setText(
+                String.format("%.2f%s", mAggregator.getThrottle().getMax(), "%"));
     }
 
     private void updateAveragesAndCurrents() {
-        mAverageSpeedText.setText(Math.round(mAverageSpeedSum / mDataPointCount) + " MPH");
-        mAverageRpmText.setText(Math.round(mAverageRpmSum / mDataPointCount) + " RPM");
-        mAverageThrottleText.setText(Math.round(mAverageThrottleSum / mDataPointCount) + "%");
+        mAverageSpeedText.setText(Math.round(mAggregator.getSpeed().getMean()) + " MPH");
+        mAverageRpmText.setText(Math.round(mAggregator.getRpm().getMean()) + " RPM");
+        mAverageThrottleText.setText(Math.round(mAggregator.getThrottle().getMean()) + "%");
 
-        mCurrentDistanceText.setText(String.format("%.2f miles driven", mAverageSpeedSum / 3600.0));
+        mCurrentDistanceText.setText(
+                String.format("%.2f miles driven", mAggregator.getDistance()));
+        long seconds = mAggregator.getElapsedMillis() / 1000;
         mElapsedTimeText.setText(
                 "Elapsed time: "
-                        + String.valueOf(mDataPointCount / 3600) + ':'
-                        + String.format("%02d", mDataPointCount / 60 % 60) + ':'
-                        + String.format("%02d", mDataPointCount % 60)
+                        + String.valueOf(seconds / 3600) + ':'
+                        + String.format("%02d", seconds / 60 % 60) + ':'
+                        + String.format("%02d", seconds % 60)
         );
     }
 
+    /**
+     * @param current the instant fuel economy, or NaN if it isn't known
+     * @param fuelUsed the fuel used so far, in gallons
+     * @param average the average fuel economy, or NaN if no fuel has been used yet
+     */
+    private void updateFuelEconomy(float current, double fuelUsed, float average) {
+        mCurrentMpgText.setText(Float.isNaN(current) ? "" : Math.round(current) + " MPG");
+        mAverageMpgText.setText(Float.isNaN(average) ? "-" : String.format("%.1f MPG", average));
+        mFuelUsedText.setText(String.format("%.2f gal", fuelUsed));
+    }
+
     private void onCreateGraph() {
         mChart.setOnChartValueSelectedListener(this);
         mChart.setTouchEnabled(false);
@@ -166,11 +190,9 @@ public class DriveStatisticsFragment extends Fragment implements OnChartValueSel
         mChart.setPinchZoom(true);
         mChart.setDescription("");
 
-        LineData data = new LineData();
-
-        mChart.setData(data);
-
-        initData();
+        mChartFeed = new LiveChartFeed(mChart, MAX_DATA_POINTS);
+        mChartFeed.addSeries(createSpeedSet(), mChart.getAxisLeft());
+        mChartFeed.addSeries(createRpmSet(), mChart.getAxisRight());
 
         Typeface tf = Typeface.DEFAULT;
 
@@ -179,71 +201,11 @@ public class DriveStatisticsFragment extends Fragment implements OnChartValueSel
         l.setTypeface(tf);
     }
 
-    private void initData() {
-        LineData data = mChart.getData();
-
-        if (data != null) {
-            LineDataSet speedSet = data.getDataSetByIndex(0);
-            LineDataSet rpmSet = data.getDataSetByIndex(1);
-
-            if (speedSet == null) {
-                speedSet = createSpeedSet();
-                data.addDataSet(speedSet);
-            }
-
-            if (rpmSet == null) {
-                rpmSet = createRpmSet();
-                data.addDataSet(rpmSet);
-            }
-
-            Date date = mRealm.where(DriveSession.class)
-                    .maximumDate("startTime");
-            List<DataPoint> points = mRealm.where(DataPoint.class)
-                    .greaterThan("date", date)
-                    .findAllSorted("date");
-
-            mMaxMph = mRealm.where(DataPoint.class)
-                    .greaterThan("date", date)
-                    .findAllSorted("date")
-                    .max("speed")
-                    .intValue();
-
-            mMaxSpeedText.setText(mMaxMph + " MPH");
-
-            // get the last 30 data points
-            int start = points.size() >= MAX_DATA_POINTS ? points.size() - MAX_DATA_POINTS : 0;
-            points = points.subList(start, points.size());
-
-            for (DataPoint p : points) {
-                data.addXValue("");
-                data.addEntry(new Entry(p.getSpeed(), speedSet.getEntryCount()), 0);
-                data.addEntry(new Entry(p.getRpm(), rpmSet.getEntryCount()), 1);
-            }
-
-            mChart.notifyDataSetChanged();
-            mChart.setVisibleXRange(MAX_DATA_POINTS);
-            mChart.moveViewToX(data.getXValCount() - MAX_DATA_POINTS - 1);
-        }
-    }
-
-    private void appendData(int speed, int rpm) {
-        LineData data = mChart.getData();
-
-        if (data != null) {
-
-            LineDataSet speedSet = data.getDataSetByIndex(0);
-            LineDataSet rpmSet = data.getDataSetByIndex(1);
-
-            // add a new x-value first
-            data.addXValue("");
-            data.addEntry(new Entry(speed, speedSet.getEntryCount()), 0);
-            data.addEntry(new Entry(rpm, rpmSet.getEntryCount()), 1);
-
-            // let the chart know it's data has changed
-            mChart.notifyDataSetChanged();
-            mChart.setVisibleXRange(MAX_DATA_POINTS);
-            mChart.moveViewToX(data.getXValCount() - MAX_DATA_POINTS - 1);
-        }
+    private void appendData(long date, int speed, int rpm) {
+        mLastChartDate = date;
+        mChartValues[0] = speed;
+        mChartValues[1] = rpm;
+        mChartFeed.append(mChartValues);
     }
 
     private LineDataSet createSpeedSet() {
@@ -274,56 +236,40 @@ public class DriveStatisticsFragment extends Fragment implements OnChartValueSel
         return set;
     }
 
-    private Runnable mStatsRunnable = new Runnable() {
-        private Date mLatestDate;
-
-        @Override
-        public void run() {
-            // Get the data from the Realm and put the latest speed and RPM into their
-            //      respective TextViews.
-            long startTime = System.currentTimeMillis();
-
-            Date tempLatest = mRealm.where(DataPoint.class)
-                    .maximumDate("date");
-            if (tempLatest != null && (mLatestDate == null || tempLatest.compareTo(mLatestDate) > 0)) {
-                DataPoint latest = mRealm.where(DataPoint.class)
-                        .equalTo("date", tempLatest)
-                        .findFirst();
-                if (latest != null) {
-                    mCurrentSpeedText.setText(latest.getSpeed() + " MPH");
-                    appendData(latest.getSpeed(), latest.getRpm());
-
-                    mAverageSpeedSum += latest.getSpeed();
-                    mAverageRpmSum += latest.getRpm();
-                    mAverageThrottleSum += latest.getThrottle();
-
-                    if (latest.getSpeed() > mMaxSpeed) {
-                        mMaxSpeed = latest.getSpeed();
-                        mMaxSpeedText.setText(mMaxMph + " MPH");
-                    }
-                    if (latest.getRpm() > mMaxRpm) {
-                        mMaxRpm = latest.getRpm();
-                        mMaxRpmText.setText(mMaxRpm + " RPM");
-                    }
-                    if (latest.getThrottle() > mMaxThrottle) {
-                        mMaxThrottle = latest.getThrottle();
-                        mMaxThrottleText.setText(String.format("%.2f%s", mMaxThrottle, "%"));
-                    }
-                    if (latest.getSpeed() > mMaxMph) {
-                        mMaxMph = latest.getSpeed();
-                    }
-                    mDataPointCount++;
-
-                    updateAveragesAndCurrents();
-                }
-                mLatestDate = tempLatest;
+    /**
+     * Called on the main thread whenever the logging service has new points. The new points
+     * are folded into the running statistics and appended to the graph one by one.
+     *
+     * @param event the new points
+     */
+    @Subscribe
+    public void onSamples(SamplesEvent event) {
+        if (mAggregator == null) {
+            mPendingSamples.add(event);
+            return;
+        }
+        boolean updated = false;
+        for (int i = 0; i < event.getCount(); i++) {
+            // Points that were already in the summary when the screen was created are skipped
+            if (mAggregator.add(event.getDate(i), event.getSpeed(i), event.getRpm(i),
+                    event.getThrottle(i))) {
+                updated = true;
             }
-
-            long endTime = System.currentTimeMillis();
-
-            mHandler.postDelayed(mStatsRunnable, INTERVAL_MS - (endTime - startTime) - 1);
+            // The same goes for the graph, which may have read points newer than the summary
+            if (event.getDate(i) > mLastChartDate) {
+                appendData(event.getDate(i), event.getSpeed(i), event.getRpm(i));
+                updated = true;
+            }
+        }
+        if (updated) {
+            mChartFeed.notifyChanged();
+            mCurrentSpeedText.setText(event.getSpeed(event.getCount() - 1) + " MPH");
+            updateFuelEconomy(event.getMpg(event.getCount() - 1), event.getFuelUsed(),
+                    event.getAverageMpg());
+            updateMaxima();
+            updateAveragesAndCurrents();
         }
-    };
+    }
 
     @Override
     public void onValueSelected(Entry e, int dataSetIndex, Highlight h) {
@@ -16,10 +16,9 @@ import android.widget.Toast;
 
 import java.util.List;
 
-import io.realm.Realm;
 import me.williamhester.brobd.activities.MainActivity;
 import me.williamhester.brobd.R;
-import me.williamhester.brobd.models.Driver;
+import me.williamhester.brobd.storage.HistoryQueries;
 
 /**
  * This fragment displays all of the drivers and allows the user to select one or create a new one.
@@ -65,6 +64,9 @@ public class DriverSelectionFragment extends Fragment {
         go.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
+                if (!adapter.isLoaded()) {
+                    return;
+                }
                 if (spinner.getSelectedItemPosition() == adapter.getCount() - 1) {
                     showNewDriverDialog(adapter);
                 } else {
@@ -96,15 +98,8 @@ public class DriverSelectionFragment extends Fragment {
                             return;
                         }
 
-                        Realm realm = Realm.getInstance(getActivity());
-                        realm.executeTransaction(new Realm.Transaction() {
-                            @Override
-                            public void execute(Realm realm) {
-                                Driver driver = realm.createObject(Driver.class);
-                                driver.setName(name.getText().toString());
-                            }
-                        });
-                        adapter.notifyDataSetChanged();
+                        HistoryQueries.getInstance(getActivity())
+                                .createDriver(entered, adapter);
                     }
                 })
                 .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
@@ -116,22 +111,29 @@ public class DriverSelectionFragment extends Fragment {
                 .show();
     }
 
-    private class DriverAdapter extends ArrayAdapter<String> {
+    /**
+     * Shows the names of the drivers, followed by a "New driver" option. It is empty until the
+     * names have been read in the background, and is refreshed whenever it is handed a new list.
+     */
+    private class DriverAdapter extends ArrayAdapter<String>
+            implements HistoryQueries.Callback<List<String>> {
 
-        private List<Driver> mDrivers;
+        private List<String> mDrivers;
 
         public DriverAdapter() {
             super(getActivity(), android.R.layout.simple_spinner_dropdown_item, android.R.id.text1);
 
-            notifyDataSetChanged();
+            HistoryQueries.getInstance(getActivity()).loadDriverNames(this);
         }
 
         @Override
-        public void notifyDataSetChanged() {
-            Realm realm = Realm.getInstance(getActivity());
-            mDrivers = realm.allObjects(Driver.class);
+        public void onResult(List<String> drivers) {
+            mDrivers = drivers;
+            notifyDataSetChanged();
+        }
 
-            super.notifyDataSetChanged();
+        public boolean isLoaded() {
+            return mDrivers != null;
         }
 
         @Override
@@ -139,12 +141,15 @@ public class DriverSelectionFragment extends Fragment {
             if (position == mDrivers.size()) {
                 return getResources().getString(R.string.new_driver);
             } else {
-                return mDrivers.get(position).getName();
+                return mDrivers.get(position);
             }
         }
 
         @Override
         public int getCount() {
+            if (mDrivers == null) {
+                return 0;
+            }
             return mDrivers.size() + 1; // Have to account for the "New driver" option
         }
 
@@ -155,8 +160,8 @@ public class DriverSelectionFragment extends Fragment {
          * @return whether or not the driver with the specified name is in the list of drivers.
          */
         public boolean contains(String name) {
-            for (Driver d : mDrivers) {
-                if (d.getName().equalsIgnoreCase(name)) {
+            for (String d : mDrivers) {
+                if (d.equalsIgnoreCase(name)) {
                     return true;
                 }
             }
@@ -0,0 +1,287 @@
+package me.williamhester.brobd.fragments;
+
+import android.graphics.Color;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.Spinner;
+
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.components.YAxis;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
+
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import me.williamhester.brobd.R;
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.stats.RollupBucket;
+import me.williamhester.brobd.storage.HistoryQueries;
+import me.williamhester.brobd.storage.HistorySeries;
+
+/**
+ * Shows a driver's past drives. Picking a drive charts its speed and RPM, which are read from the
+ * drive's series and downsampled to the width of the screen in the background, so a long drive
+ * takes no more to draw than a short one. Drives that were logged before there were series are
+ * charted from their rollups instead. Below that, the driver's last four weeks are charted from
+ * the driver's rollups, which take weeks no longer to read than a single drive.
+ *
+ * @author William Hester
+ */
+public class HistoryFragment extends Fragment {
+
+    private static final String ARG_DRIVER = "driver";
+    private static final float KPH_TO_MPH = 0.621371192f;
+    private static final long HISTORY_SPAN = 28 * 24 * 3600000L;
+    // Rollups are read at the coarsest resolution that gives at least this many buckets
+    private static final int MIN_BUCKETS = 60;
+
+    private String mDriverName;
+    private LineChart mSessionChart;
+    private LineChart mDriverChart;
+    private SessionAdapter mSessionAdapter;
+    // The drive whose chart is being read, so that a chart that arrives after another drive has
+    //     been picked is dropped
+    private HistoryQueries.SessionSpan mShownSession;
+
+    /**
+     * @param driverName the name of the driver whose drives to show
+     */
+    public static HistoryFragment newInstance(String driverName) {
+        Bundle args = new Bundle();
+        args.putString(ARG_DRIVER, driverName);
+        HistoryFragment fragment = new HistoryFragment();
+        fragment.setArguments(args);
+        return fragment;
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mDriverName = getArguments().getString(ARG_DRIVER);
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        View v = inflater.inflate(R.layout.fragment_history, container, false);
+        mSessionChart = (LineChart) v.findViewById(R.id.history_session_chart);
+        setUpChart(mSessionChart);
+        mDriverChart = (LineChart) v.findViewById(R.id.history_driver_chart);
+        setUpChart(mDriverChart);
+
+        Spinner spinner = (Spinner) v.findViewById(R.id.history_sessions);
+        mSessionAdapter = new SessionAdapter();
+        spinner.setAdapter(mSessionAdapter);
+        spinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                showSession(mSessionAdapter.getSession(position));
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+
+            }
+        });
+        HistoryQueries queries = HistoryQueries.getInstance(getActivity());
+        queries.loadSessions(mDriverName, mSessionAdapter);
+        final long now = System.currentTimeMillis();
+        queries.loadDriverRollups(mDriverName, now - HISTORY_SPAN, now, MIN_BUCKETS,
+                new HistoryQueries.Callback<List<RollupBucket>>() {
+                    @Override
+                    public void onResult(List<RollupBucket> buckets) {
+                        if (mDriverChart != null) {
+                            showRollups(mDriverChart, buckets, now - HISTORY_SPAN, now);
+                        }
+                    }
+                });
+
+        return v;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        mSessionChart = null;
+        mDriverChart = null;
+        mShownSession = null;
+    }
+
+    /**
+     * Reads the speed and RPM of a drive and charts them once both have arrived.
+     */
+    private void showSession(final HistoryQueries.SessionSpan session) {
+        mShownSession = session;
+        final int width = getChartWidth();
+        final HistorySeries[] speed = new HistorySeries[1];
+        final HistoryQueries queries = HistoryQueries.getInstance(getActivity());
+        // Queries run in the order they were made, so the speed is always there before the RPM
+        queries.loadSeries(session.getSessionId(), Pid.SPEED, session.getStartTime(),
+                session.getEndTime(), width, new HistoryQueries.Callback<HistorySeries>() {
+                    @Override
+                    public void onResult(HistorySeries result) {
+                        speed[0] = result;
+                    }
+                });
+        queries.loadSeries(session.getSessionId(), Pid.RPM, session.getStartTime(),
+                session.getEndTime(), width, new HistoryQueries.Callback<HistorySeries>() {
+                    @Override
+                    public void onResult(HistorySeries rpm) {
+                        if (session != mShownSession) {
+                            return;
+                        }
+                        if (speed[0].getSourceCount() > 0 || rpm.getSourceCount() > 0) {
+                            showChart(mSessionChart, session.getStartTime(),
+                                    session.getEndTime(), width, speed[0], KPH_TO_MPH, rpm);
+                            return;
+                        }
+                        // The drive was logged before there were series
+                        queries.loadSessionRollups(session.getSessionId(),
+                                session.getStartTime(), session.getEndTime(), MIN_BUCKETS,
+                                new HistoryQueries.Callback<List<RollupBucket>>() {
+                                    @Override
+                                    public void onResult(List<RollupBucket> buckets) {
+                                        if (session == mShownSession) {
+                                            showRollups(mSessionChart, buckets,
+                                                    session.getStartTime(), session.getEndTime());
+                                        }
+                                    }
+                                });
+                    }
+                });
+    }
+
+    /**
+     * Charts the average speed and RPM of each bucket, at the middle of the bucket.
+     */
+    private void showRollups(LineChart chart, List<RollupBucket> buckets, long start, long end) {
+        int count = buckets.size();
+        long[] times = new long[count];
+        float[] speeds = new float[count];
+        float[] rpms = new float[count];
+        for (int i = 0; i < count; i++) {
+            RollupBucket bucket = buckets.get(i);
+            times[i] = bucket.getStart() + bucket.getResolution().getMillis() / 2;
+            speeds[i] = (float) bucket.getSpeed().getMean();
+            rpms[i] = (float) bucket.getRpm().getMean();
+        }
+        // Rollups are already in MPH
+        showChart(chart, start, end, getChartWidth(), new HistorySeries(times, speeds, count,
+                count), 1, new HistorySeries(times, rpms, count, count));
+    }
+
+    /**
+     * @param speedScale what to multiply the speeds by to get MPH
+     */
+    private static void showChart(LineChart chart, long start, long end, int width,
+                                  HistorySeries speed, float speedScale, HistorySeries rpm) {
+        List<LineDataSet> sets = new ArrayList<>();
+        sets.add(createSet(speed, speedScale, start, end, width, "Speed", Color.RED,
+                YAxis.AxisDependency.LEFT));
+        sets.add(createSet(rpm, 1, start, end, width, "RPM", Color.BLUE,
+                YAxis.AxisDependency.RIGHT));
+        chart.setData(new LineData(createTimeLabels(start, end, width), sets));
+        chart.invalidate();
+    }
+
+    /**
+     * @return the most points worth drawing across the chart
+     */
+    private int getChartWidth() {
+        return Math.max(3, getResources().getDisplayMetrics().widthPixels);
+    }
+
+    private static void setUpChart(LineChart chart) {
+        chart.setTouchEnabled(true);
+        chart.setDragEnabled(true);
+        chart.setScaleEnabled(true);
+        chart.setPinchZoom(true);
+        chart.setDrawGridBackground(false);
+        chart.setDescription("");
+    }
+
+    /**
+     * @return one label for each of count slots spread evenly from start to end
+     */
+    private static List<String> createTimeLabels(long start, long end, int count) {
+        // Anything longer than a day is labelled with dates
+        DateFormat format = end - start > 24 * 3600000L
+                ? DateFormat.getDateInstance(DateFormat.SHORT)
+                : DateFormat.getTimeInstance(DateFormat.SHORT);
+        List<String> labels = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            labels.add(format.format(new Date(start + (end - start) * i / (count - 1))));
+        }
+        return labels;
+    }
+
+    /**
+     * Places each point of a series in the slot that its time falls in.
+     *
+     * @param scale what to multiply the values by
+     */
+    private static LineDataSet createSet(HistorySeries series, float scale, long start, long end,
+                                         int count, String label, int color,
+                                         YAxis.AxisDependency axis) {
+        List<Entry> entries = new ArrayList<>(series.getCount());
+        long span = Math.max(1, end - start);
+        for (int i = 0; i < series.getCount(); i++) {
+            long offset = Math.max(0, Math.min(span, series.getTimestamp(i) - start));
+            int slot = (int) (offset * (count - 1) / span);
+            entries.add(new Entry(series.getValue(i) * scale, slot));
+        }
+        LineDataSet set = new LineDataSet(entries, label);
+        set.setAxisDependency(axis);
+        set.setColor(color);
+        set.setLineWidth(2f);
+        set.setDrawValues(false);
+        set.setDrawCircles(false);
+        return set;
+    }
+
+    /**
+     * Lists the driver's drives by when they started, newest first. It is empty until they have
+     * been read in the background.
+     */
+    private class SessionAdapter extends ArrayAdapter<String>
+            implements HistoryQueries.Callback<List<HistoryQueries.SessionSpan>> {
+
+        private final DateFormat mFormat = DateFormat.getDateTimeInstance(DateFormat.MEDIUM,
+                DateFormat.SHORT);
+        private List<HistoryQueries.SessionSpan> mSessions;
+
+        public SessionAdapter() {
+            super(getActivity(), android.R.layout.simple_spinner_dropdown_item, android.R.id.text1);
+        }
+
+        @Override
+        public void onResult(List<HistoryQueries.SessionSpan> sessions) {
+            mSessions = sessions;
+            notifyDataSetChanged();
+        }
+
+        public HistoryQueries.SessionSpan getSession(int position) {
+            return mSessions.get(position);
+        }
+
+        @Override
+        public String getItem(int position) {
+            return mFormat.format(new Date(mSessions.get(position).getStartTime()));
+        }
+
+        @Override
+        public int getCount() {
+            return mSessions == null ? 0 : mSessions.size();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package me.williamhester.brobd.fragments;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+import me.williamhester.brobd.R;
+import me.williamhester.brobd.stats.MetricsRegistry;
+
+/**
+ * A debug screen that shows everything in the {@link MetricsRegistry}, refreshed every second,
+ * and can dump it to a file to be pulled off the device.
+ *
+ * @author William Hester
+ */
+public class MetricsFragment extends Fragment {
+
+    private static final String TAG = "MetricsFragment";
+    private static final long REFRESH_INTERVAL = 1000L;
+    private static final String DIRECTORY = "metrics";
+
+    private final Handler mHandler = new Handler();
+    private TextView mMetricsText;
+
+    public static MetricsFragment newInstance() {
+        return new MetricsFragment();
+    }
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setHasOptionsMenu(true);
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container,
+                             Bundle savedInstanceState) {
+        View v = inflater.inflate(R.layout.fragment_metrics, container, false);
+        mMetricsText = (TextView) v.findViewById(R.id.metrics);
+        return v;
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        mHandler.post(mRefresher);
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mHandler.removeCallbacks(mRefresher);
+    }
+
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        inflater.inflate(R.menu.menu_metrics, menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_dump_metrics) {
+            dump();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    /**
+     * Writes the metrics to a new file, off the main thread, and says where it went.
+     */
+    private void dump() {
+        final Context context = getActivity().getApplicationContext();
+        File directory = context.getExternalFilesDir(DIRECTORY);
+        if (directory == null) {
+            // External storage isn't mounted
+            directory = new File(context.getFilesDir(), DIRECTORY);
+        }
+        final File file = new File(directory, "metrics-" + System.currentTimeMillis() + ".txt");
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean succeeded = false;
+                try {
+                    file.getParentFile().mkdirs();
+                    Writer writer = new FileWriter(file);
+                    try {
+                        MetricsRegistry.getInstance().dump(writer);
+                    } finally {
+                        writer.close();
+                    }
+                    succeeded = true;
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not write " + file, e);
+                }
+                final boolean dumped = succeeded;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (dumped) {
+                            Toast.makeText(context, context.getString(R.string.metrics_dumped,
+                                    file.getAbsolutePath()), Toast.LENGTH_LONG).show();
+                        } else {
+                            Toast.makeText(context, R.string.metrics_dump_failed,
+                                    Toast.LENGTH_LONG).show();
+                        }
+                    }
+                });
+            }
+        }, "MetricsDump").start();
+    }
+
+    private final Runnable mRefresher = new Runnable() {
+        @Override
+        public void run() {
+            mMetricsText.setText(MetricsRegistry.getInstance().toSummary());
+            mHandler.postDelayed(mRefresher, REFRESH_INTERVAL);
+        }
+    };
+}
@@ -0,0 +1,52 @@
+package me.williamhester.brobd.models;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+
+/**
+ * This class records a time during a DriveSession when the connection to the adapter was lost,
+ * so that nothing was sampled. The start and end times are in milliseconds since the epoch: the
+ * start is when the connection failed and the end is when it was back.
+ *
+ * @author William Hester
+ */
+public class ConnectionGap extends RealmObject {
+
+    @Index
+    private String sessionId;
+    private long startTime;
+    private long endTime;
+    private int attempts;
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+}
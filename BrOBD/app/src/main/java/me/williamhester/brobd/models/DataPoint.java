@@ -5,6 +5,7 @@ import android.support.annotation.NonNull;
 import java.util.Date;
 
 import io.realm.RealmObject;
+import io.realm.annotations.Index;
 
 /**
  * This class represents exactly one interval at which the app is running.
@@ -14,10 +15,32 @@ import io.realm.RealmObject;
  */
 public class DataPoint extends RealmObject {
 
+    private DriveSession session;
+    // The id of the session, so that a session's points can be found through the index
+    @Index
+    private String sessionId;
     private Date date;
     private int speed;
     private int rpm;
     private float throttle;
+    // The instant fuel economy in MPG, or NaN if it wasn't known
+    private float mpg;
+
+    public DriveSession getSession() {
+        return session;
+    }
+
+    public void setSession(DriveSession session) {
+        this.session = session;
+    }
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
 
     @NonNull
     public Date getDate() {
@@ -51,4 +74,12 @@ public class DataPoint extends RealmObject {
     public void setThrottle(float throttle) {
         this.throttle = throttle;
     }
+
+    public float getMpg() {
+        return mpg;
+    }
+
+    public void setMpg(float mpg) {
+        this.mpg = mpg;
+    }
 }
@@ -3,17 +3,38 @@ package me.williamhester.brobd.models;
 import java.util.Date;
 
 import io.realm.RealmObject;
+import io.realm.annotations.Index;
 import io.realm.annotations.PrimaryKey;
 
 /**
- * This class represents one drive session, or a time that a driver started driving.
+ * This class represents one drive session, or a time that a driver started driving. The end time
+ * is moved forward with every commit of DataPoints, so it is right even if logging never got to
+ * stop cleanly. Times when the connection to the adapter was lost during the session are kept as
+ * {@link ConnectionGap}s; the number of them and their total length are kept here too. Once the
+ * session has ended and its history has been rolled up into {@link Rollup}s, it is marked as
+ * rolled up.
  *
  * @author William Hester
  */
 public class DriveSession extends RealmObject {
 
+    @Index
+    private String id;
     private Date startTime;
+    private Date endTime;
     private Driver driver;
+    private DriveSummary summary;
+    private int reconnectCount;
+    private long downtime;
+    private boolean rolledUp;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
 
     public Date getStartTime() {
         return startTime;
@@ -23,6 +44,14 @@ public class DriveSession extends RealmObject {
         this.startTime = startTime;
     }
 
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(Date endTime) {
+        this.endTime = endTime;
+    }
+
     public Driver getDriver() {
         return driver;
     }
@@ -30,4 +59,39 @@ public class DriveSession extends RealmObject {
     public void setDriver(Driver driver) {
         this.driver = driver;
     }
+
+    public DriveSummary getSummary() {
+        return summary;
+    }
+
+    public void setSummary(DriveSummary summary) {
+        this.summary = summary;
+    }
+
+    public int getReconnectCount() {
+        return reconnectCount;
+    }
+
+    public void setReconnectCount(int reconnectCount) {
+        this.reconnectCount = reconnectCount;
+    }
+
+    /**
+     * @return the total time that the connection was lost for, in milliseconds
+     */
+    public long getDowntime() {
+        return downtime;
+    }
+
+    public void setDowntime(long downtime) {
+        this.downtime = downtime;
+    }
+
+    public boolean isRolledUp() {
+        return rolledUp;
+    }
+
+    public void setRolledUp(boolean rolledUp) {
+        this.rolledUp = rolledUp;
+    }
 }
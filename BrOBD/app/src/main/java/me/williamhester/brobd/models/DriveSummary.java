@@ -0,0 +1,110 @@
+package me.williamhester.brobd.models;
+
+import java.util.Date;
+
+import io.realm.RealmObject;
+
+/**
+ * This class holds the running statistics of a DriveSession, so that they don't have to be
+ * recomputed from its DataPoints. It is kept up to date by the logging service with every commit.
+ *
+ * @author William Hester
+ */
+public class DriveSummary extends RealmObject {
+
+    private StatSummary speed;
+    private StatSummary rpm;
+    private StatSummary throttle;
+    private double distance;
+    private Date firstDate;
+    private Date lastDate;
+    private int lastSpeed;
+    // In gallons, and the miles driven while it was being measured
+    private double fuelUsed;
+    private double fuelDistance;
+    private String fuelType;
+
+    public StatSummary getSpeed() {
+        return speed;
+    }
+
+    public void setSpeed(StatSummary speed) {
+        this.speed = speed;
+    }
+
+    public StatSummary getRpm() {
+        return rpm;
+    }
+
+    public void setRpm(StatSummary rpm) {
+        this.rpm = rpm;
+    }
+
+    public StatSummary getThrottle() {
+        return throttle;
+    }
+
+    public void setThrottle(StatSummary throttle) {
+        this.throttle = throttle;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(double distance) {
+        this.distance = distance;
+    }
+
+    public Date getFirstDate() {
+        return firstDate;
+    }
+
+    public void setFirstDate(Date firstDate) {
+        this.firstDate = firstDate;
+    }
+
+    public Date getLastDate() {
+        return lastDate;
+    }
+
+    public void setLastDate(Date lastDate) {
+        this.lastDate = lastDate;
+    }
+
+    public int getLastSpeed() {
+        return lastSpeed;
+    }
+
+    public void setLastSpeed(int lastSpeed) {
+        this.lastSpeed = lastSpeed;
+    }
+
+    public double getFuelUsed() {
+        return fuelUsed;
+    }
+
+    public void setFuelUsed(double fuelUsed) {
+        this.fuelUsed = fuelUsed;
+    }
+
+    public double getFuelDistance() {
+        return fuelDistance;
+    }
+
+    public void setFuelDistance(double fuelDistance) {
+        this.fuelDistance = fuelDistance;
+    }
+
+    /**
+     * @return the name of the vehicle's {@link me.williamhester.brobd.obd.FuelType}, or an empty
+     *     string if it was never saved
+     */
+    public String getFuelType() {
+        return fuelType;
+    }
+
+    public void setFuelType(String fuelType) {
+        this.fuelType = fuelType;
+    }
+}
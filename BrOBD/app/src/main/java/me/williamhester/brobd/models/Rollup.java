@@ -0,0 +1,144 @@
+package me.williamhester.brobd.models;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+
+/**
+ * This class holds the statistics of one bucket of drive history, so that long spans can be shown
+ * without reading every DataPoint in them. The scope says whose history it is, either one
+ * session's or one driver's across all of their sessions; see
+ * {@link me.williamhester.brobd.storage.RollupStore}. The resolution is the length of the bucket
+ * and the start is aligned to it, both in milliseconds.
+ *
+ * @author William Hester
+ */
+public class Rollup extends RealmObject {
+
+    @Index
+    private String scope;
+    private long resolution;
+    private long start;
+    private long count;
+    private double speedSum;
+    private double speedMin;
+    private double speedMax;
+    private double rpmSum;
+    private double rpmMin;
+    private double rpmMax;
+    private double throttleSum;
+    private double throttleMin;
+    private double throttleMax;
+    private double distance;
+
+    public String getScope() {
+        return scope;
+    }
+
+    public void setScope(String scope) {
+        this.scope = scope;
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    public void setResolution(long resolution) {
+        this.resolution = resolution;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public void setStart(long start) {
+        this.start = start;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getSpeedSum() {
+        return speedSum;
+    }
+
+    public void setSpeedSum(double speedSum) {
+        this.speedSum = speedSum;
+    }
+
+    public double getSpeedMin() {
+        return speedMin;
+    }
+
+    public void setSpeedMin(double speedMin) {
+        this.speedMin = speedMin;
+    }
+
+    public double getSpeedMax() {
+        return speedMax;
+    }
+
+    public void setSpeedMax(double speedMax) {
+        this.speedMax = speedMax;
+    }
+
+    public double getRpmSum() {
+        return rpmSum;
+    }
+
+    public void setRpmSum(double rpmSum) {
+        this.rpmSum = rpmSum;
+    }
+
+    public double getRpmMin() {
+        return rpmMin;
+    }
+
+    public void setRpmMin(double rpmMin) {
+        this.rpmMin = rpmMin;
+    }
+
+    public double getRpmMax() {
+        return rpmMax;
+    }
+
+    public void setRpmMax(double rpmMax) {
+        this.rpmMax = rpmMax;
+    }
+
+    public double getThrottleSum() {
+        return throttleSum;
+    }
+
+    public void setThrottleSum(double throttleSum) {
+        this.throttleSum = throttleSum;
+    }
+
+    public double getThrottleMin() {
+        return throttleMin;
+    }
+
+    public void setThrottleMin(double throttleMin) {
+        this.throttleMin = throttleMin;
+    }
+
+    public double getThrottleMax() {
+        return throttleMax;
+    }
+
+    public void setThrottleMax(double throttleMax) {
+        this.throttleMax = throttleMax;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public void setDistance(double distance) {
+        this.distance = distance;
+    }
+}
@@ -0,0 +1,72 @@
+package me.williamhester.brobd.models;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+
+/**
+ * This class holds up to a few thousand compressed samples of one PID from one DriveSession, or
+ * from the freeze frame of a {@link TroubleCode}, in which case the session id is the freeze
+ * frame's id. The samples are encoded by a
+ * {@link me.williamhester.brobd.storage.SeriesEncoder}; the start and end times are those of the
+ * first and last sample, in milliseconds since the epoch.
+ *
+ * @author William Hester
+ */
+public class SampleChunk extends RealmObject {
+
+    @Index
+    private String sessionId;
+    private int pid;
+    private long startTime;
+    private long endTime;
+    private int count;
+    private byte[] data;
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public int getPid() {
+        return pid;
+    }
+
+    public void setPid(int pid) {
+        this.pid = pid;
+    }
+
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public void setStartTime(long startTime) {
+        this.startTime = startTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(long endTime) {
+        this.endTime = endTime;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+}
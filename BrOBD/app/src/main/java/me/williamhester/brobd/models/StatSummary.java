@@ -0,0 +1,57 @@
+package me.williamhester.brobd.models;
+
+import io.realm.RealmObject;
+
+/**
+ * This class holds the saved state of a {@link me.williamhester.brobd.stats.RunningStat}.
+ *
+ * @author William Hester
+ */
+public class StatSummary extends RealmObject {
+
+    private long count;
+    private double sum;
+    private double min;
+    private double max;
+    private double m2;
+
+    public long getCount() {
+        return count;
+    }
+
+    public void setCount(long count) {
+        this.count = count;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public void setSum(double sum) {
+        this.sum = sum;
+    }
+
+    public double getMin() {
+        return min;
+    }
+
+    public void setMin(double min) {
+        this.min = min;
+    }
+
+    public double getMax() {
+        return max;
+    }
+
+    public void setMax(double max) {
+        this.max = max;
+    }
+
+    public double getM2() {
+        return m2;
+    }
+
+    public void setM2(double m2) {
+        this.m2 = m2;
+    }
+}
@@ -0,0 +1,71 @@
+package me.williamhester.brobd.models;
+
+import io.realm.RealmObject;
+import io.realm.annotations.Index;
+
+/**
+ * This class records a diagnostic trouble code the first time it was seen during a DriveSession.
+ * The time is when the scan that found it finished, in milliseconds since the epoch. The samples
+ * leading up to it are stored as {@link SampleChunk}s under the freeze frame id; codes that were
+ * found by the same scan share one freeze frame.
+ *
+ * @author William Hester
+ */
+public class TroubleCode extends RealmObject {
+
+    @Index
+    private String sessionId;
+    private String code;
+    private boolean pending;
+    private boolean milOn;
+    private long time;
+    private String freezeFrameId;
+
+    public String getSessionId() {
+        return sessionId;
+    }
+
+    public void setSessionId(String sessionId) {
+        this.sessionId = sessionId;
+    }
+
+    public String getCode() {
+        return code;
+    }
+
+    public void setCode(String code) {
+        this.code = code;
+    }
+
+    public boolean isPending() {
+        return pending;
+    }
+
+    public void setPending(boolean pending) {
+        this.pending = pending;
+    }
+
+    public boolean isMilOn() {
+        return milOn;
+    }
+
+    public void setMilOn(boolean milOn) {
+        this.milOn = milOn;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public void setTime(long time) {
+        this.time = time;
+    }
+
+    public String getFreezeFrameId() {
+        return freezeFrameId;
+    }
+
+    public void setFreezeFrameId(String freezeFrameId) {
+        this.freezeFrameId = freezeFrameId;
+    }
+}
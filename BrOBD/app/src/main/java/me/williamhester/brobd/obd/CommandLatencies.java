@@ -0,0 +1,89 @@
+package me.williamhester.brobd.obd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import me.williamhester.brobd.stats.Histogram;
+
+/**
+ * Round-trip times of the requests sent to the adapter, in microseconds, with one
+ * {@link Histogram} per distinct command (such as "01 0C 0D" or "AT ST 19"). Looking up a
+ * command that has been seen before doesn't allocate, so every request can be timed.
+ *
+ * A new command can only be added from the thread that talks to the adapter, but the histograms
+ * can be read from any thread.
+ *
+ * @author William Hester
+ */
+public class CommandLatencies {
+
+    private final List<byte[]> mCommands = new ArrayList<>();
+    private final List<Histogram> mHistograms = new ArrayList<>();
+
+    /**
+     * @param command the request, as it was sent
+     * @param length the number of bytes of the request, without the trailing carriage return
+     * @return the histogram for the command, which is created the first time it is seen
+     */
+    public synchronized Histogram get(byte[] command, int length) {
+        for (int i = 0; i < mCommands.size(); i++) {
+            byte[] known = mCommands.get(i);
+            if (known.length == length && regionMatches(known, command, length)) {
+                return mHistograms.get(i);
+            }
+        }
+        byte[] copy = new byte[length];
+        System.arraycopy(command, 0, copy, 0, length);
+        Histogram histogram = new Histogram();
+        mCommands.add(copy);
+        mHistograms.add(histogram);
+        return histogram;
+    }
+
+    /**
+     * @param command the request, without the trailing carriage return
+     * @return the histogram for the command, which is created the first time it is seen
+     */
+    public Histogram get(String command) {
+        byte[] bytes = command.getBytes();
+        return get(bytes, bytes.length);
+    }
+
+    /**
+     * @return the number of distinct commands that have been timed
+     */
+    public synchronized int size() {
+        return mCommands.size();
+    }
+
+    public synchronized String getCommand(int i) {
+        return new String(mCommands.get(i));
+    }
+
+    public synchronized Histogram getHistogram(int i) {
+        return mHistograms.get(i);
+    }
+
+    /**
+     * @return one line per command, with its percentiles in microseconds
+     */
+    public synchronized String toSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < mCommands.size(); i++) {
+            sb.append(new String(mCommands.get(i)))
+                    .append(": ")
+                    .append(mHistograms.get(i).toSummary())
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static boolean regionMatches(byte[] a, byte[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
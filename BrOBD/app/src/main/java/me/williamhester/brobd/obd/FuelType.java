@@ -0,0 +1,78 @@
+package me.williamhester.brobd.obd;
+
+/**
+ * The kinds of fuel that {@link Pid#FUEL_TYPE} can report, with what it takes to turn a mass air
+ * flow into a fuel flow: the stoichiometric air-fuel ratio, which engines run at most of the time,
+ * and the density of the liquid fuel. Bi-fuel and hybrid vehicles are counted as whichever liquid
+ * fuel they burn; gaseous and electric ones are counted as gasoline, since there is no sensible
+ * volume of fuel to report for them.
+ *
+ * @author William Hester
+ */
+public enum FuelType {
+
+    GASOLINE(14.7f, 740f),
+    METHANOL(6.4f, 792f),
+    ETHANOL(9.0f, 789f),
+    DIESEL(14.5f, 832f),
+    LPG(15.5f, 510f);
+
+    public static final int GASOLINE_CODE = 0x01;
+
+    private final float mAirFuelRatio;
+    private final float mDensity;
+
+    FuelType(float airFuelRatio, float density) {
+        mAirFuelRatio = airFuelRatio;
+        mDensity = density;
+    }
+
+    /**
+     * @return the mass of air burnt per mass of fuel
+     */
+    public float getAirFuelRatio() {
+        return mAirFuelRatio;
+    }
+
+    /**
+     * @return the density of the fuel, in g/L
+     */
+    public float getDensity() {
+        return mDensity;
+    }
+
+    /**
+     * @param maf the mass air flow, in g/s
+     * @return the fuel flow that burns that air, in L/h
+     */
+    public float getFuelRate(float maf) {
+        return maf * 3600f / (mAirFuelRatio * mDensity);
+    }
+
+    /**
+     * @param code the value of {@link Pid#FUEL_TYPE}, as defined by SAE J1979
+     * @return the fuel type, which is gasoline for codes that aren't a liquid fuel
+     */
+    public static FuelType fromCode(int code) {
+        switch (code) {
+            case 0x02:
+            case 0x0A:
+                return METHANOL;
+            case 0x03:
+            case 0x0B:
+            case 0x12:
+                return ETHANOL;
+            case 0x04:
+            case 0x13:
+            case 0x17:
+                return DIESEL;
+            case 0x05:
+            case 0x07:
+            case 0x0C:
+            case 0x0E:
+                return LPG;
+            default:
+                return GASOLINE;
+        }
+    }
+}
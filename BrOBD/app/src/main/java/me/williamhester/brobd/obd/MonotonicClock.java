@@ -0,0 +1,26 @@
+package me.williamhester.brobd.obd;
+
+/**
+ * Where the logging loop gets the time from. Deadlines are kept on a fixed grid of this clock, so
+ * it must never go backwards or jump when the wall clock is set.
+ *
+ * @author William Hester
+ */
+public interface MonotonicClock {
+
+    /**
+     * {@link System#nanoTime()}, which doesn't count time spent in deep sleep. On a device, prefer
+     * a clock that does, so that a drive doesn't look shorter than it was.
+     */
+    MonotonicClock SYSTEM = new MonotonicClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    /**
+     * @return the current time, in nanoseconds since some fixed but arbitrary point
+     */
+    long nanoTime();
+}
@@ -0,0 +1,178 @@
+package me.williamhester.brobd.obd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The mode 01 PIDs that the app knows how to request and decode. Each PID knows how many data
+ * bytes the vehicle answers with, which is what allows several PIDs to be requested at once and
+ * the combined response to be split apart again. Each PID also has a default polling period and
+ * priority, which reflect how quickly its value changes while driving.
+ *
+ * @author William Hester
+ */
+public enum Pid {
+
+    ENGINE_LOAD(0x04, 1, 500L, 1),
+    COOLANT_TEMP(0x05, 1, 10000L, 0),
+    RPM(0x0C, 2, 100L, 2),
+    SPEED(0x0D, 1, 200L, 2),
+    INTAKE_TEMP(0x0F, 1, 10000L, 0),
+    MAF(0x10, 2, 250L, 1),
+    THROTTLE(0x11, 1, 100L, 2),
+    FUEL_LEVEL(0x2F, 1, 30000L, 0),
+    FUEL_TYPE(0x51, 1, 60000L, 0),
+    FUEL_RATE(0x5E, 2, 1000L, 1);
+
+    private static final Pid[] BY_CODE = new Pid[256];
+
+    static {
+        for (Pid pid : values()) {
+            BY_CODE[pid.mCode] = pid;
+        }
+    }
+
+    private final int mCode;
+    private final int mByteCount;
+    private final long mDefaultPeriod;
+    private final int mDefaultPriority;
+
+    Pid(int code, int byteCount, long defaultPeriod, int defaultPriority) {
+        mCode = code;
+        mByteCount = byteCount;
+        mDefaultPeriod = defaultPeriod;
+        mDefaultPriority = defaultPriority;
+    }
+
+    /**
+     * @return the PID number as it is sent to the vehicle
+     */
+    public int getCode() {
+        return mCode;
+    }
+
+    /**
+     * @return the number of data bytes that follow the PID in a response
+     */
+    public int getByteCount() {
+        return mByteCount;
+    }
+
+    /**
+     * @return how often this PID should be polled by default, in milliseconds
+     */
+    public long getDefaultPeriod() {
+        return mDefaultPeriod;
+    }
+
+    /**
+     * @return the default priority of this PID; higher priorities are the last to be slowed down
+     *     when the link is saturated
+     */
+    public int getDefaultPriority() {
+        return mDefaultPriority;
+    }
+
+    /**
+     * Converts the raw data bytes of a response into the value of this PID, using the same
+     * formulas as the commands in the OBD library. Speed is in km/h, temperatures are in degrees
+     * Celsius, MAF is in g/s, fuel rate is in L/h and fuel type is the code that {@link FuelType}
+     * reads.
+     *
+     * @param a the first data byte
+     * @param b the second data byte, or 0 if the PID only has one
+     * @return the decoded value
+     */
+    public float decode(int a, int b) {
+        switch (this) {
+            case RPM:
+                return (a * 256 + b) / 4;
+            case SPEED:
+                return a;
+            case COOLANT_TEMP:
+            case INTAKE_TEMP:
+                return a - 40;
+            case MAF:
+                return (a * 256 + b) / 100f;
+            case FUEL_RATE:
+                return (a * 256 + b) * 0.05f;
+            case FUEL_TYPE:
+                return a;
+            default:
+                // Engine load, throttle and fuel level are all percentages
+                return a * 100f / 255f;
+        }
+    }
+
+    /**
+     * The inverse of {@link #decode(int, int)}, clamped to what the data bytes can hold.
+     *
+     * @param value the value, in the units that {@link #decode(int, int)} returns
+     * @return the data bytes, with the first byte in the high bits if there are two
+     */
+    public int encode(float value) {
+        float raw;
+        switch (this) {
+            case RPM:
+                raw = value * 4;
+                break;
+            case SPEED:
+                raw = value;
+                break;
+            case COOLANT_TEMP:
+            case INTAKE_TEMP:
+                raw = value + 40;
+                break;
+            case MAF:
+                raw = value * 100;
+                break;
+            case FUEL_RATE:
+                raw = value / 0.05f;
+                break;
+            case FUEL_TYPE:
+                raw = value;
+                break;
+            default:
+                raw = value * 255f / 100f;
+                break;
+        }
+        int max = mByteCount == 2 ? 0xFFFF : 0xFF;
+        return Math.max(0, Math.min(max, Math.round(raw)));
+    }
+
+    /**
+     * @param code the PID number
+     * @return the Pid with that number, or null if the app doesn't know about it
+     */
+    public static Pid fromCode(int code) {
+        if (code < 0 || code >= BY_CODE.length) {
+            return null;
+        }
+        return BY_CODE[code];
+    }
+
+    /**
+     * Parses a comma separated list of PID names, such as "RPM,SPEED,THROTTLE". Unknown names are
+     * ignored.
+     *
+     * @param names the comma separated names
+     * @return the PIDs, in the order they were listed
+     */
+    public static List<Pid> parseList(String names) {
+        List<Pid> pids = new ArrayList<>();
+        if (names == null) {
+            return pids;
+        }
+        for (String name : names.split(",")) {
+            try {
+                Pid pid = valueOf(name.trim());
+                if (!pids.contains(pid)) {
+                    pids.add(pid);
+                }
+            } catch (IllegalArgumentException e) {
+                // Not a PID that we know about, so just skip it.
+            }
+        }
+        return pids;
+    }
+}
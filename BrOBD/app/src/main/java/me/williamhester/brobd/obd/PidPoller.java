@@ -0,0 +1,537 @@
+package me.williamhester.brobd.obd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import me.williamhester.brobd.stats.Counter;
+import me.williamhester.brobd.stats.Histogram;
+import me.williamhester.brobd.stats.MetricsRegistry;
+
+/**
+ * Polls a set of mode 01 PIDs over an already initialized ELM327 connection. Where the adapter and
+ * the vehicle protocol allow it, up to {@link #MAX_PIDS_PER_REQUEST} PIDs are sent in a single
+ * request (e.g. "01 0C 0D 11") and the combined response is parsed in one pass. If the adapter
+ * rejects the combined request with "?" or an error, or {@link #MAX_SHORT_BATCHES} batches in a
+ * row leave out PIDs that the vehicle has answered before (as most non-CAN vehicles do with all
+ * but the first PID), the poller falls back to requesting each PID on its own. A batch that is
+ * only answered in part once, or whose PIDs haven't been answered yet, isn't enough.
+ *
+ * Once constructed, polling doesn't allocate: requests and responses go through preallocated
+ * buffers and responses are parsed straight from bytes.
+ *
+ * Every request has a deadline, so a stalled adapter can't hold up the logging thread. The
+ * deadline follows the adapter's own timeout (AT ST) and the response times seen so far for the
+ * same request. After {@link #configureTimeouts(InputStream, OutputStream)}, the adapter's timeout
+ * is also tuned from the response times, so that it doesn't wait longer than it has to for the
+ * vehicle. The round-trip time of every request is kept in {@link #getLatencies()}, and is also
+ * recorded per PID in the {@link MetricsRegistry}, along with how long parsing takes.
+ *
+ * @author William Hester
+ */
+public class PidPoller {
+
+    // The ELM327 accepts at most six PIDs in one mode 01 request.
+    public static final int MAX_PIDS_PER_REQUEST = 6;
+    // The number of batches in a row that have to come back short before batching is given up
+    static final int MAX_SHORT_BATCHES = 3;
+
+    private static final int MODE_01_RESPONSE = 0x41;
+    private static final byte[] HEX_DIGITS = "0123456789ABCDEF".getBytes();
+    private static final int MAX_RESPONSE_LENGTH = 512;
+
+    // The adapter's timeout, in the units of AT ST (4 ms); it starts out at 0x32, or 200 ms
+    public static final int DEFAULT_ADAPTER_TIMEOUT = 0x32;
+    static final int MIN_ADAPTER_TIMEOUT = 0x0C;
+    static final int MAX_ADAPTER_TIMEOUT = 0xFF;
+    private static final int ADAPTER_TIMEOUT_UNIT = 4;
+
+    // Until something is answered, the adapter may still be searching for the vehicle's protocol
+    static final long SEARCH_DEADLINE = 15000L;
+    static final long MAX_DEADLINE = 2000L;
+    private static final long AT_DEADLINE = 1000L;
+    // Added to the adapter's timeout to allow for the Bluetooth link
+    static final long DEADLINE_SLACK = 100L;
+    // A command's own response times are only trusted once there are this many of them
+    private static final int MIN_SAMPLES = 20;
+    // The number of answered requests between attempts to tune the adapter's timeout
+    private static final int TUNING_INTERVAL = 100;
+
+    private final List<Pid> mPids;
+    private final float[] mValues = new float[Pid.values().length];
+    private final boolean[] mAnswered = new boolean[Pid.values().length];
+    // The PIDs that weren't answered because the last poll timed out before they were
+    private final boolean[] mTimedOut = new boolean[Pid.values().length];
+    // Everything below is reused from request to request, so that polling doesn't allocate.
+    private final byte[] mRequest = new byte[2 + 3 * MAX_PIDS_PER_REQUEST + 1];
+    private final ResponseReader mReader = new ResponseReader(MAX_RESPONSE_LENGTH);
+    private final int[] mResponseBytes = new int[MAX_RESPONSE_LENGTH / 2];
+    private boolean mMultiPidSupported = true;
+    private int mShortBatches;
+    // Whether the adapter refused the last request outright
+    private boolean mRejected;
+
+    private final CommandLatencies mLatencies = new CommandLatencies();
+    // Every mode 01 request, whatever PIDs it asked for
+    private final Histogram mRequestLatency = new Histogram();
+    private int mAdapterTimeout = MAX_ADAPTER_TIMEOUT;
+    private int mMinAdapterTimeout = MIN_ADAPTER_TIMEOUT;
+    private boolean mTuningEnabled;
+    private boolean mTuningDue;
+    private int mRequestsSinceTuning;
+    private boolean mSearched;
+    private long mTimeoutCount;
+
+    // Indexed by Pid.ordinal(); null for the PIDs that this poller doesn't request
+    private final Histogram[] mPidLatencies = new Histogram[Pid.values().length];
+    private final Histogram mParseTime;
+    private final Counter mTimeouts;
+
+    /**
+     * @param pids the PIDs to request on every call to {@link #poll(InputStream, OutputStream)}
+     */
+    public PidPoller(List<Pid> pids) {
+        mPids = new ArrayList<>(pids);
+        Arrays.fill(mValues, Float.NaN);
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        for (Pid pid : pids) {
+            mPidLatencies[pid.ordinal()] = metrics.histogram("obd.rtt_us." + pid.name());
+        }
+        mParseTime = metrics.histogram("obd.parse_ns");
+        mTimeouts = metrics.counter("obd.timeouts");
+    }
+
+    /**
+     * Requests every configured PID once. After this returns, {@link #hasValue(Pid)} says which
+     * PIDs were answered, {@link #isTimedOut(Pid)} which of the rest were cut short by a timeout,
+     * and {@link #getValue(Pid)} returns their decoded values.
+     *
+     * @param in the stream to read responses from
+     * @param out the stream to write requests to
+     * @throws IOException if the connection to the adapter fails
+     */
+    public void poll(InputStream in, OutputStream out) throws IOException {
+        poll(mPids, in, out);
+    }
+
+    /**
+     * Requests the given PIDs once, batching them if possible.
+     *
+     * @param pids the PIDs to request
+     * @param in the stream to read responses from
+     * @param out the stream to write requests to
+     * @throws IOException if the connection to the adapter fails
+     */
+    public void poll(List<Pid> pids, InputStream in, OutputStream out) throws IOException {
+        Arrays.fill(mAnswered, false);
+        Arrays.fill(mTimedOut, false);
+        mReader.discardStale(in, getDeadline(mRequestLatency));
+        if (mTuningDue) {
+            tuneAdapterTimeout(in, out);
+        }
+        int count = pids.size();
+        if (mMultiPidSupported) {
+            for (int i = 0; i < count; i += MAX_PIDS_PER_REQUEST) {
+                int end = Math.min(i + MAX_PIDS_PER_REQUEST, count);
+                int supported = countSupported(pids, i, end);
+                int answered = request(pids, i, end, in, out);
+                if (answered < 0) {
+                    // The adapter didn't answer in time; try again on the next poll
+                    markTimedOut(pids);
+                    return;
+                }
+                if (end - i > 1 && mRejected) {
+                    // The adapter doesn't take more than one PID per request
+                    mMultiPidSupported = false;
+                    break;
+                }
+                if (supported > 1 && answered <= 1) {
+                    // PIDs that the vehicle does answer were left out. Once could be a lost
+                    //     frame, but every time means the vehicle's protocol can't batch.
+                    if (++mShortBatches >= MAX_SHORT_BATCHES) {
+                        mMultiPidSupported = false;
+                        break;
+                    }
+                } else if (answered > 1) {
+                    mShortBatches = 0;
+                }
+            }
+        }
+        // Pick up anything that wasn't answered as part of a batch, one PID at a time.
+        for (int i = 0; i < count; i++) {
+            if (!mAnswered[pids.get(i).ordinal()] && request(pids, i, i + 1, in, out) < 0) {
+                markTimedOut(pids);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Turns on the adapter's adaptive timing (AT AT1) and sets its timeout (AT ST) to
+     * {@link #DEFAULT_ADAPTER_TIMEOUT}. From then on, the timeout is tuned from the response times
+     * of the requests that this poller makes. This should be called once the adapter has been
+     * reset and echo has been turned off.
+     *
+     * @param in the stream to read responses from
+     * @param out the stream to write requests to
+     * @return whether the adapter accepted both commands
+     * @throws IOException if the connection to the adapter fails
+     */
+    public boolean configureTimeouts(InputStream in, OutputStream out) throws IOException {
+        // This is a new connection, so nothing late from the old one can still be on its way
+        mReader.setStale(false);
+        mTuningEnabled = sendAt("AT AT1", in, out)
+                && setAdapterTimeout(DEFAULT_ADAPTER_TIMEOUT, in, out);
+        return mTuningEnabled;
+    }
+
+    /**
+     * @return the round-trip times of every distinct request this poller has made, in
+     *     microseconds
+     */
+    public CommandLatencies getLatencies() {
+        return mLatencies;
+    }
+
+    /**
+     * @return the round-trip times of all mode 01 requests together, in microseconds
+     */
+    public Histogram getRequestLatency() {
+        return mRequestLatency;
+    }
+
+    /**
+     * @return the number of requests that weren't answered before their deadline
+     */
+    public long getTimeoutCount() {
+        return mTimeoutCount;
+    }
+
+    /**
+     * @return the adapter's timeout, in the units of AT ST (4 ms)
+     */
+    public int getAdapterTimeout() {
+        return mAdapterTimeout;
+    }
+
+    /**
+     * @return false once the poller has fallen back to one request per PID
+     */
+    public boolean isMultiPidSupported() {
+        return mMultiPidSupported;
+    }
+
+    /**
+     * @return the reader that responses are read through, which anything else that makes
+     *     requests over the same connection should share
+     */
+    public ResponseReader getReader() {
+        return mReader;
+    }
+
+    /**
+     * @return the PIDs that this poller requests
+     */
+    public List<Pid> getPids() {
+        return mPids;
+    }
+
+    /**
+     * @param pid the PID
+     * @return whether the PID was answered during the last poll
+     */
+    public boolean hasValue(Pid pid) {
+        return mAnswered[pid.ordinal()];
+    }
+
+    /**
+     * @param pid the PID
+     * @return whether the PID went unanswered during the last poll because a request timed out,
+     *     rather than because the vehicle answered without it
+     */
+    public boolean isTimedOut(Pid pid) {
+        return mTimedOut[pid.ordinal()];
+    }
+
+    /**
+     * @param pid the PID
+     * @return the most recent value of the PID, which may be from an earlier poll, or
+     *     {@link Float#NaN} if it has never been answered
+     */
+    public float getValue(Pid pid) {
+        return mValues[pid.ordinal()];
+    }
+
+    /**
+     * Marks every PID of the poll that hasn't been answered as timed out.
+     */
+    private void markTimedOut(List<Pid> pids) {
+        for (int i = 0; i < pids.size(); i++) {
+            int ordinal = pids.get(i).ordinal();
+            mTimedOut[ordinal] = !mAnswered[ordinal];
+        }
+    }
+
+    /**
+     * @return the number of pids[from, to) that have been answered before
+     */
+    private int countSupported(List<Pid> pids, int from, int to) {
+        int supported = 0;
+        for (int i = from; i < to; i++) {
+            if (!Float.isNaN(mValues[pids.get(i).ordinal()])) {
+                supported++;
+            }
+        }
+        return supported;
+    }
+
+    /**
+     * Sends one request for pids[from, to) and parses the answer.
+     *
+     * @return the number of PIDs that were answered, or -1 if the adapter didn't answer in time
+     */
+    private int request(List<Pid> pids, int from, int to, InputStream in, OutputStream out)
+            throws IOException {
+        int length = 0;
+        mRequest[length++] = '0';
+        mRequest[length++] = '1';
+        for (int i = from; i < to; i++) {
+            int code = pids.get(i).getCode();
+            mRequest[length++] = ' ';
+            mRequest[length++] = HEX_DIGITS[code >> 4];
+            mRequest[length++] = HEX_DIGITS[code & 0xF];
+        }
+        Histogram latency = mLatencies.get(mRequest, length);
+        mRequest[length++] = '\r';
+        out.write(mRequest, 0, length);
+        out.flush();
+        long start = System.nanoTime();
+        int responseLength = mReader.read(in, getDeadline(latency));
+        mRejected = false;
+        if (responseLength < 0) {
+            mTimeoutCount++;
+            mTimeouts.increment();
+            mReader.setStale(true);
+            return -1;
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        latency.record(micros);
+        mRequestLatency.record(micros);
+        for (int i = from; i < to; i++) {
+            Histogram pidLatency = mPidLatencies[pids.get(i).ordinal()];
+            if (pidLatency != null) {
+                pidLatency.record(micros);
+            }
+        }
+
+        long parseStart = System.nanoTime();
+        int found = parseResponse(mReader.getBuffer(), responseLength, mResponseBytes, mValues,
+                mAnswered);
+        mParseTime.record(System.nanoTime() - parseStart);
+        if (found > 0) {
+            mSearched = true;
+        } else if (mReader.contains(responseLength, "?")
+                || mReader.contains(responseLength, "ERROR")) {
+            mRejected = true;
+        } else if (mTuningEnabled && !Float.isNaN(mValues[pids.get(from).ordinal()])
+                && micros * 4 >= mAdapterTimeout * ADAPTER_TIMEOUT_UNIT * 1000L * 3
+                && mReader.contains(responseLength, "NO DATA")) {
+            // A PID that has been answered before wasn't this time, and the adapter waited about
+            //     as long as it was allowed to, so it may have given up on the vehicle too early.
+            //     Never tune the timeout this low again.
+            mMinAdapterTimeout = Math.min(MAX_ADAPTER_TIMEOUT,
+                    Math.max(mMinAdapterTimeout, mAdapterTimeout + mAdapterTimeout / 2));
+            mTuningDue |= mMinAdapterTimeout > mAdapterTimeout;
+        }
+        if (mTuningEnabled && ++mRequestsSinceTuning >= TUNING_INTERVAL) {
+            mTuningDue = true;
+        }
+        return found;
+    }
+
+    /**
+     * @param latency the response times of the request that is about to be made
+     * @return how long to wait for its answer, in milliseconds
+     */
+    private long getDeadline(Histogram latency) {
+        if (!mSearched) {
+            return SEARCH_DEADLINE;
+        }
+        long deadline = mAdapterTimeout * ADAPTER_TIMEOUT_UNIT + DEADLINE_SLACK;
+        if (latency.getCount() >= MIN_SAMPLES) {
+            deadline = Math.max(deadline, latency.getValueAtPercentile(99) * 2 / 1000);
+        }
+        return Math.min(deadline, MAX_DEADLINE);
+    }
+
+    /**
+     * Sets the adapter's timeout to twice the slowest response times seen so far, if that is
+     * different enough from what it is now.
+     */
+    private void tuneAdapterTimeout(InputStream in, OutputStream out) throws IOException {
+        mTuningDue = false;
+        mRequestsSinceTuning = 0;
+        long target = mRequestLatency.getValueAtPercentile(99) * 2 / 1000;
+        int timeout = (int) ((target + ADAPTER_TIMEOUT_UNIT - 1) / ADAPTER_TIMEOUT_UNIT);
+        timeout = Math.min(MAX_ADAPTER_TIMEOUT, Math.max(mMinAdapterTimeout, timeout));
+        if (Math.abs(timeout - mAdapterTimeout) * 4 >= mAdapterTimeout) {
+            setAdapterTimeout(timeout, in, out);
+        }
+    }
+
+    private boolean setAdapterTimeout(int timeout, InputStream in, OutputStream out)
+            throws IOException {
+        if (sendAt(String.format("AT ST %02X", timeout), in, out)) {
+            mAdapterTimeout = timeout;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends an AT command and times its answer.
+     *
+     * @return whether the adapter answered OK
+     */
+    private boolean sendAt(String command, InputStream in, OutputStream out) throws IOException {
+        byte[] request = (command + '\r').getBytes();
+        Histogram latency = mLatencies.get(request, request.length - 1);
+        out.write(request);
+        out.flush();
+        long start = System.nanoTime();
+        int length = mReader.read(in, AT_DEADLINE);
+        if (length < 0) {
+            mTimeoutCount++;
+            mReader.setStale(true);
+            return false;
+        }
+        latency.record((System.nanoTime() - start) / 1000);
+        return mReader.contains(length, "OK");
+    }
+
+    /**
+     * Parses a mode 01 response, which may contain several PIDs, several ECUs and, on CAN, several
+     * numbered frames. Lines that aren't hex data (SEARCHING..., NO DATA, ?) are skipped. Each
+     * ECU's answer is read up to the first byte that isn't a known PID, such as padding, and
+     * nothing after that in the same answer is trusted. Nothing is allocated.
+     *
+     * @param response the raw response, without the trailing prompt
+     * @param length the number of bytes in the response
+     * @param scratch holds the data bytes of the response while it's being parsed
+     * @param values where decoded values are stored, indexed by {@link Pid#ordinal()}
+     * @param answered set to true for each PID that was found in the response
+     * @return the number of PIDs found in the response
+     */
+    static int parseResponse(byte[] response, int length, int[] scratch, float[] values,
+                             boolean[] answered) {
+        int found = 0;
+        int byteCount = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && response[lineEnd] != '\r' && response[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            if (getFrameNumber(response, lineStart, lineEnd) <= 0) {
+                // Anything but a continuation frame starts another ECU's answer
+                found += parseAnswer(scratch, byteCount, values, answered);
+                byteCount = 0;
+            }
+            byteCount = parseLine(response, lineStart, lineEnd, scratch, byteCount);
+            lineStart = lineEnd + 1;
+        }
+        return found + parseAnswer(scratch, byteCount, values, answered);
+    }
+
+    /**
+     * Decodes the PID/data pairs of one ECU's answer, up to the first byte that isn't a known PID.
+     *
+     * @return the number of PIDs found that weren't already
+     */
+    private static int parseAnswer(int[] data, int byteCount, float[] values,
+                                   boolean[] answered) {
+        if (byteCount < 1 || data[0] != MODE_01_RESPONSE) {
+            return 0;
+        }
+        int found = 0;
+        int i = 1;
+        while (i < byteCount) {
+            Pid pid = Pid.fromCode(data[i]);
+            if (pid == null || i + pid.getByteCount() >= byteCount) {
+                break;
+            }
+            int a = data[i + 1];
+            int b = pid.getByteCount() > 1 ? data[i + 2] : 0;
+            values[pid.ordinal()] = pid.decode(a, b);
+            if (!answered[pid.ordinal()]) {
+                answered[pid.ordinal()] = true;
+                found++;
+            }
+            i += pid.getByteCount() + 1;
+        }
+        return found;
+    }
+
+    /**
+     * Appends the data bytes of one line of a response to scratch.
+     *
+     * @return the new number of bytes in scratch
+     */
+    static int parseLine(byte[] response, int start, int end, int[] scratch,
+                          int byteCount) {
+        // A numbered CAN frame, like "0: 41 0C 1A F8 0D 00", only has data after the colon
+        for (int i = start; i < end; i++) {
+            if (response[i] == ':') {
+                start = i + 1;
+                break;
+            }
+        }
+
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            if (response[i] == ' ') {
+                continue;
+            }
+            if (ResponseReader.hexValue(response[i]) < 0) {
+                // Not data: NO DATA, SEARCHING..., ?, etc.
+                return byteCount;
+            }
+            digits++;
+        }
+        if (digits == 0 || digits % 2 != 0) {
+            // Odd digit counts include the byte count that precedes a multi-frame CAN response
+            return byteCount;
+        }
+
+        int high = -1;
+        for (int i = start; i < end && byteCount < scratch.length; i++) {
+            int value = ResponseReader.hexValue(response[i]);
+            if (value < 0) {
+                continue;
+            }
+            if (high < 0) {
+                high = value;
+            } else {
+                scratch[byteCount++] = (high << 4) | value;
+                high = -1;
+            }
+        }
+        return byteCount;
+    }
+
+    /**
+     * @return the number of a CAN frame, such as the 1 in "1: 02 44 00 00", or -1 if the line
+     *     isn't a numbered frame
+     */
+    static int getFrameNumber(byte[] response, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (response[i] == ':') {
+                return ResponseReader.parseHex(response, start, i);
+            }
+        }
+        return -1;
+    }
+}
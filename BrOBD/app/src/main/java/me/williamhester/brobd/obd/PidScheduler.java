@@ -0,0 +1,295 @@
+package me.williamhester.brobd.obd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides which PIDs to request next. Every PID has its own target period and priority; PIDs are
+ * handed out earliest-deadline-first, so PIDs with the same period are served round-robin and the
+ * link is kept busy with whatever is most overdue.
+ *
+ * When the link can't keep up (the most overdue PID is late by more than its own period), every
+ * PID below the highest configured priority has its period doubled, up to {@link #MAX_BACKOFF}
+ * times its target. Once the link has caught up, those periods are halved again until they are
+ * back at their targets. PIDs that the vehicle doesn't answer are backed off all the way
+ * immediately. A PID whose request timed out says nothing about the vehicle, so it is only
+ * retried on its next slot, without any back off.
+ *
+ * Each PID's deadlines stay on a fixed grid, anchored at the time it was first answered and
+ * spaced by its period, so a slow round trip never pushes every later poll back with it. When a
+ * response arrives after the PID's next slot has already passed, the missed slots are skipped
+ * rather than made up for in a burst, and counted in {@link #getSkippedTicks()}.
+ *
+ * All times are in milliseconds and only need to come from the same monotonic clock.
+ *
+ * @author William Hester
+ */
+public class PidScheduler {
+
+    public static final int MAX_BACKOFF = 8;
+
+    // How often the backed off periods are allowed to change.
+    private static final long ADJUST_INTERVAL = 1000L;
+
+    private final Pid[] mPids;
+    private final long[] mTargetPeriods;
+    private final long[] mPeriods;
+    private final int[] mPriorities;
+    private final long[] mDeadlines;
+    private final boolean[] mAnchored;
+    private final int[] mDue;
+    private final List<Pid> mBatch;
+    private int mTopPriority = Integer.MIN_VALUE;
+    private long mLastAdjustment;
+    private boolean mStarted;
+    private boolean mSaturated;
+    private long mSkippedTicks;
+
+    /**
+     * Creates a scheduler that uses each PID's default period and priority. Every PID is due as
+     * soon as the first batch is picked.
+     *
+     * @param pids the PIDs to schedule
+     */
+    public PidScheduler(List<Pid> pids) {
+        int count = pids.size();
+        mPids = pids.toArray(new Pid[count]);
+        mTargetPeriods = new long[count];
+        mPeriods = new long[count];
+        mPriorities = new int[count];
+        mDeadlines = new long[count];
+        mAnchored = new boolean[count];
+        mDue = new int[count];
+        mBatch = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            mTargetPeriods[i] = mPids[i].getDefaultPeriod();
+            mPeriods[i] = mTargetPeriods[i];
+            mPriorities[i] = mPids[i].getDefaultPriority();
+            mTopPriority = Math.max(mTopPriority, mPriorities[i]);
+        }
+    }
+
+    /**
+     * Overrides the target period of a PID.
+     *
+     * @param pid the PID
+     * @param period how often to poll the PID, in milliseconds
+     */
+    public void setTargetPeriod(Pid pid, long period) {
+        int i = indexOf(pid);
+        if (i >= 0) {
+            mTargetPeriods[i] = period;
+            mPeriods[i] = period;
+        }
+    }
+
+    /**
+     * Overrides the priority of a PID.
+     *
+     * @param pid the PID
+     * @param priority the new priority; higher priorities are backed off last
+     */
+    public void setPriority(Pid pid, int priority) {
+        int i = indexOf(pid);
+        if (i >= 0) {
+            mPriorities[i] = priority;
+            mTopPriority = Integer.MIN_VALUE;
+            for (int p : mPriorities) {
+                mTopPriority = Math.max(mTopPriority, p);
+            }
+        }
+    }
+
+    /**
+     * Picks the PIDs that should be requested now, most overdue first. The returned list is
+     * reused by the next call.
+     *
+     * @param now the current time
+     * @param maxCount the most PIDs that can be sent at once
+     * @return the PIDs to request, which is empty if nothing is due yet
+     */
+    public List<Pid> nextBatch(long now, int maxCount) {
+        if (!mStarted) {
+            // Every PID is due at the start, not overdue since whenever the clock began
+            mStarted = true;
+            mLastAdjustment = now;
+            for (int i = 0; i < mPids.length; i++) {
+                if (!mAnchored[i]) {
+                    mDeadlines[i] = now;
+                }
+            }
+        }
+        int dueCount = 0;
+        for (int i = 0; i < mPids.length; i++) {
+            if (mDeadlines[i] <= now) {
+                // Insertion sort by deadline, then by priority. There are only ever a handful.
+                int j = dueCount++;
+                while (j > 0 && comesBefore(i, mDue[j - 1])) {
+                    mDue[j] = mDue[j - 1];
+                    j--;
+                }
+                mDue[j] = i;
+            }
+        }
+
+        boolean saturated = dueCount > 0 && now - mDeadlines[mDue[0]] > mPeriods[mDue[0]];
+        adjustPeriods(now, saturated);
+
+        mBatch.clear();
+        for (int i = 0; i < dueCount && i < maxCount; i++) {
+            mBatch.add(mPids[mDue[i]]);
+        }
+        return mBatch;
+    }
+
+    /**
+     * Reschedules a PID after it has been requested.
+     *
+     * @param pid the PID that was requested
+     * @param answered whether the vehicle answered it
+     * @param now the time that the response arrived
+     */
+    public void onPolled(Pid pid, boolean answered, long now) {
+        int i = indexOf(pid);
+        if (i < 0) {
+            return;
+        }
+        if (!answered) {
+            mPeriods[i] = mTargetPeriods[i] * MAX_BACKOFF;
+        }
+        if (!mAnchored[i] || mPeriods[i] <= 0) {
+            // The PID's grid starts at its first answer; until then, retry a period after each try
+            mAnchored[i] = answered;
+            mDeadlines[i] = now + mPeriods[i];
+            return;
+        }
+        reschedule(i, now);
+    }
+
+    /**
+     * Reschedules a PID whose request wasn't answered in time. The adapter or the link stalled,
+     * not the vehicle, so the PID keeps its period.
+     *
+     * @param pid the PID that was requested
+     * @param now the time that the request was given up on
+     */
+    public void onTimedOut(Pid pid, long now) {
+        int i = indexOf(pid);
+        if (i >= 0) {
+            reschedule(i, now);
+        }
+    }
+
+    private void reschedule(int i, long now) {
+        long period = mPeriods[i];
+        if (!mAnchored[i] || period <= 0) {
+            // Without a grid to keep to, retry a period after this try
+            mDeadlines[i] = now + period;
+            return;
+        }
+        long next = mDeadlines[i] + period;
+        if (next < now) {
+            // Keep to the PID's own grid, but don't try to make up for missed slots in a burst
+            long missed = (now - next + period - 1) / period;
+            mSkippedTicks += missed;
+            next += missed * period;
+        }
+        mDeadlines[i] = next;
+    }
+
+    /**
+     * @return the earliest time at which any PID is due
+     */
+    public long getNextDeadline() {
+        long next = Long.MAX_VALUE;
+        for (long deadline : mDeadlines) {
+            next = Math.min(next, deadline);
+        }
+        return next;
+    }
+
+    /**
+     * A PID only loses a slot if it is answered after the slot that follows its deadline, so the
+     * link can be used for something else for a while even if a PID is already due.
+     *
+     * @param now the current time
+     * @return how long from now until the earliest time at which a PID would have to be answered
+     *     to keep all of its slots; negative if some PID is already too late for that
+     */
+    public long getSlack(long now) {
+        long latest = Long.MAX_VALUE;
+        for (int i = 0; i < mPids.length; i++) {
+            latest = Math.min(latest, mDeadlines[i] + mPeriods[i]);
+        }
+        return latest - now;
+    }
+
+    /**
+     * @param pid the PID
+     * @return the period that the PID is currently polled at, including any back off
+     */
+    public long getPeriod(Pid pid) {
+        int i = indexOf(pid);
+        return i >= 0 ? mPeriods[i] : -1;
+    }
+
+    /**
+     * @return the number of PID values per second that the target periods add up to, leaving out
+     *     PIDs that are polled as often as possible
+     */
+    public double getTargetRate() {
+        double rate = 0;
+        for (long period : mTargetPeriods) {
+            if (period > 0) {
+                rate += 1000.0 / period;
+            }
+        }
+        return rate;
+    }
+
+    /**
+     * @return the number of slots, over all PIDs, that were skipped because the PID's previous
+     *     response came back too late to make them
+     */
+    public long getSkippedTicks() {
+        return mSkippedTicks;
+    }
+
+    /**
+     * @return whether the link was saturated the last time a batch was picked
+     */
+    public boolean isSaturated() {
+        return mSaturated;
+    }
+
+    private boolean comesBefore(int a, int b) {
+        if (mDeadlines[a] != mDeadlines[b]) {
+            return mDeadlines[a] < mDeadlines[b];
+        }
+        return mPriorities[a] > mPriorities[b];
+    }
+
+    private void adjustPeriods(long now, boolean saturated) {
+        mSaturated = saturated;
+        if (now - mLastAdjustment < ADJUST_INTERVAL) {
+            return;
+        }
+        mLastAdjustment = now;
+        for (int i = 0; i < mPids.length; i++) {
+            if (saturated && mPriorities[i] < mTopPriority) {
+                mPeriods[i] = Math.min(mPeriods[i] * 2, mTargetPeriods[i] * MAX_BACKOFF);
+            } else if (!saturated) {
+                mPeriods[i] = Math.max(mPeriods[i] / 2, mTargetPeriods[i]);
+            }
+        }
+    }
+
+    private int indexOf(Pid pid) {
+        for (int i = 0; i < mPids.length; i++) {
+            if (mPids[i] == pid) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
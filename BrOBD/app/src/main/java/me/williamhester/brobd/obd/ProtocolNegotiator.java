@@ -0,0 +1,170 @@
+package me.williamhester.brobd.obd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Gets a freshly connected adapter talking to the vehicle and finds out which PIDs the vehicle
+ * supports. Letting the adapter search for the protocol (AT SP 0) can take several seconds, so if
+ * a {@link VehicleProfile} from an earlier connection is given, its protocol is selected directly
+ * and only checked with a single request. If that fails, say because the adapter has been moved to
+ * another car, this falls back to the full search.
+ *
+ * Echo should already be off when this is called.
+ *
+ * @author William Hester
+ */
+public class ProtocolNegotiator {
+
+    static final long WARM_DEADLINE = 2000L;
+    private static final long AT_DEADLINE = 1000L;
+    private static final int MODE_01_RESPONSE = 0x41;
+
+    private final ResponseReader mReader = new ResponseReader();
+    private final int[] mBytes = new int[ResponseReader.DEFAULT_CAPACITY / 2];
+    private boolean mWarmStart;
+    private long mDuration;
+
+    /**
+     * @param in the stream to read responses from
+     * @param out the stream to write requests to
+     * @param cached what was learned about the vehicle last time, or null
+     * @return what was learned about the vehicle this time, or null if it never answered
+     * @throws IOException if the connection to the adapter fails
+     */
+    public VehicleProfile negotiate(InputStream in, OutputStream out, VehicleProfile cached)
+            throws IOException {
+        long start = System.nanoTime();
+        VehicleProfile profile = cached != null ? warmStart(in, out, cached) : null;
+        mWarmStart = profile != null;
+        if (profile == null) {
+            profile = discover(in, out);
+        }
+        mDuration = (System.nanoTime() - start) / 1000000L;
+        return profile;
+    }
+
+    /**
+     * @return whether the last negotiation could use the cached profile's protocol
+     */
+    public boolean wasWarmStart() {
+        return mWarmStart;
+    }
+
+    /**
+     * @return how long the last negotiation took, in milliseconds
+     */
+    public long getDuration() {
+        return mDuration;
+    }
+
+    private VehicleProfile warmStart(InputStream in, OutputStream out, VehicleProfile cached)
+            throws IOException {
+        if (!sendAt("AT SP " + cached.getProtocol(), in, out)) {
+            return null;
+        }
+        long first = requestBitmap(0x00, WARM_DEADLINE, in, out);
+        if (first < 0) {
+            return null;
+        }
+        if ((int) first == cached.getBitmap(0)) {
+            return cached;
+        }
+        // The protocol works, but the vehicle isn't the one that was cached
+        return new VehicleProfile(cached.getProtocol(), requestBitmaps((int) first, in, out));
+    }
+
+    private VehicleProfile discover(InputStream in, OutputStream out) throws IOException {
+        if (!sendAt("AT SP 0", in, out)) {
+            return null;
+        }
+        // This is the request that makes the adapter search
+        long first = requestBitmap(0x00, PidPoller.SEARCH_DEADLINE, in, out);
+        if (first < 0) {
+            return null;
+        }
+        int[] bitmaps = requestBitmaps((int) first, in, out);
+        return new VehicleProfile(requestProtocol(in, out), bitmaps);
+    }
+
+    /**
+     * Asks for PIDs 20, 40, ... for as long as the previous bitmap says the next one exists.
+     */
+    private int[] requestBitmaps(int first, InputStream in, OutputStream out)
+            throws IOException {
+        int[] bitmaps = new int[VehicleProfile.MAX_BITMAPS];
+        bitmaps[0] = first;
+        for (int i = 1; i < bitmaps.length && (bitmaps[i - 1] & 1) != 0; i++) {
+            long bitmap = requestBitmap(i * 0x20, WARM_DEADLINE, in, out);
+            if (bitmap < 0) {
+                break;
+            }
+            bitmaps[i] = (int) bitmap;
+        }
+        return bitmaps;
+    }
+
+    /**
+     * @param pid 00, 20, 40, ...
+     * @return the bitmap, combined over every ECU that answered, or -1 if none did
+     */
+    private long requestBitmap(int pid, long deadline, InputStream in, OutputStream out)
+            throws IOException {
+        out.write(String.format("01%02X\r", pid).getBytes());
+        out.flush();
+        int length = mReader.read(in, deadline);
+        if (length < 0) {
+            // Let a late answer arrive, so it isn't mistaken for the answer to the next command
+            mReader.read(in, deadline);
+            return -1;
+        }
+
+        byte[] response = mReader.getBuffer();
+        int byteCount = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && response[lineEnd] != '\r' && response[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            byteCount = PidPoller.parseLine(response, lineStart, lineEnd, mBytes, byteCount);
+            lineStart = lineEnd + 1;
+        }
+
+        long bitmap = -1;
+        for (int i = 0; i + 5 < byteCount; i++) {
+            if (mBytes[i] == MODE_01_RESPONSE && mBytes[i + 1] == pid) {
+                long bits = ((long) mBytes[i + 2] << 24) | (mBytes[i + 3] << 16)
+                        | (mBytes[i + 4] << 8) | mBytes[i + 5];
+                bitmap = bitmap < 0 ? bits : bitmap | bits;
+                i += 5;
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * @return the protocol that the adapter ended up using, or '0' (search) if it won't say
+     */
+    private char requestProtocol(InputStream in, OutputStream out) throws IOException {
+        out.write("AT DPN\r".getBytes());
+        out.flush();
+        int length = mReader.read(in, AT_DEADLINE);
+        // The answer is "A6" if the protocol was found by searching, and "6" otherwise
+        byte[] response = mReader.getBuffer();
+        for (int i = length - 1; i >= 0; i--) {
+            if (Character.isLetterOrDigit(response[i])) {
+                return (char) response[i];
+            }
+        }
+        return '0';
+    }
+
+    private boolean sendAt(String command, InputStream in, OutputStream out) throws IOException {
+        out.write((command + '\r').getBytes());
+        out.flush();
+        int length = mReader.read(in, AT_DEADLINE);
+        return length >= 0 && mReader.contains(length, "OK");
+    }
+}
@@ -0,0 +1,219 @@
+package me.williamhester.brobd.obd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Reads ELM327 responses, which end with the '>' prompt, into a preallocated buffer. Bytes are
+ * read in bulk, as many as the stream has available, and scanned for the prompt, rather than
+ * one stream call per byte.
+ *
+ * Every read has a deadline. Since a blocking read on a Bluetooth socket can't be interrupted
+ * without closing it, the reader only reads what {@link InputStream#available()} reports and
+ * sleeps for {@link #POLL_INTERVAL} while there is nothing, so a stalled adapter holds up the
+ * caller for no longer than the deadline.
+ *
+ * A request that timed out may still be answered later. The reader keeps track of that, so that
+ * whatever makes the next request over the same connection, the {@link PidPoller} or the
+ * {@link TroubleCodeScanner}, can first give the late answer the chance to arrive and throw it
+ * away. For that to work, everything that talks over one connection has to share one reader.
+ *
+ * @author William Hester
+ */
+public class ResponseReader {
+
+    public static final int DEFAULT_CAPACITY = 512;
+
+    // How long to wait before checking the stream again when nothing has arrived
+    static final long POLL_INTERVAL = 1L;
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+
+    private final byte[] mBuffer;
+    private final byte[] mDiscard = new byte[64];
+    private long mDiscardedCount;
+    // Whether the adapter may still answer a request that timed out
+    private boolean mStale;
+
+    public ResponseReader() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the longest response that is kept; anything past it is read and thrown
+     *     away
+     */
+    public ResponseReader(int capacity) {
+        mBuffer = new byte[capacity];
+    }
+
+    /**
+     * Reads everything up to the next prompt into the buffer. Anything that the stream had
+     * already delivered after the prompt is thrown away, since the adapter doesn't send anything
+     * unasked.
+     *
+     * @param in the stream to read from
+     * @param timeout how long to wait for the prompt, in milliseconds
+     * @return the number of bytes in {@link #getBuffer()}, without the prompt, or -1 if the
+     *     prompt didn't arrive in time
+     * @throws IOException if the stream fails or is closed
+     */
+    public int read(InputStream in, long timeout) throws IOException {
+        long deadline = System.nanoTime() + timeout * NANOS_PER_MILLI;
+        int length = 0;
+        while (true) {
+            int available = in.available();
+            if (available > 0) {
+                // Once the buffer is full, keep reading to find the prompt but drop the bytes
+                boolean full = length == mBuffer.length;
+                byte[] target = full ? mDiscard : mBuffer;
+                int offset = full ? 0 : length;
+                int n = in.read(target, offset, Math.min(available, target.length - offset));
+                if (n < 0) {
+                    throw new IOException("The connection to the adapter was closed");
+                }
+                for (int i = offset; i < offset + n; i++) {
+                    if (target[i] == '>') {
+                        mDiscardedCount += (full ? i : 0) + offset + n - i - 1;
+                        return full ? length : i;
+                    }
+                }
+                if (full) {
+                    mDiscardedCount += n;
+                } else {
+                    length += n;
+                }
+            } else if (System.nanoTime() - deadline >= 0) {
+                return -1;
+            } else {
+                try {
+                    Thread.sleep(POLL_INTERVAL);
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+    }
+
+    /**
+     * If the last request made through this reader timed out, waits for its answer and throws it
+     * away, so that it isn't taken for the answer to the next request.
+     *
+     * @param in the stream to read from
+     * @param timeout how long to wait for the late answer, in milliseconds
+     * @throws IOException if the stream fails or is closed
+     */
+    public void discardStale(InputStream in, long timeout) throws IOException {
+        if (mStale) {
+            read(in, timeout);
+            mStale = false;
+        }
+    }
+
+    /**
+     * @param stale whether the adapter may still answer a request that timed out
+     */
+    public void setStale(boolean stale) {
+        mStale = stale;
+    }
+
+    public boolean isStale() {
+        return mStale;
+    }
+
+    /**
+     * Throws away whatever the stream has already delivered without waiting for more, such as the
+     * rest of an answer that came in after its deadline.
+     *
+     * @param in the stream to read from
+     * @return the number of bytes thrown away
+     * @throws IOException if the stream fails or is closed
+     */
+    public int discardAvailable(InputStream in) throws IOException {
+        int total = 0;
+        int available;
+        while ((available = in.available()) > 0) {
+            int n = in.read(mDiscard, 0, Math.min(available, mDiscard.length));
+            if (n < 0) {
+                throw new IOException("The connection to the adapter was closed");
+            }
+            total += n;
+        }
+        mDiscardedCount += total;
+        return total;
+    }
+
+    /**
+     * @return the last response that was read; only the first {@link #read} bytes are valid
+     */
+    public byte[] getBuffer() {
+        return mBuffer;
+    }
+
+    /**
+     * @return the number of bytes that were read and thrown away, either because a response was
+     *     too long or because they came after the prompt
+     */
+    public long getDiscardedCount() {
+        return mDiscardedCount;
+    }
+
+    /**
+     * @param length the number of valid bytes in the buffer
+     * @param text plain ASCII text, such as "NO DATA"
+     * @return whether the text appears anywhere in the buffer
+     */
+    public boolean contains(int length, String text) {
+        int textLength = text.length();
+        for (int i = 0; i + textLength <= length; i++) {
+            int j = 0;
+            while (j < textLength && mBuffer[i + j] == text.charAt(j)) {
+                j++;
+            }
+            if (j == textLength) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parses hex digits straight from bytes, skipping spaces, without building a String.
+     *
+     * @param bytes the bytes to parse
+     * @param start the first byte
+     * @param end one past the last byte
+     * @return the value, or -1 if anything other than hex digits and spaces was found
+     */
+    public static int parseHex(byte[] bytes, int start, int end) {
+        int value = 0;
+        boolean any = false;
+        for (int i = start; i < end; i++) {
+            if (bytes[i] == ' ') {
+                continue;
+            }
+            int digit = hexValue(bytes[i]);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+            any = true;
+        }
+        return any ? value : -1;
+    }
+
+    /**
+     * @return the value of a single hex digit, or -1 if it isn't one
+     */
+    static int hexValue(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,239 @@
+package me.williamhester.brobd.obd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import me.williamhester.brobd.stats.Counter;
+import me.williamhester.brobd.stats.Gauge;
+import me.williamhester.brobd.stats.Histogram;
+import me.williamhester.brobd.stats.MetricsRegistry;
+import me.williamhester.brobd.storage.DriveLog;
+import me.williamhester.brobd.storage.SampleHistory;
+import me.williamhester.brobd.storage.SampleRingBuffer;
+
+/**
+ * One step of the logging loop: asks the {@link PidScheduler} what is due, requests it through
+ * the {@link PidPoller} and pushes the answers into a {@link SampleRingBuffer}. In the steady state
+ * a tick doesn't allocate anything, which keeps the garbage collector from putting gaps in the
+ * data on slow devices.
+ *
+ * The scheduler is driven from a {@link MonotonicClock}, in milliseconds, and the delay until the
+ * next tick comes straight from the scheduler's deadlines, so ticks don't drift however long each
+ * round trip takes. Slots that the scheduler had to skip are counted too.
+ *
+ * With a {@link TroubleCodeScanner}, trouble codes are read between PID requests, whenever the
+ * scanner's next request and the PID request that it holds up should both be done before any PID
+ * would lose a slot, or when the scan has waited too long for such a gap. Every sample is also
+ * kept in a {@link SampleHistory}, and when a scan turns up a new code, a snapshot of it is
+ * handed to the {@link TroubleCodeListener} as the code's freeze frame.
+ *
+ * How long each tick takes, the ticks that got no answers, and the rate of PID values actually
+ * answered next to the rate the scheduler is aiming for are all recorded in the
+ * {@link MetricsRegistry}.
+ *
+ * @author William Hester
+ */
+public class SampleCollector {
+
+    // The achieved rate is measured over windows of this many milliseconds
+    private static final long RATE_WINDOW = 1000L;
+
+    private final PidPoller mPoller;
+    private final PidScheduler mScheduler;
+    private final SampleRingBuffer mBuffer;
+    private final MonotonicClock mClock;
+    private final float[] mSample;
+    private long mSampleCount;
+    private DriveLog mLog;
+    private TroubleCodeScanner mScanner;
+    private SampleHistory mHistory;
+    private TroubleCodeListener mTroubleCodeListener;
+    private final Histogram mTickTime;
+    private final Counter mSamples;
+    private final Counter mEmptyTicks;
+    private final Counter mSkippedTicks;
+    private long mReportedSkips;
+    private final Gauge mAchievedRate;
+    private long mWindowStart = -1;
+    private int mWindowValues;
+
+    public SampleCollector(PidPoller poller, PidScheduler scheduler, SampleRingBuffer buffer) {
+        this(poller, scheduler, buffer, MonotonicClock.SYSTEM);
+    }
+
+    /**
+     * @param clock the clock that the scheduler's deadlines are kept on
+     */
+    public SampleCollector(PidPoller poller, PidScheduler scheduler, SampleRingBuffer buffer,
+                           MonotonicClock clock) {
+        mPoller = poller;
+        mScheduler = scheduler;
+        mBuffer = buffer;
+        mClock = clock;
+        mSample = new float[buffer.getWidth()];
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        mTickTime = metrics.histogram("collector.tick_us");
+        mSamples = metrics.counter("collector.samples");
+        mEmptyTicks = metrics.counter("collector.empty_ticks");
+        mSkippedTicks = metrics.counter("scheduler.skipped_ticks");
+        mAchievedRate = metrics.gauge("collector.values_per_s");
+        metrics.gauge("collector.target_values_per_s").set(scheduler.getTargetRate());
+    }
+
+    /**
+     * @param log where every sample is also appended as soon as it is taken, or null
+     */
+    public void setLog(DriveLog log) {
+        mLog = log;
+    }
+
+    /**
+     * Starts reading trouble codes.
+     *
+     * @param scanner the scanner to make requests through
+     * @param history where samples are kept for freeze frames
+     * @param listener told about every scan that finds a new code
+     */
+    public void setTroubleCodeScanner(TroubleCodeScanner scanner, SampleHistory history,
+                                      TroubleCodeListener listener) {
+        mScanner = scanner;
+        mHistory = history;
+        mTroubleCodeListener = listener;
+        scanner.start(now());
+    }
+
+    /**
+     * Requests whatever is due and buffers the answers as one sample, unless nothing was answered.
+     * If there is a gap in the PID schedule, one trouble code request may be made as well.
+     *
+     * @param in the stream to read responses from
+     * @param out the stream to write requests to
+     * @return whether anything was requested
+     * @throws IOException if the connection to the adapter fails
+     */
+    public boolean tick(InputStream in, OutputStream out) throws IOException {
+        int maxCount = mPoller.isMultiPidSupported() ? PidPoller.MAX_PIDS_PER_REQUEST : 1;
+        List<Pid> batch = mScheduler.nextBatch(now(), maxCount);
+        if (batch.isEmpty()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        mPoller.poll(batch, in, out);
+
+        // Timestamp the sample when the response arrived, not when it gets committed
+        long timestamp = System.currentTimeMillis();
+        long answeredAt = now();
+        SampleRingBuffer.clear(mSample);
+        int answeredCount = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            Pid pid = batch.get(i);
+            boolean answered = mPoller.hasValue(pid);
+            if (mPoller.isTimedOut(pid)) {
+                // Only a real NO DATA means the vehicle doesn't have the PID
+                mScheduler.onTimedOut(pid, answeredAt);
+            } else {
+                mScheduler.onPolled(pid, answered, answeredAt);
+            }
+            if (answered) {
+                mSample[pid.ordinal()] = mPoller.getValue(pid);
+                answeredCount++;
+            }
+        }
+        if (answeredCount > 0) {
+            mSampleCount++;
+            mSamples.increment();
+            mBuffer.offer(timestamp, mSample);
+            if (mLog != null) {
+                mLog.append(timestamp, mSample);
+            }
+            if (mHistory != null) {
+                mHistory.add(timestamp, mSample);
+            }
+        } else {
+            // A sample with nothing in it would only crowd real ones out of the buffers
+            mEmptyTicks.increment();
+        }
+        scanTroubleCodes(in, out);
+        mTickTime.record((System.nanoTime() - start) / 1000);
+        updateRate(answeredAt, answeredCount);
+        long skipped = mScheduler.getSkippedTicks();
+        if (skipped != mReportedSkips) {
+            mSkippedTicks.add(skipped - mReportedSkips);
+            mReportedSkips = skipped;
+        }
+        return true;
+    }
+
+    private void scanTroubleCodes(InputStream in, OutputStream out) throws IOException {
+        if (mScanner == null) {
+            return;
+        }
+        long now = now();
+        if (!mScanner.isDue(now)) {
+            return;
+        }
+        Histogram pidLatency = mPoller.getRequestLatency();
+        long roundTrip = pidLatency.getCount() > 0
+                ? pidLatency.getValueAtPercentile(99) / 1000 : PidPoller.MAX_DEADLINE;
+        long busy = mScanner.getExpectedDuration(roundTrip) + roundTrip;
+        if (busy >= mScheduler.getSlack(now) && !mScanner.isStarved(now)) {
+            return;
+        }
+        if (mScanner.step(in, out, now) && !mScanner.getNewCodes().isEmpty()) {
+            mTroubleCodeListener.onNewTroubleCodes(mScanner, mHistory.snapshot());
+        }
+    }
+
+    private void updateRate(long now, int answeredCount) {
+        if (mWindowStart < 0) {
+            mWindowStart = now;
+        }
+        mWindowValues += answeredCount;
+        long elapsed = now - mWindowStart;
+        if (elapsed >= RATE_WINDOW) {
+            mAchievedRate.set(mWindowValues * 1000.0 / elapsed);
+            mWindowStart = now;
+            mWindowValues = 0;
+        }
+    }
+
+    /**
+     * @return how long until another tick has something to do, in milliseconds; 0 if something is
+     *     already overdue
+     */
+    public long getDelayUntilNextTick() {
+        return Math.max(0, mScheduler.getNextDeadline() - now());
+    }
+
+    /**
+     * @return the number of ticks that got an answer for at least one PID
+     */
+    public long getSampleCount() {
+        return mSampleCount;
+    }
+
+    public PidPoller getPoller() {
+        return mPoller;
+    }
+
+    public PidScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    private long now() {
+        return mClock.nanoTime() / 1000000L;
+    }
+
+    public interface TroubleCodeListener {
+        /**
+         * Called on the logging thread when a scan finds codes that weren't there before.
+         *
+         * @param scanner the scanner, whose getters describe the scan that just finished
+         * @param freezeFrame the samples taken shortly before the scan finished, oldest first
+         */
+        void onNewTroubleCodes(TroubleCodeScanner scanner, SampleHistory freezeFrame);
+    }
+}
@@ -0,0 +1,397 @@
+package me.williamhester.brobd.obd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import me.williamhester.brobd.stats.Counter;
+import me.williamhester.brobd.stats.Histogram;
+import me.williamhester.brobd.stats.MetricsRegistry;
+
+/**
+ * Reads the vehicle's diagnostic trouble codes over the same connection that live PIDs are
+ * polled on. A scan is three requests: the MIL status and number of stored codes (01 01), the
+ * stored codes (03) and the pending codes (07). They are made one at a time, through
+ * {@link #step(InputStream, OutputStream, long)}, so that the {@link SampleCollector} can fit each
+ * one into a gap in the PID schedule rather than holding up the live data for a whole scan.
+ *
+ * The first scan is due as soon as the scanner is {@link #start(long) started}, and later ones
+ * every interval after that. Codes that show up in a scan for the first time are reported by
+ * {@link #getNewCodes()}.
+ *
+ * Each request waits about twice as long as the slowest of the scanner's own requests so far.
+ * The scanner shares the {@link PidPoller}'s {@link ResponseReader}, so that when a request of
+ * either one times out, whichever requests next waits for the late answer and throws it away.
+ * Anything else left on the stream is thrown away before each request, and an answer that
+ * doesn't belong to the request, such as a late mode 01 answer, is skipped, so it's never taken
+ * for the trouble codes.
+ *
+ * @author William Hester
+ */
+public class TroubleCodeScanner {
+
+    public static final long DEFAULT_INTERVAL = 60000L;
+
+    // Requests are timed this many times before their own times are trusted
+    private static final int MIN_SAMPLES = 3;
+    private static final int MODE_01_RESPONSE = 0x41;
+    private static final int MONITOR_STATUS = 0x01;
+    private static final String SYSTEMS = "PCBU";
+
+    private enum Step {
+        STATUS("01 01\r", 0x01),
+        STORED("03\r", 0x03),
+        PENDING("07\r", 0x07);
+
+        private final byte[] mRequest;
+        private final int mMode;
+
+        Step(String request, int mode) {
+            mRequest = request.getBytes();
+            mMode = mode;
+        }
+    }
+
+    private final long mInterval;
+    private final ResponseReader mReader;
+    private final int[] mScratch = new int[ResponseReader.DEFAULT_CAPACITY / 2];
+    private final Set<String> mSeenCodes = new HashSet<>();
+    private final Histogram mLatency;
+    private final Counter mScans;
+    private final Counter mFailedScans;
+
+    private Step mStep = Step.STATUS;
+    private long mDeadline;
+    private int mStatus;
+    private List<String> mScanStoredCodes;
+    private boolean mMilOn;
+    private int mReportedCount;
+    private List<String> mStoredCodes = new ArrayList<>();
+    private List<String> mPendingCodes = new ArrayList<>();
+    private List<String> mNewCodes = new ArrayList<>();
+
+    /**
+     * @param reader the reader that PID responses are read through, from
+     *     {@link PidPoller#getReader()}
+     */
+    public TroubleCodeScanner(ResponseReader reader) {
+        this(DEFAULT_INTERVAL, reader);
+    }
+
+    /**
+     * Creates a scanner that has the connection to itself.
+     *
+     * @param interval how long to wait between the end of one scan and the start of the next, in
+     *     milliseconds
+     */
+    public TroubleCodeScanner(long interval) {
+        this(interval, new ResponseReader());
+    }
+
+    /**
+     * @param interval how long to wait between the end of one scan and the start of the next, in
+     *     milliseconds
+     * @param reader the reader that PID responses are read through, from
+     *     {@link PidPoller#getReader()}
+     */
+    public TroubleCodeScanner(long interval, ResponseReader reader) {
+        mInterval = interval;
+        mReader = reader;
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        mLatency = metrics.histogram("dtc.rtt_us");
+        mScans = metrics.counter("dtc.scans");
+        mFailedScans = metrics.counter("dtc.failed_scans");
+    }
+
+    /**
+     * Makes the first scan due, and lets it wait for a gap in the PID schedule for up to an
+     * interval.
+     *
+     * @param now the current time, in milliseconds
+     */
+    public void start(long now) {
+        mStep = Step.STATUS;
+        mDeadline = now;
+    }
+
+    /**
+     * @param now the current time, in milliseconds
+     * @return whether a scan is due or under way
+     */
+    public boolean isDue(long now) {
+        return now >= mDeadline;
+    }
+
+    /**
+     * @param now the current time, in milliseconds
+     * @return whether the scan has waited a whole interval past when it was due, so it should go
+     *     ahead even if that delays some PIDs
+     */
+    public boolean isStarved(long now) {
+        return now - mDeadline >= mInterval;
+    }
+
+    /**
+     * @param fallback how long to assume that a request takes until a few have been timed, in
+     *     milliseconds
+     * @return how long the next request is expected to take, in milliseconds
+     */
+    public long getExpectedDuration(long fallback) {
+        if (mLatency.getCount() < MIN_SAMPLES) {
+            return fallback;
+        }
+        return mLatency.getValueAtPercentile(99) / 1000;
+    }
+
+    /**
+     * Makes the next request of the current scan.
+     *
+     * @param in the stream to read responses from
+     * @param out the stream to write requests to
+     * @param now the current time, in milliseconds
+     * @return whether this finished a scan
+     * @throws IOException if the connection to the adapter fails
+     */
+    public boolean step(InputStream in, OutputStream out, long now) throws IOException {
+        long deadline = getDeadline();
+        mReader.discardStale(in, deadline);
+        mReader.discardAvailable(in);
+        out.write(mStep.mRequest);
+        out.flush();
+        long start = System.nanoTime();
+        int length = mReader.read(in, deadline);
+        if (length >= 0 && !isAnswer(mReader.getBuffer(), length, mStep.mMode, mScratch)) {
+            // The late answer to an earlier request; ours is still to come
+            length = mReader.read(in, deadline);
+        }
+        if (length < 0) {
+            // Whichever request comes next waits for the late answer. Leave the codes alone until
+            //     the next scan.
+            mReader.setStale(true);
+            mFailedScans.increment();
+            mStep = Step.STATUS;
+            mDeadline = now + mInterval;
+            return false;
+        }
+        mLatency.record((System.nanoTime() - start) / 1000);
+
+        byte[] response = mReader.getBuffer();
+        switch (mStep) {
+            case STATUS:
+                mStatus = parseStatus(response, length, mScratch);
+                mStep = Step.STORED;
+                return false;
+            case STORED:
+                mScanStoredCodes = new ArrayList<>();
+                parseCodes(response, length, mStep.mMode, mScratch, mScanStoredCodes);
+                mStep = Step.PENDING;
+                return false;
+            default:
+                List<String> pendingCodes = new ArrayList<>();
+                parseCodes(response, length, mStep.mMode, mScratch, pendingCodes);
+                finishScan(mScanStoredCodes, pendingCodes);
+                mStep = Step.STATUS;
+                mDeadline = now + mInterval;
+                return true;
+        }
+    }
+
+    /**
+     * @return how long to wait for the answer to a request, in milliseconds
+     */
+    private long getDeadline() {
+        long expected = getExpectedDuration(PidPoller.MAX_DEADLINE);
+        return Math.min(expected * 2 + PidPoller.DEADLINE_SLACK, PidPoller.MAX_DEADLINE);
+    }
+
+    /**
+     * @return whether the MIL was on at the last scan
+     */
+    public boolean isMilOn() {
+        return mMilOn;
+    }
+
+    /**
+     * @return the number of stored codes that the vehicle reported at the last scan
+     */
+    public int getReportedCount() {
+        return mReportedCount;
+    }
+
+    /**
+     * @return the stored codes found by the last scan, such as "P0133"
+     */
+    public List<String> getStoredCodes() {
+        return mStoredCodes;
+    }
+
+    /**
+     * @return the pending codes found by the last scan
+     */
+    public List<String> getPendingCodes() {
+        return mPendingCodes;
+    }
+
+    /**
+     * @return the codes, stored or pending, that the last scan found and no earlier scan did
+     */
+    public List<String> getNewCodes() {
+        return mNewCodes;
+    }
+
+    private void finishScan(List<String> storedCodes, List<String> pendingCodes) {
+        mMilOn = mStatus >= 0 && (mStatus & 0x80) != 0;
+        mReportedCount = mStatus >= 0 ? mStatus & 0x7F : storedCodes.size();
+        mStoredCodes = storedCodes;
+        mPendingCodes = pendingCodes;
+        mNewCodes = new ArrayList<>();
+        for (String code : storedCodes) {
+            if (mSeenCodes.add(code)) {
+                mNewCodes.add(code);
+            }
+        }
+        for (String code : pendingCodes) {
+            if (mSeenCodes.add(code)) {
+                mNewCodes.add(code);
+            }
+        }
+        mScans.increment();
+    }
+
+    /**
+     * @param response the raw response, without the trailing prompt
+     * @param length the number of bytes in the response
+     * @param mode the mode that was requested
+     * @param scratch holds the data bytes of the response while it's being checked
+     * @return whether the response answers the request, either with data of the requested mode
+     *     or with no data at all, such as NO DATA
+     */
+    static boolean isAnswer(byte[] response, int length, int mode, int[] scratch) {
+        int byteCount = 0;
+        int lineStart = 0;
+        while (lineStart < length && byteCount == 0) {
+            int lineEnd = findLineEnd(response, lineStart, length);
+            byteCount = PidPoller.parseLine(response, lineStart, lineEnd, scratch, byteCount);
+            lineStart = lineEnd + 1;
+        }
+        if (byteCount == 0) {
+            return true;
+        } else if (mode == Step.STATUS.mMode) {
+            return byteCount > 1 && scratch[0] == MODE_01_RESPONSE
+                    && scratch[1] == MONITOR_STATUS;
+        }
+        return scratch[0] == mode + 0x40;
+    }
+
+    /**
+     * Parses the answer to 01 01. Where several ECUs answer, the MIL is on if any of them says so
+     * and their code counts are added up.
+     *
+     * @param response the raw response, without the trailing prompt
+     * @param length the number of bytes in the response
+     * @param scratch holds the data bytes of the response while it's being parsed
+     * @return the MIL in the top bit and the number of stored codes in the other seven, or -1 if
+     *     nothing answered
+     */
+    static int parseStatus(byte[] response, int length, int[] scratch) {
+        int byteCount = 0;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = findLineEnd(response, lineStart, length);
+            byteCount = PidPoller.parseLine(response, lineStart, lineEnd, scratch, byteCount);
+            lineStart = lineEnd + 1;
+        }
+
+        int status = -1;
+        int codeCount = 0;
+        for (int i = 0; i + 2 < byteCount; i++) {
+            if (scratch[i] == MODE_01_RESPONSE && scratch[i + 1] == MONITOR_STATUS) {
+                int a = scratch[i + 2];
+                status = Math.max(status, 0) | (a & 0x80);
+                codeCount += a & 0x7F;
+                i += 2;
+            }
+        }
+        return status < 0 ? -1 : status | Math.min(codeCount, 0x7F);
+    }
+
+    /**
+     * Parses the answer to mode 03 or 07. Each ECU's answer is either one line, or on CAN, a run
+     * of numbered frames. On CAN the codes are preceded by their count; otherwise they come three
+     * to a line, padded with zeros.
+     *
+     * @param response the raw response, without the trailing prompt
+     * @param length the number of bytes in the response
+     * @param mode the mode that was requested
+     * @param scratch holds the data bytes of one answer while it's being parsed
+     * @param codes where the codes are added, each only once
+     */
+    static void parseCodes(byte[] response, int length, int mode, int[] scratch,
+                           List<String> codes) {
+        int byteCount = 0;
+        boolean framed = false;
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = findLineEnd(response, lineStart, length);
+            int frame = PidPoller.getFrameNumber(response, lineStart, lineEnd);
+            if (frame <= 0) {
+                // Anything but a continuation frame starts a new answer
+                addCodes(scratch, byteCount, framed, mode, codes);
+                byteCount = 0;
+            }
+            framed = frame >= 0;
+            byteCount = PidPoller.parseLine(response, lineStart, lineEnd, scratch, byteCount);
+            lineStart = lineEnd + 1;
+        }
+        addCodes(scratch, byteCount, framed, mode, codes);
+    }
+
+    /**
+     * @param a the first byte of the code
+     * @param b the second byte of the code
+     * @return the code as it's usually written, such as "P0133"
+     */
+    static String formatCode(int a, int b) {
+        return String.format("%c%04X", SYSTEMS.charAt(a >> 6), ((a & 0x3F) << 8) | b);
+    }
+
+    /**
+     * @param framed whether the answer came in numbered CAN frames, which may be padded at the end
+     */
+    private static void addCodes(int[] data, int byteCount, boolean framed, int mode,
+                                 List<String> codes) {
+        if (byteCount < 1 || data[0] != mode + 0x40) {
+            return;
+        }
+        int i = 1;
+        int remaining = Integer.MAX_VALUE;
+        if (framed || byteCount % 2 == 0) {
+            // On CAN, the codes are preceded by their count, which leaves an odd number of bytes
+            //     after the mode in a single frame
+            remaining = data[1];
+            i = 2;
+        }
+        for (; i + 1 < byteCount && remaining > 0; i += 2) {
+            if (data[i] == 0 && data[i + 1] == 0) {
+                continue;
+            }
+            String code = formatCode(data[i], data[i + 1]);
+            if (!codes.contains(code)) {
+                codes.add(code);
+            }
+            remaining--;
+        }
+    }
+
+    private static int findLineEnd(byte[] response, int start, int length) {
+        int end = start;
+        while (end < length && response[end] != '\r' && response[end] != '\n') {
+            end++;
+        }
+        return end;
+    }
+}
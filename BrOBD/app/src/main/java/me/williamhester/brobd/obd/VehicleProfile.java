@@ -0,0 +1,116 @@
+package me.williamhester.brobd.obd;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * What was learned about a vehicle the last time the app connected to it: the protocol that the
+ * adapter settled on, and which mode 01 PIDs the vehicle supports. The PIDs come from the
+ * vehicle's answers to PIDs 00, 20, 40 and so on, each of which is a bitmap of the 32 PIDs that
+ * follow it.
+ *
+ * @author William Hester
+ */
+public class VehicleProfile {
+
+    // PIDs 00 to E0 are bitmaps, which covers every mode 01 PID
+    public static final int MAX_BITMAPS = 8;
+
+    private final char mProtocol;
+    private final int[] mBitmaps;
+
+    /**
+     * @param protocol the protocol number, as used with AT SP, such as '6'
+     * @param bitmaps the answers to PIDs 00, 20, 40, ... in order; trailing ranges that weren't
+     *     asked about can be left out
+     */
+    public VehicleProfile(char protocol, int[] bitmaps) {
+        mProtocol = protocol;
+        mBitmaps = new int[MAX_BITMAPS];
+        System.arraycopy(bitmaps, 0, mBitmaps, 0, Math.min(bitmaps.length, MAX_BITMAPS));
+    }
+
+    public char getProtocol() {
+        return mProtocol;
+    }
+
+    /**
+     * @param index 0 for PID 00, 1 for PID 20, and so on
+     * @return the vehicle's answer to that PID, or 0 if it wasn't asked
+     */
+    public int getBitmap(int index) {
+        return mBitmaps[index];
+    }
+
+    /**
+     * @param code a mode 01 PID number
+     * @return whether the vehicle said it supports the PID
+     */
+    public boolean isSupported(int code) {
+        if (code <= 0 || code > MAX_BITMAPS * 32) {
+            return false;
+        }
+        int offset = code - 1;
+        return (mBitmaps[offset / 32] & (1 << (31 - offset % 32))) != 0;
+    }
+
+    public boolean isSupported(Pid pid) {
+        return isSupported(pid.getCode());
+    }
+
+    /**
+     * @param pids the PIDs that the user wants to log
+     * @return the ones that the vehicle supports, in the same order
+     */
+    public List<Pid> filter(List<Pid> pids) {
+        List<Pid> supported = new ArrayList<>();
+        for (Pid pid : pids) {
+            if (isSupported(pid)) {
+                supported.add(pid);
+            }
+        }
+        return supported;
+    }
+
+    /**
+     * @return the profile as a short string, such as "6:BE1FA813,80000000", that
+     *     {@link #decode(String)} turns back into a profile
+     */
+    public String encode() {
+        int count = MAX_BITMAPS;
+        while (count > 1 && mBitmaps[count - 1] == 0) {
+            count--;
+        }
+        StringBuilder sb = new StringBuilder().append(mProtocol).append(':');
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(String.format("%08X", mBitmaps[i]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param encoded a string from {@link #encode()}
+     * @return the profile, or null if the string is null or can't be parsed
+     */
+    public static VehicleProfile decode(String encoded) {
+        if (encoded == null || encoded.length() < 3 || encoded.charAt(1) != ':') {
+            return null;
+        }
+        String[] parts = encoded.substring(2).split(",");
+        if (parts.length > MAX_BITMAPS) {
+            return null;
+        }
+        int[] bitmaps = new int[parts.length];
+        try {
+            for (int i = 0; i < parts.length; i++) {
+                bitmaps[i] = (int) Long.parseLong(parts[i], 16);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return new VehicleProfile(encoded.charAt(0), bitmaps);
+    }
+}
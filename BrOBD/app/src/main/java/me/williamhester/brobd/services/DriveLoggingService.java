@@ -2,67 +2,114 @@ package me.williamhester.brobd.services;
 
 import android.app.NotificationManager;
 import android.app.Service;
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.os.Handler;
-import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 import android.widget.Toast;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Date;
+import java.util.List;
 
 import io.realm.Realm;
-import me.williamhester.brobd.models.DataPoint;
+import me.williamhester.brobd.export.ColumnarExportReader;
 import me.williamhester.brobd.models.DriveSession;
-import me.williamhester.brobd.models.Driver;
+import me.williamhester.brobd.obd.MonotonicClock;
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.obd.PidPoller;
+import me.williamhester.brobd.obd.PidScheduler;
+import me.williamhester.brobd.obd.SampleCollector;
+import me.williamhester.brobd.obd.TroubleCodeScanner;
+import me.williamhester.brobd.obd.VehicleProfile;
 import me.williamhester.brobd.singletons.BusManager;
-import me.williamhester.obd.commands.SpeedObdCommand;
-import me.williamhester.obd.commands.engine.EngineRPMObdCommand;
-import me.williamhester.obd.commands.engine.ThrottlePositionObdCommand;
-import me.williamhester.obd.commands.fuel.FuelConsumptionRateObdCommand;
-import me.williamhester.obd.commands.protocol.EchoOffObdCommand;
-import me.williamhester.obd.commands.protocol.LineFeedOffObdCommand;
-import me.williamhester.obd.commands.protocol.SelectProtocolObdCommand;
-import me.williamhester.obd.commands.protocol.TimeoutObdCommand;
-import me.williamhester.obd.enums.ObdProtocols;
+import me.williamhester.brobd.singletons.ConnectionManager;
+import me.williamhester.brobd.singletons.RealmManager;
+import me.williamhester.brobd.stats.MetricsRegistry;
+import me.williamhester.brobd.storage.SampleHistory;
+import me.williamhester.brobd.storage.SampleMerger;
+import me.williamhester.brobd.storage.SamplePersister;
+import me.williamhester.brobd.storage.SampleReplayer;
+import me.williamhester.brobd.storage.SampleRingBuffer;
+import me.williamhester.brobd.storage.SeriesCursor;
+import me.williamhester.brobd.transport.Backoff;
 
 /**
  * This service runs in the background on a separate thread to collect information about the car.
  * The data is stored into DataPoints. The driver should be passed as a String as an extra in the
  * intent. When terminated, the service kills the notification that displays that it is running.
  *
+ * With the "replay" extra, the service replays a recorded drive instead of talking to an adapter:
+ * the most recent session, or the first session of the columnar export named by "replay_file".
+ * The recorded samples go through the same buffer, log and persister as live ones, paced at
+ * "replay_speed" times real time, or as fast as they can be stored if that is
+ * {@link SampleReplayer#MAX_SPEED}.
+ *
+ * The logging loop runs on the {@link ConnectionManager}'s thread and holds its connection open
+ * while logging, so one-shot commands submitted to it run between polls on the same connection.
+ *
  * @author William Hester
  */
 public class DriveLoggingService extends Service {
 
-    private static final long LOGGING_INTERVAL = 1000L;
+    private static final String TAG = "DriveLoggingService";
+
+    // Fuel rate, or failing that MAF and fuel type, are what fuel economy is worked out from
+    private static final String DEFAULT_PIDS = "RPM,SPEED,THROTTLE,FUEL_RATE,MAF,FUEL_TYPE";
+    private static final int SAMPLE_BUFFER_CAPACITY = 1024;
+    // Reconnect attempts start after half a second and back off to one every 30 seconds. After
+    //     ten minutes without a connection, the drive is over.
+    private static final long RECONNECT_INITIAL_DELAY = 500L;
+    private static final long RECONNECT_MAX_DELAY = 30000L;
+    private static final long MAX_DOWNTIME = 600000L;
+    // A trouble code's freeze frame is the last 30 seconds of samples. The history has room for
+    //     that at up to about 65 samples a second.
+    private static final long FREEZE_FRAME_WINDOW = 30000L;
+    private static final int HISTORY_CAPACITY = 2048;
+    // Unlike System.nanoTime(), this keeps counting while the device is asleep
+    private static final MonotonicClock ELAPSED_REALTIME = new MonotonicClock() {
+        @Override
+        public long nanoTime() {
+            return SystemClock.elapsedRealtimeNanos();
+        }
+    };
 
     // The Handler that will control the logging loop.
     private Handler mHandler;
-    private boolean mRunning = false;
-    private Realm mRealm;
-    private BluetoothSocket mSocket;
+    private volatile boolean mRunning = false;
+    private ConnectionManager mConnection;
+    private boolean mHoldingConnection;
     private InputStream mIn;
     private OutputStream mOut;
+    private SampleCollector mCollector;
+    private SampleRingBuffer mBuffer;
+    private SamplePersister mPersister;
+    // For measuring how long it takes from starting the service to the first sample
+    private long mStartedAt;
+    private boolean mWarmStart;
+    private boolean mFirstSampleLogged;
+    private final Backoff mBackoff = new Backoff(RECONNECT_INITIAL_DELAY, RECONNECT_MAX_DELAY,
+            System.nanoTime());
+    private long mDisconnectedAt;
+    // Only set when replaying
+    private SampleReplayer mReplayer;
+    private Realm mReplayRealm;
+    private ColumnarExportReader mReplayFile;
 
     @Override
     public void onCreate() {
         super.onCreate();
 
-        HandlerThread thread = new HandlerThread("DriveLogger");
-        thread.start();
-        mHandler = new Handler(thread.getLooper());
+        mConnection = ConnectionManager.getInstance(this);
+        mHandler = mConnection.getHandler();
     }
 
     @Override
@@ -78,51 +125,63 @@ public class DriveLoggingService extends Service {
         }
 
         final String driverName = extras.getString("driver");
+        final boolean replay = extras.getBoolean("replay");
+        // Samples are handed from the logging thread to the persistence thread through mBuffer.
+        //     By default the oldest samples are dropped if persistence can't keep up, so that
+        //     the logging thread never stalls. A replay has no vehicle to keep up with, so it
+        //     waits for persistence instead of losing anything.
+        SampleRingBuffer.OverflowPolicy policy = replay ? SampleRingBuffer.OverflowPolicy.BLOCK
+                : SampleRingBuffer.OverflowPolicy.valueOf(
+                getSharedPreferences("prefs", MODE_PRIVATE).getString("overflow_policy",
+                        SampleRingBuffer.OverflowPolicy.DROP_OLDEST.name()));
+        mBuffer = new SampleRingBuffer(SAMPLE_BUFFER_CAPACITY, Pid.values().length, policy);
+        mPersister = new SamplePersister(this, mBuffer);
+        // The series hold every sample, so DataPoints are only written if they are turned on
+        mPersister.setWriteDataPoints(getSharedPreferences("prefs", MODE_PRIVATE)
+                .getBoolean("write_data_points", false));
+        mStartedAt = SystemClock.elapsedRealtime();
+        if (replay) {
+            final String path = extras.getString("replay_file");
+            final float speed = extras.getFloat("replay_speed", 1f);
+            mHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    startReplay(path, speed);
+                }
+            });
+            return 0;
+        }
         mHandler.post(new Runnable() {
             @Override
             public void run() {
-                String address = getSharedPreferences("prefs", MODE_PRIVATE)
-                        .getString("bluetooth_address", null);
-                BluetoothAdapter btAdapter = BluetoothAdapter.getDefaultAdapter();
-                BluetoothDevice device = btAdapter.getRemoteDevice(address);
-
-                // Cancel any active device discovery, as it will crash the app if a connection
-                //     is attempted when discovery is active.
-                btAdapter.cancelDiscovery();
+                SharedPreferences prefs = getSharedPreferences("prefs", MODE_PRIVATE);
+                List<Pid> pids = Pid.parseList(prefs.getString("logged_pids", DEFAULT_PIDS));
+                if (pids.isEmpty()) {
+                    pids = Pid.parseList(DEFAULT_PIDS);
+                }
 
+                mConnection.hold();
+                mHoldingConnection = true;
                 try {
-                    final Method m = device.getClass().getMethod("createRfcommSocket", int.class);
-                    mSocket = (BluetoothSocket) m.invoke(device, 1);
-                    mSocket.connect();
-
-                    mIn = mSocket.getInputStream();
-                    mOut = mSocket.getOutputStream();
-
-                    new EchoOffObdCommand().run(mIn, mOut);
-                    new LineFeedOffObdCommand().run(mIn, mOut);
-                    new TimeoutObdCommand(255).run(mIn, mOut);
-                    new SelectProtocolObdCommand(ObdProtocols.AUTO).run(mIn, mOut);
-                } catch (final IOException | InterruptedException | NoSuchMethodException |
-                        IllegalAccessException | InvocationTargetException e) {
+                    pids = connect(pids);
+                    mCollector = new SampleCollector(new PidPoller(pids),
+                            createScheduler(prefs, pids), mBuffer, ELAPSED_REALTIME);
+                    // Rather than a fixed, second long timeout, let the poller tune it
+                    mCollector.getPoller().configureTimeouts(mIn, mOut);
+                } catch (final IOException | InterruptedException e) {
                     // TODO: Split these into more descriptive fail notifications, but for now
                     // Gotta catch 'em all
                     postFailedToUiThread();
                     return;
                 }
 
-                // Instantiate the Realm instance on the appropriate thread
-                mRealm = Realm.getInstance(getApplicationContext());
-                mRealm.executeTransaction(new Realm.Transaction() {
-                    @Override
-                    public void execute(Realm realm) {
-                        Driver driver = realm.where(Driver.class)
-                                .equalTo("name", driverName)
-                                .findFirst();
-                        DriveSession session = realm.createObject(DriveSession.class);
-                        session.setDriver(driver);
-                        session.setStartTime(new Date(System.currentTimeMillis()));
-                    }
-                });
+                mPersister.start(driverName);
+                mCollector.setLog(mPersister.getLog());
+                mCollector.setTroubleCodeScanner(
+                        new TroubleCodeScanner(mCollector.getPoller().getReader()),
+                        new SampleHistory(HISTORY_CAPACITY, Pid.values().length,
+                                FREEZE_FRAME_WINDOW),
+                        mTroubleCodeListener);
                 mRunning = true;
                 mHandler.post(mDriveLogger);
             }
@@ -130,6 +189,105 @@ public class DriveLoggingService extends Service {
         return 0;
     }
 
+    /**
+     * Opens the recorded drive and starts replaying it into a new session.
+     *
+     * @param path the columnar export to replay, or null for the most recent session
+     * @param speed how many times faster than real time to replay
+     */
+    private void startReplay(String path, float speed) {
+        SampleMerger samples;
+        String driverName;
+        try {
+            if (path != null) {
+                mReplayFile = new ColumnarExportReader(new File(path));
+                if (mReplayFile.getSessionCount() == 0) {
+                    throw new IOException(path + " has no sessions");
+                }
+                samples = mReplayFile.openSamples(0);
+                driverName = mReplayFile.getDriverName(0);
+            } else {
+                RealmManager.migrate(this);
+                mReplayRealm = Realm.getInstance(this);
+                Date date = mReplayRealm.where(DriveSession.class).maximumDate("startTime");
+                if (date == null) {
+                    throw new IOException("Nothing has been logged yet");
+                }
+                DriveSession session = mReplayRealm.where(DriveSession.class)
+                        .equalTo("startTime", date)
+                        .findFirst();
+                samples = SeriesCursor.openSamples(mReplayRealm, session.getId());
+                driverName = session.getDriver() != null ? session.getDriver().getName() : "";
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Couldn't open the drive to replay: " + e.getMessage());
+            closeReplay();
+            postFailedToUiThread();
+            return;
+        }
+
+        mPersister.start(driverName);
+        mReplayer = new SampleReplayer(samples, speed, mBuffer, System.currentTimeMillis(),
+                SystemClock.elapsedRealtime());
+        mReplayer.setLog(mPersister.getLog());
+        mRunning = true;
+        mHandler.post(mDriveReplayer);
+    }
+
+    private void closeReplay() {
+        if (mReplayRealm != null) {
+            mReplayRealm.close();
+            mReplayRealm = null;
+        }
+        if (mReplayFile != null) {
+            try {
+                mReplayFile.close();
+            } catch (IOException e) {
+                // It was only being read
+            }
+            mReplayFile = null;
+        }
+    }
+
+    /**
+     * Opens the shared connection to the adapter, unless it is already open, and gets it talking
+     * to the vehicle.
+     *
+     * @param pids the PIDs that the user wants to log
+     * @return the ones that the vehicle supports, or all of them if that isn't known
+     */
+    private List<Pid> connect(List<Pid> pids) throws IOException, InterruptedException {
+        // If this adapter has been used before, the protocol search is skipped, and there's no
+        //     point asking for PIDs that the vehicle doesn't have
+        VehicleProfile profile = mConnection.open();
+        mIn = mConnection.getInputStream();
+        mOut = mConnection.getOutputStream();
+        mWarmStart = mConnection.wasWarmStart();
+        if (profile != null && !profile.filter(pids).isEmpty()) {
+            return profile.filter(pids);
+        }
+        return pids;
+    }
+
+    private void closeTransport() {
+        mConnection.close();
+    }
+
+    private static PidScheduler createScheduler(SharedPreferences prefs, List<Pid> pids) {
+        PidScheduler scheduler = new PidScheduler(pids);
+        for (Pid pid : pids) {
+            long period = prefs.getLong("period_" + pid.name(), -1L);
+            if (period > 0) {
+                scheduler.setTargetPeriod(pid, period);
+            }
+            int priority = prefs.getInt("priority_" + pid.name(), Integer.MIN_VALUE);
+            if (priority != Integer.MIN_VALUE) {
+                scheduler.setPriority(pid, priority);
+            }
+        }
+        return scheduler;
+    }
+
     private void stopService() {
         // Remove the notification
         NotificationManager notificationManager =
@@ -146,34 +304,105 @@ public class DriveLoggingService extends Service {
     private final Runnable mDriveLogger = new Runnable() {
         @Override
         public void run() {
-            long startTime = System.currentTimeMillis();
-            // Get the current data and store it to the Realm
-            final EngineRPMObdCommand rpm = new EngineRPMObdCommand();
-            final SpeedObdCommand speed = new SpeedObdCommand();
-            final ThrottlePositionObdCommand throttle = new ThrottlePositionObdCommand();
-            try {
-                rpm.run(mIn, mOut);
-                speed.run(mIn, mOut);
-                throttle.run(mIn, mOut);
-            } catch (IOException|InterruptedException e) {
-                Log.d("DriveLoggingService", "Logging has failed");
-                postFailedToUiThread();
+            if (!mRunning) {
                 return;
             }
-            mRealm.executeTransaction(new Realm.Transaction() {
-                @Override
-                public void execute(Realm realm) {
-                    DataPoint dataPoint = mRealm.createObject(DataPoint.class);
-                    dataPoint.setDate(new Date(System.currentTimeMillis()));
-                    dataPoint.setRpm(rpm.getRPM());
-                    dataPoint.setSpeed(Math.round(speed.getImperialSpeed()));
-                    dataPoint.setThrottle(throttle.getPercentage());
+            // Request whatever is due and hand it off to be stored
+            try {
+                mCollector.tick(mIn, mOut);
+            } catch (IOException e) {
+                if (!mRunning) {
+                    // The service is stopping and closed the connection out from under us
+                    return;
                 }
-            });
+                // Keep the session going and try to get the connection back
+                Log.d(TAG, "Lost the connection to the adapter: " + e.getMessage());
+                mPersister.flush();
+                closeTransport();
+                mDisconnectedAt = System.currentTimeMillis();
+                MetricsRegistry.getInstance().counter("connection.lost").increment();
+                mBackoff.reset();
+                postToUiThread(new ConnectionLostEvent());
+                mHandler.postDelayed(mReconnector, mBackoff.nextDelay());
+                return;
+            }
+            if (!mFirstSampleLogged && mCollector.getSampleCount() > 0) {
+                mFirstSampleLogged = true;
+                Log.d(TAG, String.format("First sample %d ms after starting (%s start)",
+                        SystemClock.elapsedRealtime() - mStartedAt, mWarmStart ? "warm" : "cold"));
+            }
+
+            // Sleep until the next PID is due. If something is already overdue, this runs again
+            //     right away, which keeps the link busy.
+            mHandler.postDelayed(mDriveLogger, mCollector.getDelayUntilNextTick());
+        }
+    };
+
+    private final SampleCollector.TroubleCodeListener mTroubleCodeListener =
+            new SampleCollector.TroubleCodeListener() {
+        @Override
+        public void onNewTroubleCodes(TroubleCodeScanner scanner, SampleHistory freezeFrame) {
+            Log.d(TAG, String.format("New trouble codes %s, MIL %s", scanner.getNewCodes(),
+                    scanner.isMilOn() ? "on" : "off"));
+            mPersister.recordTroubleCodes(scanner.getNewCodes(), scanner.getStoredCodes(),
+                    scanner.isMilOn(), System.currentTimeMillis(), freezeFrame);
+            postToUiThread(new TroubleCodesEvent(scanner.getNewCodes(), scanner.isMilOn()));
+        }
+    };
 
-            long endTime = System.currentTimeMillis();
+    private final Runnable mReconnector = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            try {
+                connect(mCollector.getPoller().getPids());
+                mCollector.getPoller().configureTimeouts(mIn, mOut);
+            } catch (IOException | InterruptedException e) {
+                closeTransport();
+                long downtime = System.currentTimeMillis() - mDisconnectedAt;
+                if (downtime >= MAX_DOWNTIME) {
+                    Log.d(TAG, "Giving up on the adapter after " + downtime + " ms");
+                    postFailedToUiThread();
+                } else {
+                    mHandler.postDelayed(mReconnector, mBackoff.nextDelay());
+                }
+                return;
+            }
+            long reconnectedAt = System.currentTimeMillis();
+            MetricsRegistry metrics = MetricsRegistry.getInstance();
+            metrics.counter("connection.reconnects").increment();
+            metrics.histogram("connection.downtime_ms").record(reconnectedAt - mDisconnectedAt);
+            mPersister.recordGap(mDisconnectedAt, reconnectedAt, mBackoff.getAttempts());
+            postToUiThread(new ReconnectedEvent(reconnectedAt - mDisconnectedAt));
+            mHandler.post(mDriveLogger);
+        }
+    };
 
-            mHandler.postDelayed(mDriveLogger, LOGGING_INTERVAL - (endTime - startTime) - 1);
+    private final Runnable mDriveReplayer = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            long delay;
+            try {
+                delay = mReplayer.replay(SystemClock.elapsedRealtime());
+            } catch (IllegalStateException e) {
+                // The file couldn't be read any further; keep what was replayed
+                Log.d(TAG, "Stopped replaying: " + e.getMessage());
+                delay = -1;
+            }
+            if (delay >= 0) {
+                mHandler.postDelayed(mDriveReplayer, delay);
+                return;
+            }
+            long duration = SystemClock.elapsedRealtime() - mStartedAt;
+            Log.d(TAG, String.format("Replayed %d samples in %d ms, blocked %d times",
+                    mReplayer.getReplayedCount(), duration, mBuffer.getBlockedCount()));
+            closeReplay();
+            postToUiThread(new ReplayFinishedEvent(mReplayer.getReplayedCount(), duration));
         }
     };
 
@@ -181,14 +410,37 @@ public class DriveLoggingService extends Service {
     public void onDestroy() {
         super.onDestroy();
 
-        if (mSocket != null) {
-            try {
-                mSocket.close();
-            } catch (IOException e) {
-                // Well, we tried.
-            }
+        mRunning = false;
+        if (mHoldingConnection) {
+            closeTransport();
         }
         mHandler.removeCallbacks(mDriveLogger);
+        mHandler.removeCallbacks(mReconnector);
+        mHandler.removeCallbacks(mDriveReplayer);
+        // Once the logging thread is done with whatever it is in the middle of, let the persister
+        //     commit everything that's left and stop both threads.
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                closeReplay();
+                if (mPersister != null) {
+                    mPersister.stop();
+                }
+                if (mCollector != null) {
+                    PidPoller poller = mCollector.getPoller();
+                    Log.d(TAG, String.format("%d requests timed out, adapter timeout 0x%02X",
+                            poller.getTimeoutCount(), poller.getAdapterTimeout()));
+                    Log.d(TAG, "Round trip times (us):\n" + poller.getLatencies().toSummary());
+                    Log.d(TAG, String.format("%d samples, %d slots skipped",
+                            mCollector.getSampleCount(),
+                            mCollector.getScheduler().getSkippedTicks()));
+                }
+                if (mHoldingConnection) {
+                    mHoldingConnection = false;
+                    mConnection.release();
+                }
+            }
+        });
     }
 
     private void postFailedToUiThread() {
@@ -202,21 +454,24 @@ public class DriveLoggingService extends Service {
                 });
     }
 
-    private void toastToUiThread(final String message) {
+    private void postToUiThread(final Object event) {
         new Handler(Looper.getMainLooper())
                 .post(new Runnable() {
                     @Override
                     public void run() {
-                        Toast.makeText(DriveLoggingService.this, message, Toast.LENGTH_LONG).show();
+                        BusManager.getInstance().post(event);
                     }
                 });
     }
 
-    /**
-     * @return a float.
-     */
-    public float getMpg(SpeedObdCommand speed, FuelConsumptionRateObdCommand fuel) {
-        return 235.2f / (100 / speed.getMetricSpeed()) * fuel.getLitersPerHour();
+    private void toastToUiThread(final String message) {
+        new Handler(Looper.getMainLooper())
+                .post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(DriveLoggingService.this, message, Toast.LENGTH_LONG).show();
+                    }
+                });
     }
 
     @Override
@@ -226,6 +481,78 @@ public class DriveLoggingService extends Service {
 
     public static class LoggingStoppedEvent {}
 
+    /**
+     * Posted when the connection to the adapter is lost. The service keeps trying to reconnect
+     * until it gets a {@link ReconnectedEvent} through, or gives up and stops.
+     */
+    public static class ConnectionLostEvent {}
+
+    public static class ReconnectedEvent {
+
+        private final long mDowntime;
+
+        public ReconnectedEvent(long downtime) {
+            mDowntime = downtime;
+        }
+
+        /**
+         * @return how long the connection was lost for, in milliseconds
+         */
+        public long getDowntime() {
+            return mDowntime;
+        }
+    }
+
+    /**
+     * Posted when a scan finds trouble codes that weren't there earlier in the drive.
+     */
+    public static class TroubleCodesEvent {
+
+        private final List<String> mCodes;
+        private final boolean mMilOn;
+
+        public TroubleCodesEvent(List<String> codes, boolean milOn) {
+            mCodes = codes;
+            mMilOn = milOn;
+        }
+
+        /**
+         * @return the new codes, such as "P0133"
+         */
+        public List<String> getCodes() {
+            return mCodes;
+        }
+
+        public boolean isMilOn() {
+            return mMilOn;
+        }
+    }
+
+    /**
+     * Posted once every sample of a replayed drive has been handed to the persister.
+     */
+    public static class ReplayFinishedEvent {
+
+        private final long mSampleCount;
+        private final long mDuration;
+
+        public ReplayFinishedEvent(long sampleCount, long duration) {
+            mSampleCount = sampleCount;
+            mDuration = duration;
+        }
+
+        public long getSampleCount() {
+            return mSampleCount;
+        }
+
+        /**
+         * @return how long the replay took, in milliseconds
+         */
+        public long getDuration() {
+            return mDuration;
+        }
+    }
+
     public static class CouldNotConnectEvent {
         public CouldNotConnectEvent() {
             Log.d("CouldNotConnectEvent", "Could not connect to the specified address");
@@ -0,0 +1,312 @@
+package me.williamhester.brobd.singletons;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.PriorityQueue;
+
+import me.williamhester.brobd.obd.ProtocolNegotiator;
+import me.williamhester.brobd.obd.ResponseReader;
+import me.williamhester.brobd.obd.VehicleProfile;
+import me.williamhester.brobd.storage.VehicleProfileStore;
+import me.williamhester.brobd.transport.ObdTransport;
+import me.williamhester.brobd.transport.TransportFactory;
+import me.williamhester.obd.commands.protocol.EchoOffObdCommand;
+import me.williamhester.obd.commands.protocol.LineFeedOffObdCommand;
+
+/**
+ * Owns the one connection to the adapter. Everything that talks to the adapter does so on this
+ * class's thread, so requests never overlap, and they all share one connection that has already
+ * been initialized, rather than each paying for a connect and a protocol search.
+ *
+ * The logging service runs its loop on {@link #getHandler()} and holds the connection open while
+ * it logs. One-shot {@link Command}s, such as resetting the MIL, can be submitted from any thread.
+ * They run between the logging service's polls, highest priority first, opening the connection
+ * first if nothing has it open. A connection that nothing holds is closed once it has been idle
+ * for {@link #IDLE_TIMEOUT}.
+ *
+ * Apart from {@link #submit(Command)} and {@link #close()}, every method must be called on the
+ * connection's thread.
+ *
+ * @author William Hester
+ */
+public class ConnectionManager {
+
+    private static final String TAG = "ConnectionManager";
+
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_HIGH = 10;
+
+    static final long IDLE_TIMEOUT = 30000L;
+
+    private static ConnectionManager mInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final PriorityQueue<Command> mCommands = new PriorityQueue<>();
+    private final ResponseReader mReader = new ResponseReader();
+    private long mSubmittedCount;
+
+    private volatile ObdTransport mTransport;
+    private InputStream mIn;
+    private OutputStream mOut;
+    private VehicleProfile mProfile;
+    private boolean mWarmStart;
+    private int mHoldCount;
+
+    public static synchronized ConnectionManager getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new ConnectionManager(context.getApplicationContext());
+        }
+        return mInstance;
+    }
+
+    private ConnectionManager(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread("ObdConnection");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * @return the handler of the thread that the adapter is talked to on
+     */
+    public Handler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Opens the connection and gets the adapter talking to the vehicle, unless that has already
+     * been done. The vehicle's profile is loaded and saved, so that an adapter that has been used
+     * before skips the protocol search.
+     *
+     * @return the vehicle's profile, or null if it isn't known
+     * @throws IOException if the adapter couldn't be reached
+     * @throws InterruptedException if the thread was interrupted while initializing
+     */
+    public VehicleProfile open() throws IOException, InterruptedException {
+        mHandler.removeCallbacks(mIdleCloser);
+        if (mTransport != null) {
+            return mProfile;
+        }
+        long start = SystemClock.elapsedRealtime();
+        ObdTransport transport = TransportFactory.create(mContext);
+        mTransport = transport;
+        try {
+            transport.connect();
+            long connected = SystemClock.elapsedRealtime() - start;
+
+            mIn = transport.getInputStream();
+            mOut = transport.getOutputStream();
+
+            new EchoOffObdCommand().run(mIn, mOut);
+            new LineFeedOffObdCommand().run(mIn, mOut);
+
+            String address = transport.getAddress();
+            ProtocolNegotiator negotiator = new ProtocolNegotiator();
+            mProfile = negotiator.negotiate(mIn, mOut,
+                    VehicleProfileStore.load(mContext, address));
+            VehicleProfileStore.save(mContext, address, mProfile);
+            mWarmStart = negotiator.wasWarmStart();
+            Log.d(TAG, String.format("Connected after %d ms, %s start took %d ms", connected,
+                    mWarmStart ? "warm" : "cold", negotiator.getDuration()));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            // Including an answer that the commands couldn't make sense of
+            close();
+            throw e;
+        }
+        return mProfile;
+    }
+
+    /**
+     * @return whether the connection is open
+     */
+    public boolean isOpen() {
+        return mTransport != null;
+    }
+
+    /**
+     * @return whether opening the connection skipped the protocol search
+     */
+    public boolean wasWarmStart() {
+        return mWarmStart;
+    }
+
+    /**
+     * @return the stream that the adapter's responses are read from; only valid while open
+     */
+    public InputStream getInputStream() {
+        return mIn;
+    }
+
+    /**
+     * @return the stream that commands are written to; only valid while open
+     */
+    public OutputStream getOutputStream() {
+        return mOut;
+    }
+
+    /**
+     * Keeps the connection open until {@link #release()}, however long it is idle.
+     */
+    public void hold() {
+        mHoldCount++;
+        mHandler.removeCallbacks(mIdleCloser);
+    }
+
+    /**
+     * Lets the connection close once it has been idle for a while.
+     */
+    public void release() {
+        mHoldCount = Math.max(0, mHoldCount - 1);
+        scheduleIdleClose();
+    }
+
+    /**
+     * Closes the connection. This may be called from any thread; anything blocked on the
+     * connection fails.
+     */
+    public void close() {
+        ObdTransport transport = mTransport;
+        mTransport = null;
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (IOException e) {
+                // Well, we tried.
+            }
+        }
+    }
+
+    /**
+     * Queues a command to run on the connection's thread, ahead of any queued commands of lower
+     * priority. This may be called from any thread.
+     *
+     * @param command the command to run
+     */
+    public void submit(Command command) {
+        synchronized (mCommands) {
+            command.mSequence = mSubmittedCount++;
+            mCommands.add(command);
+        }
+        mHandler.post(mCommandRunner);
+    }
+
+    private void scheduleIdleClose() {
+        mHandler.removeCallbacks(mIdleCloser);
+        if (mHoldCount == 0 && mTransport != null) {
+            mHandler.postDelayed(mIdleCloser, IDLE_TIMEOUT);
+        }
+    }
+
+    private final Runnable mCommandRunner = new Runnable() {
+        @Override
+        public void run() {
+            final Command command;
+            synchronized (mCommands) {
+                command = mCommands.poll();
+            }
+            if (command == null) {
+                return;
+            }
+            boolean succeeded = false;
+            try {
+                open();
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                // open() has already closed the connection
+                Log.d(TAG, "Couldn't open the connection: " + e.getMessage());
+                finish(command, false);
+                return;
+            }
+            try {
+                // Don't let the command read the tail of an answer meant for someone else
+                mReader.discardAvailable(mIn);
+                command.run(mIn, mOut);
+                succeeded = true;
+            } catch (IOException | InterruptedException e) {
+                // Only this command failed. If the logging service holds the connection, it finds
+                //     out for itself whether the link is gone.
+                Log.d(TAG, "Command failed: " + e.getMessage());
+                if (mHoldCount == 0) {
+                    close();
+                }
+            } catch (RuntimeException e) {
+                // The adapter answered something that the command couldn't parse. The connection
+                //     is still fine, and this thread has to keep running for everyone else.
+                Log.e(TAG, "Command failed", e);
+            }
+            finish(command, succeeded);
+        }
+    };
+
+    /**
+     * Lets the connection close if it's idle, and tells the command how it went.
+     */
+    private void finish(final Command command, final boolean succeeded) {
+        scheduleIdleClose();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                command.onFinished(succeeded);
+            }
+        });
+    }
+
+    private final Runnable mIdleCloser = new Runnable() {
+        @Override
+        public void run() {
+            if (mHoldCount == 0) {
+                close();
+            }
+        }
+    };
+
+    /**
+     * A request to run between the logging service's polls, such as resetting the MIL or reading
+     * the VIN.
+     */
+    public abstract static class Command implements Comparable<Command> {
+
+        private final int mPriority;
+        private long mSequence;
+
+        /**
+         * @param priority commands of higher priority run first; commands of the same priority
+         *     run in the order they were submitted
+         */
+        protected Command(int priority) {
+            mPriority = priority;
+        }
+
+        /**
+         * Runs the command on the connection's thread, with the adapter already initialized.
+         */
+        public abstract void run(InputStream in, OutputStream out)
+                throws IOException, InterruptedException;
+
+        /**
+         * Called on the main thread once the command has run.
+         *
+         * @param succeeded false if the connection failed or the command couldn't make sense of
+         *     the adapter's answer
+         */
+        public void onFinished(boolean succeeded) {
+        }
+
+        @Override
+        public int compareTo(Command other) {
+            if (mPriority != other.mPriority) {
+                return mPriority > other.mPriority ? -1 : 1;
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+}
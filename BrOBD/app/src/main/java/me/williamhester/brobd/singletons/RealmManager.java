@@ -0,0 +1,238 @@
+package me.williamhester.brobd.singletons;
+
+import android.content.Context;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.UUID;
+
+import io.realm.Realm;
+import io.realm.RealmMigration;
+import io.realm.internal.ColumnType;
+import io.realm.internal.Table;
+import me.williamhester.brobd.models.ConnectionGap;
+import me.williamhester.brobd.models.DataPoint;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.DriveSummary;
+import me.williamhester.brobd.models.Rollup;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.models.StatSummary;
+import me.williamhester.brobd.models.TroubleCode;
+
+/**
+ * This class brings an existing Realm up to date with the current models. It must run before the
+ * first call to {@link Realm#getInstance(Context)}, because opening a Realm whose schema is out of
+ * date throws. A Realm that doesn't exist yet is created with the current schema, so there is
+ * nothing to do for it.
+ *
+ * Each step checks for the columns it adds, rather than trusting the version number, so it is safe
+ * to run against a Realm that is already partly up to date.
+ *
+ * @author William Hester
+ */
+public class RealmManager {
+
+    public static final long SCHEMA_VERSION = 7;
+
+    private static final String REALM_FILE = "default.realm";
+
+    private static boolean mMigrated;
+
+    public static synchronized void migrate(Context context) {
+        if (mMigrated) {
+            return;
+        }
+        File file = new File(context.getFilesDir(), REALM_FILE);
+        if (file.exists()) {
+            Realm.migrateRealmAtPath(file.getPath(), mMigration);
+        }
+        mMigrated = true;
+    }
+
+    private static final RealmMigration mMigration = new RealmMigration() {
+        @Override
+        public long execute(Realm realm, long version) {
+            // Version 1: running statistics are saved with each DriveSession
+            Table stats = realm.getTable(StatSummary.class);
+            addColumn(stats, ColumnType.INTEGER, "count");
+            addColumn(stats, ColumnType.DOUBLE, "sum");
+            addColumn(stats, ColumnType.DOUBLE, "min");
+            addColumn(stats, ColumnType.DOUBLE, "max");
+            addColumn(stats, ColumnType.DOUBLE, "m2");
+
+            Table summaries = realm.getTable(DriveSummary.class);
+            addLink(summaries, "speed", stats);
+            addLink(summaries, "rpm", stats);
+            addLink(summaries, "throttle", stats);
+            addColumn(summaries, ColumnType.DOUBLE, "distance");
+            addColumn(summaries, ColumnType.DATE, "firstDate");
+            addColumn(summaries, ColumnType.DATE, "lastDate");
+            addColumn(summaries, ColumnType.INTEGER, "lastSpeed");
+
+            Table sessions = realm.getTable(DriveSession.class);
+            addLink(sessions, "summary", summaries);
+
+            // Version 2: DataPoints belong to a DriveSession, found through its indexed id, and
+            //     each DriveSession has an end time
+            boolean newIds = addColumn(sessions, ColumnType.STRING, "id");
+            boolean newEndTimes = addColumn(sessions, ColumnType.DATE, "endTime");
+            addSearchIndex(sessions, "id");
+            Table points = realm.getTable(DataPoint.class);
+            boolean newLinks = addLink(points, "session", sessions);
+            addColumn(points, ColumnType.STRING, "sessionId");
+            addSearchIndex(points, "sessionId");
+            if (newIds) {
+                long idColumn = sessions.getColumnIndex("id");
+                for (long row = 0; row < sessions.size(); row++) {
+                    sessions.setString(idColumn, row, UUID.randomUUID().toString());
+                }
+            }
+            if (newLinks || newEndTimes) {
+                linkPointsToSessions(sessions, points, newLinks, newEndTimes);
+            }
+
+            // Version 3: compressed samples of every PID are kept in chunks
+            Table chunks = realm.getTable(SampleChunk.class);
+            addColumn(chunks, ColumnType.STRING, "sessionId");
+            addSearchIndex(chunks, "sessionId");
+            addColumn(chunks, ColumnType.INTEGER, "pid");
+            addColumn(chunks, ColumnType.INTEGER, "startTime");
+            addColumn(chunks, ColumnType.INTEGER, "endTime");
+            addColumn(chunks, ColumnType.INTEGER, "count");
+            addColumn(chunks, ColumnType.BINARY, "data");
+
+            // Version 4: lost connections are recorded, and counted on each DriveSession
+            addColumn(sessions, ColumnType.INTEGER, "reconnectCount");
+            addColumn(sessions, ColumnType.INTEGER, "downtime");
+            Table gaps = realm.getTable(ConnectionGap.class);
+            addColumn(gaps, ColumnType.STRING, "sessionId");
+            addSearchIndex(gaps, "sessionId");
+            addColumn(gaps, ColumnType.INTEGER, "startTime");
+            addColumn(gaps, ColumnType.INTEGER, "endTime");
+            addColumn(gaps, ColumnType.INTEGER, "attempts");
+
+            // Version 5: ended sessions are rolled up into buckets, per session and per driver.
+            //     Existing sessions start out not rolled up, and are caught up in the background.
+            addColumn(sessions, ColumnType.BOOLEAN, "rolledUp");
+            Table rollups = realm.getTable(Rollup.class);
+            addColumn(rollups, ColumnType.STRING, "scope");
+            addSearchIndex(rollups, "scope");
+            addColumn(rollups, ColumnType.INTEGER, "resolution");
+            addColumn(rollups, ColumnType.INTEGER, "start");
+            addColumn(rollups, ColumnType.INTEGER, "count");
+            for (String stat : new String[] {"speed", "rpm", "throttle"}) {
+                addColumn(rollups, ColumnType.DOUBLE, stat + "Sum");
+                addColumn(rollups, ColumnType.DOUBLE, stat + "Min");
+                addColumn(rollups, ColumnType.DOUBLE, stat + "Max");
+            }
+            addColumn(rollups, ColumnType.DOUBLE, "distance");
+
+            // Version 6: fuel economy is kept with each DataPoint and in each summary
+            addColumn(points, ColumnType.FLOAT, "mpg");
+            addColumn(summaries, ColumnType.DOUBLE, "fuelUsed");
+            addColumn(summaries, ColumnType.DOUBLE, "fuelDistance");
+            addColumn(summaries, ColumnType.STRING, "fuelType");
+
+            // Version 7: trouble codes are recorded, each with a freeze frame
+            Table codes = realm.getTable(TroubleCode.class);
+            addColumn(codes, ColumnType.STRING, "sessionId");
+            addSearchIndex(codes, "sessionId");
+            addColumn(codes, ColumnType.STRING, "code");
+            addColumn(codes, ColumnType.BOOLEAN, "pending");
+            addColumn(codes, ColumnType.BOOLEAN, "milOn");
+            addColumn(codes, ColumnType.INTEGER, "time");
+            addColumn(codes, ColumnType.STRING, "freezeFrameId");
+
+            return SCHEMA_VERSION;
+        }
+    };
+
+    /**
+     * Assigns every DataPoint to the latest session that started before it, which is how the
+     * current session's points used to be found. Each session's end time becomes the time of its
+     * last point, or its start time if it has none.
+     */
+    private static void linkPointsToSessions(Table sessions, Table points, boolean link,
+                                             boolean endTimes) {
+        final long startColumn = sessions.getColumnIndex("startTime");
+        long idColumn = sessions.getColumnIndex("id");
+        long endColumn = sessions.getColumnIndex("endTime");
+        long linkColumn = points.getColumnIndex("session");
+        long sessionIdColumn = points.getColumnIndex("sessionId");
+        long dateColumn = points.getColumnIndex("date");
+
+        int sessionCount = (int) sessions.size();
+        Long[] rows = new Long[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            rows[i] = (long) i;
+        }
+        final Table table = sessions;
+        Arrays.sort(rows, new Comparator<Long>() {
+            @Override
+            public int compare(Long lhs, Long rhs) {
+                return table.getDate(startColumn, lhs).compareTo(table.getDate(startColumn, rhs));
+            }
+        });
+        long[] starts = new long[sessionCount];
+        long[] ends = new long[sessionCount];
+        for (int i = 0; i < sessionCount; i++) {
+            starts[i] = sessions.getDate(startColumn, rows[i]).getTime();
+            ends[i] = starts[i];
+        }
+
+        for (long row = 0; row < points.size(); row++) {
+            long date = points.getDate(dateColumn, row).getTime();
+            int i = Arrays.binarySearch(starts, date);
+            // The latest session that started strictly before the point
+            i = i >= 0 ? i - 1 : -i - 2;
+            while (i >= 0 && starts[i] == date) {
+                i--;
+            }
+            if (i < 0) {
+                continue;
+            }
+            if (link) {
+                points.setLink(linkColumn, row, rows[i]);
+                points.setString(sessionIdColumn, row, sessions.getString(idColumn, rows[i]));
+            }
+            ends[i] = Math.max(ends[i], date);
+        }
+
+        if (endTimes) {
+            for (int i = 0; i < sessionCount; i++) {
+                sessions.setDate(endColumn, rows[i], new Date(ends[i]));
+            }
+        }
+    }
+
+    /**
+     * @return whether the column had to be added
+     */
+    private static boolean addColumn(Table table, ColumnType type, String name) {
+        if (table.getColumnIndex(name) == Table.NO_MATCH) {
+            table.addColumn(type, name);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return whether the column had to be added
+     */
+    private static boolean addLink(Table table, String name, Table target) {
+        if (table.getColumnIndex(name) == Table.NO_MATCH) {
+            table.addColumnLink(ColumnType.LINK, name, target);
+            return true;
+        }
+        return false;
+    }
+
+    private static void addSearchIndex(Table table, String name) {
+        long column = table.getColumnIndex(name);
+        if (!table.hasSearchIndex(column)) {
+            table.addSearchIndex(column);
+        }
+    }
+}
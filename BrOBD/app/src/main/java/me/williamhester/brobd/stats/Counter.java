@@ -0,0 +1,26 @@
+package me.williamhester.brobd.stats;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A count that only goes up, such as the number of reconnects. Incrementing doesn't allocate or
+ * lock, so a counter can be bumped from any thread on every request.
+ *
+ * @author William Hester
+ */
+public class Counter {
+
+    private final AtomicLong mCount = new AtomicLong();
+
+    public void increment() {
+        mCount.incrementAndGet();
+    }
+
+    public void add(long delta) {
+        mCount.addAndGet(delta);
+    }
+
+    public long get() {
+        return mCount.get();
+    }
+}
@@ -0,0 +1,78 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * Reduces a series to a fixed number of points for charting with Largest-Triangle-Three-Buckets.
+ * The first and last points are always kept. The rest of the series is split into equal buckets,
+ * and from each bucket the point that forms the largest triangle with the point kept from the
+ * previous bucket and the average of the next bucket is kept. Unlike averaging, this keeps the
+ * peaks that make a chart look like the data.
+ *
+ * @author William Hester
+ */
+public class Downsampler {
+
+    private Downsampler() { }
+
+    /**
+     * @param x the times of the points, in increasing order
+     * @param y the values of the points
+     * @param count the number of points in x and y
+     * @param threshold the most points to keep, at least 3
+     * @param outX where the times of the kept points are written; at least threshold long
+     * @param outY where the values of the kept points are written; at least threshold long
+     * @return the number of points kept
+     */
+    public static int lttb(long[] x, float[] y, int count, int threshold, long[] outX,
+                           float[] outY) {
+        if (threshold < 3) {
+            throw new IllegalArgumentException("At least 3 points must be kept");
+        }
+        if (count <= threshold) {
+            System.arraycopy(x, 0, outX, 0, count);
+            System.arraycopy(y, 0, outY, 0, count);
+            return count;
+        }
+
+        // The first and last points get buckets of their own
+        double bucketSize = (double) (count - 2) / (threshold - 2);
+        int kept = 0;
+        int a = 0;
+        outX[kept] = x[a];
+        outY[kept++] = y[a];
+
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // The average of the next bucket is the third corner of the triangle
+            int nextStart = (int) ((bucket + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) ((bucket + 2) * bucketSize) + 1, count);
+            double averageX = 0;
+            double averageY = 0;
+            for (int i = nextStart; i < nextEnd; i++) {
+                averageX += x[i] - x[a];
+                averageY += y[i];
+            }
+            averageX /= nextEnd - nextStart;
+            averageY /= nextEnd - nextStart;
+
+            // Times are taken relative to the previous point, so that they fit in a double exactly
+            int start = (int) (bucket * bucketSize) + 1;
+            int end = (int) ((bucket + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            int chosen = start;
+            for (int i = start; i < end; i++) {
+                double area = Math.abs((x[i] - x[a]) * (averageY - y[a])
+                        - averageX * (y[i] - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            outX[kept] = x[chosen];
+            outY[kept++] = y[chosen];
+            a = chosen;
+        }
+
+        outX[kept] = x[count - 1];
+        outY[kept++] = y[count - 1];
+        return kept;
+    }
+}
@@ -0,0 +1,122 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * The running statistics of one drive: a {@link RunningStat} each for speed, RPM and throttle,
+ * plus the distance driven. The distance is the integral of speed over the actual time between
+ * samples (using the trapezoid rule), so it stays right when samples don't arrive at a fixed rate.
+ * Gaps longer than {@link #MAX_INTEGRATION_GAP} aren't integrated over, since nothing is known
+ * about what happened during them.
+ *
+ * This is updated once per DataPoint, in the same units, and takes constant time and space no
+ * matter how long the drive is.
+ *
+ * @author William Hester
+ */
+public class DriveAggregator {
+
+    public static final long MAX_INTEGRATION_GAP = 10000L;
+
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+
+    private final RunningStat mSpeed = new RunningStat();
+    private final RunningStat mRpm = new RunningStat();
+    private final RunningStat mThrottle = new RunningStat();
+    private double mDistance;
+    private long mFirstDate = -1;
+    private long mLastDate = -1;
+    private int mLastSpeed;
+
+    /**
+     * Folds one DataPoint into the statistics. Points that aren't newer than the last one are
+     * ignored, so the same point can safely be offered twice.
+     *
+     * @param date the time of the point, in milliseconds since the epoch
+     * @param speed the speed in MPH
+     * @param rpm the engine RPM
+     * @param throttle the throttle position, as a percentage
+     * @return whether the point was counted
+     */
+    public boolean add(long date, int speed, int rpm, float throttle) {
+        if (date <= mLastDate) {
+            return false;
+        }
+        if (mLastDate < 0) {
+            mFirstDate = date;
+        } else if (date - mLastDate <= MAX_INTEGRATION_GAP) {
+            mDistance += (mLastSpeed + speed) / 2.0 * (date - mLastDate) / MILLIS_PER_HOUR;
+        }
+        mLastDate = date;
+        mLastSpeed = speed;
+        mSpeed.add(speed);
+        mRpm.add(rpm);
+        mThrottle.add(throttle);
+        return true;
+    }
+
+    /**
+     * Restores the part of the state that isn't kept in the {@link RunningStat}s. Those are
+     * restored through their own getters.
+     *
+     * @param distance the distance driven, in miles
+     * @param firstDate the time of the first point, or -1 if there were none
+     * @param lastDate the time of the last point, or -1 if there were none
+     * @param lastSpeed the speed of the last point, in MPH
+     */
+    public void restore(double distance, long firstDate, long lastDate, int lastSpeed) {
+        mDistance = distance;
+        mFirstDate = firstDate;
+        mLastDate = lastDate;
+        mLastSpeed = lastSpeed;
+    }
+
+    public RunningStat getSpeed() {
+        return mSpeed;
+    }
+
+    public RunningStat getRpm() {
+        return mRpm;
+    }
+
+    public RunningStat getThrottle() {
+        return mThrottle;
+    }
+
+    public long getCount() {
+        return mSpeed.getCount();
+    }
+
+    /**
+     * @return the distance driven, in miles
+     */
+    public double getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * @return the time of the first point, or -1 if there are none
+     */
+    public long getFirstDate() {
+        return mFirstDate;
+    }
+
+    /**
+     * @return the time of the last point, or -1 if there are none
+     */
+    public long getLastDate() {
+        return mLastDate;
+    }
+
+    /**
+     * @return the speed of the last point, in MPH
+     */
+    public int getLastSpeed() {
+        return mLastSpeed;
+    }
+
+    /**
+     * @return the time between the first and the last point, in milliseconds
+     */
+    public long getElapsedMillis() {
+        return mLastDate < 0 ? 0 : mLastDate - mFirstDate;
+    }
+}
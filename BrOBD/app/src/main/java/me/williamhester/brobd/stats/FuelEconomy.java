@@ -0,0 +1,150 @@
+package me.williamhester.brobd.stats;
+
+import me.williamhester.brobd.obd.FuelType;
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * Works out fuel economy as samples come in. The fuel flow comes from {@link Pid#FUEL_RATE} when
+ * the vehicle reports it, and is otherwise derived from {@link Pid#MAF} and the
+ * {@link Pid#FUEL_TYPE}. Once a vehicle has reported its fuel rate, the MAF is ignored, so the two
+ * are never mixed.
+ *
+ * Fuel used and distance are integrated over the actual time between samples with the trapezoid
+ * rule, like {@link DriveAggregator} does, but only while both the speed and the fuel flow are
+ * known, so that the average isn't thrown off by stretches where one of them is missing. Gaps
+ * longer than {@link DriveAggregator#MAX_INTEGRATION_GAP} aren't integrated over.
+ *
+ * Each sample takes constant time and space, no matter how long the drive is.
+ *
+ * @author William Hester
+ */
+public class FuelEconomy {
+
+    /**
+     * The instant economy while coasting with the fuel cut off, which would otherwise be infinite.
+     */
+    public static final float MAX_INSTANT_MPG = 150f;
+
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+    private static final double LITERS_PER_GALLON = 3.785411784;
+    private static final double MILES_PER_KM = 0.621371192;
+
+    private FuelType mFuelType = FuelType.GASOLINE;
+    private boolean mHasFuelRate;
+    // The latest known values, in km/h and L/h; NaN until they have been sampled
+    private float mSpeed = Float.NaN;
+    private float mFuelRate = Float.NaN;
+    private long mLastTimestamp = -1;
+    private double mFuelUsed;
+    private double mDistance;
+
+    /**
+     * Folds one sample into the totals. Samples that aren't newer than the last one are ignored.
+     *
+     * @param timestamp the time of the sample, in milliseconds since the epoch
+     * @param sample the values of the sample, indexed by {@link Pid#ordinal()}; NaN for the PIDs
+     *     that weren't sampled
+     * @return whether the sample had anything to do with fuel economy
+     */
+    public boolean add(long timestamp, float[] sample) {
+        float fuelType = sample[Pid.FUEL_TYPE.ordinal()];
+        if (!Float.isNaN(fuelType)) {
+            mFuelType = FuelType.fromCode((int) fuelType);
+        }
+        float speed = sample[Pid.SPEED.ordinal()];
+        float fuelRate = sample[Pid.FUEL_RATE.ordinal()];
+        if (!Float.isNaN(fuelRate)) {
+            mHasFuelRate = true;
+        } else if (!mHasFuelRate && !Float.isNaN(sample[Pid.MAF.ordinal()])) {
+            fuelRate = mFuelType.getFuelRate(sample[Pid.MAF.ordinal()]);
+        }
+        if ((Float.isNaN(speed) && Float.isNaN(fuelRate)) || timestamp <= mLastTimestamp) {
+            return false;
+        }
+
+        // Carry over whatever wasn't part of this sample
+        if (Float.isNaN(speed)) {
+            speed = mSpeed;
+        }
+        if (Float.isNaN(fuelRate)) {
+            fuelRate = mFuelRate;
+        }
+        boolean known = !Float.isNaN(mSpeed) && !Float.isNaN(mFuelRate)
+                && !Float.isNaN(speed) && !Float.isNaN(fuelRate);
+        if (known && mLastTimestamp >= 0
+                && timestamp - mLastTimestamp <= DriveAggregator.MAX_INTEGRATION_GAP) {
+            double hours = (timestamp - mLastTimestamp) / MILLIS_PER_HOUR;
+            mFuelUsed += (mFuelRate + fuelRate) / 2.0 * hours / LITERS_PER_GALLON;
+            mDistance += (mSpeed + speed) / 2.0 * hours * MILES_PER_KM;
+        }
+        mSpeed = speed;
+        mFuelRate = fuelRate;
+        mLastTimestamp = timestamp;
+        return true;
+    }
+
+    /**
+     * Restores the totals of a drive that was saved part way through. Integration picks up again
+     * from the next sample.
+     *
+     * @param fuelUsed the fuel used, in gallons
+     * @param distance the distance driven while the fuel flow was known, in miles
+     * @param fuelType the vehicle's fuel type
+     */
+    public void restore(double fuelUsed, double distance, FuelType fuelType) {
+        mFuelUsed = fuelUsed;
+        mDistance = distance;
+        mFuelType = fuelType;
+    }
+
+    /**
+     * @return the fuel used so far, in gallons
+     */
+    public double getFuelUsed() {
+        return mFuelUsed;
+    }
+
+    /**
+     * @return the distance driven while the fuel flow was known, in miles
+     */
+    public double getDistance() {
+        return mDistance;
+    }
+
+    public FuelType getFuelType() {
+        return mFuelType;
+    }
+
+    /**
+     * @return the latest fuel flow, in L/h, or NaN if it isn't known yet
+     */
+    public float getFuelRate() {
+        return mFuelRate;
+    }
+
+    /**
+     * @return the fuel economy at the latest sample, capped at {@link #MAX_INSTANT_MPG}; 0 when
+     *     stopped, and NaN if the speed or the fuel flow isn't known yet
+     */
+    public float getInstantMpg() {
+        if (Float.isNaN(mSpeed) || Float.isNaN(mFuelRate)) {
+            return Float.NaN;
+        }
+        double mph = mSpeed * MILES_PER_KM;
+        if (mph <= 0) {
+            return 0;
+        }
+        double gallonsPerHour = mFuelRate / LITERS_PER_GALLON;
+        if (gallonsPerHour * MAX_INSTANT_MPG <= mph) {
+            return MAX_INSTANT_MPG;
+        }
+        return (float) (mph / gallonsPerHour);
+    }
+
+    /**
+     * @return the fuel economy over the whole drive, or NaN if no fuel has been used yet
+     */
+    public float getAverageMpg() {
+        return mFuelUsed > 0 ? (float) (mDistance / mFuelUsed) : Float.NaN;
+    }
+}
@@ -0,0 +1,20 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * The latest value of something that goes up and down, such as a rate. Whoever measures it sets
+ * it, and it can be read from any thread.
+ *
+ * @author William Hester
+ */
+public class Gauge {
+
+    private volatile double mValue;
+
+    public void set(double value) {
+        mValue = value;
+    }
+
+    public double get() {
+        return mValue;
+    }
+}
@@ -0,0 +1,168 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * Counts non-negative values into logarithmic buckets, in the style of HdrHistogram: every power
+ * of two is split into {@link #SUB_BUCKET_COUNT} linear buckets, so a percentile is never off by
+ * more than about 6% of the value, whatever its magnitude. Recording is constant time and nothing
+ * is allocated after construction, which makes it cheap enough to time every request to the
+ * adapter.
+ *
+ * The methods are synchronized, so that a histogram that is recorded into on one thread can be
+ * read from another.
+ *
+ * @author William Hester
+ */
+public class Histogram {
+
+    public static final int SUB_BUCKET_COUNT = 16;
+
+    private static final int SUB_BUCKET_BITS = 4;
+    // Values up to 2^40 get their own bucket; anything larger is counted in the last one
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT =
+            SUB_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+    private final long[] mCounts = new long[BUCKET_COUNT];
+    private long mCount;
+    private long mSum;
+    private long mMin = Long.MAX_VALUE;
+    private long mMax = Long.MIN_VALUE;
+
+    /**
+     * Counts one value.
+     *
+     * @param value the value; negative values are counted as 0
+     */
+    public synchronized void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mCounts[indexOf(value)]++;
+        mCount++;
+        mSum += value;
+        if (value < mMin) {
+            mMin = value;
+        }
+        if (value > mMax) {
+            mMax = value;
+        }
+    }
+
+    /**
+     * Adds all of the values counted by another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(Histogram other) {
+        long[] counts = new long[BUCKET_COUNT];
+        long count;
+        long sum;
+        long min;
+        long max;
+        synchronized (other) {
+            System.arraycopy(other.mCounts, 0, counts, 0, BUCKET_COUNT);
+            count = other.mCount;
+            sum = other.mSum;
+            min = other.mMin;
+            max = other.mMax;
+        }
+        synchronized (this) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                mCounts[i] += counts[i];
+            }
+            mCount += count;
+            mSum += sum;
+            mMin = Math.min(mMin, min);
+            mMax = Math.max(mMax, max);
+        }
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] = 0;
+        }
+        mCount = 0;
+        mSum = 0;
+        mMin = Long.MAX_VALUE;
+        mMax = Long.MIN_VALUE;
+    }
+
+    public synchronized long getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the smallest value counted, or 0 if nothing has been
+     */
+    public synchronized long getMin() {
+        return mCount == 0 ? 0 : mMin;
+    }
+
+    /**
+     * @return the largest value counted, or 0 if nothing has been
+     */
+    public synchronized long getMax() {
+        return mCount == 0 ? 0 : mMax;
+    }
+
+    /**
+     * @return the exact mean of the values counted, or 0 if nothing has been
+     */
+    public synchronized double getMean() {
+        return mCount == 0 ? 0 : (double) mSum / mCount;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the largest value that the given percentage of the values are at or below, rounded
+     *     up to the end of its bucket but never past the largest value counted; 0 if nothing has
+     *     been counted
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (mCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(Math.min(Math.max(percentile, 0), 100) / 100 * mCount);
+        rank = Math.max(rank, 1);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                return Math.max(mMin, Math.min(mMax, highestValueIn(i)));
+            }
+        }
+        return mMax;
+    }
+
+    /**
+     * @return a short summary, such as "n=120 mean=41.2 p50=40 p99=63 max=70"
+     */
+    public synchronized String toSummary() {
+        return String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d max=%d", mCount, getMean(),
+                getValueAtPercentile(50), getValueAtPercentile(90), getValueAtPercentile(99),
+                getMax());
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKET_COUNT - 1);
+        return SUB_BUCKET_COUNT + shift * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    static long highestValueIn(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_COUNT;
+        int subBucket = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+        long lowest = (1L << (shift + SUB_BUCKET_BITS)) | ((long) subBucket << shift);
+        return lowest + (1L << shift) - 1;
+    }
+}
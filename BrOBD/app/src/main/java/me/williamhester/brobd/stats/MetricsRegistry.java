@@ -0,0 +1,108 @@
+package me.williamhester.brobd.stats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The app's {@link Counter}s, {@link Gauge}s and {@link Histogram}s, by name. Names are dotted,
+ * starting with the part of the app that records them, and end in the unit where there is one,
+ * such as "realm.commit_us".
+ *
+ * Looking a metric up takes a lock, so code on a hot path looks its metrics up once and keeps
+ * them; after that, recording is a few nanoseconds and never allocates, which keeps the metrics
+ * cheap enough to leave on all the time. Metrics live as long as the process, so they add up
+ * across drives.
+ *
+ * @author William Hester
+ */
+public class MetricsRegistry {
+
+    private static MetricsRegistry mInstance;
+
+    private final Map<String, Counter> mCounters = new TreeMap<>();
+    private final Map<String, Gauge> mGauges = new TreeMap<>();
+    private final Map<String, Histogram> mHistograms = new TreeMap<>();
+    private final long mCreatedAt = System.nanoTime();
+
+    public static synchronized MetricsRegistry getInstance() {
+        if (mInstance == null) {
+            mInstance = new MetricsRegistry();
+        }
+        return mInstance;
+    }
+
+    /**
+     * @param name the name of the counter
+     * @return the counter, which is created the first time it is asked for
+     */
+    public synchronized Counter counter(String name) {
+        Counter counter = mCounters.get(name);
+        if (counter == null) {
+            counter = new Counter();
+            mCounters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * @param name the name of the gauge
+     * @return the gauge, which is created the first time it is asked for
+     */
+    public synchronized Gauge gauge(String name) {
+        Gauge gauge = mGauges.get(name);
+        if (gauge == null) {
+            gauge = new Gauge();
+            mGauges.put(name, gauge);
+        }
+        return gauge;
+    }
+
+    /**
+     * @param name the name of the histogram
+     * @return the histogram, which is created the first time it is asked for
+     */
+    public synchronized Histogram histogram(String name) {
+        Histogram histogram = mHistograms.get(name);
+        if (histogram == null) {
+            histogram = new Histogram();
+            mHistograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    /**
+     * Writes every metric, one per line and sorted by name within each kind.
+     *
+     * @param writer where to write the metrics
+     * @throws IOException if the writer fails
+     */
+    public void dump(Writer writer) throws IOException {
+        writer.write(toSummary());
+    }
+
+    /**
+     * @return every metric, one per line and sorted by name within each kind
+     */
+    public synchronized String toSummary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("uptime_s: %d\n", (System.nanoTime() - mCreatedAt) / 1000000000L));
+        for (Map.Entry<String, Counter> entry : mCounters.entrySet()) {
+            sb.append(entry.getKey()).append(": ").append(entry.getValue().get()).append('\n');
+        }
+        for (Map.Entry<String, Gauge> entry : mGauges.entrySet()) {
+            sb.append(entry.getKey())
+                    .append(": ")
+                    .append(String.format("%.2f", entry.getValue().get()))
+                    .append('\n');
+        }
+        for (Map.Entry<String, Histogram> entry : mHistograms.entrySet()) {
+            sb.append(entry.getKey())
+                    .append(": ")
+                    .append(entry.getValue().toSummary())
+                    .append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,55 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * The bucket sizes that drive history is rolled up at, finest first. Buckets are aligned to
+ * multiples of their size since the epoch, so buckets from different sessions line up and can be
+ * merged.
+ *
+ * @author William Hester
+ */
+public enum Resolution {
+
+    TEN_SECONDS(10000L),
+    ONE_MINUTE(60000L),
+    TEN_MINUTES(600000L);
+
+    private final long mMillis;
+
+    Resolution(long millis) {
+        mMillis = millis;
+    }
+
+    /**
+     * @return the length of a bucket, in milliseconds
+     */
+    public long getMillis() {
+        return mMillis;
+    }
+
+    /**
+     * @param time a time in milliseconds since the epoch
+     * @return the start of the bucket that the time falls in
+     */
+    public long getBucketStart(long time) {
+        return time - (time % mMillis + mMillis) % mMillis;
+    }
+
+    /**
+     * Picks the resolution to read a span of history at. The coarser the resolution, the fewer
+     * rows have to be read, so this is the coarsest resolution that still splits the span into at
+     * least the given number of buckets. If even the finest gives fewer, the finest is used.
+     *
+     * @param span the length of the span, in milliseconds
+     * @param minBuckets the fewest buckets that the span should be shown as
+     * @return the resolution to use
+     */
+    public static Resolution forSpan(long span, int minBuckets) {
+        Resolution[] resolutions = values();
+        for (int i = resolutions.length - 1; i > 0; i--) {
+            if (span / resolutions[i].mMillis >= minBuckets) {
+                return resolutions[i];
+            }
+        }
+        return resolutions[0];
+    }
+}
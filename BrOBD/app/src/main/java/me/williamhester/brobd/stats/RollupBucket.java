@@ -0,0 +1,101 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * The statistics of all of the DataPoints that fell in one bucket of time: a {@link RunningStat}
+ * each for speed, RPM and throttle, and the distance driven. The variances aren't kept, since
+ * rollups are only ever saved with the count, sum, minimum and maximum.
+ *
+ * @author William Hester
+ */
+public class RollupBucket {
+
+    private final Resolution mResolution;
+    private final long mStart;
+    private final RunningStat mSpeed = new RunningStat();
+    private final RunningStat mRpm = new RunningStat();
+    private final RunningStat mThrottle = new RunningStat();
+    private double mDistance;
+
+    /**
+     * @param resolution the size of the bucket
+     * @param start the start of the bucket, in milliseconds since the epoch
+     */
+    public RollupBucket(Resolution resolution, long start) {
+        mResolution = resolution;
+        mStart = start;
+    }
+
+    /**
+     * @param speed the speed in MPH
+     * @param rpm the engine RPM
+     * @param throttle the throttle position, as a percentage
+     */
+    public void add(int speed, int rpm, float throttle) {
+        mSpeed.add(speed);
+        mRpm.add(rpm);
+        mThrottle.add(throttle);
+    }
+
+    /**
+     * @param miles the distance to add, in miles
+     */
+    public void addDistance(double miles) {
+        mDistance += miles;
+    }
+
+    /**
+     * Folds in the statistics of another bucket of the same time, say from another session.
+     *
+     * @param other the bucket to merge in
+     */
+    public void merge(RollupBucket other) {
+        mSpeed.merge(other.mSpeed);
+        mRpm.merge(other.mRpm);
+        mThrottle.merge(other.mThrottle);
+        mDistance += other.mDistance;
+    }
+
+    public Resolution getResolution() {
+        return mResolution;
+    }
+
+    /**
+     * @return the start of the bucket, in milliseconds since the epoch
+     */
+    public long getStart() {
+        return mStart;
+    }
+
+    public long getCount() {
+        return mSpeed.getCount();
+    }
+
+    public RunningStat getSpeed() {
+        return mSpeed;
+    }
+
+    public RunningStat getRpm() {
+        return mRpm;
+    }
+
+    public RunningStat getThrottle() {
+        return mThrottle;
+    }
+
+    /**
+     * @return the distance driven during the bucket, in miles
+     */
+    public double getDistance() {
+        return mDistance;
+    }
+
+    /**
+     * Restores the distance of a bucket that was saved earlier. The statistics are restored
+     * through their own getters.
+     *
+     * @param distance the distance driven during the bucket, in miles
+     */
+    public void setDistance(double distance) {
+        mDistance = distance;
+    }
+}
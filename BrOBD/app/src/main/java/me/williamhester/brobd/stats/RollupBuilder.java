@@ -0,0 +1,68 @@
+package me.williamhester.brobd.stats;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rolls a session's DataPoints up into buckets at every {@link Resolution} in a single pass. The
+ * points must be offered oldest first. Distance is integrated the same way as in
+ * {@link DriveAggregator}, and the distance between two points goes to the bucket of the later
+ * one.
+ *
+ * @author William Hester
+ */
+public class RollupBuilder {
+
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+
+    private final Resolution[] mResolutions = Resolution.values();
+    private final RollupBucket[] mCurrent = new RollupBucket[mResolutions.length];
+    private final List<List<RollupBucket>> mBuckets = new ArrayList<>();
+    private long mLastDate = -1;
+    private int mLastSpeed;
+
+    public RollupBuilder() {
+        for (int i = 0; i < mResolutions.length; i++) {
+            mBuckets.add(new ArrayList<RollupBucket>());
+        }
+    }
+
+    /**
+     * Folds one DataPoint into the bucket it falls in at each resolution. Points that aren't newer
+     * than the last one are ignored.
+     *
+     * @param date the time of the point, in milliseconds since the epoch
+     * @param speed the speed in MPH
+     * @param rpm the engine RPM
+     * @param throttle the throttle position, as a percentage
+     */
+    public void add(long date, int speed, int rpm, float throttle) {
+        if (date <= mLastDate) {
+            return;
+        }
+        double distance = 0;
+        if (mLastDate >= 0 && date - mLastDate <= DriveAggregator.MAX_INTEGRATION_GAP) {
+            distance = (mLastSpeed + speed) / 2.0 * (date - mLastDate) / MILLIS_PER_HOUR;
+        }
+        mLastDate = date;
+        mLastSpeed = speed;
+
+        for (int i = 0; i < mResolutions.length; i++) {
+            long start = mResolutions[i].getBucketStart(date);
+            if (mCurrent[i] == null || mCurrent[i].getStart() != start) {
+                mCurrent[i] = new RollupBucket(mResolutions[i], start);
+                mBuckets.get(i).add(mCurrent[i]);
+            }
+            mCurrent[i].add(speed, rpm, throttle);
+            mCurrent[i].addDistance(distance);
+        }
+    }
+
+    /**
+     * @param resolution the size of the buckets
+     * @return every bucket that a point fell in, oldest first
+     */
+    public List<RollupBucket> getBuckets(Resolution resolution) {
+        return mBuckets.get(resolution.ordinal());
+    }
+}
@@ -0,0 +1,130 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * Keeps the count, sum, minimum, maximum and variance of a stream of values without holding on to
+ * the values themselves. The variance is updated with Welford's method, so it stays accurate over
+ * very long drives.
+ *
+ * @author William Hester
+ */
+public class RunningStat {
+
+    private long mCount;
+    private double mSum;
+    private double mMean;
+    private double mM2;
+    private double mMin = Double.NaN;
+    private double mMax = Double.NaN;
+
+    /**
+     * Folds one value into the statistics.
+     *
+     * @param value the value to add
+     */
+    public void add(double value) {
+        mCount++;
+        mSum += value;
+        double delta = value - mMean;
+        mMean += delta / mCount;
+        mM2 += delta * (value - mMean);
+        if (mCount == 1 || value < mMin) {
+            mMin = value;
+        }
+        if (mCount == 1 || value > mMax) {
+            mMax = value;
+        }
+    }
+
+    /**
+     * Folds the statistics of another stream into these, as if all of its values had been added.
+     *
+     * @param other the statistics to merge in
+     */
+    public void merge(RunningStat other) {
+        if (other.mCount == 0) {
+            return;
+        }
+        if (mCount == 0) {
+            set(other.mCount, other.mSum, other.mMin, other.mMax, other.mM2);
+            return;
+        }
+        long count = mCount + other.mCount;
+        double delta = other.mMean - mMean;
+        mM2 += other.mM2 + delta * delta * mCount * other.mCount / count;
+        mMean += delta * other.mCount / count;
+        mSum += other.mSum;
+        mCount = count;
+        mMin = Math.min(mMin, other.mMin);
+        mMax = Math.max(mMax, other.mMax);
+    }
+
+    /**
+     * Restores statistics that were saved earlier.
+     *
+     * @param count the number of values
+     * @param sum the sum of the values
+     * @param min the smallest value
+     * @param max the largest value
+     * @param m2 the sum of squared differences from the mean, as returned by {@link #getM2()}
+     */
+    public void set(long count, double sum, double min, double max, double m2) {
+        mCount = count;
+        mSum = sum;
+        mMean = count == 0 ? 0 : sum / count;
+        mMin = count == 0 ? Double.NaN : min;
+        mMax = count == 0 ? Double.NaN : max;
+        mM2 = m2;
+    }
+
+    public void reset() {
+        set(0, 0, 0, 0, 0);
+    }
+
+    public long getCount() {
+        return mCount;
+    }
+
+    public double getSum() {
+        return mSum;
+    }
+
+    /**
+     * @return the mean of the values, or 0 if there are none
+     */
+    public double getMean() {
+        return mMean;
+    }
+
+    /**
+     * @return the smallest value, or NaN if there are none
+     */
+    public double getMin() {
+        return mMin;
+    }
+
+    /**
+     * @return the largest value, or NaN if there are none
+     */
+    public double getMax() {
+        return mMax;
+    }
+
+    /**
+     * @return the sum of squared differences from the mean, which is what needs to be saved to
+     *     restore the variance later
+     */
+    public double getM2() {
+        return mM2;
+    }
+
+    /**
+     * @return the sample variance of the values, or 0 if there are fewer than two
+     */
+    public double getVariance() {
+        return mCount < 2 ? 0 : mM2 / (mCount - 1);
+    }
+
+    public double getStandardDeviation() {
+        return Math.sqrt(getVariance());
+    }
+}
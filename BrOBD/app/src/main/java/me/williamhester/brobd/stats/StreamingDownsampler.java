@@ -0,0 +1,208 @@
+package me.williamhester.brobd.stats;
+
+import java.util.Arrays;
+
+/**
+ * Largest-Triangle-Three-Buckets, like {@link Downsampler#lttb}, for a series that is read one
+ * point at a time and never held whole. How many points there are isn't known until the end, so
+ * the range is split into buckets of equal time rather than of equal counts; a gap in the series
+ * leaves its buckets empty rather than spreading the points around it out. Only two buckets of
+ * points are held at once: the one that a point is being picked from, and the next one, whose
+ * average is the third corner of the triangle.
+ *
+ * The first and last points are always kept, and if the series turns out to have no more points
+ * than the threshold, all of them are.
+ *
+ * @author William Hester
+ */
+public class StreamingDownsampler {
+
+    private final long mFrom;
+    private final long mSpan;
+    private final int mBucketCount;
+    private final long[] mOutX;
+    private final float[] mOutY;
+    private int mKept;
+    private int mSourceCount;
+
+    // The first threshold points, kept as they are until there turn out to be more
+    private final long[] mHeadX;
+    private final float[] mHeadY;
+    private boolean mBucketing;
+
+    // The newest point, which isn't put in a bucket until a newer one arrives, since the last
+    //     point of the series is kept on its own
+    private long mLastX;
+    private float mLastY;
+    private Bucket mCurrent = new Bucket();
+    private Bucket mNext = new Bucket();
+
+    /**
+     * @param from the earliest time that a point can have
+     * @param to the latest time that a point can have
+     * @param threshold the most points to keep, at least 3
+     * @param outX where the times of the kept points are written; at least threshold long
+     * @param outY where the values of the kept points are written; at least threshold long
+     */
+    public StreamingDownsampler(long from, long to, int threshold, long[] outX, float[] outY) {
+        if (threshold < 3) {
+            throw new IllegalArgumentException("At least 3 points must be kept");
+        }
+        mFrom = from;
+        mSpan = Math.max(1, to - from + 1);
+        // The first and last points get buckets of their own
+        mBucketCount = threshold - 2;
+        mOutX = outX;
+        mOutY = outY;
+        mHeadX = new long[threshold];
+        mHeadY = new float[threshold];
+    }
+
+    /**
+     * @param x the time of the point, no earlier than that of the point before it
+     * @param y the value of the point
+     */
+    public void add(long x, float y) {
+        if (!mBucketing) {
+            if (mSourceCount < mHeadX.length) {
+                mHeadX[mSourceCount] = x;
+                mHeadY[mSourceCount++] = y;
+                return;
+            }
+            // There are too many to keep them all after all
+            mBucketing = true;
+            keep(mHeadX[0], mHeadY[0]);
+            mLastX = mHeadX[1];
+            mLastY = mHeadY[1];
+            for (int i = 2; i < mHeadX.length; i++) {
+                push(mHeadX[i], mHeadY[i]);
+            }
+        }
+        mSourceCount++;
+        push(x, y);
+    }
+
+    /**
+     * Picks the points from the buckets that are left. Nothing can be added after this.
+     *
+     * @return the number of points kept
+     */
+    public int finish() {
+        if (!mBucketing) {
+            System.arraycopy(mHeadX, 0, mOutX, 0, mSourceCount);
+            System.arraycopy(mHeadY, 0, mOutY, 0, mSourceCount);
+            mKept = mSourceCount;
+            return mKept;
+        }
+        if (mNext.mCount > 0) {
+            advance(mNext.getAverageX(), mNext.getAverageY());
+        }
+        // The last point is the third corner for the last bucket
+        advance(mLastX - mFrom, mLastY);
+        keep(mLastX, mLastY);
+        return mKept;
+    }
+
+    /**
+     * @return the number of points that were added
+     */
+    public int getSourceCount() {
+        return mSourceCount;
+    }
+
+    /**
+     * Puts the point before this one in its bucket, and holds on to this one in case it is the
+     * last.
+     */
+    private void push(long x, float y) {
+        int index = getBucket(mLastX);
+        if (mNext.mCount > 0 && index != mNext.mIndex) {
+            // The next bucket is complete, so its average is known
+            advance(mNext.getAverageX(), mNext.getAverageY());
+        }
+        mNext.add(index, mLastX, mLastY, mFrom);
+        mLastX = x;
+        mLastY = y;
+    }
+
+    /**
+     * Picks a point from the current bucket, if it has any, and moves on to the next bucket.
+     *
+     * @param thirdX the time of the triangle's third corner, relative to mFrom
+     * @param thirdY the value of the triangle's third corner
+     */
+    private void advance(double thirdX, double thirdY) {
+        if (mCurrent.mCount > 0) {
+            // Times are taken relative to the previous point, so that they fit in a double exactly
+            long a = mOutX[mKept - 1];
+            float aY = mOutY[mKept - 1];
+            double averageX = thirdX - (a - mFrom);
+            double maxArea = -1;
+            int chosen = 0;
+            for (int i = 0; i < mCurrent.mCount; i++) {
+                double area = Math.abs((mCurrent.mX[i] - a) * (thirdY - aY)
+                        - averageX * (mCurrent.mY[i] - aY));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = i;
+                }
+            }
+            keep(mCurrent.mX[chosen], mCurrent.mY[chosen]);
+        }
+        Bucket current = mCurrent;
+        mCurrent = mNext;
+        mNext = current;
+        mNext.clear();
+    }
+
+    private void keep(long x, float y) {
+        mOutX[mKept] = x;
+        mOutY[mKept++] = y;
+    }
+
+    private int getBucket(long x) {
+        int index = (int) ((double) (x - mFrom) / mSpan * mBucketCount);
+        return Math.max(0, Math.min(mBucketCount - 1, index));
+    }
+
+    /**
+     * The points that fell in one bucket of time.
+     */
+    private static class Bucket {
+
+        int mIndex = -1;
+        long[] mX = new long[16];
+        float[] mY = new float[16];
+        int mCount;
+        // Relative to the start of the range, so that the sum doesn't lose precision
+        double mSumX;
+        double mSumY;
+
+        void add(int index, long x, float y, long from) {
+            if (mCount == mX.length) {
+                mX = Arrays.copyOf(mX, mCount * 2);
+                mY = Arrays.copyOf(mY, mCount * 2);
+            }
+            mIndex = index;
+            mX[mCount] = x;
+            mY[mCount++] = y;
+            mSumX += x - from;
+            mSumY += y;
+        }
+
+        double getAverageX() {
+            return mSumX / mCount;
+        }
+
+        double getAverageY() {
+            return mSumY / mCount;
+        }
+
+        void clear() {
+            mIndex = -1;
+            mCount = 0;
+            mSumX = 0;
+            mSumY = 0;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package me.williamhester.brobd.stats;
+
+/**
+ * The last few values of a stream, kept in a fixed ring, along with their minimum and maximum.
+ * The extremes are maintained incrementally with a monotonic queue each, so adding a value takes
+ * amortized constant time no matter how large the window is, and nothing is allocated after
+ * construction.
+ *
+ * @author William Hester
+ */
+public class WindowedSeries {
+
+    private final int mCapacity;
+    private final float[] mValues;
+    // The total number of values ever added; the window is the last mCapacity of them
+    private long mCount;
+
+    // Sequence numbers of the values that could still become the maximum or minimum, in order
+    private final long[] mMaxQueue;
+    private long mMaxHead;
+    private long mMaxTail;
+    private final long[] mMinQueue;
+    private long mMinHead;
+    private long mMinTail;
+
+    /**
+     * @param capacity the number of values in the window
+     */
+    public WindowedSeries(int capacity) {
+        mCapacity = capacity;
+        mValues = new float[capacity];
+        mMaxQueue = new long[capacity];
+        mMinQueue = new long[capacity];
+    }
+
+    /**
+     * Adds a value, pushing the oldest one out of the window if it is full.
+     *
+     * @param value the value to add
+     */
+    public void add(float value) {
+        long seq = mCount++;
+        mValues[(int) (seq % mCapacity)] = value;
+
+        // Forget whatever just left the window
+        long oldest = seq - mCapacity;
+        if (mMaxTail > mMaxHead && mMaxQueue[index(mMaxHead)] <= oldest) {
+            mMaxHead++;
+        }
+        if (mMinTail > mMinHead && mMinQueue[index(mMinHead)] <= oldest) {
+            mMinHead++;
+        }
+
+        // Older values that are smaller (or larger) than this one can never be the extreme again
+        while (mMaxTail > mMaxHead && valueAt(mMaxQueue[index(mMaxTail - 1)]) <= value) {
+            mMaxTail--;
+        }
+        mMaxQueue[index(mMaxTail++)] = seq;
+        while (mMinTail > mMinHead && valueAt(mMinQueue[index(mMinTail - 1)]) >= value) {
+            mMinTail--;
+        }
+        mMinQueue[index(mMinTail++)] = seq;
+    }
+
+    /**
+     * @return the number of values in the window
+     */
+    public int size() {
+        return (int) Math.min(mCount, mCapacity);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @param i the position in the window, where 0 is the oldest value
+     * @return the value at that position
+     */
+    public float get(int i) {
+        return valueAt(mCount - size() + i);
+    }
+
+    /**
+     * @return the largest value in the window, or NaN if it is empty
+     */
+    public float getMax() {
+        return mMaxTail > mMaxHead ? valueAt(mMaxQueue[index(mMaxHead)]) : Float.NaN;
+    }
+
+    /**
+     * @return the smallest value in the window, or NaN if it is empty
+     */
+    public float getMin() {
+        return mMinTail > mMinHead ? valueAt(mMinQueue[index(mMinHead)]) : Float.NaN;
+    }
+
+    public void clear() {
+        mCount = 0;
+        mMaxHead = mMaxTail = 0;
+        mMinHead = mMinTail = 0;
+    }
+
+    private float valueAt(long seq) {
+        return mValues[(int) (seq % mCapacity)];
+    }
+
+    private int index(long position) {
+        return (int) (position % mCapacity);
+    }
+}
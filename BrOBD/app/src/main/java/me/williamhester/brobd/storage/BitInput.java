@@ -0,0 +1,39 @@
+package me.williamhester.brobd.storage;
+
+/**
+ * Reads values written by a {@link BitOutput}.
+ *
+ * @author William Hester
+ */
+class BitInput {
+
+    private byte[] mBytes;
+    private int mPosition;
+
+    void reset(byte[] bytes) {
+        mBytes = bytes;
+        mPosition = 0;
+    }
+
+    /**
+     * @param bitCount the width of the value, up to 64 bits
+     * @return the value, zero-extended
+     */
+    long read(int bitCount) {
+        long value = 0;
+        while (bitCount > 0) {
+            int index = mPosition >>> 3;
+            int available = 8 - (mPosition & 7);
+            int n = Math.min(available, bitCount);
+            int bits = (mBytes[index] >>> (available - n)) & ((1 << n) - 1);
+            value = (value << n) | bits;
+            mPosition += n;
+            bitCount -= n;
+        }
+        return value;
+    }
+
+    boolean readBit() {
+        return read(1) == 1;
+    }
+}
@@ -0,0 +1,68 @@
+package me.williamhester.brobd.storage;
+
+/**
+ * Writes values of any width up to 64 bits into a fixed byte array, most significant bit first.
+ *
+ * @author William Hester
+ */
+class BitOutput {
+
+    private final byte[] mBytes;
+    private int mPosition;
+
+    BitOutput(int capacityInBytes) {
+        mBytes = new byte[capacityInBytes];
+    }
+
+    /**
+     * Writes the lowest bits of a value.
+     *
+     * @param value the value to write
+     * @param bitCount how many of its lowest bits to write
+     */
+    void write(long value, int bitCount) {
+        while (bitCount > 0) {
+            int index = mPosition >>> 3;
+            int free = 8 - (mPosition & 7);
+            int n = Math.min(free, bitCount);
+            int bits = (int) (value >>> (bitCount - n)) & ((1 << n) - 1);
+            mBytes[index] |= bits << (free - n);
+            mPosition += n;
+            bitCount -= n;
+        }
+    }
+
+    void writeBit(boolean bit) {
+        write(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Moves the write position, e.g. to leave room for a header that is filled in later. Bytes
+     * that are skipped over must still be zero.
+     */
+    void seek(int bitPosition) {
+        mPosition = bitPosition;
+    }
+
+    int getBitPosition() {
+        return mPosition;
+    }
+
+    int getByteCount() {
+        return (mPosition + 7) >>> 3;
+    }
+
+    byte[] getBytes() {
+        return mBytes;
+    }
+
+    /**
+     * Zeroes everything that has been written and moves back to the start.
+     */
+    void reset() {
+        for (int i = getByteCount() - 1; i >= 0; i--) {
+            mBytes[i] = 0;
+        }
+        mPosition = 0;
+    }
+}
@@ -0,0 +1,242 @@
+package me.williamhester.brobd.storage;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.Date;
+
+import io.realm.Realm;
+import me.williamhester.brobd.models.DataPoint;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.stats.Counter;
+import me.williamhester.brobd.stats.DriveAggregator;
+import me.williamhester.brobd.stats.FuelEconomy;
+import me.williamhester.brobd.stats.Histogram;
+import me.williamhester.brobd.stats.MetricsRegistry;
+
+/**
+ * A write-behind buffer for the points of a session's statistics. Points are held in memory and
+ * committed to the Realm in a single transaction once {@link #DEFAULT_MAX_SAMPLES} have
+ * accumulated or {@link #DEFAULT_MAX_DELAY} milliseconds have passed since the first buffered
+ * point, whichever comes first. This must only be used from the thread that owns the Realm, and
+ * that thread's Handler is used to schedule the time based flushes.
+ *
+ * Every point is folded into a {@link DriveAggregator}, which is saved as the session's summary.
+ * The session's {@link FuelEconomy} is saved along with it, the open chunks of the session's
+ * {@link SeriesWriter} are written in the same transaction, and the session's end time is moved up
+ * to the newest point, so the summary, the series and the end time always match. The series are
+ * what the points are read back from; a DataPoint is only written for each point as well if
+ * {@link #setWriteDataPoints(boolean)} turns them on.
+ *
+ * @author William Hester
+ */
+public class DataPointWriter {
+
+    private static final String TAG = "DataPointWriter";
+
+    public static final int DEFAULT_MAX_SAMPLES = 50;
+    public static final long DEFAULT_MAX_DELAY = 1000L;
+
+    private final Realm mRealm;
+    private final Handler mHandler;
+    private final DriveSession mSession;
+    private final SeriesWriter mSeriesWriter;
+    private final DriveAggregator mAggregator;
+    private final FuelEconomy mFuelEconomy;
+    private final int mMaxSamples;
+    private final long mMaxDelay;
+
+    private final long[] mDates;
+    private final int[] mRpms;
+    private final int[] mSpeeds;
+    private final float[] mThrottles;
+    private final float[] mMpgs;
+    private int mCount;
+    // Realm copies the value out of the Date, so one instance can be reused for every DataPoint
+    private final Date mDate = new Date();
+    private boolean mWriteDataPoints;
+
+    private long mFirstCommitTime = -1;
+    private long mCommitCount;
+    private long mCommittedSamples;
+    private long mTotalCommitNanos;
+    private final Histogram mCommitTime =
+            MetricsRegistry.getInstance().histogram("realm.commit_us");
+    private final Counter mCommits = MetricsRegistry.getInstance().counter("realm.commits");
+
+    public DataPointWriter(Realm realm, Handler handler, DriveSession session,
+                           SeriesWriter seriesWriter) {
+        this(realm, handler, session, seriesWriter, DEFAULT_MAX_SAMPLES, DEFAULT_MAX_DELAY);
+    }
+
+    /**
+     * @param realm the Realm to write to
+     * @param handler a Handler on the thread that owns the Realm
+     * @param session the session that the samples belong to
+     * @param seriesWriter the writer of the session's series
+     * @param maxSamples the number of samples that triggers a commit
+     * @param maxDelay the longest a sample may wait in the buffer, in milliseconds
+     */
+    public DataPointWriter(Realm realm, Handler handler, DriveSession session,
+                           SeriesWriter seriesWriter, int maxSamples, long maxDelay) {
+        mRealm = realm;
+        mHandler = handler;
+        mSession = session;
+        mSeriesWriter = seriesWriter;
+        mAggregator = SummaryStore.load(session);
+        mFuelEconomy = SummaryStore.loadFuelEconomy(session);
+        mMaxSamples = maxSamples;
+        mMaxDelay = maxDelay;
+        mDates = new long[maxSamples];
+        mRpms = new int[maxSamples];
+        mSpeeds = new int[maxSamples];
+        mThrottles = new float[maxSamples];
+        mMpgs = new float[maxSamples];
+    }
+
+    /**
+     * @param writeDataPoints whether to write a DataPoint for every point, which only older
+     *     readers of the Realm need; off by default
+     */
+    public void setWriteDataPoints(boolean writeDataPoints) {
+        mWriteDataPoints = writeDataPoints;
+    }
+
+    /**
+     * Buffers one sample, committing the buffer if it is full.
+     *
+     * @param date the time of the sample, in milliseconds since the epoch
+     * @param rpm the engine RPM
+     * @param speed the speed in MPH
+     * @param throttle the throttle position, as a percentage
+     * @param mpg the instant fuel economy, or NaN if it isn't known
+     */
+    public void add(long date, int rpm, int speed, float throttle, float mpg) {
+        mDates[mCount] = date;
+        mRpms[mCount] = rpm;
+        mSpeeds[mCount] = speed;
+        mThrottles[mCount] = throttle;
+        mMpgs[mCount] = mpg;
+        mCount++;
+        mAggregator.add(date, speed, rpm, throttle);
+
+        if (mCount == 1) {
+            mHandler.postDelayed(mFlushRunnable, mMaxDelay);
+        }
+        if (mCount >= mMaxSamples) {
+            flush();
+        }
+    }
+
+    /**
+     * Commits everything in the buffer in one transaction. This is safe to call when the buffer is
+     * empty.
+     */
+    public void flush() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        if (mCount == 0) {
+            return;
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        mRealm.executeTransaction(mCommitTransaction);
+        long end = SystemClock.elapsedRealtimeNanos();
+
+        if (mFirstCommitTime < 0) {
+            mFirstCommitTime = end;
+        }
+        mCommitCount++;
+        mCommittedSamples += mCount;
+        mTotalCommitNanos += end - start;
+        mCommitTime.record((end - start) / 1000);
+        mCommits.increment();
+        mCount = 0;
+    }
+
+    /**
+     * Flushes the buffer and logs the commit statistics. The writer shouldn't be used afterwards.
+     */
+    public void close() {
+        flush();
+        Log.d(TAG, String.format("%d samples in %d commits, %.2f commits/s, %.2f ms per commit",
+                mCommittedSamples, mCommitCount, getCommitsPerSecond(),
+                getAverageCommitLatencyMillis()));
+    }
+
+    /**
+     * @return the running statistics of every sample added so far, including uncommitted ones
+     */
+    public DriveAggregator getAggregator() {
+        return mAggregator;
+    }
+
+    /**
+     * @return the fuel economy of the session, which is saved with every commit; the caller keeps
+     *     it up to date
+     */
+    public FuelEconomy getFuelEconomy() {
+        return mFuelEconomy;
+    }
+
+    /**
+     * @return the number of samples waiting to be committed
+     */
+    public int getPendingCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the number of transactions committed so far
+     */
+    public long getCommitCount() {
+        return mCommitCount;
+    }
+
+    /**
+     * @return the average number of commits per second since the first commit
+     */
+    public double getCommitsPerSecond() {
+        if (mCommitCount < 2) {
+            return 0;
+        }
+        double seconds = (SystemClock.elapsedRealtimeNanos() - mFirstCommitTime) / 1e9;
+        return seconds > 0 ? (mCommitCount - 1) / seconds : 0;
+    }
+
+    /**
+     * @return how long a commit takes on average, in milliseconds
+     */
+    public double getAverageCommitLatencyMillis() {
+        return mCommitCount == 0 ? 0 : mTotalCommitNanos / 1e6 / mCommitCount;
+    }
+
+    private final Realm.Transaction mCommitTransaction = new Realm.Transaction() {
+        @Override
+        public void execute(Realm realm) {
+            String sessionId = mSession.getId();
+            for (int i = 0; i < mCount && mWriteDataPoints; i++) {
+                DataPoint dataPoint = realm.createObject(DataPoint.class);
+                dataPoint.setSession(mSession);
+                dataPoint.setSessionId(sessionId);
+                mDate.setTime(mDates[i]);
+                dataPoint.setDate(mDate);
+                dataPoint.setRpm(mRpms[i]);
+                dataPoint.setSpeed(mSpeeds[i]);
+                dataPoint.setThrottle(mThrottles[i]);
+                dataPoint.setMpg(mMpgs[i]);
+            }
+            mSeriesWriter.writeOpenChunks();
+            mDate.setTime(mDates[mCount - 1]);
+            mSession.setEndTime(mDate);
+            SummaryStore.save(realm, mSession, mAggregator, mFuelEconomy);
+        }
+    };
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+}
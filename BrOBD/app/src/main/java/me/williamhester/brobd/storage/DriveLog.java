@@ -0,0 +1,231 @@
+package me.williamhester.brobd.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, memory-mapped log of every sample of one DriveSession, written as the samples
+ * are taken. Samples only reach the Realm in batches, so without this, everything that was
+ * buffered when the process died would be lost. Appending a sample is a copy into mapped memory
+ * and a CRC update; nothing is ever flushed per sample. Pages written to a mapping belong to the
+ * kernel, so they survive the process being killed.
+ *
+ * The file starts with a header of {@link #HEADER_SIZE} bytes: a magic number, the version, the
+ * session's start time, the PID code of each column and the driver's name. After that come blocks
+ * of up to {@link #RECORDS_PER_BLOCK} fixed-size records, each a timestamp followed by one float
+ * per column. Every block starts with the number of records in it and the CRC32 of those records,
+ * packed into one long that is written after each record, so a reader either sees a record whole
+ * or not at all. The file grows by mapping {@link #REGION_BLOCKS} blocks at a time, and the
+ * unwritten part of a region reads as zeros, which is where a reader stops. The blocks are in the
+ * device's native byte order, so that the packed count and CRC is a single aligned store; a log is
+ * only ever read back on the device that wrote it.
+ *
+ * A log must only be appended to from one thread. Read it back with a {@link DriveLogReader}.
+ *
+ * @author William Hester
+ */
+public class DriveLog {
+
+    static final int MAGIC = 0x4252444C; // "BRDL"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 512;
+    static final int RECORDS_PER_BLOCK = 64;
+    static final int BLOCK_HEADER_SIZE = 8;
+    static final int REGION_BLOCKS = 64;
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String EXTENSION = ".log";
+    private static final int MAX_NAME_LENGTH = 256;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mColumnCount;
+    private final int mRecordSize;
+    private final int mBlockSize;
+    private final byte[] mRecord;
+    private final ByteBuffer mRecordBuffer;
+    private final CRC32 mCrc = new CRC32();
+
+    private MappedByteBuffer mRegion;
+    private long mRegionStart;
+    private int mBlockOffset;
+    private int mCount;
+    private long mRecordCount;
+    private volatile boolean mClosed;
+
+    /**
+     * Creates a new log, replacing any file that is already there.
+     *
+     * @param file the file to write to
+     * @param startTime the start time of the session, in milliseconds since the epoch
+     * @param driverName the name of the session's driver
+     * @param pidCodes the PID code of each column of the samples
+     * @throws IOException if the file can't be created
+     */
+    public DriveLog(File file, long startTime, String driverName, int[] pidCodes)
+            throws IOException {
+        mColumnCount = pidCodes.length;
+        mRecordSize = getRecordSize(mColumnCount);
+        mBlockSize = BLOCK_HEADER_SIZE + RECORDS_PER_BLOCK * mRecordSize;
+        mRecord = new byte[mRecordSize];
+        mRecordBuffer = ByteBuffer.wrap(mRecord).order(ByteOrder.nativeOrder());
+
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.setLength(0);
+        mChannel = mFile.getChannel();
+        mChannel.write(createHeader(startTime, driverName, pidCodes), 0);
+        mapRegion(HEADER_SIZE);
+    }
+
+    /**
+     * @param directory the directory that logs are kept in
+     * @param sessionId the id of the session
+     * @return the file of the session's log
+     */
+    public static File getFile(File directory, String sessionId) {
+        return new File(directory, sessionId + EXTENSION);
+    }
+
+    /**
+     * @param directory the directory that logs are kept in
+     * @return every log in the directory
+     */
+    public static File[] listFiles(File directory) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        int count = 0;
+        for (File file : files) {
+            if (file.getName().endsWith(EXTENSION)) {
+                files[count++] = file;
+            }
+        }
+        File[] logs = new File[count];
+        System.arraycopy(files, 0, logs, 0, count);
+        return logs;
+    }
+
+    /**
+     * @param file the file of a log
+     * @return the id of the session that the log belongs to
+     */
+    public static String getSessionId(File file) {
+        String name = file.getName();
+        return name.substring(0, name.length() - EXTENSION.length());
+    }
+
+    /**
+     * Appends one sample. This doesn't allocate unless the log has to grow.
+     *
+     * @param timestamp the time of the sample, in milliseconds since the epoch
+     * @param values the values of the sample, one per column; unsampled values are NaN
+     * @return false if the log is closed or can't grow any more
+     */
+    public boolean append(long timestamp, float[] values) {
+        if (mClosed) {
+            return false;
+        }
+        if (mCount == RECORDS_PER_BLOCK && !nextBlock()) {
+            return false;
+        }
+        mRecordBuffer.clear();
+        mRecordBuffer.putLong(timestamp);
+        for (int i = 0; i < mColumnCount; i++) {
+            mRecordBuffer.putFloat(values[i]);
+        }
+        mCrc.update(mRecord, 0, mRecordSize);
+
+        mRegion.position(mBlockOffset + BLOCK_HEADER_SIZE + mCount * mRecordSize);
+        mRegion.put(mRecord);
+        mCount++;
+        // The record only counts once this is written
+        mRegion.putLong(mBlockOffset, ((long) mCount << 32) | (mCrc.getValue() & 0xFFFFFFFFL));
+        mRecordCount++;
+        return true;
+    }
+
+    /**
+     * @return the number of samples appended so far
+     */
+    public long getRecordCount() {
+        return mRecordCount;
+    }
+
+    /**
+     * Forces everything appended so far out to the storage device, which is only needed to
+     * survive the device losing power.
+     */
+    public void sync() {
+        if (!mClosed) {
+            mRegion.force();
+        }
+    }
+
+    /**
+     * Syncs and closes the log. Anything appended afterwards is ignored.
+     */
+    public void close() {
+        if (mClosed) {
+            return;
+        }
+        sync();
+        mClosed = true;
+        try {
+            mFile.close();
+        } catch (IOException e) {
+            // The mapping has already been synced
+        }
+    }
+
+    static int getRecordSize(int columnCount) {
+        return 8 + 4 * columnCount;
+    }
+
+    private boolean nextBlock() {
+        mBlockOffset += mBlockSize;
+        mCount = 0;
+        mCrc.reset();
+        if (mBlockOffset + mBlockSize > mRegion.capacity()) {
+            try {
+                mapRegion(mRegionStart + mRegion.capacity());
+            } catch (IOException e) {
+                mClosed = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void mapRegion(long start) throws IOException {
+        mRegion = mChannel.map(FileChannel.MapMode.READ_WRITE, start,
+                (long) REGION_BLOCKS * mBlockSize);
+        mRegion.order(ByteOrder.nativeOrder());
+        mRegionStart = start;
+        mBlockOffset = 0;
+    }
+
+    private static ByteBuffer createHeader(long startTime, String driverName, int[] pidCodes) {
+        byte[] name = driverName != null ? driverName.getBytes(UTF_8) : new byte[0];
+        int nameLength = Math.min(name.length, MAX_NAME_LENGTH);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putLong(startTime);
+        header.putShort((short) pidCodes.length);
+        for (int code : pidCodes) {
+            header.putShort((short) code);
+        }
+        header.putShort((short) nameLength);
+        header.put(name, 0, nameLength);
+        header.clear();
+        return header;
+    }
+}
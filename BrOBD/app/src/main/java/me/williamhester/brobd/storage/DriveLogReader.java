@@ -0,0 +1,164 @@
+package me.williamhester.brobd.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Reads back the samples of a {@link DriveLog}, oldest first. Reading stops at the first block
+ * that is empty or whose CRC doesn't match, since nothing after it can be trusted.
+ *
+ * @author William Hester
+ */
+public class DriveLogReader {
+
+    private final ByteBuffer mData;
+    private final long mStartTime;
+    private final String mDriverName;
+    private final int[] mPidCodes;
+    private final int mRecordSize;
+    private final int mBlockSize;
+    private final float[] mValues;
+    private final byte[] mBlock;
+    private final CRC32 mCrc = new CRC32();
+
+    private int mBlockOffset;
+    private int mBlockCount;
+    private int mIndex;
+    private long mTimestamp;
+    private boolean mDone;
+    private boolean mCorrupt;
+
+    /**
+     * @param file the log to read
+     * @throws IOException if the file can't be read or isn't a log
+     */
+    public DriveLogReader(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            mData = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        if (mData.capacity() < DriveLog.HEADER_SIZE || mData.getInt() != DriveLog.MAGIC
+                || mData.getShort() != DriveLog.VERSION) {
+            throw new IOException("Not a drive log: " + file);
+        }
+        mStartTime = mData.getLong();
+        mPidCodes = new int[mData.getShort()];
+        for (int i = 0; i < mPidCodes.length; i++) {
+            mPidCodes[i] = mData.getShort();
+        }
+        byte[] name = new byte[mData.getShort()];
+        mData.get(name);
+        mDriverName = new String(name, DriveLog.UTF_8);
+
+        mRecordSize = DriveLog.getRecordSize(mPidCodes.length);
+        mBlockSize = DriveLog.BLOCK_HEADER_SIZE + DriveLog.RECORDS_PER_BLOCK * mRecordSize;
+        mValues = new float[mPidCodes.length];
+        mBlock = new byte[DriveLog.RECORDS_PER_BLOCK * mRecordSize];
+        mData.order(ByteOrder.nativeOrder());
+        mBlockOffset = DriveLog.HEADER_SIZE - mBlockSize;
+    }
+
+    /**
+     * @return the start time of the session, in milliseconds since the epoch
+     */
+    public long getStartTime() {
+        return mStartTime;
+    }
+
+    public String getDriverName() {
+        return mDriverName;
+    }
+
+    public int getColumnCount() {
+        return mPidCodes.length;
+    }
+
+    /**
+     * @param column the index of a column
+     * @return the code of the PID whose values are in the column
+     */
+    public int getPidCode(int column) {
+        return mPidCodes[column];
+    }
+
+    /**
+     * Moves to the next sample.
+     *
+     * @return false once there are no more samples
+     */
+    public boolean next() {
+        if (mDone) {
+            return false;
+        }
+        if (mIndex == mBlockCount && !nextBlock()) {
+            mDone = true;
+            return false;
+        }
+        int position = mBlockOffset + DriveLog.BLOCK_HEADER_SIZE + mIndex * mRecordSize;
+        mTimestamp = mData.getLong(position);
+        for (int i = 0; i < mValues.length; i++) {
+            mValues[i] = mData.getFloat(position + 8 + 4 * i);
+        }
+        mIndex++;
+        return true;
+    }
+
+    /**
+     * @return the time of the current sample, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @param column the index of a column
+     * @return the value of the column in the current sample, or NaN if it wasn't sampled
+     */
+    public float getValue(int column) {
+        return mValues[column];
+    }
+
+    /**
+     * @return whether reading stopped at a block that was damaged, rather than at the end
+     */
+    public boolean isCorrupt() {
+        return mCorrupt;
+    }
+
+    private boolean nextBlock() {
+        if (mBlockCount != 0 && mBlockCount < DriveLog.RECORDS_PER_BLOCK) {
+            // A block is only left behind once it is full
+            return false;
+        }
+        mBlockOffset += mBlockSize;
+        if (mBlockOffset + mBlockSize > mData.capacity()) {
+            return false;
+        }
+        long header = mData.getLong(mBlockOffset);
+        int count = (int) (header >>> 32);
+        if (count <= 0 || count > DriveLog.RECORDS_PER_BLOCK) {
+            mCorrupt = count != 0;
+            return false;
+        }
+
+        mCrc.reset();
+        mData.position(mBlockOffset + DriveLog.BLOCK_HEADER_SIZE);
+        mData.get(mBlock, 0, count * mRecordSize);
+        mCrc.update(mBlock, 0, count * mRecordSize);
+        if ((int) mCrc.getValue() != (int) header) {
+            mCorrupt = true;
+            return false;
+        }
+        mBlockCount = count;
+        mIndex = 0;
+        return true;
+    }
+}
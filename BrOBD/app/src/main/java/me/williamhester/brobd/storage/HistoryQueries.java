@@ -0,0 +1,442 @@
+package me.williamhester.brobd.storage;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.Driver;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.singletons.RealmManager;
+import me.williamhester.brobd.stats.DriveAggregator;
+import me.williamhester.brobd.stats.FuelEconomy;
+import me.williamhester.brobd.stats.Resolution;
+import me.williamhester.brobd.stats.RollupBucket;
+import me.williamhester.brobd.stats.StreamingDownsampler;
+
+/**
+ * Runs the Realm reads behind the history screens on a thread of its own, so that the main thread
+ * never waits on a query no matter how much has been logged. Every query copies what it found out
+ * of the Realm and hands it to a {@link Callback} on the main thread. Queries run one at a time,
+ * in the order they were made.
+ *
+ * Large results are never handed over whole: only a session's newest points are read back from
+ * its series, series are downsampled to the number of points that the chart has room for as they
+ * are decoded, and spans longer than a drive are read from the {@link RollupStore} at a resolution
+ * to match.
+ *
+ * @author William Hester
+ */
+public class HistoryQueries {
+
+    private static final String TAG = "HistoryQueries";
+
+    private static HistoryQueries mInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the query thread
+    private Realm mRealm;
+
+    public static synchronized HistoryQueries getInstance(Context context) {
+        if (mInstance == null) {
+            mInstance = new HistoryQueries(context);
+        }
+        return mInstance;
+    }
+
+    private HistoryQueries(Context context) {
+        mContext = context.getApplicationContext();
+        HandlerThread thread = new HandlerThread("HistoryQueries");
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Called on the main thread with the result of a query.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    /**
+     * Finds the most recent session, its statistics, and its newest points.
+     *
+     * @param pointCount the most points to read
+     * @param callback called with the session, or with null if nothing has been logged yet
+     */
+    public void loadLatestSession(final int pointCount,
+                                  final Callback<SessionSnapshot> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Realm realm = getRealm();
+                SessionSnapshot snapshot = null;
+                Date date = realm.where(DriveSession.class).maximumDate("startTime");
+                if (date != null) {
+                    DriveSession session = realm.where(DriveSession.class)
+                            .equalTo("startTime", date)
+                            .findFirst();
+                    snapshot = new SessionSnapshot(session.getId(), SummaryStore.load(session),
+                            SummaryStore.loadFuelEconomy(session),
+                            readRecent(realm, session.getId(), pointCount));
+                }
+                deliver(callback, snapshot);
+            }
+        });
+    }
+
+    /**
+     * @param driverName the name of the driver
+     * @param callback called with the driver's sessions, newest first
+     */
+    public void loadSessions(final String driverName,
+                             final Callback<List<SessionSpan>> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                RealmResults<DriveSession> sessions = getRealm().where(DriveSession.class)
+                        .equalTo("driver.name", driverName)
+                        .findAllSorted("startTime", false);
+                List<SessionSpan> spans = new ArrayList<>(sessions.size());
+                for (DriveSession session : sessions) {
+                    spans.add(new SessionSpan(session.getId(), session.getStartTime().getTime(),
+                            session.getEndTime().getTime()));
+                }
+                deliver(callback, spans);
+            }
+        });
+    }
+
+    /**
+     * Reads the samples of one PID within a time range, keeping no more points than can be drawn.
+     * The samples are downsampled one chunk at a time as they are decoded, so however long the
+     * range, only about two of the chart's pixels worth of samples are held at once.
+     *
+     * @param sessionId the id of the session
+     * @param pid the PID to read
+     * @param from the earliest time to include, in milliseconds since the epoch
+     * @param to the latest time to include, in milliseconds since the epoch
+     * @param maxPoints the most points to return, at least 3; usually the chart's width in pixels
+     * @param callback called with the series
+     */
+    public void loadSeries(final String sessionId, final Pid pid, final long from, final long to,
+                           final int maxPoints, final Callback<HistorySeries> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                SeriesCursor cursor = new SeriesCursor(getRealm(), sessionId, pid, from, to);
+                long[] timestamps = new long[maxPoints];
+                float[] values = new float[maxPoints];
+                StreamingDownsampler downsampler = new StreamingDownsampler(
+                        cursor.getStartTime(), cursor.getEndTime(), maxPoints, timestamps, values);
+                while (cursor.next()) {
+                    downsampler.add(cursor.getTimestamp(), cursor.getValue());
+                }
+                int count = downsampler.finish();
+                deliver(callback, new HistorySeries(timestamps, values, count,
+                        downsampler.getSourceCount()));
+            }
+        });
+    }
+
+    /**
+     * @param callback called with the names of all of the drivers
+     */
+    public void loadDriverNames(final Callback<List<String>> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliver(callback, readDriverNames(getRealm()));
+            }
+        });
+    }
+
+    /**
+     * @param name the name of the new driver
+     * @param callback called with the names of all of the drivers, including the new one
+     */
+    public void createDriver(final String name, final Callback<List<String>> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Realm realm = getRealm();
+                realm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(Realm realm) {
+                        Driver driver = realm.createObject(Driver.class);
+                        driver.setName(name);
+                    }
+                });
+                deliver(callback, readDriverNames(realm));
+            }
+        });
+    }
+
+    /**
+     * Reads the rollups of a session over a span of time, at the coarsest resolution that still
+     * splits the span into the given number of buckets.
+     *
+     * @param sessionId the id of the session
+     * @param from the earliest time to include, in milliseconds since the epoch
+     * @param to the latest time to include, in milliseconds since the epoch
+     * @param minBuckets the fewest buckets that the span should be shown as
+     * @param callback called with the buckets, oldest first
+     */
+    public void loadSessionRollups(String sessionId, long from, long to, int minBuckets,
+                                   Callback<List<RollupBucket>> callback) {
+        loadRollups(RollupStore.sessionScope(sessionId), from, to, minBuckets, callback);
+    }
+
+    /**
+     * Reads the rollups of all of a driver's sessions over a span of time, at the coarsest
+     * resolution that still splits the span into the given number of buckets.
+     *
+     * @param driverName the name of the driver
+     * @param from the earliest time to include, in milliseconds since the epoch
+     * @param to the latest time to include, in milliseconds since the epoch
+     * @param minBuckets the fewest buckets that the span should be shown as
+     * @param callback called with the buckets, oldest first
+     */
+    public void loadDriverRollups(String driverName, long from, long to, int minBuckets,
+                                  Callback<List<RollupBucket>> callback) {
+        loadRollups(RollupStore.driverScope(driverName), from, to, minBuckets, callback);
+    }
+
+    /**
+     * Rolls up every session that has ended but hasn't been rolled up yet, which are the ones that
+     * were logging when the app was killed.
+     *
+     * @param liveSessionId the id of the session that is being logged, or null
+     */
+    public void rollUpPending(final String liveSessionId) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                int count = RollupStore.rollUpPending(getRealm(), liveSessionId);
+                if (count > 0) {
+                    Log.d(TAG, "Rolled up " + count + " sessions");
+                }
+            }
+        });
+    }
+
+    private void loadRollups(final String scope, final long from, final long to,
+                             final int minBuckets, final Callback<List<RollupBucket>> callback) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Resolution resolution = Resolution.forSpan(to - from, minBuckets);
+                deliver(callback, RollupStore.load(getRealm(), scope, resolution, from, to));
+            }
+        });
+    }
+
+    private Realm getRealm() {
+        if (mRealm == null) {
+            RealmManager.migrate(mContext);
+            mRealm = Realm.getInstance(mContext);
+        } else {
+            // Pick up whatever the logging service has committed since the last query
+            mRealm.refresh();
+        }
+        return mRealm;
+    }
+
+    private static RecentPoints readRecent(Realm realm, String sessionId, int count) {
+        // Go back far enough that each PID's series has as many samples as there are points, so
+        //     that the newest points are all there, and carry over values from before them
+        long from = Long.MAX_VALUE;
+        for (Pid pid : LatestValues.PIDS) {
+            RealmResults<SampleChunk> chunks = realm.where(SampleChunk.class)
+                    .equalTo("sessionId", sessionId)
+                    .equalTo("pid", pid.getCode())
+                    .findAllSorted("startTime", false);
+            int samples = 0;
+            for (int i = 0; i < chunks.size() && samples < count; i++) {
+                samples += chunks.get(i).getCount();
+                from = Math.min(from, chunks.get(i).getStartTime());
+            }
+        }
+        RecentPoints recent = new RecentPoints(count);
+        SampleMerger samples = SeriesCursor.openSamples(realm, sessionId, LatestValues.PIDS, from,
+                Long.MAX_VALUE);
+        LatestValues latest = new LatestValues();
+        while (samples.next()) {
+            if (latest.update(samples.getSample())) {
+                recent.add(samples.getTimestamp(), latest.getSpeed(), latest.getRpm(),
+                        latest.getThrottle());
+            }
+        }
+        return recent;
+    }
+
+    private static List<String> readDriverNames(Realm realm) {
+        RealmResults<Driver> drivers = realm.allObjects(Driver.class);
+        List<String> names = new ArrayList<>(drivers.size());
+        for (Driver driver : drivers) {
+            names.add(driver.getName());
+        }
+        return names;
+    }
+
+    private <T> void deliver(final Callback<T> callback, final T result) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                callback.onResult(result);
+            }
+        });
+    }
+
+    /**
+     * The most recent session, as it was when it was read.
+     */
+    public static class SessionSnapshot {
+
+        private final String mSessionId;
+        private final DriveAggregator mAggregator;
+        private final FuelEconomy mFuelEconomy;
+        private final RecentPoints mRecent;
+
+        public SessionSnapshot(String sessionId, DriveAggregator aggregator,
+                               FuelEconomy fuelEconomy, RecentPoints recent) {
+            mSessionId = sessionId;
+            mAggregator = aggregator;
+            mFuelEconomy = fuelEconomy;
+            mRecent = recent;
+        }
+
+        public String getSessionId() {
+            return mSessionId;
+        }
+
+        /**
+         * @return the session's statistics, as of its last saved summary
+         */
+        public DriveAggregator getAggregator() {
+            return mAggregator;
+        }
+
+        /**
+         * @return the session's fuel economy, as of its last saved summary
+         */
+        public FuelEconomy getFuelEconomy() {
+            return mFuelEconomy;
+        }
+
+        /**
+         * @return the session's newest points
+         */
+        public RecentPoints getRecent() {
+            return mRecent;
+        }
+    }
+
+    /**
+     * When a session started and ended.
+     */
+    public static class SessionSpan {
+
+        private final String mSessionId;
+        private final long mStartTime;
+        private final long mEndTime;
+
+        public SessionSpan(String sessionId, long startTime, long endTime) {
+            mSessionId = sessionId;
+            mStartTime = startTime;
+            mEndTime = endTime;
+        }
+
+        public String getSessionId() {
+            return mSessionId;
+        }
+
+        /**
+         * @return the start of the session, in milliseconds since the epoch
+         */
+        public long getStartTime() {
+            return mStartTime;
+        }
+
+        /**
+         * @return the time of the session's last saved point, in milliseconds since the epoch
+         */
+        public long getEndTime() {
+            return mEndTime;
+        }
+    }
+
+    /**
+     * The newest points of a session, oldest first, in the same units as a DataPoint.
+     */
+    public static class RecentPoints {
+
+        private final long[] mDates;
+        private final int[] mSpeeds;
+        private final int[] mRpms;
+        private final float[] mThrottles;
+        // The points are kept in a ring, so that only the newest are left once it is full
+        private int mStart;
+        private int mCount;
+
+        RecentPoints(int capacity) {
+            mDates = new long[capacity];
+            mSpeeds = new int[capacity];
+            mRpms = new int[capacity];
+            mThrottles = new float[capacity];
+        }
+
+        void add(long date, int speed, int rpm, float throttle) {
+            int i = (mStart + mCount) % mDates.length;
+            mDates[i] = date;
+            mSpeeds[i] = speed;
+            mRpms[i] = rpm;
+            mThrottles[i] = throttle;
+            if (mCount < mDates.length) {
+                mCount++;
+            } else {
+                mStart = (mStart + 1) % mDates.length;
+            }
+        }
+
+        public int getCount() {
+            return mCount;
+        }
+
+        /**
+         * @param i the index of the point
+         * @return the time of the point, in milliseconds since the epoch
+         */
+        public long getDate(int i) {
+            return mDates[index(i)];
+        }
+
+        public int getSpeed(int i) {
+            return mSpeeds[index(i)];
+        }
+
+        public int getRpm(int i) {
+            return mRpms[index(i)];
+        }
+
+        public float getThrottle(int i) {
+            return mThrottles[index(i)];
+        }
+
+        private int index(int i) {
+            return (mStart + i) % mDates.length;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package me.williamhester.brobd.storage;
+
+/**
+ * The samples of one PID over a range of time, oldest first, detached from the Realm so that it
+ * can be handed to any thread. Usually downsampled to the points that a chart has room for.
+ *
+ * @author William Hester
+ */
+public class HistorySeries {
+
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final int mCount;
+    private final int mSourceCount;
+
+    /**
+     * @param timestamps the times of the points, in milliseconds since the epoch
+     * @param values the values of the points
+     * @param count the number of points in timestamps and values
+     * @param sourceCount the number of samples that were read to make the points
+     */
+    public HistorySeries(long[] timestamps, float[] values, int count, int sourceCount) {
+        mTimestamps = timestamps;
+        mValues = values;
+        mCount = count;
+        mSourceCount = sourceCount;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    /**
+     * @return the number of samples that were read to make this series, which is more than
+     *     {@link #getCount()} if it has been downsampled
+     */
+    public int getSourceCount() {
+        return mSourceCount;
+    }
+
+    /**
+     * @param i the index of the sample
+     * @return the time of the sample, in milliseconds since the epoch
+     */
+    public long getTimestamp(int i) {
+        return mTimestamps[i];
+    }
+
+    public float getValue(int i) {
+        return mValues[i];
+    }
+}
@@ -0,0 +1,61 @@
+package me.williamhester.brobd.storage;
+
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * The latest known RPM, speed and throttle of a session, in the same units as a DataPoint. A
+ * sample only holds the PIDs that were polled at the time, so whatever it doesn't hold is carried
+ * over from earlier samples. Every sample that holds any of the three is a point of the session's
+ * statistics, whether it is live, replayed from a {@link DriveLog} or read back from the series.
+ *
+ * @author William Hester
+ */
+class LatestValues {
+
+    // The PIDs that points are made of
+    static final Pid[] PIDS = {Pid.RPM, Pid.SPEED, Pid.THROTTLE};
+
+    private static final float KPH_TO_MPH = 0.621371192f;
+
+    private int mRpm;
+    private int mSpeed;
+    private float mThrottle;
+
+    /**
+     * @param sample the values of a sample, indexed by {@link Pid#ordinal()}
+     * @return whether the sample had any of the values, which makes it a point
+     */
+    boolean update(float[] sample) {
+        float rpm = sample[Pid.RPM.ordinal()];
+        float speed = sample[Pid.SPEED.ordinal()];
+        float throttle = sample[Pid.THROTTLE.ordinal()];
+        if (Float.isNaN(rpm) && Float.isNaN(speed) && Float.isNaN(throttle)) {
+            return false;
+        }
+        if (!Float.isNaN(rpm)) {
+            mRpm = Math.round(rpm);
+        }
+        if (!Float.isNaN(speed)) {
+            mSpeed = Math.round(speed * KPH_TO_MPH);
+        }
+        if (!Float.isNaN(throttle)) {
+            mThrottle = throttle;
+        }
+        return true;
+    }
+
+    int getRpm() {
+        return mRpm;
+    }
+
+    /**
+     * @return the latest speed, in MPH
+     */
+    int getSpeed() {
+        return mSpeed;
+    }
+
+    float getThrottle() {
+        return mThrottle;
+    }
+}
@@ -0,0 +1,197 @@
+package me.williamhester.brobd.storage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import me.williamhester.brobd.models.DataPoint;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.Rollup;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.stats.Resolution;
+import me.williamhester.brobd.stats.RollupBucket;
+import me.williamhester.brobd.stats.RollupBuilder;
+
+/**
+ * Keeps the {@link Rollup}s of each session and each driver, and reads them back as
+ * {@link RollupBucket}s. A session is rolled up once, after it has ended, by reading its series a
+ * single time, or its DataPoints if it was logged before there were series; its buckets are then
+ * merged into its driver's. Minimums and maximums can't be taken back out of a merged bucket, so a
+ * session is never rolled up twice.
+ *
+ * @author William Hester
+ */
+public class RollupStore {
+
+    private static final String SESSION_SCOPE = "session:";
+    private static final String DRIVER_SCOPE = "driver:";
+
+    private RollupStore() { }
+
+    /**
+     * @param sessionId the id of a session
+     * @return the scope of the session's rollups
+     */
+    public static String sessionScope(String sessionId) {
+        return SESSION_SCOPE + sessionId;
+    }
+
+    /**
+     * @param driverName the name of a driver
+     * @return the scope of the rollups of all of the driver's sessions
+     */
+    public static String driverScope(String driverName) {
+        return DRIVER_SCOPE + driverName;
+    }
+
+    /**
+     * Rolls up a session that has ended, unless it already has been. Must be called inside a
+     * write transaction.
+     *
+     * @param realm the Realm that the session belongs to
+     * @param session the session to roll up
+     * @return whether the session was rolled up
+     */
+    public static boolean rollUp(Realm realm, DriveSession session) {
+        if (session.isRolledUp()) {
+            return false;
+        }
+        RollupBuilder builder = new RollupBuilder();
+        String sessionId = session.getId();
+        if (realm.where(SampleChunk.class).equalTo("sessionId", sessionId).findFirst() != null) {
+            SampleMerger samples = SeriesCursor.openSamples(realm, sessionId, LatestValues.PIDS, 0,
+                    Long.MAX_VALUE);
+            LatestValues latest = new LatestValues();
+            while (samples.next()) {
+                if (latest.update(samples.getSample())) {
+                    builder.add(samples.getTimestamp(), latest.getSpeed(), latest.getRpm(),
+                            latest.getThrottle());
+                }
+            }
+        } else {
+            // The session was logged before there were series
+            RealmResults<DataPoint> points = realm.where(DataPoint.class)
+                    .equalTo("sessionId", sessionId)
+                    .findAllSorted("date");
+            for (DataPoint p : points) {
+                builder.add(p.getDate().getTime(), p.getSpeed(), p.getRpm(), p.getThrottle());
+            }
+        }
+
+        String sessionScope = sessionScope(sessionId);
+        String driverScope = session.getDriver() != null
+                ? driverScope(session.getDriver().getName()) : null;
+        for (Resolution resolution : Resolution.values()) {
+            for (RollupBucket bucket : builder.getBuckets(resolution)) {
+                save(realm.createObject(Rollup.class), sessionScope, bucket);
+                if (driverScope == null) {
+                    continue;
+                }
+                Rollup existing = realm.where(Rollup.class)
+                        .equalTo("scope", driverScope)
+                        .equalTo("resolution", resolution.getMillis())
+                        .equalTo("start", bucket.getStart())
+                        .findFirst();
+                if (existing == null) {
+                    save(realm.createObject(Rollup.class), driverScope, bucket);
+                } else {
+                    // Another of the driver's sessions was in the same bucket
+                    RollupBucket merged = load(existing, resolution);
+                    merged.merge(bucket);
+                    save(existing, driverScope, merged);
+                }
+            }
+        }
+        session.setRolledUp(true);
+        return true;
+    }
+
+    /**
+     * Rolls up every session that hasn't been yet, each in its own transaction.
+     *
+     * @param realm the Realm to roll up
+     * @param liveSessionId the id of the session that is still being logged, which is skipped, or
+     *     null
+     * @return the number of sessions that were rolled up
+     */
+    public static int rollUpPending(Realm realm, String liveSessionId) {
+        RealmResults<DriveSession> pending = realm.where(DriveSession.class)
+                .equalTo("rolledUp", false)
+                .findAll();
+        List<String> ids = new ArrayList<>(pending.size());
+        for (DriveSession session : pending) {
+            if (!session.getId().equals(liveSessionId)) {
+                ids.add(session.getId());
+            }
+        }
+        int count = 0;
+        for (String id : ids) {
+            if (rollUpById(realm, id)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean rollUpById(Realm realm, String sessionId) {
+        realm.beginTransaction();
+        DriveSession session = realm.where(DriveSession.class)
+                .equalTo("id", sessionId)
+                .findFirst();
+        boolean rolledUp = session != null && rollUp(realm, session);
+        realm.commitTransaction();
+        return rolledUp;
+    }
+
+    /**
+     * @param realm the Realm to read from
+     * @param scope the scope to read, from {@link #sessionScope} or {@link #driverScope}
+     * @param resolution the size of the buckets to read
+     * @param from the earliest time to include, in milliseconds since the epoch
+     * @param to the latest time to include, in milliseconds since the epoch
+     * @return the buckets within the range, oldest first
+     */
+    public static List<RollupBucket> load(Realm realm, String scope, Resolution resolution,
+                                          long from, long to) {
+        RealmResults<Rollup> rollups = realm.where(Rollup.class)
+                .equalTo("scope", scope)
+                .equalTo("resolution", resolution.getMillis())
+                .between("start", resolution.getBucketStart(from), to)
+                .findAllSorted("start");
+        List<RollupBucket> buckets = new ArrayList<>(rollups.size());
+        for (Rollup rollup : rollups) {
+            buckets.add(load(rollup, resolution));
+        }
+        return buckets;
+    }
+
+    private static void save(Rollup rollup, String scope, RollupBucket bucket) {
+        rollup.setScope(scope);
+        rollup.setResolution(bucket.getResolution().getMillis());
+        rollup.setStart(bucket.getStart());
+        rollup.setCount(bucket.getCount());
+        rollup.setSpeedSum(bucket.getSpeed().getSum());
+        rollup.setSpeedMin(bucket.getSpeed().getMin());
+        rollup.setSpeedMax(bucket.getSpeed().getMax());
+        rollup.setRpmSum(bucket.getRpm().getSum());
+        rollup.setRpmMin(bucket.getRpm().getMin());
+        rollup.setRpmMax(bucket.getRpm().getMax());
+        rollup.setThrottleSum(bucket.getThrottle().getSum());
+        rollup.setThrottleMin(bucket.getThrottle().getMin());
+        rollup.setThrottleMax(bucket.getThrottle().getMax());
+        rollup.setDistance(bucket.getDistance());
+    }
+
+    private static RollupBucket load(Rollup rollup, Resolution resolution) {
+        RollupBucket bucket = new RollupBucket(resolution, rollup.getStart());
+        long count = rollup.getCount();
+        bucket.getSpeed().set(count, rollup.getSpeedSum(), rollup.getSpeedMin(),
+                rollup.getSpeedMax(), 0);
+        bucket.getRpm().set(count, rollup.getRpmSum(), rollup.getRpmMin(), rollup.getRpmMax(), 0);
+        bucket.getThrottle().set(count, rollup.getThrottleSum(), rollup.getThrottleMin(),
+                rollup.getThrottleMax(), 0);
+        bucket.setDistance(rollup.getDistance());
+        return bucket;
+    }
+}
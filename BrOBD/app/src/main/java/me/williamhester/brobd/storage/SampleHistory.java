@@ -0,0 +1,106 @@
+package me.williamhester.brobd.storage;
+
+/**
+ * Keeps the most recent samples in memory, as they were taken, so that what led up to an event
+ * can be saved after the fact. A sample is a timestamp plus a fixed number of float values, with
+ * {@link Float#NaN} for the values that weren't sampled. Once the history is full, each new
+ * sample overwrites the oldest. Adding a sample only copies it into preallocated arrays.
+ *
+ * Unlike a {@link SampleRingBuffer}, nothing is ever taken out; the history must only be used from
+ * one thread.
+ *
+ * @author William Hester
+ */
+public class SampleHistory {
+
+    private final int mCapacity;
+    private final int mWidth;
+    private final long mWindow;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    // The index that the next sample goes in, and the number of samples held
+    private int mNext;
+    private int mSize;
+
+    /**
+     * @param capacity the most samples that are held; enough to cover the window at the highest
+     *     sample rate
+     * @param width the number of values in each sample
+     * @param window how far back {@link #snapshot()} goes, in milliseconds
+     */
+    public SampleHistory(int capacity, int width, long window) {
+        mCapacity = capacity;
+        mWidth = width;
+        mWindow = window;
+        mTimestamps = new long[capacity];
+        mValues = new float[capacity * width];
+    }
+
+    /**
+     * Adds a sample, overwriting the oldest if the history is full.
+     *
+     * @param timestamp the time of the sample, in milliseconds since the epoch
+     * @param values the values of the sample; they are copied
+     */
+    public void add(long timestamp, float[] values) {
+        mTimestamps[mNext] = timestamp;
+        System.arraycopy(values, 0, mValues, mNext * mWidth, mWidth);
+        mNext = (mNext + 1) % mCapacity;
+        mSize = Math.min(mSize + 1, mCapacity);
+    }
+
+    /**
+     * @return a copy of the samples taken within the window before the newest one, oldest first
+     */
+    public SampleHistory snapshot() {
+        int count = 0;
+        if (mSize > 0) {
+            long since = getTimestamp(mSize - 1) - mWindow;
+            while (count < mSize && getTimestamp(mSize - 1 - count) >= since) {
+                count++;
+            }
+        }
+        SampleHistory snapshot = new SampleHistory(Math.max(count, 1), mWidth, mWindow);
+        for (int i = mSize - count; i < mSize; i++) {
+            snapshot.mTimestamps[snapshot.mSize] = getTimestamp(i);
+            System.arraycopy(mValues, indexOf(i) * mWidth, snapshot.mValues,
+                    snapshot.mSize * mWidth, mWidth);
+            snapshot.mSize++;
+        }
+        snapshot.mNext = snapshot.mSize % snapshot.mCapacity;
+        return snapshot;
+    }
+
+    /**
+     * @return the number of samples held
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @param i the index of the sample, where 0 is the oldest
+     * @return the time of the sample, in milliseconds since the epoch
+     */
+    public long getTimestamp(int i) {
+        return mTimestamps[indexOf(i)];
+    }
+
+    /**
+     * Copies the values of a sample.
+     *
+     * @param i the index of the sample, where 0 is the oldest
+     * @param out where the values are copied to
+     */
+    public void getValues(int i, float[] out) {
+        System.arraycopy(mValues, indexOf(i) * mWidth, out, 0, mWidth);
+    }
+
+    private int indexOf(int i) {
+        return (mNext - mSize + i + mCapacity) % mCapacity;
+    }
+}
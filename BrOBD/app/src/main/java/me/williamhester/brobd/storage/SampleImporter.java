@@ -0,0 +1,78 @@
+package me.williamhester.brobd.storage;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.stats.FuelEconomy;
+
+/**
+ * Turns samples, whose values are indexed by {@link Pid#ordinal()}, into what is stored in the
+ * Realm: every value goes to the session's {@link SeriesWriter}, and whenever a sample contains
+ * RPM, speed or throttle, the {@link LatestValues} of the three are added to the session's
+ * {@link DataPointWriter}, along with the instant fuel economy from the writer's
+ * {@link FuelEconomy}. Used both for live samples and for samples replayed from a
+ * {@link DriveLog}. Must only be used on the thread that owns the Realm.
+ *
+ * @author William Hester
+ */
+class SampleImporter {
+
+    private final DataPointWriter mWriter;
+    private final SeriesWriter mSeriesWriter;
+    private final FuelEconomy mFuelEconomy;
+    private final LatestValues mLatest = new LatestValues();
+
+    SampleImporter(DataPointWriter writer, SeriesWriter seriesWriter) {
+        mWriter = writer;
+        mSeriesWriter = seriesWriter;
+        mFuelEconomy = writer.getFuelEconomy();
+    }
+
+    /**
+     * Sets the values that are carried over into points until they are sampled again.
+     *
+     * @param sample the latest value of each PID, indexed by {@link Pid#ordinal()}
+     */
+    void setLatest(float[] sample) {
+        mLatest.update(sample);
+    }
+
+    void addSeries(long timestamp, float[] sample) {
+        mSeriesWriter.add(timestamp, sample);
+    }
+
+    /**
+     * Folds the sample into the fuel economy, then adds a point to the writer if the sample has
+     * any of the values that points hold.
+     *
+     * @param timestamp the time of the sample, in milliseconds since the epoch
+     * @param sample the values of the sample
+     * @return whether a point was added
+     */
+    boolean addDataPoint(long timestamp, float[] sample) {
+        mFuelEconomy.add(timestamp, sample);
+        if (!mLatest.update(sample)) {
+            return false;
+        }
+        mWriter.add(timestamp, mLatest.getRpm(), mLatest.getSpeed(), mLatest.getThrottle(),
+                mFuelEconomy.getInstantMpg());
+        return true;
+    }
+
+    int getRpm() {
+        return mLatest.getRpm();
+    }
+
+    /**
+     * @return the latest speed, in MPH
+     */
+    int getSpeed() {
+        return mLatest.getSpeed();
+    }
+
+    float getThrottle() {
+        return mLatest.getThrottle();
+    }
+
+    FuelEconomy getFuelEconomy() {
+        return mFuelEconomy;
+    }
+}
@@ -0,0 +1,87 @@
+package me.williamhester.brobd.storage;
+
+import java.util.Arrays;
+
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * Puts the separate series of a session's PIDs back together into samples, the way they were
+ * taken: each sample is a timestamp plus a value for every PID, indexed by {@link Pid#ordinal()},
+ * with {@link Float#NaN} for the PIDs that weren't sampled at that time. Only one sample of each
+ * series is held at a time, so this takes the same memory no matter how long the session is.
+ *
+ * @author William Hester
+ */
+public class SampleMerger {
+
+    private final SeriesSource[] mSources;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+    private final boolean[] mActive;
+    private final float[] mSample;
+    private long mTimestamp;
+
+    /**
+     * @param sources the series of each PID, indexed by {@link Pid#ordinal()}; null for the PIDs
+     *     that weren't logged
+     */
+    public SampleMerger(SeriesSource[] sources) {
+        mSources = sources;
+        mTimestamps = new long[sources.length];
+        mValues = new float[sources.length];
+        mActive = new boolean[sources.length];
+        mSample = new float[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            advance(i);
+        }
+    }
+
+    /**
+     * Moves to the next sample.
+     *
+     * @return false once every series has run out
+     */
+    public boolean next() {
+        long timestamp = Long.MAX_VALUE;
+        for (int i = 0; i < mSources.length; i++) {
+            if (mActive[i] && mTimestamps[i] < timestamp) {
+                timestamp = mTimestamps[i];
+            }
+        }
+        if (timestamp == Long.MAX_VALUE) {
+            return false;
+        }
+        mTimestamp = timestamp;
+        Arrays.fill(mSample, Float.NaN);
+        for (int i = 0; i < mSources.length; i++) {
+            if (mActive[i] && mTimestamps[i] == timestamp) {
+                mSample[i] = mValues[i];
+                advance(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the time of the current sample, in milliseconds since the epoch
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * @return the values of the current sample, indexed by {@link Pid#ordinal()}; this array is
+     *     reused for every sample
+     */
+    public float[] getSample() {
+        return mSample;
+    }
+
+    private void advance(int i) {
+        mActive[i] = mSources[i] != null && mSources[i].next();
+        if (mActive[i]) {
+            mTimestamps[i] = mSources[i].getTimestamp();
+            mValues[i] = mSources[i].getValue();
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package me.williamhester.brobd.storage;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import me.williamhester.brobd.models.ConnectionGap;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.Driver;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.models.TroubleCode;
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.singletons.BusManager;
+import me.williamhester.brobd.stats.FuelEconomy;
+import me.williamhester.brobd.stats.Gauge;
+import me.williamhester.brobd.stats.Histogram;
+import me.williamhester.brobd.stats.MetricsRegistry;
+
+/**
+ * Drains samples from a {@link SampleRingBuffer} into the Realm on its own thread, so that slow
+ * commits never hold up the thread that talks to the adapter. The buffer's values are indexed by
+ * {@link Pid#ordinal()}. Every value of every PID is added to the session's compressed series by
+ * a {@link SeriesWriter}, which are all that is kept of the samples: the statistics screen, the
+ * rollups and recovery read them back with {@link SeriesCursor}s. Whenever a sample contains RPM,
+ * speed or throttle, the latest known value of each is a point of the session's statistics, which
+ * the {@link DataPointWriter} keeps in the session's summary. DataPoints are only written as well
+ * if {@link #setWriteDataPoints(boolean)} turns them on.
+ *
+ * Every sample is also appended to the session's {@link DriveLog} by the producer as it is taken.
+ * The log is deleted once logging stops and everything has been committed, so a log that is still
+ * there at the next start belongs to a session that was cut short, and whatever it has that never
+ * made it into the Realm is replayed.
+ *
+ * Trouble codes are recorded as {@link TroubleCode}s, and the samples leading up to them, their
+ * freeze frame, are stored as a series of their own.
+ *
+ * When logging stops, the session is rolled up by the {@link RollupStore}.
+ *
+ * Every batch of points that is drained is also posted to the {@link BusManager} as a
+ * {@link SamplesEvent} on the main thread, so that live screens can update without reading the
+ * Realm.
+ *
+ * @author William Hester
+ */
+public class SamplePersister {
+
+    private static final String TAG = "SamplePersister";
+
+    private static final long DRAIN_INTERVAL = 100L;
+    private static final String LOG_DIRECTORY = "drive_logs";
+    private static final Pid[] PIDS = Pid.values();
+
+    private final Context mContext;
+    private final SampleRingBuffer mBuffer;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+    private final float[] mSample;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final File mLogDirectory;
+    private File mLogFile;
+    private DriveLog mLog;
+    private boolean mWriteDataPoints;
+
+    // Only touched on mThread
+    private Realm mRealm;
+    private DriveSession mSession;
+    private DataPointWriter mWriter;
+    private SeriesWriter mSeriesWriter;
+    private SampleImporter mImporter;
+    private final long[] mPublishDates;
+    private final int[] mPublishRpms;
+    private final int[] mPublishSpeeds;
+    private final float[] mPublishThrottles;
+    private final float[] mPublishMpgs;
+    private int mPublishCount;
+    private final Histogram mBufferDepth;
+    private final Gauge mDropped;
+    private final Gauge mBlocked;
+
+    /**
+     * @param context the context used to open the Realm
+     * @param buffer the buffer to drain; this persister is its only consumer
+     */
+    public SamplePersister(Context context, SampleRingBuffer buffer) {
+        mContext = context.getApplicationContext();
+        mBuffer = buffer;
+        mSample = new float[buffer.getWidth()];
+        mPublishDates = new long[buffer.getCapacity()];
+        mPublishRpms = new int[buffer.getCapacity()];
+        mPublishSpeeds = new int[buffer.getCapacity()];
+        mPublishThrottles = new float[buffer.getCapacity()];
+        mPublishMpgs = new float[buffer.getCapacity()];
+        mLogDirectory = new File(mContext.getFilesDir(), LOG_DIRECTORY);
+        mThread = new HandlerThread("DrivePersister");
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        mBufferDepth = metrics.histogram("buffer.depth");
+        mDropped = metrics.gauge("buffer.dropped");
+        mBlocked = metrics.gauge("buffer.blocked");
+    }
+
+    /**
+     * Creates the new session's {@link DriveLog}, then opens the Realm, replays the logs of any
+     * sessions that were cut short, creates a new DriveSession for the driver and starts draining
+     * the buffer.
+     *
+     * @param driverName the name of the driver of the new session
+     */
+    public void start(final String driverName) {
+        final String sessionId = UUID.randomUUID().toString();
+        final long startTime = System.currentTimeMillis();
+        mLogFile = DriveLog.getFile(mLogDirectory, sessionId);
+        try {
+            mLogDirectory.mkdirs();
+            int[] codes = new int[PIDS.length];
+            for (int i = 0; i < codes.length; i++) {
+                codes[i] = PIDS[i].getCode();
+            }
+            mLog = new DriveLog(mLogFile, startTime, driverName, codes);
+        } catch (IOException e) {
+            // Carry on without it; only a crash would lose anything
+            Log.d(TAG, "Couldn't create the drive log: " + e.getMessage());
+        }
+
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                // Instantiate the Realm instance on the appropriate thread
+                mRealm = Realm.getInstance(mContext);
+                recover();
+                mSession = createSession(sessionId, driverName, startTime);
+                mSeriesWriter = new SeriesWriter(mRealm, mSession);
+                mWriter = new DataPointWriter(mRealm, mHandler, mSession, mSeriesWriter);
+                mWriter.setWriteDataPoints(mWriteDataPoints);
+                mImporter = new SampleImporter(mWriter, mSeriesWriter);
+                mHandler.post(mDrainRunnable);
+                // Catch up on any session that never got to stop cleanly
+                HistoryQueries.getInstance(mContext).rollUpPending(mSession.getId());
+            }
+        });
+    }
+
+    /**
+     * Turns on writing a DataPoint for every point as well as the series. Must be called before
+     * {@link #start(String)}.
+     *
+     * @param writeDataPoints whether to write DataPoints; off by default
+     */
+    public void setWriteDataPoints(boolean writeDataPoints) {
+        mWriteDataPoints = writeDataPoints;
+    }
+
+    /**
+     * @return the log that every sample of the session should be appended to as it is taken, or
+     *     null if it couldn't be created
+     */
+    public DriveLog getLog() {
+        return mLog;
+    }
+
+    /**
+     * Commits everything that has been sampled so far, without stopping.
+     */
+    public void flush() {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mWriter != null) {
+                    drain();
+                    mWriter.flush();
+                    mSeriesWriter.flush();
+                }
+            }
+        });
+    }
+
+    /**
+     * Records that the connection to the adapter was lost for a while during the session, and
+     * adds it to the session's reconnect count and downtime.
+     *
+     * @param start when the connection was lost, in milliseconds since the epoch
+     * @param end when it was back, in milliseconds since the epoch
+     * @param attempts the number of attempts it took to reconnect
+     */
+    public void recordGap(final long start, final long end, final int attempts) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSession == null) {
+                    return;
+                }
+                mRealm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(Realm realm) {
+                        ConnectionGap gap = realm.createObject(ConnectionGap.class);
+                        gap.setSessionId(mSession.getId());
+                        gap.setStartTime(start);
+                        gap.setEndTime(end);
+                        gap.setAttempts(attempts);
+                        mSession.setReconnectCount(mSession.getReconnectCount() + 1);
+                        mSession.setDowntime(mSession.getDowntime() + end - start);
+                    }
+                });
+                Log.d(TAG, String.format("Reconnected after %d ms and %d attempts; %d reconnects, "
+                                + "%d ms down in this session", end - start, attempts,
+                        mSession.getReconnectCount(), mSession.getDowntime()));
+            }
+        });
+    }
+
+    /**
+     * Records the trouble codes that a scan found for the first time, along with the samples
+     * taken shortly before. The lists must not change after this is called.
+     *
+     * @param newCodes the codes that were found for the first time
+     * @param storedCodes every stored code found by the scan; the other new codes are pending
+     * @param milOn whether the MIL was on
+     * @param time when the scan finished, in milliseconds since the epoch
+     * @param freezeFrame the samples leading up to the scan, which are copied on this thread
+     */
+    public void recordTroubleCodes(final List<String> newCodes, final List<String> storedCodes,
+                                   final boolean milOn, final long time,
+                                   final SampleHistory freezeFrame) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mSession == null) {
+                    return;
+                }
+                final String freezeFrameId = UUID.randomUUID().toString();
+                mRealm.executeTransaction(new Realm.Transaction() {
+                    @Override
+                    public void execute(Realm realm) {
+                        for (String code : newCodes) {
+                            TroubleCode troubleCode = realm.createObject(TroubleCode.class);
+                            troubleCode.setSessionId(mSession.getId());
+                            troubleCode.setCode(code);
+                            troubleCode.setPending(!storedCodes.contains(code));
+                            troubleCode.setMilOn(milOn);
+                            troubleCode.setTime(time);
+                            troubleCode.setFreezeFrameId(freezeFrameId);
+                        }
+                    }
+                });
+
+                // One chunk per PID holds the whole freeze frame
+                SeriesWriter writer = new SeriesWriter(mRealm, freezeFrameId,
+                        freezeFrame.size() + 1);
+                float[] sample = new float[freezeFrame.getWidth()];
+                for (int i = 0; i < freezeFrame.size(); i++) {
+                    freezeFrame.getValues(i, sample);
+                    writer.add(freezeFrame.getTimestamp(i), sample);
+                }
+                writer.flush();
+                Log.d(TAG, String.format("Trouble codes %s, with %d samples of freeze frame",
+                        newCodes, freezeFrame.size()));
+            }
+        });
+    }
+
+    /**
+     * Commits everything that has been sampled so far, records the time that logging stopped as
+     * the session's end time, closes the Realm and ends the thread. The producer should have
+     * stopped before this is called.
+     */
+    public void stop() {
+        mHandler.removeCallbacks(mDrainRunnable);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mHandler.removeCallbacks(mDrainRunnable);
+                if (mWriter != null) {
+                    drain();
+                    mWriter.close();
+                    mSeriesWriter.flush();
+                    Log.d(TAG, String.format("%d chunks, %d bytes of compressed samples",
+                            mSeriesWriter.getChunkCount(), mSeriesWriter.getChunkBytes()));
+                    mRealm.executeTransaction(new Realm.Transaction() {
+                        @Override
+                        public void execute(Realm realm) {
+                            mSession.setEndTime(new Date(System.currentTimeMillis()));
+                            RollupStore.rollUp(realm, mSession);
+                        }
+                    });
+                    mRealm.close();
+                }
+                // Everything in the log is in the Realm now
+                if (mLog != null) {
+                    mLog.close();
+                    mLogFile.delete();
+                }
+                Log.d(TAG, String.format("%d samples dropped, producer blocked %d times (%s)",
+                        mBuffer.getDroppedCount(), mBuffer.getBlockedCount(),
+                        mBuffer.getOverflowPolicy()));
+                mThread.getLooper().quit();
+            }
+        });
+    }
+
+    /**
+     * @return the writer's commit statistics, or null if the Realm hasn't been opened yet
+     */
+    public DataPointWriter getWriter() {
+        return mWriter;
+    }
+
+    private void drain() {
+        mBufferDepth.record(mBuffer.size());
+        mDropped.set(mBuffer.getDroppedCount());
+        mBlocked.set(mBuffer.getBlockedCount());
+        long timestamp;
+        while ((timestamp = mBuffer.poll(mSample)) >= 0) {
+            mImporter.addSeries(timestamp, mSample);
+            if (!mImporter.addDataPoint(timestamp, mSample)) {
+                continue;
+            }
+
+            mPublishDates[mPublishCount] = timestamp;
+            mPublishRpms[mPublishCount] = mImporter.getRpm();
+            mPublishSpeeds[mPublishCount] = mImporter.getSpeed();
+            mPublishThrottles[mPublishCount] = mImporter.getThrottle();
+            mPublishMpgs[mPublishCount] = mImporter.getFuelEconomy().getInstantMpg();
+            mPublishCount++;
+            if (mPublishCount == mPublishDates.length) {
+                publish();
+            }
+        }
+        publish();
+    }
+
+    /**
+     * Posts everything drained since the last call to the bus, on the main thread.
+     */
+    private void publish() {
+        if (mPublishCount == 0) {
+            return;
+        }
+        FuelEconomy fuel = mImporter.getFuelEconomy();
+        final SamplesEvent event = new SamplesEvent(
+                Arrays.copyOf(mPublishDates, mPublishCount),
+                Arrays.copyOf(mPublishRpms, mPublishCount),
+                Arrays.copyOf(mPublishSpeeds, mPublishCount),
+                Arrays.copyOf(mPublishThrottles, mPublishCount),
+                Arrays.copyOf(mPublishMpgs, mPublishCount),
+                fuel.getFuelUsed(), fuel.getAverageMpg());
+        mPublishCount = 0;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                BusManager.getInstance().post(event);
+            }
+        });
+    }
+
+    private DriveSession createSession(final String sessionId, final String driverName,
+                                       final long startTime) {
+        final DriveSession[] created = new DriveSession[1];
+        mRealm.executeTransaction(new Realm.Transaction() {
+            @Override
+            public void execute(Realm realm) {
+                Driver driver = realm.where(Driver.class)
+                        .equalTo("name", driverName)
+                        .findFirst();
+                Date start = new Date(startTime);
+                DriveSession session = realm.createObject(DriveSession.class);
+                session.setId(sessionId);
+                session.setDriver(driver);
+                session.setStartTime(start);
+                session.setEndTime(start);
+                created[0] = session;
+            }
+        });
+        return created[0];
+    }
+
+    /**
+     * Replays every log that was left behind by a session that never got to stop, then deletes
+     * it. Only the samples that hadn't been committed yet are imported.
+     */
+    private void recover() {
+        for (File file : DriveLog.listFiles(mLogDirectory)) {
+            if (file.equals(mLogFile)) {
+                continue;
+            }
+            String sessionId = DriveLog.getSessionId(file);
+            try {
+                DriveLogReader reader = new DriveLogReader(file);
+                int count = replay(sessionId, reader);
+                Log.d(TAG, String.format("Recovered %d samples of session %s%s", count, sessionId,
+                        reader.isCorrupt() ? ", up to a damaged block" : ""));
+            } catch (IOException e) {
+                Log.d(TAG, "Couldn't read the log of session " + sessionId + ": "
+                        + e.getMessage());
+            }
+            file.delete();
+        }
+    }
+
+    private int replay(String sessionId, DriveLogReader reader) {
+        DriveSession session = mRealm.where(DriveSession.class)
+                .equalTo("id", sessionId)
+                .findFirst();
+        if (session == null) {
+            // The process died before the session was even committed
+            session = createSession(sessionId, reader.getDriverName(), reader.getStartTime());
+        }
+
+        // Everything up to these times made it into the Realm before the process died
+        long pointsCommitted = session.getEndTime().getTime();
+        long[] seriesCommitted = new long[PIDS.length];
+        for (Pid pid : PIDS) {
+            Number max = mRealm.where(SampleChunk.class)
+                    .equalTo("sessionId", sessionId)
+                    .equalTo("pid", pid.getCode())
+                    .max("endTime");
+            seriesCommitted[pid.ordinal()] = max != null ? max.longValue() : -1;
+        }
+        // The log's columns are matched up by PID code, in case the PIDs have changed since
+        int[] columns = new int[reader.getColumnCount()];
+        for (int i = 0; i < columns.length; i++) {
+            Pid pid = Pid.fromCode(reader.getPidCode(i));
+            columns[i] = pid != null ? pid.ordinal() : -1;
+        }
+
+        SeriesWriter seriesWriter = new SeriesWriter(mRealm, session);
+        DataPointWriter writer = new DataPointWriter(mRealm, mHandler, session, seriesWriter);
+        writer.setWriteDataPoints(mWriteDataPoints);
+        SampleImporter importer = new SampleImporter(writer, seriesWriter);
+        float[] sample = new float[PIDS.length];
+        for (Pid pid : PIDS) {
+            sample[pid.ordinal()] = readLatest(sessionId, pid, pointsCommitted);
+        }
+        importer.setLatest(sample);
+
+        float[] uncommitted = new float[PIDS.length];
+        int count = 0;
+        while (reader.next()) {
+            long timestamp = reader.getTimestamp();
+            SampleRingBuffer.clear(sample);
+            SampleRingBuffer.clear(uncommitted);
+            for (int i = 0; i < columns.length; i++) {
+                int pid = columns[i];
+                if (pid < 0) {
+                    continue;
+                }
+                sample[pid] = reader.getValue(i);
+                if (timestamp > seriesCommitted[pid]) {
+                    uncommitted[pid] = sample[pid];
+                }
+            }
+            importer.addSeries(timestamp, uncommitted);
+            if (timestamp > pointsCommitted) {
+                importer.addDataPoint(timestamp, sample);
+                count++;
+            }
+        }
+        writer.close();
+        seriesWriter.flush();
+        return count;
+    }
+
+    /**
+     * @return the last value of the PID's series at or before the given time, or NaN if there is
+     *     none
+     */
+    private float readLatest(String sessionId, Pid pid, long time) {
+        RealmResults<SampleChunk> chunks = mRealm.where(SampleChunk.class)
+                .equalTo("sessionId", sessionId)
+                .equalTo("pid", pid.getCode())
+                .lessThanOrEqualTo("startTime", time)
+                .findAllSorted("startTime", false);
+        float latest = Float.NaN;
+        if (!chunks.isEmpty()) {
+            SeriesDecoder decoder = new SeriesDecoder(chunks.get(0).getData());
+            while (decoder.next() && decoder.getTimestamp() <= time) {
+                latest = decoder.getValue();
+            }
+        }
+        return latest;
+    }
+
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+            mHandler.postDelayed(mDrainRunnable, DRAIN_INTERVAL);
+        }
+    };
+
+    /**
+     * A batch of new points, oldest first, in the same units as a DataPoint.
+     */
+    public static class SamplesEvent {
+
+        private final long[] mDates;
+        private final int[] mRpms;
+        private final int[] mSpeeds;
+        private final float[] mThrottles;
+        private final float[] mMpgs;
+        private final double mFuelUsed;
+        private final float mAverageMpg;
+
+        public SamplesEvent(long[] dates, int[] rpms, int[] speeds, float[] throttles,
+                            float[] mpgs, double fuelUsed, float averageMpg) {
+            mDates = dates;
+            mRpms = rpms;
+            mSpeeds = speeds;
+            mThrottles = throttles;
+            mMpgs = mpgs;
+            mFuelUsed = fuelUsed;
+            mAverageMpg = averageMpg;
+        }
+
+        public int getCount() {
+            return mDates.length;
+        }
+
+        /**
+         * @param i the index of the sample
+         * @return the time of the sample, in milliseconds since the epoch
+         */
+        public long getDate(int i) {
+            return mDates[i];
+        }
+
+        public int getRpm(int i) {
+            return mRpms[i];
+        }
+
+        public int getSpeed(int i) {
+            return mSpeeds[i];
+        }
+
+        public float getThrottle(int i) {
+            return mThrottles[i];
+        }
+
+        /**
+         * @return the instant fuel economy of the sample, or NaN if it wasn't known
+         */
+        public float getMpg(int i) {
+            return mMpgs[i];
+        }
+
+        /**
+         * @return the session's fuel used as of the last sample, in gallons
+         */
+        public double getFuelUsed() {
+            return mFuelUsed;
+        }
+
+        /**
+         * @return the session's fuel economy as of the last sample, or NaN if no fuel has been
+         *     used yet
+         */
+        public float getAverageMpg() {
+            return mAverageMpg;
+        }
+    }
+}
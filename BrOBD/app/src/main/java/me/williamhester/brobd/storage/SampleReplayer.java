@@ -0,0 +1,116 @@
+package me.williamhester.brobd.storage;
+
+/**
+ * Feeds recorded samples back into a {@link SampleRingBuffer} as if they were being taken live,
+ * so that replaying a drive goes through the same persistence and live updates as logging one.
+ * Samples are paced by the time between them in the recording, divided by the speed; at
+ * {@link #MAX_SPEED} they are offered as fast as the buffer takes them, which makes a replay a
+ * throughput test of everything downstream of the buffer.
+ *
+ * Replayed samples are timestamped from the start of the replay, but keep the spacing they were
+ * recorded with whatever the speed, so that the replayed session has the same durations,
+ * distances and averages as the original.
+ *
+ * Must only be used from the buffer's producer thread.
+ *
+ * @author William Hester
+ */
+public class SampleReplayer {
+
+    /**
+     * Replay as fast as possible.
+     */
+    public static final float MAX_SPEED = 0f;
+
+    // The most samples offered per call, so that the thread can still do other things at max speed
+    static final int MAX_BATCH = 256;
+
+    private final SampleMerger mSamples;
+    private final float mSpeed;
+    private final SampleRingBuffer mBuffer;
+    private final long mStartTime;
+    private final long mStartedAt;
+    private DriveLog mLog;
+    private boolean mPending;
+    private boolean mFinished;
+    private long mFirstTimestamp;
+    private long mReplayedCount;
+
+    /**
+     * @param samples the recorded samples, oldest first
+     * @param speed how many times faster than real time to replay, or {@link #MAX_SPEED}
+     * @param buffer the buffer to offer the samples to
+     * @param startTime the time of the first replayed sample, in milliseconds since the epoch
+     * @param startedAt when the replay started, in the same clock that is passed to
+     *     {@link #replay(long)}
+     */
+    public SampleReplayer(SampleMerger samples, float speed, SampleRingBuffer buffer,
+                          long startTime, long startedAt) {
+        mSamples = samples;
+        mSpeed = speed;
+        mBuffer = buffer;
+        mStartTime = startTime;
+        mStartedAt = startedAt;
+        mPending = samples.next();
+        mFinished = !mPending;
+        mFirstTimestamp = mPending ? samples.getTimestamp() : 0;
+    }
+
+    /**
+     * @param log the log that every replayed sample is also appended to, or null
+     */
+    public void setLog(DriveLog log) {
+        mLog = log;
+    }
+
+    /**
+     * Offers every sample that is due, up to {@link #MAX_BATCH} of them.
+     *
+     * @param now the current time, in milliseconds
+     * @return how long until the next sample is due, in milliseconds; 0 if one already is, and -1
+     *     once every sample has been replayed
+     */
+    public long replay(long now) {
+        for (int i = 0; i < MAX_BATCH && mPending; i++) {
+            long offset = mSamples.getTimestamp() - mFirstTimestamp;
+            long due = getDueTime(offset);
+            if (due > now) {
+                return due - now;
+            }
+            long timestamp = mStartTime + offset;
+            float[] sample = mSamples.getSample();
+            mBuffer.offer(timestamp, sample);
+            if (mLog != null) {
+                mLog.append(timestamp, sample);
+            }
+            mReplayedCount++;
+            mPending = mSamples.next();
+        }
+        if (!mPending) {
+            mFinished = true;
+            return -1;
+        }
+        return 0;
+    }
+
+    /**
+     * @return whether every sample has been replayed
+     */
+    public boolean isFinished() {
+        return mFinished;
+    }
+
+    /**
+     * @return the number of samples replayed so far
+     */
+    public long getReplayedCount() {
+        return mReplayedCount;
+    }
+
+    private long getDueTime(long offset) {
+        if (mSpeed <= MAX_SPEED) {
+            return mStartedAt;
+        }
+        return mStartedAt + (long) (offset / mSpeed);
+    }
+}
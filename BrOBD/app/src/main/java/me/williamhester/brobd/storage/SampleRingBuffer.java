@@ -0,0 +1,160 @@
+package me.williamhester.brobd.storage;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated, lock-free ring buffer that hands samples from exactly one producer thread to
+ * exactly one consumer thread. A sample is a timestamp plus a fixed number of float values; values
+ * that weren't sampled are stored as {@link Float#NaN}.
+ *
+ * When the buffer is full, the producer either drops the oldest sample or waits for the consumer
+ * to make room, depending on the {@link OverflowPolicy}. Both cases are counted.
+ *
+ * @author William Hester
+ */
+public class SampleRingBuffer {
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        BLOCK
+    }
+
+    // How long the producer parks between checks when it is blocked on a full buffer.
+    private static final long BLOCKED_PARK_NANOS = 100000L;
+
+    private final int mCapacity;
+    private final int mMask;
+    private final int mWidth;
+    private final OverflowPolicy mPolicy;
+    private final long[] mTimestamps;
+    private final float[] mValues;
+
+    // The sequence number of the next sample to read. The producer only moves this when dropping.
+    private final AtomicLong mHead = new AtomicLong();
+    // The sequence number of the next sample to write. Only the producer moves this.
+    private final AtomicLong mTail = new AtomicLong();
+
+    private volatile long mDroppedCount;
+    private volatile long mBlockedCount;
+
+    /**
+     * @param capacity the number of samples the buffer holds, rounded up to a power of two
+     * @param width the number of values in each sample
+     * @param policy what to do when the buffer is full
+     */
+    public SampleRingBuffer(int capacity, int width, OverflowPolicy policy) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mCapacity = size;
+        mMask = size - 1;
+        mWidth = width;
+        mPolicy = policy;
+        mTimestamps = new long[size];
+        mValues = new float[size * width];
+    }
+
+    /**
+     * Adds a sample. Must only be called from the producer thread.
+     *
+     * @param timestamp the time the sample was taken
+     * @param values the values of the sample; only the first {@link #getWidth()} are copied
+     */
+    public void offer(long timestamp, float[] values) {
+        long tail = mTail.get();
+        while (tail - mHead.get() >= mCapacity) {
+            if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+                long head = mHead.get();
+                // If this fails, the consumer took the sample first, which also makes room.
+                if (tail - head >= mCapacity && mHead.compareAndSet(head, head + 1)) {
+                    mDroppedCount++;
+                }
+            } else {
+                mBlockedCount++;
+                while (tail - mHead.get() >= mCapacity) {
+                    LockSupport.parkNanos(BLOCKED_PARK_NANOS);
+                }
+            }
+        }
+
+        int slot = (int) (tail & mMask);
+        mTimestamps[slot] = timestamp;
+        System.arraycopy(values, 0, mValues, slot * mWidth, mWidth);
+        // Publishing the new tail makes the slot's contents visible to the consumer.
+        mTail.lazySet(tail + 1);
+    }
+
+    /**
+     * Removes the oldest sample. Must only be called from the consumer thread.
+     *
+     * @param out receives the values of the sample; must hold at least {@link #getWidth()}
+     * @return the timestamp of the sample, or -1 if the buffer is empty
+     */
+    public long poll(float[] out) {
+        while (true) {
+            long head = mHead.get();
+            if (head >= mTail.get()) {
+                return -1;
+            }
+            int slot = (int) (head & mMask);
+            long timestamp = mTimestamps[slot];
+            System.arraycopy(mValues, slot * mWidth, out, 0, mWidth);
+            // If the producer dropped this sample while it was being copied, the copy may be
+            //     torn, so throw it away and read the new oldest sample instead.
+            if (mHead.compareAndSet(head, head + 1)) {
+                return timestamp;
+            }
+        }
+    }
+
+    /**
+     * @return the number of samples waiting to be read
+     */
+    public int size() {
+        return (int) (mTail.get() - mHead.get());
+    }
+
+    /**
+     * @return the number of samples this buffer can hold
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the number of values in each sample
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return the policy used when the buffer is full
+     */
+    public OverflowPolicy getOverflowPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return the number of samples that were dropped because the buffer was full
+     */
+    public long getDroppedCount() {
+        return mDroppedCount;
+    }
+
+    /**
+     * @return the number of times the producer had to wait because the buffer was full
+     */
+    public long getBlockedCount() {
+        return mBlockedCount;
+    }
+
+    /**
+     * Fills a sample with NaN, so that it can be reused for the next sample.
+     *
+     * @param values the sample to clear
+     */
+    public static void clear(float[] values) {
+        Arrays.fill(values, Float.NaN);
+    }
+}
@@ -0,0 +1,126 @@
+package me.williamhester.brobd.storage;
+
+import io.realm.Realm;
+import io.realm.RealmResults;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * Streams the samples of one PID of a session within a time range, oldest first, decoding one
+ * {@link SampleChunk} at a time so that the whole range is never held in memory. Must be used on
+ * the thread that owns the Realm.
+ *
+ * @author William Hester
+ */
+public class SeriesCursor implements SeriesSource {
+
+    private final RealmResults<SampleChunk> mChunks;
+    private final long mFrom;
+    private final long mTo;
+    private final SeriesDecoder mDecoder = new SeriesDecoder();
+    private int mChunkIndex = -1;
+    private boolean mDone;
+
+    /**
+     * @param realm the Realm to read from
+     * @param sessionId the id of the session
+     * @param pid the PID to read
+     * @param from the earliest time to include, in milliseconds since the epoch
+     * @param to the latest time to include, in milliseconds since the epoch
+     */
+    public SeriesCursor(Realm realm, String sessionId, Pid pid, long from, long to) {
+        mFrom = from;
+        mTo = to;
+        mChunks = realm.where(SampleChunk.class)
+                .equalTo("sessionId", sessionId)
+                .equalTo("pid", pid.getCode())
+                .greaterThanOrEqualTo("endTime", from)
+                .lessThanOrEqualTo("startTime", to)
+                .findAllSorted("startTime");
+    }
+
+    /**
+     * Streams every PID of a session, put back together into samples.
+     *
+     * @param realm the Realm to read from
+     * @param sessionId the id of the session
+     * @return the samples, oldest first
+     */
+    public static SampleMerger openSamples(Realm realm, String sessionId) {
+        return openSamples(realm, sessionId, Pid.values(), 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Streams some of the PIDs of a session within a time range, put back together into samples.
+     * The other PIDs are NaN in every sample.
+     *
+     * @param realm the Realm to read from
+     * @param sessionId the id of the session
+     * @param pids the PIDs to read
+     * @param from the earliest time to include, in milliseconds since the epoch
+     * @param to the latest time to include, in milliseconds since the epoch
+     * @return the samples, oldest first
+     */
+    public static SampleMerger openSamples(Realm realm, String sessionId, Pid[] pids, long from,
+                                           long to) {
+        SeriesSource[] sources = new SeriesSource[Pid.values().length];
+        for (Pid pid : pids) {
+            sources[pid.ordinal()] = new SeriesCursor(realm, sessionId, pid, from, to);
+        }
+        return new SampleMerger(sources);
+    }
+
+    /**
+     * @return the earliest time that a sample in the range can have, going by the chunks that
+     *     overlap it
+     */
+    public long getStartTime() {
+        return mChunks.isEmpty() ? mFrom : Math.max(mFrom, mChunks.get(0).getStartTime());
+    }
+
+    /**
+     * @return the latest time that a sample in the range can have, going by the chunks that
+     *     overlap it
+     */
+    public long getEndTime() {
+        return mChunks.isEmpty() ? mTo
+                : Math.min(mTo, mChunks.get(mChunks.size() - 1).getEndTime());
+    }
+
+    /**
+     * Moves to the next sample in the range.
+     *
+     * @return false once there are no more samples
+     */
+    @Override
+    public boolean next() {
+        while (!mDone) {
+            if (mChunkIndex >= 0 && mDecoder.next()) {
+                long timestamp = mDecoder.getTimestamp();
+                if (timestamp > mTo) {
+                    mDone = true;
+                } else if (timestamp >= mFrom) {
+                    return true;
+                }
+            } else if (++mChunkIndex < mChunks.size()) {
+                mDecoder.reset(mChunks.get(mChunkIndex).getData());
+            } else {
+                mDone = true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the time of the current sample, in milliseconds since the epoch
+     */
+    @Override
+    public long getTimestamp() {
+        return mDecoder.getTimestamp();
+    }
+
+    @Override
+    public float getValue() {
+        return mDecoder.getValue();
+    }
+}
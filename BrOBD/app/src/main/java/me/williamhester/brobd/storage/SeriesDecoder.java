@@ -0,0 +1,107 @@
+package me.williamhester.brobd.storage;
+
+/**
+ * Reads back the samples of a chunk that was written by a {@link SeriesEncoder}, one at a time.
+ * A decoder can be reset onto another chunk, so reading a long range doesn't allocate per chunk.
+ *
+ * @author William Hester
+ */
+public class SeriesDecoder {
+
+    private final BitInput mInput = new BitInput();
+    private int mCount;
+    private int mIndex;
+    private long mTimestamp;
+    private long mDelta;
+    private int mValue;
+    private int mLeadingZeros;
+    private int mTrailingZeros;
+
+    public SeriesDecoder() { }
+
+    public SeriesDecoder(byte[] chunk) {
+        reset(chunk);
+    }
+
+    /**
+     * Starts reading a new chunk from its first sample.
+     *
+     * @param chunk a chunk returned by {@link SeriesEncoder#seal()}
+     */
+    public void reset(byte[] chunk) {
+        mInput.reset(chunk);
+        mCount = (int) mInput.read(SeriesEncoder.HEADER_BITS);
+        mIndex = 0;
+    }
+
+    /**
+     * Moves to the next sample.
+     *
+     * @return false if there are no more samples in the chunk
+     */
+    public boolean next() {
+        if (mIndex >= mCount) {
+            return false;
+        }
+        if (mIndex == 0) {
+            mTimestamp = mInput.read(64);
+            mValue = (int) mInput.read(32);
+            mDelta = 0;
+        } else {
+            mDelta += readDeltaOfDelta();
+            mTimestamp += mDelta;
+            mValue ^= readXor();
+        }
+        mIndex++;
+        return true;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public float getValue() {
+        return Float.intBitsToFloat(mValue);
+    }
+
+    /**
+     * @return the number of samples in the chunk
+     */
+    public int getCount() {
+        return mCount;
+    }
+
+    private long readDeltaOfDelta() {
+        if (!mInput.readBit()) {
+            return 0;
+        }
+        if (!mInput.readBit()) {
+            return signExtend(mInput.read(7), 7);
+        }
+        if (!mInput.readBit()) {
+            return signExtend(mInput.read(9), 9);
+        }
+        if (!mInput.readBit()) {
+            return signExtend(mInput.read(12), 12);
+        }
+        return mInput.read(64);
+    }
+
+    private int readXor() {
+        if (!mInput.readBit()) {
+            return 0;
+        }
+        if (mInput.readBit()) {
+            mLeadingZeros = (int) mInput.read(5);
+            int significant = (int) mInput.read(5) + 1;
+            mTrailingZeros = 32 - mLeadingZeros - significant;
+        }
+        int significant = 32 - mLeadingZeros - mTrailingZeros;
+        return (int) mInput.read(significant) << mTrailingZeros;
+    }
+
+    private static long signExtend(long value, int bitCount) {
+        int shift = 64 - bitCount;
+        return (value << shift) >> shift;
+    }
+}
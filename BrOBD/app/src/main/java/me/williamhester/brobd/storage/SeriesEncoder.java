@@ -0,0 +1,187 @@
+package me.williamhester.brobd.storage;
+
+import java.util.Arrays;
+
+/**
+ * Compresses the samples of one PID into a chunk, in the style of Facebook's Gorilla: timestamps
+ * are stored as the difference between consecutive deltas, which is almost always zero or tiny
+ * for a PID that is polled at a steady rate, and each value is XORed with the one before it, so
+ * that a value that didn't change takes a single bit and one that changed a little only stores
+ * the bits that differ.
+ *
+ * A chunk holds at most {@link #getCapacity()} samples and is then sealed into a byte array that
+ * a {@link SeriesDecoder} can read back. The encoder's buffer is allocated once and reused for
+ * every chunk.
+ *
+ * Timestamps must not go backwards.
+ *
+ * @author William Hester
+ */
+public class SeriesEncoder {
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // The header is the sample count, which is only known once the chunk is sealed
+    static final int HEADER_BITS = 32;
+    // A timestamp takes at most 4 + 64 bits, and a value at most 2 + 5 + 5 + 32 bits
+    private static final int MAX_BITS_PER_SAMPLE = 112;
+
+    private final int mCapacity;
+    private final BitOutput mOutput;
+    private int mCount;
+    private long mFirstTimestamp;
+    private long mLastTimestamp;
+    private long mLastDelta;
+    private int mLastValue;
+    private int mLeadingZeros;
+    private int mTrailingZeros;
+
+    public SeriesEncoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the number of samples after which a chunk is full
+     */
+    public SeriesEncoder(int capacity) {
+        mCapacity = capacity;
+        mOutput = new BitOutput((HEADER_BITS + 64 + 32 + capacity * MAX_BITS_PER_SAMPLE) / 8 + 1);
+        mOutput.seek(HEADER_BITS);
+    }
+
+    /**
+     * Adds a sample to the current chunk. The chunk must not be full.
+     *
+     * @param timestamp the time of the sample, in milliseconds
+     * @param value the value of the sample
+     */
+    public void append(long timestamp, float value) {
+        if (mCount >= mCapacity) {
+            throw new IllegalStateException("The chunk is full");
+        }
+        int bits = Float.floatToRawIntBits(value);
+        if (mCount == 0) {
+            mOutput.write(timestamp, 64);
+            mOutput.write(bits, 32);
+            mFirstTimestamp = timestamp;
+            mLastDelta = 0;
+            mLeadingZeros = -1;
+        } else {
+            long delta = timestamp - mLastTimestamp;
+            writeDeltaOfDelta(delta - mLastDelta);
+            writeXor(bits ^ mLastValue);
+            mLastDelta = delta;
+        }
+        mLastTimestamp = timestamp;
+        mLastValue = bits;
+        mCount++;
+    }
+
+    /**
+     * Finishes the current chunk and starts a new one.
+     *
+     * @return the encoded chunk
+     */
+    public byte[] seal() {
+        int end = mOutput.getBitPosition();
+        mOutput.seek(0);
+        mOutput.write(mCount, HEADER_BITS);
+        mOutput.seek(end);
+        byte[] chunk = Arrays.copyOf(mOutput.getBytes(), mOutput.getByteCount());
+        mOutput.reset();
+        mOutput.seek(HEADER_BITS);
+        mCount = 0;
+        return chunk;
+    }
+
+    /**
+     * Encodes the current chunk as {@link #seal()} would, but leaves it open for more samples.
+     *
+     * @return the chunk so far
+     */
+    public byte[] snapshot() {
+        byte[] chunk = Arrays.copyOf(mOutput.getBytes(), mOutput.getByteCount());
+        // The header is still blank in the buffer, so the count goes into the copy only
+        for (int i = 0; i < HEADER_BITS / 8; i++) {
+            chunk[i] = (byte) (mCount >>> (HEADER_BITS - 8 * (i + 1)));
+        }
+        return chunk;
+    }
+
+    public boolean isFull() {
+        return mCount >= mCapacity;
+    }
+
+    public boolean isEmpty() {
+        return mCount == 0;
+    }
+
+    public int getCount() {
+        return mCount;
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * @return the time of the first sample in the current chunk
+     */
+    public long getFirstTimestamp() {
+        return mFirstTimestamp;
+    }
+
+    /**
+     * @return the time of the last sample in the current chunk
+     */
+    public long getLastTimestamp() {
+        return mLastTimestamp;
+    }
+
+    /**
+     * @return the size that the current chunk would have if it were sealed now
+     */
+    public int getSizeInBytes() {
+        return mOutput.getByteCount();
+    }
+
+    private void writeDeltaOfDelta(long dod) {
+        if (dod == 0) {
+            mOutput.write(0, 1);
+        } else if (dod >= -64 && dod < 64) {
+            mOutput.write(0x2, 2);
+            mOutput.write(dod, 7);
+        } else if (dod >= -256 && dod < 256) {
+            mOutput.write(0x6, 3);
+            mOutput.write(dod, 9);
+        } else if (dod >= -2048 && dod < 2048) {
+            mOutput.write(0xE, 4);
+            mOutput.write(dod, 12);
+        } else {
+            mOutput.write(0xF, 4);
+            mOutput.write(dod, 64);
+        }
+    }
+
+    private void writeXor(int xor) {
+        if (xor == 0) {
+            mOutput.write(0, 1);
+            return;
+        }
+        int leading = Integer.numberOfLeadingZeros(xor);
+        int trailing = Integer.numberOfTrailingZeros(xor);
+        if (mLeadingZeros >= 0 && leading >= mLeadingZeros && trailing >= mTrailingZeros) {
+            // The changed bits fit in the same window as last time
+            mOutput.write(0x2, 2);
+            mOutput.write(xor >>> mTrailingZeros, 32 - mLeadingZeros - mTrailingZeros);
+        } else {
+            int significant = 32 - leading - trailing;
+            mOutput.write(0x3, 2);
+            mOutput.write(leading, 5);
+            mOutput.write(significant - 1, 5);
+            mOutput.write(xor >>> trailing, significant);
+            mLeadingZeros = leading;
+            mTrailingZeros = trailing;
+        }
+    }
+}
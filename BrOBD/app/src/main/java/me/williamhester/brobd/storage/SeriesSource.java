@@ -0,0 +1,23 @@
+package me.williamhester.brobd.storage;
+
+/**
+ * The samples of one PID, oldest first, read one at a time.
+ *
+ * @author William Hester
+ */
+public interface SeriesSource {
+
+    /**
+     * Moves to the next sample.
+     *
+     * @return false once there are no more samples
+     */
+    boolean next();
+
+    /**
+     * @return the time of the current sample, in milliseconds since the epoch
+     */
+    long getTimestamp();
+
+    float getValue();
+}
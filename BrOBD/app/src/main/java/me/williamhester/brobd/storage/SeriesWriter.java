@@ -0,0 +1,160 @@
+package me.williamhester.brobd.storage;
+
+import io.realm.Realm;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.SampleChunk;
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * Stores every value of every PID of a session in compressed {@link SampleChunk}s, one series per
+ * PID. Each PID's samples are collected by its own {@link SeriesEncoder}, and a chunk is committed
+ * whenever an encoder fills up. {@link #flush()} commits the partly filled chunks as well.
+ *
+ * So that readers don't have to wait for a chunk to fill up, {@link #writeOpenChunks()} writes
+ * what each encoder has so far into a chunk that stays open: later calls overwrite it, and it is
+ * sealed in place once the encoder is full. An open chunk is a complete chunk of the samples it
+ * holds, so readers don't need to tell the two apart. This must only be used from the thread that
+ * owns the Realm.
+ *
+ * @author William Hester
+ */
+public class SeriesWriter {
+
+    private static final Pid[] PIDS = Pid.values();
+
+    private final Realm mRealm;
+    private final String mSessionId;
+    private final int mChunkCapacity;
+    // Indexed by Pid#ordinal(), created when a PID is first seen
+    private final SeriesEncoder[] mEncoders = new SeriesEncoder[PIDS.length];
+    // The open chunk that each encoder was last written to, or null
+    private final SampleChunk[] mOpenChunks = new SampleChunk[PIDS.length];
+    private final int[] mOpenCounts = new int[PIDS.length];
+
+    private long mChunkCount;
+    private long mChunkBytes;
+
+    public SeriesWriter(Realm realm, DriveSession session) {
+        this(realm, session, SeriesEncoder.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param realm the Realm to write to
+     * @param session the session that the samples belong to
+     * @param chunkCapacity the number of samples per chunk
+     */
+    public SeriesWriter(Realm realm, DriveSession session, int chunkCapacity) {
+        this(realm, session.getId(), chunkCapacity);
+    }
+
+    /**
+     * @param realm the Realm to write to
+     * @param seriesId what the chunks are stored under, such as a freeze frame's id
+     * @param chunkCapacity the number of samples per chunk
+     */
+    public SeriesWriter(Realm realm, String seriesId, int chunkCapacity) {
+        mRealm = realm;
+        mSessionId = seriesId;
+        mChunkCapacity = chunkCapacity;
+    }
+
+    /**
+     * Adds every value of a sample that isn't NaN to its PID's series.
+     *
+     * @param timestamp the time of the sample, in milliseconds since the epoch
+     * @param sample the values of the sample, indexed by {@link Pid#ordinal()}
+     */
+    public void add(long timestamp, float[] sample) {
+        for (int i = 0; i < mEncoders.length; i++) {
+            if (Float.isNaN(sample[i])) {
+                continue;
+            }
+            SeriesEncoder encoder = mEncoders[i];
+            if (encoder == null) {
+                encoder = mEncoders[i] = new SeriesEncoder(mChunkCapacity);
+            }
+            encoder.append(timestamp, sample[i]);
+            if (encoder.isFull()) {
+                mRealm.beginTransaction();
+                writeChunk(i, encoder);
+                mRealm.commitTransaction();
+            }
+        }
+    }
+
+    /**
+     * Writes every encoder that has taken samples since the last call into its open chunk. Must
+     * be called inside a write transaction.
+     */
+    public void writeOpenChunks() {
+        for (int i = 0; i < mEncoders.length; i++) {
+            SeriesEncoder encoder = mEncoders[i];
+            if (encoder == null || encoder.getCount() == mOpenCounts[i]) {
+                continue;
+            }
+            SampleChunk chunk = getOpenChunk(i);
+            chunk.setEndTime(encoder.getLastTimestamp());
+            chunk.setCount(encoder.getCount());
+            chunk.setData(encoder.snapshot());
+            mOpenCounts[i] = encoder.getCount();
+        }
+    }
+
+    /**
+     * Commits every chunk that has samples in it, full or not, in one transaction.
+     */
+    public void flush() {
+        boolean inTransaction = false;
+        for (int i = 0; i < mEncoders.length; i++) {
+            SeriesEncoder encoder = mEncoders[i];
+            if (encoder == null || encoder.isEmpty()) {
+                continue;
+            }
+            if (!inTransaction) {
+                mRealm.beginTransaction();
+                inTransaction = true;
+            }
+            writeChunk(i, encoder);
+        }
+        if (inTransaction) {
+            mRealm.commitTransaction();
+        }
+    }
+
+    /**
+     * @return the number of chunks committed so far
+     */
+    public long getChunkCount() {
+        return mChunkCount;
+    }
+
+    /**
+     * @return the total size of the encoded chunks committed so far
+     */
+    public long getChunkBytes() {
+        return mChunkBytes;
+    }
+
+    private void writeChunk(int i, SeriesEncoder encoder) {
+        SampleChunk chunk = getOpenChunk(i);
+        chunk.setEndTime(encoder.getLastTimestamp());
+        chunk.setCount(encoder.getCount());
+        byte[] data = encoder.seal();
+        chunk.setData(data);
+        mOpenChunks[i] = null;
+        mOpenCounts[i] = 0;
+        mChunkCount++;
+        mChunkBytes += data.length;
+    }
+
+    private SampleChunk getOpenChunk(int i) {
+        if (mOpenChunks[i] == null) {
+            SampleChunk chunk = mRealm.createObject(SampleChunk.class);
+            chunk.setSessionId(mSessionId);
+            chunk.setPid(PIDS[i].getCode());
+            chunk.setStartTime(mEncoders[i].getFirstTimestamp());
+            mOpenChunks[i] = chunk;
+        }
+        return mOpenChunks[i];
+    }
+}
@@ -0,0 +1,112 @@
+package me.williamhester.brobd.storage;
+
+import java.util.Date;
+
+import io.realm.Realm;
+import me.williamhester.brobd.models.DriveSession;
+import me.williamhester.brobd.models.DriveSummary;
+import me.williamhester.brobd.models.StatSummary;
+import me.williamhester.brobd.obd.FuelType;
+import me.williamhester.brobd.stats.DriveAggregator;
+import me.williamhester.brobd.stats.FuelEconomy;
+import me.williamhester.brobd.stats.RunningStat;
+
+/**
+ * Copies a {@link DriveAggregator} and a {@link FuelEconomy} to and from the {@link DriveSummary}
+ * of a DriveSession.
+ *
+ * @author William Hester
+ */
+public class SummaryStore {
+
+    private SummaryStore() { }
+
+    /**
+     * Writes the aggregator into the session's summary, creating the summary if the session doesn't
+     * have one yet. Must be called inside a write transaction.
+     *
+     * @param realm the Realm that the session belongs to
+     * @param session the session to save the summary of
+     * @param aggregator the statistics to save
+     * @param fuel the fuel economy to save
+     */
+    public static void save(Realm realm, DriveSession session, DriveAggregator aggregator,
+                            FuelEconomy fuel) {
+        DriveSummary summary = session.getSummary();
+        if (summary == null) {
+            summary = realm.createObject(DriveSummary.class);
+            summary.setSpeed(realm.createObject(StatSummary.class));
+            summary.setRpm(realm.createObject(StatSummary.class));
+            summary.setThrottle(realm.createObject(StatSummary.class));
+            summary.setFuelType("");
+            session.setSummary(summary);
+        }
+        save(summary.getSpeed(), aggregator.getSpeed());
+        save(summary.getRpm(), aggregator.getRpm());
+        save(summary.getThrottle(), aggregator.getThrottle());
+        summary.setDistance(aggregator.getDistance());
+        if (aggregator.getCount() > 0) {
+            summary.setFirstDate(new Date(aggregator.getFirstDate()));
+            summary.setLastDate(new Date(aggregator.getLastDate()));
+        }
+        summary.setLastSpeed(aggregator.getLastSpeed());
+        summary.setFuelUsed(fuel.getFuelUsed());
+        summary.setFuelDistance(fuel.getDistance());
+        summary.setFuelType(fuel.getFuelType().name());
+    }
+
+    /**
+     * Reads the session's summary into a new aggregator.
+     *
+     * @param session the session, or null
+     * @return the session's statistics, which are empty if it has no summary
+     */
+    public static DriveAggregator load(DriveSession session) {
+        DriveAggregator aggregator = new DriveAggregator();
+        DriveSummary summary = session != null ? session.getSummary() : null;
+        if (summary == null || summary.getSpeed().getCount() == 0) {
+            return aggregator;
+        }
+        load(summary.getSpeed(), aggregator.getSpeed());
+        load(summary.getRpm(), aggregator.getRpm());
+        load(summary.getThrottle(), aggregator.getThrottle());
+        aggregator.restore(summary.getDistance(), summary.getFirstDate().getTime(),
+                summary.getLastDate().getTime(), summary.getLastSpeed());
+        return aggregator;
+    }
+
+    /**
+     * Reads the fuel economy part of the session's summary.
+     *
+     * @param session the session, or null
+     * @return the session's fuel economy, which is empty if it has no summary
+     */
+    public static FuelEconomy loadFuelEconomy(DriveSession session) {
+        FuelEconomy fuel = new FuelEconomy();
+        DriveSummary summary = session != null ? session.getSummary() : null;
+        if (summary == null) {
+            return fuel;
+        }
+        FuelType fuelType = FuelType.GASOLINE;
+        for (FuelType type : FuelType.values()) {
+            if (type.name().equals(summary.getFuelType())) {
+                fuelType = type;
+            }
+        }
+        fuel.restore(summary.getFuelUsed(), summary.getFuelDistance(), fuelType);
+        return fuel;
+    }
+
+    private static void save(StatSummary summary, RunningStat stat) {
+        summary.setCount(stat.getCount());
+        summary.setSum(stat.getSum());
+        summary.setMin(stat.getCount() == 0 ? 0 : stat.getMin());
+        summary.setMax(stat.getCount() == 0 ? 0 : stat.getMax());
+        summary.setM2(stat.getM2());
+    }
+
+    private static void load(StatSummary summary, RunningStat stat) {
+        stat.set(summary.getCount(), summary.getSum(), summary.getMin(), summary.getMax(),
+                summary.getM2());
+    }
+}
@@ -0,0 +1,47 @@
+package me.williamhester.brobd.storage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import me.williamhester.brobd.obd.VehicleProfile;
+
+/**
+ * Remembers the {@link VehicleProfile} learned through each adapter, keyed by the adapter's
+ * address, so that the next connection through it can skip the protocol search.
+ *
+ * @author William Hester
+ */
+public class VehicleProfileStore {
+
+    private static final String KEY_PREFIX = "vehicle_profile_";
+
+    private VehicleProfileStore() { }
+
+    /**
+     * @param context any context
+     * @param address the adapter's address
+     * @return the profile learned through the adapter last time, or null if there isn't one
+     */
+    public static VehicleProfile load(Context context, String address) {
+        return VehicleProfile.decode(getPreferences(context).getString(KEY_PREFIX + address, null));
+    }
+
+    /**
+     * @param context any context
+     * @param address the adapter's address
+     * @param profile the profile to remember, or null to forget the adapter's profile
+     */
+    public static void save(Context context, String address, VehicleProfile profile) {
+        SharedPreferences.Editor editor = getPreferences(context).edit();
+        if (profile == null) {
+            editor.remove(KEY_PREFIX + address);
+        } else {
+            editor.putString(KEY_PREFIX + address, profile.encode());
+        }
+        editor.apply();
+    }
+
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getSharedPreferences("prefs", Context.MODE_PRIVATE);
+    }
+}
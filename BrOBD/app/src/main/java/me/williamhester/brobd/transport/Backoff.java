@@ -0,0 +1,57 @@
+package me.williamhester.brobd.transport;
+
+import java.util.Random;
+
+/**
+ * Exponential backoff between attempts to reconnect to the adapter. Each delay is twice the last,
+ * up to a maximum, with up to a quarter of it added or taken away at random so that retries don't
+ * fall into step with whatever keeps failing them.
+ *
+ * @author William Hester
+ */
+public class Backoff {
+
+    private final long mInitialDelay;
+    private final long mMaxDelay;
+    private final Random mRandom;
+    private long mDelay;
+    private int mAttempts;
+
+    /**
+     * @param initialDelay the delay before the first attempt, in milliseconds
+     * @param maxDelay the longest delay between attempts, in milliseconds
+     * @param seed the seed for the jitter
+     */
+    public Backoff(long initialDelay, long maxDelay, long seed) {
+        mInitialDelay = initialDelay;
+        mMaxDelay = maxDelay;
+        mRandom = new Random(seed);
+        mDelay = initialDelay;
+    }
+
+    /**
+     * @return how long to wait before the next attempt, in milliseconds
+     */
+    public long nextDelay() {
+        long delay = mDelay;
+        mDelay = Math.min(mMaxDelay, mDelay * 2);
+        mAttempts++;
+        long jitter = (long) ((mRandom.nextDouble() * 2 - 1) * delay / 4);
+        return Math.max(0, Math.min(mMaxDelay, delay + jitter));
+    }
+
+    /**
+     * @return the number of delays handed out since the last reset
+     */
+    public int getAttempts() {
+        return mAttempts;
+    }
+
+    /**
+     * Starts over from the initial delay, after a successful attempt.
+     */
+    public void reset() {
+        mDelay = mInitialDelay;
+        mAttempts = 0;
+    }
+}
@@ -0,0 +1,70 @@
+package me.williamhester.brobd.transport;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Talks to an adapter over an RFCOMM bluetooth socket.
+ *
+ * @author William Hester
+ */
+public class BluetoothTransport implements ObdTransport {
+
+    private final String mAddress;
+    private BluetoothSocket mSocket;
+
+    /**
+     * @param address the bluetooth address of the adapter
+     */
+    public BluetoothTransport(String address) {
+        mAddress = address;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        BluetoothAdapter btAdapter = BluetoothAdapter.getDefaultAdapter();
+        BluetoothDevice device = btAdapter.getRemoteDevice(mAddress);
+
+        // Cancel any active device discovery, as it will crash the app if a connection
+        //     is attempted when discovery is active.
+        btAdapter.cancelDiscovery();
+
+        try {
+            // The usual createRfcommSocketToServiceRecord doesn't work with many cheap adapters
+            final Method m = device.getClass().getMethod("createRfcommSocket", int.class);
+            mSocket = (BluetoothSocket) m.invoke(device, 1);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            throw new IOException("Could not create a socket for " + mAddress, e);
+        }
+        mSocket.connect();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return mSocket.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        return mSocket.getOutputStream();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (mSocket != null) {
+            mSocket.close();
+        }
+    }
+
+    @Override
+    public String getAddress() {
+        return mAddress;
+    }
+}
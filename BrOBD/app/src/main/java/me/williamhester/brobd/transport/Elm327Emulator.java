@@ -0,0 +1,603 @@
+package me.williamhester.brobd.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * An in-process stand-in for an ELM327 adapter plugged into a {@link SimulatedVehicle}. Commands
+ * are written to {@link #getOutputStream()} and answered on {@link #getInputStream()} in the same
+ * format as a real adapter on a CAN vehicle: echo, spaces, multi-frame responses, the
+ * "SEARCHING..." line after the protocol is set to automatic and the {@code >} prompt.
+ *
+ * It answers the AT commands the app uses, mode 01 (including several PIDs at once and the
+ * supported PID bitmaps), modes 03 and 07, and mode 04. Each response is held back for a
+ * configurable latency plus uniform jitter, and OBD requests can be made to fail with NO DATA,
+ * {@code ?} or no answer at all. All randomness comes from a seeded Random, so a run can be
+ * repeated exactly.
+ *
+ * Instead of the simulated vehicle, the answers can come from an {@link Elm327Trace} recorded from
+ * a real adapter, which replays the recorded responses with their recorded latencies.
+ *
+ * The streams are meant to be used by one thread at a time, like a socket's.
+ *
+ * @author William Hester
+ */
+public class Elm327Emulator {
+
+    public static final String VERSION = "ELM327 v1.5";
+    // ISO 15765-4 CAN, 11 bit ID, 500 kbaud: the protocol that the simulated vehicle speaks
+    public static final char VEHICLE_PROTOCOL = '6';
+
+    private static final long NANOS_PER_MILLI = 1000000L;
+    private static final String NO_DATA = "NO DATA";
+    private static final String UNKNOWN = "?";
+    private static final String OK = "OK";
+    private static final String UNABLE_TO_CONNECT = "UNABLE TO CONNECT";
+
+    private final SimulatedVehicle mVehicle;
+    private final Random mRandom;
+    private final long mStartTime = System.nanoTime();
+    private final StringBuilder mCommand = new StringBuilder();
+    private final List<String> mLatencyPrefixes = new ArrayList<>();
+    private final List<long[]> mLatencies = new ArrayList<>();
+    private final InputStream mInputStream = new EmulatorInputStream();
+    private final OutputStream mOutputStream = new EmulatorOutputStream();
+
+    // Bytes that have been answered but not read yet, readable from mReadyAt on
+    private byte[] mPending = new byte[256];
+    private int mPendingStart;
+    private int mPendingEnd;
+    private long mReadyAt;
+    private boolean mClosed;
+
+    private boolean mEcho = true;
+    private boolean mLineFeeds = true;
+    private boolean mSpaces = true;
+    private boolean mHeaders;
+    private char mProtocol = '0';
+    private boolean mSearching;
+    private int mTimeout = 0x32;
+    private int mAdaptiveTiming = 1;
+    private final List<String> mTroubleCodes = new ArrayList<>();
+    private final List<String> mPendingTroubleCodes = new ArrayList<>();
+
+    private long mSearchLatency;
+    private double mNoDataRate;
+    private double mUnknownRate;
+    private double mTimeoutRate;
+    private Elm327Trace mTrace;
+
+    private long mCommandCount;
+    private long mInjectedErrorCount;
+
+    /**
+     * Creates an emulator that answers immediately and never fails.
+     *
+     * @param vehicle the vehicle to report on
+     * @param seed the seed for the jitter and the injected errors
+     */
+    public Elm327Emulator(SimulatedVehicle vehicle, long seed) {
+        mVehicle = vehicle;
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Sets how long the answers to commands starting with a prefix take. The longest matching
+     * prefix wins, and the empty prefix sets the default.
+     *
+     * @param prefix the start of the command, without spaces, such as "AT" or "010C"
+     * @param latency the mean latency, in milliseconds
+     * @param jitter the most that the latency may be off by either way, in milliseconds
+     */
+    public synchronized void setLatency(String prefix, long latency, long jitter) {
+        String key = prefix.replace(" ", "").toUpperCase(Locale.US);
+        int index = mLatencyPrefixes.indexOf(key);
+        if (index >= 0) {
+            mLatencies.set(index, new long[] {latency, jitter});
+        } else {
+            mLatencyPrefixes.add(key);
+            mLatencies.add(new long[] {latency, jitter});
+        }
+    }
+
+    /**
+     * Sets how much longer the first request after AT SP 0 takes, while the adapter looks for the
+     * vehicle's protocol. Real adapters take several seconds.
+     *
+     * @param latency the extra time, in milliseconds
+     */
+    public synchronized void setSearchLatency(long latency) {
+        mSearchLatency = latency;
+    }
+
+    /**
+     * Makes OBD requests (not AT commands) fail some of the time.
+     *
+     * @param noData the fraction of requests answered with NO DATA
+     * @param unknown the fraction of requests answered with "?"
+     * @param timeout the fraction of requests that are never answered
+     */
+    public synchronized void setErrorRates(double noData, double unknown, double timeout) {
+        mNoDataRate = noData;
+        mUnknownRate = unknown;
+        mTimeoutRate = timeout;
+    }
+
+    /**
+     * Answers from a recorded trace instead of the vehicle. Commands that aren't in the trace are
+     * still answered by the vehicle.
+     *
+     * @param trace the trace to replay, or null to stop replaying
+     */
+    public synchronized void setTrace(Elm327Trace trace) {
+        mTrace = trace;
+        if (trace != null) {
+            trace.rewind();
+        }
+    }
+
+    /**
+     * @param codes the stored trouble codes, such as "P0133"; mode 04 clears them
+     */
+    public synchronized void setTroubleCodes(String... codes) {
+        mTroubleCodes.clear();
+        for (String code : codes) {
+            mTroubleCodes.add(code);
+        }
+    }
+
+    /**
+     * @param codes the pending trouble codes, which mode 07 reports; mode 04 clears them
+     */
+    public synchronized void setPendingTroubleCodes(String... codes) {
+        mPendingTroubleCodes.clear();
+        for (String code : codes) {
+            mPendingTroubleCodes.add(code);
+        }
+    }
+
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    /**
+     * Makes any blocked or future read return the end of the stream, and makes
+     * {@link InputStream#available()} throw, the way a closed Bluetooth socket's stream does.
+     */
+    public synchronized void close() {
+        mClosed = true;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of commands received so far
+     */
+    public synchronized long getCommandCount() {
+        return mCommandCount;
+    }
+
+    /**
+     * @return the number of requests that were made to fail on purpose
+     */
+    public synchronized long getInjectedErrorCount() {
+        return mInjectedErrorCount;
+    }
+
+    /**
+     * @return the timeout last set with AT ST, in units of 4 ms
+     */
+    public synchronized int getTimeout() {
+        return mTimeout;
+    }
+
+    /**
+     * @return the adaptive timing mode last set with AT AT
+     */
+    public synchronized int getAdaptiveTiming() {
+        return mAdaptiveTiming;
+    }
+
+    private synchronized void onByte(int b) {
+        if (b == '\r') {
+            String command = mCommand.toString();
+            mCommand.setLength(0);
+            onCommand(command);
+        } else if (b != '\n') {
+            mCommand.append((char) b);
+        }
+    }
+
+    private void onCommand(String raw) {
+        mCommandCount++;
+        String command = raw.replace(" ", "").toUpperCase(Locale.US);
+        StringBuilder out = new StringBuilder();
+        if (mEcho) {
+            out.append(raw).append('\r');
+        }
+
+        long latency;
+        String response;
+        Elm327Trace.Entry recorded = mTrace != null ? mTrace.next(command) : null;
+        if (recorded != null) {
+            if (command.startsWith("AT")) {
+                // Settings such as echo still have to take effect
+                handleAt(command);
+            }
+            response = recorded.getResponse();
+            latency = recorded.getLatency();
+        } else {
+            latency = pickLatency(command);
+            if (mSearching && !command.startsWith("AT")) {
+                latency += mSearchLatency;
+            }
+            response = command.startsWith("AT") ? handleAt(command) : handleRequest(command);
+        }
+        if (response == null) {
+            // A stalled request: the adapter never says anything, not even a prompt
+            return;
+        }
+
+        String newline = mLineFeeds ? "\r\n" : "\r";
+        out.append(response.replace("\r", newline)).append(newline).append(newline).append('>');
+        byte[] bytes = out.toString().getBytes();
+        append(bytes);
+        mReadyAt = System.nanoTime() + latency * NANOS_PER_MILLI;
+        notifyAll();
+    }
+
+    private String handleAt(String command) {
+        String arg = command.substring(2);
+        if (arg.equals("Z") || arg.equals("WS") || arg.equals("D")) {
+            mEcho = true;
+            mLineFeeds = true;
+            mSpaces = true;
+            mHeaders = false;
+            mProtocol = '0';
+            mTimeout = 0x32;
+            mAdaptiveTiming = 1;
+            return arg.equals("D") ? OK : VERSION;
+        } else if (arg.equals("I")) {
+            return VERSION;
+        } else if (arg.equals("E0") || arg.equals("E1")) {
+            mEcho = arg.charAt(1) == '1';
+        } else if (arg.equals("L0") || arg.equals("L1")) {
+            mLineFeeds = arg.charAt(1) == '1';
+        } else if (arg.equals("S0") || arg.equals("S1")) {
+            mSpaces = arg.charAt(1) == '1';
+        } else if (arg.equals("H0") || arg.equals("H1")) {
+            mHeaders = arg.charAt(1) == '1';
+        } else if (arg.startsWith("SP") && arg.length() == 3 || arg.startsWith("TP")
+                && arg.length() == 3) {
+            mProtocol = arg.charAt(2);
+            mSearching = mProtocol == '0';
+        } else if (arg.startsWith("ST") && arg.length() == 4) {
+            try {
+                mTimeout = Integer.parseInt(arg.substring(2), 16);
+            } catch (NumberFormatException e) {
+                return UNKNOWN;
+            }
+        } else if (arg.equals("AT0") || arg.equals("AT1") || arg.equals("AT2")) {
+            mAdaptiveTiming = arg.charAt(2) - '0';
+        } else if (arg.equals("DPN")) {
+            return mProtocol == '0' ? "A" + VEHICLE_PROTOCOL : String.valueOf(mProtocol);
+        } else if (arg.equals("DP")) {
+            return (mProtocol == '0' ? "AUTO, " : "") + "ISO 15765-4 (CAN 11/500)";
+        } else if (arg.equals("RV")) {
+            return "12.6V";
+        } else {
+            return UNKNOWN;
+        }
+        return OK;
+    }
+
+    private String handleRequest(String command) {
+        if (command.length() < 2 || command.length() % 2 != 0 || !isHex(command)) {
+            return UNKNOWN;
+        }
+        if (mProtocol != '0' && mProtocol != VEHICLE_PROTOCOL) {
+            // The vehicle doesn't speak the protocol that was picked
+            return UNABLE_TO_CONNECT;
+        }
+        double roll = mRandom.nextDouble();
+        if (roll < mTimeoutRate) {
+            mInjectedErrorCount++;
+            return null;
+        } else if (roll < mTimeoutRate + mNoDataRate) {
+            mInjectedErrorCount++;
+            return NO_DATA;
+        } else if (roll < mTimeoutRate + mNoDataRate + mUnknownRate) {
+            mInjectedErrorCount++;
+            return UNKNOWN;
+        }
+
+        String prefix = "";
+        if (mSearching) {
+            // The first request after AT SP 0 makes the adapter look for the protocol
+            prefix = "SEARCHING...\r";
+            mSearching = false;
+        }
+        int mode = Integer.parseInt(command.substring(0, 2), 16);
+        List<Integer> data = new ArrayList<>();
+        data.add(mode + 0x40);
+        switch (mode) {
+            case 0x01:
+                if (command.length() < 4 || command.length() > 14) {
+                    return UNKNOWN;
+                }
+                for (int i = 2; i < command.length(); i += 2) {
+                    addPid(data, Integer.parseInt(command.substring(i, i + 2), 16));
+                }
+                if (data.size() == 1) {
+                    return prefix + NO_DATA;
+                }
+                break;
+            case 0x03:
+                addTroubleCodes(data, mTroubleCodes);
+                break;
+            case 0x04:
+                mTroubleCodes.clear();
+                mPendingTroubleCodes.clear();
+                break;
+            case 0x07:
+                addTroubleCodes(data, mPendingTroubleCodes);
+                break;
+            default:
+                return prefix + NO_DATA;
+        }
+        return prefix + format(data);
+    }
+
+    private static void addTroubleCodes(List<Integer> data, List<String> codes) {
+        data.add(codes.size());
+        for (String code : codes) {
+            int value = encodeTroubleCode(code);
+            data.add(value >> 8);
+            data.add(value & 0xFF);
+        }
+    }
+
+    private void addPid(List<Integer> data, int code) {
+        if (code % 0x20 == 0) {
+            // A bitmap of which of the next 32 PIDs are supported
+            long bits = 0;
+            for (Pid pid : Pid.values()) {
+                int offset = pid.getCode() - code;
+                if (mVehicle.isSupported(pid) && offset >= 1 && offset <= 32) {
+                    bits |= 1L << (32 - offset);
+                }
+            }
+            // Say that the next range has PIDs too, if it does
+            for (Pid pid : Pid.values()) {
+                if (mVehicle.isSupported(pid) && pid.getCode() > code + 0x20) {
+                    bits |= 1;
+                }
+            }
+            data.add(code);
+            data.add((int) (bits >> 24) & 0xFF);
+            data.add((int) (bits >> 16) & 0xFF);
+            data.add((int) (bits >> 8) & 0xFF);
+            data.add((int) bits & 0xFF);
+            return;
+        }
+        if (code == 0x01) {
+            // Monitor status: the MIL and the number of stored codes, then the readiness tests
+            int codeCount = Math.min(mTroubleCodes.size(), 0x7F);
+            data.add(code);
+            data.add((codeCount > 0 ? 0x80 : 0) | codeCount);
+            data.add(0x07);
+            data.add(0xE5);
+            data.add(0x00);
+            return;
+        }
+        Pid pid = Pid.fromCode(code);
+        if (pid == null || !mVehicle.isSupported(pid)) {
+            return;
+        }
+        long elapsed = (System.nanoTime() - mStartTime) / NANOS_PER_MILLI;
+        int raw = pid.encode(mVehicle.getValue(pid, elapsed));
+        data.add(code);
+        if (pid.getByteCount() == 2) {
+            data.add(raw >> 8);
+        }
+        data.add(raw & 0xFF);
+    }
+
+    /**
+     * Formats the data bytes of a response the way a CAN vehicle sends them: on one line if they
+     * fit in a single frame, otherwise as numbered frames after the total byte count.
+     */
+    private String format(List<Integer> data) {
+        StringBuilder sb = new StringBuilder();
+        if (data.size() <= 7) {
+            if (mHeaders) {
+                appendByte(sb.append("7E8"), data.size());
+            }
+            for (int b : data) {
+                appendByte(sb, b);
+            }
+            return sb.toString().trim();
+        }
+        sb.append(String.format("%03X", data.size()));
+        int frame = 0;
+        int i = 0;
+        while (i < data.size()) {
+            sb.append('\r').append(Integer.toHexString(frame % 16).toUpperCase(Locale.US))
+                    .append(':');
+            int end = Math.min(data.size(), i + (frame == 0 ? 6 : 7));
+            for (; i < end; i++) {
+                appendByte(sb, data.get(i));
+            }
+            frame++;
+        }
+        return sb.toString();
+    }
+
+    private void appendByte(StringBuilder sb, int b) {
+        if (mSpaces) {
+            sb.append(' ');
+        }
+        sb.append(String.format("%02X", b & 0xFF));
+    }
+
+    private long pickLatency(String command) {
+        int best = -1;
+        for (int i = 0; i < mLatencyPrefixes.size(); i++) {
+            String prefix = mLatencyPrefixes.get(i);
+            if (command.startsWith(prefix)
+                    && (best < 0 || prefix.length() > mLatencyPrefixes.get(best).length())) {
+                best = i;
+            }
+        }
+        if (best < 0) {
+            return 0;
+        }
+        long[] latency = mLatencies.get(best);
+        long jitter = latency[1] > 0 ? (long) ((mRandom.nextDouble() * 2 - 1) * latency[1]) : 0;
+        return Math.max(0, latency[0] + jitter);
+    }
+
+    private void append(byte[] bytes) {
+        if (mPendingEnd + bytes.length > mPending.length) {
+            // Compact first, and only grow if that isn't enough
+            int length = mPendingEnd - mPendingStart;
+            byte[] target = length + bytes.length > mPending.length
+                    ? new byte[Math.max(mPending.length * 2, length + bytes.length)] : mPending;
+            System.arraycopy(mPending, mPendingStart, target, 0, length);
+            mPending = target;
+            mPendingStart = 0;
+            mPendingEnd = length;
+        }
+        System.arraycopy(bytes, 0, mPending, mPendingEnd, bytes.length);
+        mPendingEnd += bytes.length;
+    }
+
+    /**
+     * Blocks until there is something to read, or the emulator is closed.
+     *
+     * @return the number of bytes that can be read, or -1 if closed
+     */
+    private synchronized int awaitReadable() throws IOException {
+        while (true) {
+            if (mClosed) {
+                return -1;
+            }
+            if (mPendingEnd > mPendingStart) {
+                long wait = mReadyAt - System.nanoTime();
+                if (wait <= 0) {
+                    return mPendingEnd - mPendingStart;
+                }
+                waitNanos(wait);
+            } else {
+                waitNanos(0);
+            }
+        }
+    }
+
+    private void waitNanos(long nanos) throws IOException {
+        try {
+            if (nanos <= 0) {
+                wait();
+            } else {
+                wait(nanos / NANOS_PER_MILLI, (int) (nanos % NANOS_PER_MILLI));
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static boolean isHex(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.digit(s.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param code a trouble code such as "P0133"
+     * @return the two bytes that the vehicle sends for it
+     */
+    static int encodeTroubleCode(String code) {
+        int system = "PCBU".indexOf(Character.toUpperCase(code.charAt(0)));
+        return (Math.max(system, 0) << 14) | (Integer.parseInt(code.substring(1), 16) & 0x3FFF);
+    }
+
+    private class EmulatorInputStream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            synchronized (Elm327Emulator.this) {
+                if (awaitReadable() < 0) {
+                    return -1;
+                }
+                return mPending[mPendingStart++] & 0xFF;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            synchronized (Elm327Emulator.this) {
+                int available = awaitReadable();
+                if (available < 0) {
+                    return -1;
+                }
+                int n = Math.min(available, length);
+                System.arraycopy(mPending, mPendingStart, buffer, offset, n);
+                mPendingStart += n;
+                return n;
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            synchronized (Elm327Emulator.this) {
+                if (mClosed) {
+                    throw new IOException("The emulator is closed");
+                }
+                if (mPendingEnd > mPendingStart && System.nanoTime() >= mReadyAt) {
+                    return mPendingEnd - mPendingStart;
+                }
+                return 0;
+            }
+        }
+
+        @Override
+        public void close() {
+            Elm327Emulator.this.close();
+        }
+    }
+
+    private class EmulatorOutputStream extends OutputStream {
+
+        @Override
+        public void write(int b) throws IOException {
+            synchronized (Elm327Emulator.this) {
+                if (mClosed) {
+                    throw new IOException("The emulator is closed");
+                }
+                onByte(b);
+            }
+        }
+
+        @Override
+        public void close() {
+            Elm327Emulator.this.close();
+        }
+    }
+}
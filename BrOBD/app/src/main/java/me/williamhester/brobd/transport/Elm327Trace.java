@@ -0,0 +1,135 @@
+package me.williamhester.brobd.transport;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A recording of the commands sent to an adapter, what it answered and how long that took. A
+ * trace is recorded from a real adapter with a {@link RecordingTransport} and replayed by an
+ * {@link Elm327Emulator}.
+ *
+ * Traces are saved as text, one exchange per line: the latency in milliseconds, the command and
+ * the response, separated by tabs, with the carriage returns in the response written as "\r".
+ *
+ * @author William Hester
+ */
+public class Elm327Trace {
+
+    private final List<Entry> mEntries = new ArrayList<>();
+    private int mPosition;
+
+    /**
+     * Adds an exchange to the end of the trace.
+     *
+     * @param command the command, as it was sent
+     * @param response the response, without the echo or the prompt
+     * @param latency how long the response took, in milliseconds
+     */
+    public synchronized void add(String command, String response, long latency) {
+        mEntries.add(new Entry(normalize(command), response, latency));
+    }
+
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(mEntries));
+    }
+
+    /**
+     * Finds the next recorded answer to a command, continuing from the last one that was
+     * replayed and wrapping around at the end, so that traces loop.
+     *
+     * @param command the command, without spaces and in upper case
+     * @return the exchange, or null if the command was never recorded
+     */
+    synchronized Entry next(String command) {
+        int size = mEntries.size();
+        for (int n = 0; n < size; n++) {
+            int i = (mPosition + n) % size;
+            if (mEntries.get(i).mCommand.equals(command)) {
+                mPosition = i + 1;
+                return mEntries.get(i);
+            }
+        }
+        return null;
+    }
+
+    synchronized void rewind() {
+        mPosition = 0;
+    }
+
+    /**
+     * Saves the trace in its text form.
+     */
+    public synchronized void write(Writer writer) throws IOException {
+        for (Entry entry : mEntries) {
+            writer.write(entry.mLatency + "\t" + entry.mCommand + "\t"
+                    + entry.mResponse.replace("\r", "\\r") + "\n");
+        }
+        writer.flush();
+    }
+
+    /**
+     * Loads a trace that was saved with {@link #write(Writer)}. Blank lines and lines starting
+     * with # are skipped.
+     */
+    public static Elm327Trace read(Reader reader) throws IOException {
+        Elm327Trace trace = new Elm327Trace();
+        BufferedReader lines = new BufferedReader(reader);
+        String line;
+        while ((line = lines.readLine()) != null) {
+            if (line.trim().isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\t", 3);
+            if (parts.length < 3) {
+                throw new IOException("Malformed trace line: " + line);
+            }
+            try {
+                trace.add(parts[1], parts[2].replace("\\r", "\r"), Long.parseLong(parts[0]));
+            } catch (NumberFormatException e) {
+                throw new IOException("Malformed latency: " + line);
+            }
+        }
+        return trace;
+    }
+
+    private static String normalize(String command) {
+        return command.replace(" ", "").trim().toUpperCase(Locale.US);
+    }
+
+    /**
+     * One command and its answer.
+     */
+    public static class Entry {
+
+        private final String mCommand;
+        private final String mResponse;
+        private final long mLatency;
+
+        Entry(String command, String response, long latency) {
+            mCommand = command;
+            mResponse = response;
+            mLatency = latency;
+        }
+
+        public String getCommand() {
+            return mCommand;
+        }
+
+        public String getResponse() {
+            return mResponse;
+        }
+
+        /**
+         * @return how long the response took, in milliseconds
+         */
+        public long getLatency() {
+            return mLatency;
+        }
+    }
+}
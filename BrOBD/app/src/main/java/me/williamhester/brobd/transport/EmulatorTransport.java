@@ -0,0 +1,47 @@
+package me.williamhester.brobd.transport;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Connects to an in-process {@link Elm327Emulator} instead of a real adapter.
+ *
+ * @author William Hester
+ */
+public class EmulatorTransport implements ObdTransport {
+
+    public static final String ADDRESS = "emulator";
+
+    private final Elm327Emulator mEmulator;
+
+    public EmulatorTransport(Elm327Emulator emulator) {
+        mEmulator = emulator;
+    }
+
+    @Override
+    public void connect() { }
+
+    @Override
+    public InputStream getInputStream() {
+        return mEmulator.getInputStream();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mEmulator.getOutputStream();
+    }
+
+    @Override
+    public void close() {
+        mEmulator.close();
+    }
+
+    @Override
+    public String getAddress() {
+        return ADDRESS;
+    }
+
+    public Elm327Emulator getEmulator() {
+        return mEmulator;
+    }
+}
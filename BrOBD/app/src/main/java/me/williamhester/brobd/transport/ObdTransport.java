@@ -0,0 +1,43 @@
+package me.williamhester.brobd.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A connection to an ELM327 compatible adapter. The logging code only ever talks to the adapter
+ * through the two streams, so it doesn't care whether they belong to a bluetooth socket or to an
+ * emulator.
+ *
+ * @author William Hester
+ */
+public interface ObdTransport {
+
+    /**
+     * Opens the connection. This may block for a while.
+     *
+     * @throws IOException if the adapter couldn't be reached
+     */
+    void connect() throws IOException;
+
+    /**
+     * @return the stream that the adapter's responses are read from; only valid once connected
+     */
+    InputStream getInputStream() throws IOException;
+
+    /**
+     * @return the stream that commands are written to; only valid once connected
+     */
+    OutputStream getOutputStream() throws IOException;
+
+    /**
+     * Closes the connection. Anything blocked on one of the streams fails.
+     */
+    void close() throws IOException;
+
+    /**
+     * @return something that identifies the adapter across connections, such as its bluetooth
+     *     address
+     */
+    String getAddress();
+}
@@ -0,0 +1,136 @@
+package me.williamhester.brobd.transport;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Passes everything through to another transport while recording every exchange into an
+ * {@link Elm327Trace}, so that a drive with a real adapter can be replayed by the emulator later.
+ *
+ * @author William Hester
+ */
+public class RecordingTransport implements ObdTransport {
+
+    private final ObdTransport mTransport;
+    private final Elm327Trace mTrace;
+    private final StringBuilder mCommand = new StringBuilder();
+    private final StringBuilder mResponse = new StringBuilder();
+    private String mLastCommand;
+    private long mSentAt;
+    private InputStream mIn;
+    private OutputStream mOut;
+
+    public RecordingTransport(ObdTransport transport, Elm327Trace trace) {
+        mTransport = transport;
+        mTrace = trace;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        mTransport.connect();
+        mIn = new RecordingInputStream(mTransport.getInputStream());
+        mOut = new RecordingOutputStream(mTransport.getOutputStream());
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return mIn;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return mOut;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mTransport.close();
+    }
+
+    @Override
+    public String getAddress() {
+        return mTransport.getAddress();
+    }
+
+    public Elm327Trace getTrace() {
+        return mTrace;
+    }
+
+    private synchronized void onSent(int b) {
+        if (b == '\r') {
+            mLastCommand = mCommand.toString();
+            mCommand.setLength(0);
+            mResponse.setLength(0);
+            mSentAt = System.nanoTime();
+        } else {
+            mCommand.append((char) b);
+        }
+    }
+
+    private synchronized void onReceived(int b) {
+        if (b != '>') {
+            mResponse.append((char) b);
+            return;
+        }
+        if (mLastCommand == null) {
+            return;
+        }
+        String response = mResponse.toString().replace("\n", "");
+        // Leave out the echo, if the adapter still has it on
+        if (response.startsWith(mLastCommand + "\r")) {
+            response = response.substring(mLastCommand.length() + 1);
+        }
+        mTrace.add(mLastCommand, response.trim(), (System.nanoTime() - mSentAt) / 1000000L);
+        mLastCommand = null;
+        mResponse.setLength(0);
+    }
+
+    private class RecordingInputStream extends FilterInputStream {
+
+        RecordingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                onReceived(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            for (int i = 0; i < n; i++) {
+                onReceived(buffer[offset + i] & 0xFF);
+            }
+            return n;
+        }
+    }
+
+    private class RecordingOutputStream extends FilterOutputStream {
+
+        RecordingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            super.write(b);
+            onSent(b);
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            for (int i = 0; i < length; i++) {
+                onSent(buffer[offset + i] & 0xFF);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package me.williamhester.brobd.transport;
+
+import me.williamhester.brobd.obd.FuelType;
+import me.williamhester.brobd.obd.Pid;
+
+/**
+ * A made up car for the {@link Elm327Emulator} to report on. It repeats a two minute drive cycle
+ * forever: it speeds up to 100 km/h, cruises, brakes to a stop and idles. Every value is a pure
+ * function of the time since the vehicle was created, so runs are reproducible.
+ *
+ * @author William Hester
+ */
+public class SimulatedVehicle {
+
+    public static final long CYCLE_LENGTH = 120000L;
+
+    private final boolean[] mSupported = new boolean[Pid.values().length];
+
+    /**
+     * Creates a vehicle that supports every {@link Pid}.
+     */
+    public SimulatedVehicle() {
+        for (int i = 0; i < mSupported.length; i++) {
+            mSupported[i] = true;
+        }
+    }
+
+    public void setSupported(Pid pid, boolean supported) {
+        mSupported[pid.ordinal()] = supported;
+    }
+
+    public boolean isSupported(Pid pid) {
+        return mSupported[pid.ordinal()];
+    }
+
+    /**
+     * @param pid the PID to read
+     * @param elapsed the time since the vehicle started, in milliseconds
+     * @return the value of the PID at that time, in the units of {@link Pid#decode(int, int)}
+     */
+    public float getValue(Pid pid, long elapsed) {
+        float t = (elapsed % CYCLE_LENGTH) / 1000f;
+        float speed = getSpeed(t);
+        float throttle = t < 20 ? 45 : t < 80 ? 18 : 0;
+        float rpm = speed == 0 ? 750 : 1100 + (speed % 30) * 60;
+        switch (pid) {
+            case RPM:
+                return rpm;
+            case SPEED:
+                return speed;
+            case THROTTLE:
+                return throttle;
+            case ENGINE_LOAD:
+                return Math.min(100, 15 + throttle * 1.5f);
+            case MAF:
+                return rpm * (15 + throttle) / 4000f;
+            case FUEL_RATE:
+                // Roughly what the MAF implies for gasoline
+                return rpm * (15 + throttle) / 4000f * 3600 / 14.7f / 737;
+            case FUEL_TYPE:
+                return FuelType.GASOLINE_CODE;
+            case COOLANT_TEMP:
+                return Math.min(90, 40 + elapsed / 6000f);
+            case INTAKE_TEMP:
+                return 25;
+            case FUEL_LEVEL:
+                return Math.max(5, 75 - elapsed / 600000f);
+            default:
+                return 0;
+        }
+    }
+
+    private static float getSpeed(float t) {
+        if (t < 20) {
+            return t * 5;
+        } else if (t < 80) {
+            return 100 + 3 * (float) Math.sin(t / 5);
+        } else if (t < 100) {
+            return (100 - t) * 5;
+        }
+        return 0;
+    }
+}
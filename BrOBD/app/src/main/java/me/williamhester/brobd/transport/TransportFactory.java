@@ -0,0 +1,30 @@
+package me.williamhester.brobd.transport;
+
+import android.content.Context;
+
+import me.williamhester.brobd.singletons.DebugManager;
+
+/**
+ * Creates the transport for the adapter that the user picked. Debug builds talk to an
+ * {@link Elm327Emulator} instead, with latencies like those of a typical bluetooth adapter, so
+ * that the whole logging path can be exercised without a car.
+ *
+ * @author William Hester
+ */
+public class TransportFactory {
+
+    private static final long EMULATOR_SEED = 0;
+
+    public static ObdTransport create(Context context) {
+        if (DebugManager.DEBUG) {
+            Elm327Emulator emulator = new Elm327Emulator(new SimulatedVehicle(), EMULATOR_SEED);
+            emulator.setLatency("AT", 5, 2);
+            emulator.setLatency("01", 40, 15);
+            emulator.setSearchLatency(3000);
+            return new EmulatorTransport(emulator);
+        }
+        String address = context.getSharedPreferences("prefs", Context.MODE_PRIVATE)
+                .getString("bluetooth_address", null);
+        return new BluetoothTransport(address);
+    }
+}
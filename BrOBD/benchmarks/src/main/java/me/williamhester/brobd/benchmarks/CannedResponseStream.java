@@ -0,0 +1,45 @@
+package me.williamhester.brobd.benchmarks;
+
+import java.io.InputStream;
+
+/**
+ * An InputStream that answers every read with the same adapter response, over and over, so that
+ * parsing can be measured without an emulator or a socket in the way. Each response should end
+ * with the ELM327's '>' prompt.
+ *
+ * @author William Hester
+ */
+class CannedResponseStream extends InputStream {
+
+    private final byte[] mResponse;
+    private int mPosition;
+
+    /**
+     * @param response the raw response, including the prompt
+     */
+    CannedResponseStream(String response) {
+        mResponse = response.getBytes();
+    }
+
+    @Override
+    public int read() {
+        int b = mResponse[mPosition++];
+        if (mPosition == mResponse.length) {
+            mPosition = 0;
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int n = Math.min(length, mResponse.length - mPosition);
+        System.arraycopy(mResponse, mPosition, buffer, offset, n);
+        mPosition = (mPosition + n) % mResponse.length;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return mResponse.length - mPosition;
+    }
+}
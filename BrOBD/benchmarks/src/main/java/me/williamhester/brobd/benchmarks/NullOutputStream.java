@@ -0,0 +1,17 @@
+package me.williamhester.brobd.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * Throws away every request, so that only the response side is measured.
+ *
+ * @author William Hester
+ */
+class NullOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) { }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) { }
+}
@@ -0,0 +1,152 @@
+package me.williamhester.brobd.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.obd.PidPoller;
+import me.williamhester.obd.ObdConfig;
+import me.williamhester.obd.commands.SpeedObdCommand;
+import me.williamhester.obd.commands.engine.EngineRPMObdCommand;
+import me.williamhester.obd.commands.engine.ThrottlePositionObdCommand;
+import me.williamhester.obd.commands.fuel.FuelConsumptionRateObdCommand;
+
+/**
+ * Measures how long it takes to turn an ELM327 response into a value. The obd-java-api commands
+ * are what the app started out with: one command object per request, and a response that goes
+ * through several Strings and a list of boxed Integers. The {@link PidPoller} reads the same
+ * responses into preallocated buffers, and can ask for several PIDs in one request.
+ *
+ * @author William Hester
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ResponseParsingBenchmark {
+
+    private static final String RPM_RESPONSE = "41 0C 1A F8\r\r>";
+    private static final String SPEED_RESPONSE = "41 0D 3C\r\r>";
+    private static final String THROTTLE_RESPONSE = "41 11 4D\r\r>";
+    private static final String FUEL_RATE_RESPONSE = "41 5E 01 F4\r\r>";
+    private static final String BATCH_RESPONSE = "41 0C 1A F8 0D 3C 11 4D 5E 01 F4\r\r>";
+
+    private final OutputStream mOut = new NullOutputStream();
+
+    private CannedResponseStream mRpmIn;
+    private CannedResponseStream mSpeedIn;
+    private CannedResponseStream mThrottleIn;
+    private CannedResponseStream mFuelRateIn;
+    private CannedResponseStream mBatchIn;
+
+    private PidPoller mRpmPoller;
+    private PidPoller mSpeedPoller;
+    private PidPoller mThrottlePoller;
+    private PidPoller mFuelRatePoller;
+    private PidPoller mBatchPoller;
+
+    @Setup
+    public void setUp() {
+        // The commands sleep for this long after every request
+        ObdConfig.setDelay(0);
+
+        mRpmIn = new CannedResponseStream(RPM_RESPONSE);
+        mSpeedIn = new CannedResponseStream(SPEED_RESPONSE);
+        mThrottleIn = new CannedResponseStream(THROTTLE_RESPONSE);
+        mFuelRateIn = new CannedResponseStream(FUEL_RATE_RESPONSE);
+        mBatchIn = new CannedResponseStream(BATCH_RESPONSE);
+
+        mRpmPoller = new PidPoller(Collections.singletonList(Pid.RPM));
+        mSpeedPoller = new PidPoller(Collections.singletonList(Pid.SPEED));
+        mThrottlePoller = new PidPoller(Collections.singletonList(Pid.THROTTLE));
+        mFuelRatePoller = new PidPoller(Collections.singletonList(Pid.FUEL_RATE));
+        mBatchPoller = new PidPoller(Arrays.asList(Pid.RPM, Pid.SPEED, Pid.THROTTLE,
+                Pid.FUEL_RATE));
+    }
+
+    @Benchmark
+    public int commandRpm() throws IOException, InterruptedException {
+        EngineRPMObdCommand command = new EngineRPMObdCommand();
+        command.run(mRpmIn, mOut);
+        return command.getRPM();
+    }
+
+    @Benchmark
+    public int commandSpeed() throws IOException, InterruptedException {
+        SpeedObdCommand command = new SpeedObdCommand();
+        command.run(mSpeedIn, mOut);
+        return command.getMetricSpeed();
+    }
+
+    @Benchmark
+    public float commandThrottle() throws IOException, InterruptedException {
+        ThrottlePositionObdCommand command = new ThrottlePositionObdCommand();
+        command.run(mThrottleIn, mOut);
+        return command.getPercentage();
+    }
+
+    @Benchmark
+    public float commandFuelRate() throws IOException, InterruptedException {
+        FuelConsumptionRateObdCommand command = new FuelConsumptionRateObdCommand();
+        command.run(mFuelRateIn, mOut);
+        return command.getLitersPerHour();
+    }
+
+    /**
+     * The four commands above, one after the other, which is what a poll of all four costs.
+     */
+    @Benchmark
+    public float commandAllFour() throws IOException, InterruptedException {
+        return commandRpm() + commandSpeed() + commandThrottle() + commandFuelRate();
+    }
+
+    @Benchmark
+    public float pollerRpm() throws IOException {
+        mRpmPoller.poll(mRpmIn, mOut);
+        return mRpmPoller.getValue(Pid.RPM);
+    }
+
+    @Benchmark
+    public float pollerSpeed() throws IOException {
+        mSpeedPoller.poll(mSpeedIn, mOut);
+        return mSpeedPoller.getValue(Pid.SPEED);
+    }
+
+    @Benchmark
+    public float pollerThrottle() throws IOException {
+        mThrottlePoller.poll(mThrottleIn, mOut);
+        return mThrottlePoller.getValue(Pid.THROTTLE);
+    }
+
+    @Benchmark
+    public float pollerFuelRate() throws IOException {
+        mFuelRatePoller.poll(mFuelRateIn, mOut);
+        return mFuelRatePoller.getValue(Pid.FUEL_RATE);
+    }
+
+    /**
+     * All four PIDs in a single request and response.
+     */
+    @Benchmark
+    public float pollerBatch() throws IOException {
+        mBatchPoller.poll(mBatchIn, mOut);
+        return mBatchPoller.getValue(Pid.RPM) + mBatchPoller.getValue(Pid.SPEED)
+                + mBatchPoller.getValue(Pid.THROTTLE) + mBatchPoller.getValue(Pid.FUEL_RATE);
+    }
+}
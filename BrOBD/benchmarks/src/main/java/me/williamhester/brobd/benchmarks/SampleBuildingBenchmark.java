@@ -0,0 +1,166 @@
+package me.williamhester.brobd.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.storage.DriveLog;
+import me.williamhester.brobd.storage.SampleRingBuffer;
+import me.williamhester.brobd.transport.SimulatedVehicle;
+
+/**
+ * Measures the cost of getting one polled sample from the logging thread to the thread that
+ * writes DataPoints. The allocating version builds a new object per sample, the way the logging
+ * loop used to build a DataPoint for every reading. The ring buffer version is what the app does
+ * now: the collector offers a row of floats and the persister polls it into a reused row and
+ * carries over whatever wasn't part of the sample. The logged version also appends each sample to
+ * a memory-mapped DriveLog on the way, which is what the collector does to survive being killed.
+ *
+ * @author William Hester
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SampleBuildingBenchmark {
+
+    private static final int SAMPLE_COUNT = 1024;
+    private static final float KPH_TO_MPH = 0.621371192f;
+    private static final long MAX_LOG_RECORDS = 1 << 20;
+
+    private final float[][] mSamples = new float[SAMPLE_COUNT][];
+    private final long[] mTimestamps = new long[SAMPLE_COUNT];
+    private final float[] mPolled = new float[Pid.values().length];
+    private SampleRingBuffer mBuffer;
+    private File mLogFile;
+    private DriveLog mLog;
+    private final int[] mCodes = new int[Pid.values().length];
+    private int mNext;
+
+    private int mRpm;
+    private int mSpeed;
+    private float mThrottle;
+
+    @Setup
+    public void setUp() throws IOException {
+        // A second of the simulated drive cycle at 10 Hz per sample, RPM in every one and the
+        // slower PIDs in some of them, like the scheduler would produce.
+        SimulatedVehicle vehicle = new SimulatedVehicle();
+        for (int i = 0; i < SAMPLE_COUNT; i++) {
+            long elapsed = i * 100L;
+            float[] sample = new float[Pid.values().length];
+            SampleRingBuffer.clear(sample);
+            sample[Pid.RPM.ordinal()] = vehicle.getValue(Pid.RPM, elapsed);
+            sample[Pid.THROTTLE.ordinal()] = vehicle.getValue(Pid.THROTTLE, elapsed);
+            if (i % 2 == 0) {
+                sample[Pid.SPEED.ordinal()] = vehicle.getValue(Pid.SPEED, elapsed);
+            }
+            mSamples[i] = sample;
+            mTimestamps[i] = elapsed;
+        }
+        mBuffer = new SampleRingBuffer(256, Pid.values().length,
+                SampleRingBuffer.OverflowPolicy.DROP_OLDEST);
+
+        for (Pid pid : Pid.values()) {
+            mCodes[pid.ordinal()] = pid.getCode();
+        }
+        mLogFile = File.createTempFile("benchmark", ".log");
+        mLog = new DriveLog(mLogFile, 0, "Benchmark", mCodes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mLog.close();
+        mLogFile.delete();
+    }
+
+    @Benchmark
+    public Object allocatingSample() {
+        int i = next();
+        float[] sample = mSamples[i];
+        carryOver(sample);
+        return new Sample(new Date(mTimestamps[i]), mRpm, mSpeed, mThrottle);
+    }
+
+    @Benchmark
+    public long ringBufferSample() {
+        int i = next();
+        mBuffer.offer(mTimestamps[i], mSamples[i]);
+        long timestamp = mBuffer.poll(mPolled);
+        carryOver(mPolled);
+        return timestamp + mRpm + mSpeed;
+    }
+
+    @Benchmark
+    public long loggedRingBufferSample() throws IOException {
+        int i = next();
+        if (mLog.getRecordCount() == MAX_LOG_RECORDS) {
+            // Start over now and then, rather than fill the disk
+            mLog.close();
+            mLog = new DriveLog(mLogFile, 0, "Benchmark", mCodes);
+        }
+        mBuffer.offer(mTimestamps[i], mSamples[i]);
+        mLog.append(mTimestamps[i], mSamples[i]);
+        long timestamp = mBuffer.poll(mPolled);
+        carryOver(mPolled);
+        return timestamp + mRpm + mSpeed;
+    }
+
+    private int next() {
+        int i = mNext;
+        mNext = (mNext + 1) % SAMPLE_COUNT;
+        return i;
+    }
+
+    /**
+     * The same as SampleImporter#addDataPoint.
+     */
+    private void carryOver(float[] sample) {
+        float rpm = sample[Pid.RPM.ordinal()];
+        float speed = sample[Pid.SPEED.ordinal()];
+        float throttle = sample[Pid.THROTTLE.ordinal()];
+        if (!Float.isNaN(rpm)) {
+            mRpm = Math.round(rpm);
+        }
+        if (!Float.isNaN(speed)) {
+            mSpeed = Math.round(speed * KPH_TO_MPH);
+        }
+        if (!Float.isNaN(throttle)) {
+            mThrottle = throttle;
+        }
+    }
+
+    /**
+     * The fields of a DataPoint, without the Realm.
+     */
+    private static class Sample {
+
+        private final Date mDate;
+        private final int mRpm;
+        private final int mSpeed;
+        private final float mThrottle;
+
+        Sample(Date date, int rpm, int speed, float throttle) {
+            mDate = date;
+            mRpm = rpm;
+            mSpeed = speed;
+            mThrottle = throttle;
+        }
+    }
+}
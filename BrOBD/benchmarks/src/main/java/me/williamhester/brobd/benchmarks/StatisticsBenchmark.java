@@ -0,0 +1,126 @@
+package me.williamhester.brobd.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.stats.DriveAggregator;
+import me.williamhester.brobd.stats.WindowedSeries;
+import me.williamhester.brobd.transport.SimulatedVehicle;
+
+/**
+ * Measures what it costs to update the drive statistics for one new DataPoint. The statistics
+ * screen used to go over every DataPoint of the session to find the maxima and averages, so the
+ * cost grew with the length of the drive; {@link DriveAggregator} updates them in constant time.
+ * The window benchmark is the live graph's minimum and maximum over its last points.
+ *
+ * @author William Hester
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StatisticsBenchmark {
+
+    private static final float KPH_TO_MPH = 0.621371192f;
+
+    /**
+     * How many DataPoints the session already has, at one a second.
+     */
+    @Param({"600", "3600", "36000"})
+    public int history;
+
+    private long[] mDates;
+    private int[] mSpeeds;
+    private int[] mRpms;
+    private float[] mThrottles;
+    private DriveAggregator mAggregator;
+    private WindowedSeries mWindow;
+    private int mNext;
+
+    @Setup
+    public void setUp() {
+        SimulatedVehicle vehicle = new SimulatedVehicle();
+        mDates = new long[history];
+        mSpeeds = new int[history];
+        mRpms = new int[history];
+        mThrottles = new float[history];
+        for (int i = 0; i < history; i++) {
+            long elapsed = i * 1000L;
+            mDates[i] = elapsed;
+            mSpeeds[i] = Math.round(vehicle.getValue(Pid.SPEED, elapsed) * KPH_TO_MPH);
+            mRpms[i] = Math.round(vehicle.getValue(Pid.RPM, elapsed));
+            mThrottles[i] = vehicle.getValue(Pid.THROTTLE, elapsed);
+        }
+        mAggregator = new DriveAggregator();
+        for (int i = 0; i < history; i++) {
+            mAggregator.add(mDates[i], mSpeeds[i], mRpms[i], mThrottles[i]);
+        }
+        mWindow = new WindowedSeries(101);
+    }
+
+    /**
+     * One more point folded into the running statistics.
+     */
+    @Benchmark
+    public double aggregatorAdd() {
+        int i = next();
+        // Keep the dates increasing, or the aggregator would ignore the point
+        long date = mDates[history - 1] + (mAggregator.getCount() + 1) * 1000L;
+        mAggregator.add(date, mSpeeds[i], mRpms[i], mThrottles[i]);
+        return mAggregator.getSpeed().getMean() + mAggregator.getRpm().getMax();
+    }
+
+    /**
+     * Every statistic recomputed from the whole session, the way the screen used to.
+     */
+    @Benchmark
+    public double recomputeFromHistory() {
+        int maxSpeed = 0;
+        int maxRpm = 0;
+        float maxThrottle = 0;
+        long speedSum = 0;
+        long rpmSum = 0;
+        double throttleSum = 0;
+        double distance = 0;
+        for (int i = 0; i < history; i++) {
+            maxSpeed = Math.max(maxSpeed, mSpeeds[i]);
+            maxRpm = Math.max(maxRpm, mRpms[i]);
+            maxThrottle = Math.max(maxThrottle, mThrottles[i]);
+            speedSum += mSpeeds[i];
+            rpmSum += mRpms[i];
+            throttleSum += mThrottles[i];
+            if (i > 0) {
+                distance += (mDates[i] - mDates[i - 1]) * (mSpeeds[i] + mSpeeds[i - 1]) / 2.0
+                        / 3600000.0;
+            }
+        }
+        return maxSpeed + maxRpm + maxThrottle + (double) speedSum / history
+                + (double) rpmSum / history + throttleSum / history + distance;
+    }
+
+    @Benchmark
+    public float windowAdd() {
+        mWindow.add(mSpeeds[next()]);
+        return mWindow.getMax() - mWindow.getMin();
+    }
+
+    private int next() {
+        int i = mNext;
+        mNext = (mNext + 1) % history;
+        return i;
+    }
+}
@@ -0,0 +1,77 @@
+package me.williamhester.brobd.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import me.williamhester.brobd.obd.Pid;
+import me.williamhester.brobd.storage.SeriesDecoder;
+import me.williamhester.brobd.storage.SeriesEncoder;
+import me.williamhester.brobd.transport.SimulatedVehicle;
+
+/**
+ * Measures the compressed series encoding that samples are stored with, per sample. A whole chunk
+ * of RPM readings from the simulated drive is encoded and sealed, or decoded again, per
+ * invocation.
+ *
+ * @author William Hester
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class StorageEncoderBenchmark {
+
+    private static final int CHUNK_SIZE = SeriesEncoder.DEFAULT_CAPACITY;
+
+    private final long[] mTimestamps = new long[CHUNK_SIZE];
+    private final float[] mValues = new float[CHUNK_SIZE];
+    private final SeriesEncoder mEncoder = new SeriesEncoder(CHUNK_SIZE);
+    private final SeriesDecoder mDecoder = new SeriesDecoder();
+    private byte[] mChunk;
+
+    @Setup
+    public void setUp() {
+        // 10 Hz, with the jitter that a real adapter's response times put on the timestamps
+        SimulatedVehicle vehicle = new SimulatedVehicle();
+        long timestamp = 1430000000000L;
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            timestamp += 95 + (i * 7919) % 11;
+            mTimestamps[i] = timestamp;
+            mValues[i] = Math.round(vehicle.getValue(Pid.RPM, i * 100L) * 4) / 4f;
+        }
+        mChunk = encode();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public byte[] encode() {
+        for (int i = 0; i < CHUNK_SIZE; i++) {
+            mEncoder.append(mTimestamps[i], mValues[i]);
+        }
+        return mEncoder.seal();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK_SIZE)
+    public float decode() {
+        float sum = 0;
+        mDecoder.reset(mChunk);
+        while (mDecoder.next()) {
+            sum += mDecoder.getValue();
+        }
+        return sum;
+    }
+}